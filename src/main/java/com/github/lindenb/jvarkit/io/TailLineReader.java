@@ -0,0 +1,216 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the last lines of a plain text or a BGZF-compressed file without scanning the whole file.
+ * The file is read backward: for BGZF, the blocks are located from the end of the file (each
+ * block header contains the size of the block, so a candidate header is validated by the position of the following block),
+ * and only the last blocks are decompressed.
+ */
+public class TailLineReader implements Closeable
+	{
+	/** size of the chunks for the plain text files */
+	private static final int PLAIN_CHUNK_SIZE = 65536;
+	/** max size of a BGZF block */
+	private static final int MAX_BGZF_BLOCK_SIZE = 65536;
+	/** size of the BGZF header */
+	private static final int BGZF_HEADER_SIZE = 18;
+	/** size of the BGZF footer : CRC32 + ISIZE */
+	private static final int BGZF_FOOTER_SIZE = 8;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final boolean bgzf;
+	/** file offset of the first byte of the data decoded so far */
+	private long position;
+	/** decoded chunks, in file order */
+	private final Deque<byte[]> chunks = new ArrayDeque<>();
+	private long countNewLines = 0L;
+	private final Inflater inflater = new Inflater(true);
+
+	/** @return true if the file is a plain or a BGZF file (but not a 'simple' gzip file) */
+	public static boolean isSupported(final File file) {
+		if(file==null || !file.isFile() || !file.canRead()) return false;
+		try(final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			final byte header[]=new byte[BGZF_HEADER_SIZE];
+			final int n = in.read(header);
+			if(n<2 || !isGzipMagic(header,0)) return true;
+			return n==header.length && isBgzfHeader(header, 0);
+			}
+		catch(final IOException err) {
+			return false;
+			}
+		}
+
+	private static boolean isGzipMagic(final byte array[],final int i) {
+		return (array[i]&0xFF)==0x1f && (array[i+1]&0xFF)==0x8b;
+		}
+
+	private static boolean isBgzfHeader(final byte array[],final int i) {
+		return isGzipMagic(array, i) &&
+			array[i+2]==8 &&
+			array[i+3]==4 &&
+			array[i+10]==6 && array[i+11]==0 &&
+			array[i+12]=='B' && array[i+13]=='C' &&
+			array[i+14]==2 && array[i+15]==0
+			;
+		}
+
+	/** total size of the BGZF block starting at i */
+	private static int bgzfBlockSize(final byte array[],final int i) {
+		return ((array[i+16]&0xFF) | ((array[i+17]&0xFF)<<8)) + 1;
+		}
+
+	public TailLineReader(final File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		final byte magic[]=new byte[2];
+		this.bgzf = this.raf.read(magic)==2 && isGzipMagic(magic, 0);
+		this.position = this.raf.length();
+		}
+
+	/** read the previous chunk of the file. return false if the beginning of the file was reached */
+	private boolean stepBack() throws IOException {
+		if(this.position<=0L) return false;
+		final byte decoded[];
+		if(this.bgzf) {
+			decoded = previousBgzfBlock();
+			}
+		else
+			{
+			final long start = Math.max(0L, this.position - PLAIN_CHUNK_SIZE);
+			decoded = new byte[(int)(this.position-start)];
+			this.raf.seek(start);
+			this.raf.readFully(decoded);
+			this.position = start;
+			}
+		for(final byte b:decoded) if(b=='\n') this.countNewLines++;
+		this.chunks.addFirst(decoded);
+		return true;
+		}
+
+	/** locate and decode the BGZF block ending at 'position' */
+	private byte[] previousBgzfBlock() throws IOException {
+		final long windowStart = Math.max(0L,this.position - MAX_BGZF_BLOCK_SIZE);
+		final byte window[]=new byte[(int)(this.position-windowStart)];
+		this.raf.seek(windowStart);
+		this.raf.readFully(window);
+		for(int i = window.length - (BGZF_HEADER_SIZE + BGZF_FOOTER_SIZE);i>=0;--i) {
+			if(!isBgzfHeader(window, i)) continue;
+			final int blockSize = bgzfBlockSize(window, i);
+			/* the next block must start at 'position' */
+			if(i + blockSize != window.length) continue;
+			final int isize =
+				(window[window.length-4]&0xFF) |
+				((window[window.length-3]&0xFF)<<8) |
+				((window[window.length-2]&0xFF)<<16) |
+				((window[window.length-1]&0xFF)<<24);
+			final byte decoded[]=new byte[isize];
+			this.inflater.reset();
+			this.inflater.setInput(window, i+BGZF_HEADER_SIZE, blockSize-(BGZF_HEADER_SIZE+BGZF_FOOTER_SIZE));
+			try {
+				int n=0;
+				while(n< isize) {
+					final int count = this.inflater.inflate(decoded, n, isize-n);
+					if(count==0 && (this.inflater.finished() || this.inflater.needsInput())) break;
+					n+=count;
+					}
+				if(n!=isize) throw new IOException("cannot inflate BGZF block at "+(windowStart+i)+" in "+this.file);
+				}
+			catch(final DataFormatException err) {
+				throw new IOException(err);
+				}
+			this.position = windowStart + i;
+			return decoded;
+			}
+		throw new IOException("cannot find a BGZF block ending at "+this.position+" in "+this.file);
+		}
+
+	/** split the decoded data into lines. The first line is dropped if it is not complete */
+	private List<String> lines() {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for(final byte chunk[]:this.chunks) baos.write(chunk, 0, chunk.length);
+		final byte array[] = baos.toByteArray();
+		final List<String> L = new ArrayList<>();
+		int i=0;
+		if(this.position>0L) {
+			while(i< array.length && array[i]!='\n') i++;
+			i++;
+			}
+		while(i< array.length) {
+			int j=i;
+			while(j< array.length && array[j]!='\n') j++;
+			int end=j;
+			if(end>i && array[end-1]=='\r') end--;
+			L.add(new String(array, i, end-i, StandardCharsets.UTF_8));
+			i=j+1;
+			}
+		return L;
+		}
+
+	/**
+	 * @param n number of lines
+	 * @param acceptLine lines to be considered (e.g. not a header)
+	 * @return the last 'n' accepted lines of the file, in the file order
+	 */
+	public List<String> tail(final int n,final Predicate<String> acceptLine) throws IOException {
+		if(n<=0) return new ArrayList<>();
+		long checkedNewLines = 0L;
+		for(;;) {
+			final boolean more = stepBack();
+			/* more than n newlines: we may have enough complete lines. Lines are split again only when their number doubled */
+			if(!more || (this.countNewLines > n && this.countNewLines >= 2L*checkedNewLines)) {
+				checkedNewLines = this.countNewLines;
+				final List<String> L = lines();
+				L.removeIf(acceptLine.negate());
+				if(L.size()>=n || !more) {
+					return new ArrayList<>(L.subList(Math.max(0, L.size()-n), L.size()));
+					}
+				}
+			}
+		}
+
+	@Override
+	public void close() throws IOException {
+		this.chunks.clear();
+		this.inflater.end();
+		this.raf.close();
+		}
+	}
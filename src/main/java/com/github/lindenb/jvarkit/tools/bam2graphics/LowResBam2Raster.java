@@ -32,6 +32,7 @@ import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -49,6 +50,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.swing.ColorUtils;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
@@ -110,7 +112,7 @@ END_DOC
 		)
 public class LowResBam2Raster extends AbstractBam2Raster {
 	private static final Logger LOG = Logger.build(LowResBam2Raster.class).make();
-	@Parameter(names={"-kg","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC)
+	@Parameter(names={"-kg","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC+" "+KnownGeneIndex.OPT_INDEX_DESC)
 	private String knownGeneUrl =null;
 	private final List<KnownGene> knownGenes = new ArrayList<>();
 	@Parameter(names={"-gcPercent","--gcPercent"},description="GC% track height.")
@@ -1024,7 +1026,13 @@ public class LowResBam2Raster extends AbstractBam2Raster {
 					
 					loadVCFs();
 					
-					if(this.knownGeneUrl!=null)
+					if(this.knownGeneUrl!=null && KnownGeneIndex.isIndex(this.knownGeneUrl))
+						{
+						try(final KnownGeneIndex kgIndex = KnownGeneIndex.open(new File(this.knownGeneUrl))) {
+							this.knownGenes.addAll(kgIndex.getOverlapping(this.interval));
+							}
+						}
+					else if(this.knownGeneUrl!=null)
 						{
 						IntervalTreeMap<List<KnownGene>> map=KnownGene.loadUriAsIntervalTreeMap(this.knownGeneUrl,
 								(KG)->(KG.getContig().equals(this.interval.getContig()) && !(KG.getEnd()<this.interval.getStart() || KG.getStart()+1>this.interval.getEnd()
@@ -28,6 +28,7 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -37,12 +38,16 @@ import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.List;
 
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
+import htsjdk.samtools.BAMFileSpan;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileSource;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
@@ -60,6 +65,17 @@ BEGIN_DOC
 $  java -jar dist/bamindexreadnames.jar file.bam
 ```
 
+## Version 2
+
+With option `--v2`, the tool creates a file with the suffix `.names.idx2`. This index contains the 64-bit fingerprints of the read names and the BGZF
+virtual offset of each record. The BAM doesn't need to be sorted. bamqueryreadnames uses this index when it is available:
+a name is found with a couple of reads in the memory-mapped index and the record is read directly in the BAM, without
+any re-query by position.
+
+```bash
+$  java -jar dist/bamindexreadnames.jar --v2 file.bam
+```
+
 
 END_DOC
  */
@@ -69,7 +85,10 @@ public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamIndexReadNames.class).make();
-	private BamIndexReadNames()
+	
+	@Parameter(names={"-2","--v2"},description="[20181210] Create a version 2 index (suffix '"+NAME_IDX2_EXTENSION+"'): 64-bit fingerprints of the read names and BGZF virtual offsets of the records. Input must be a BAM file but doesn't need to be sorted.")
+	private boolean index_v2 = false;
+	public BamIndexReadNames()
 		{
 		
 		}
@@ -122,8 +141,94 @@ public class BamIndexReadNames
 			}
 		}
 
+		/** (fingerprint,virtual offset) for the version 2 of the index */
+		private static class FingerprintCodec extends AbstractDataCodec<long[]>
+			{
+			@Override
+			public long[] decode(final DataInputStream dis) throws IOException {
+				final long fp;
+				try
+					{
+					fp = dis.readLong();
+					}
+				catch(final IOException err)
+					{
+					return null;
+					}
+				return new long[] {fp,dis.readLong()};
+				}
+			@Override
+			public void encode(final DataOutputStream dos,final long[] o) throws IOException {
+				dos.writeLong(o[0]);
+				dos.writeLong(o[1]);
+				}
+			@Override
+			public AbstractDataCodec<long[]> clone() {
+				return new FingerprintCodec();
+				}
+			}
+
 		private int maxRecordsInRAM=50000;
 
+		private void indexBamFileV2(final File bamFile) throws IOException
+			{
+			SortingCollection<long[]> sorting=null;
+			LOG.info("Opening "+bamFile);
+			final SamReader sfr=SamReaderFactory.makeDefault().
+					validationStringency(ValidationStringency.SILENT).
+					enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).
+					open(bamFile);
+			if(sfr.type()!=SamReader.Type.BAM_TYPE)
+				{
+				sfr.close();
+				throw new JvarkitException.UserError("index v2 requires a BAM file: "+bamFile);
+				}
+			sorting=SortingCollection.newInstance(
+					long[].class,
+					new FingerprintCodec() ,
+					(A,B)->{
+						final int i= Long.compare(A[0], B[0]);
+						if(i!=0) return i;
+						return Long.compare(A[1], B[1]);
+						},
+					maxRecordsInRAM,
+					bamFile.getAbsoluteFile().getParentFile().toPath()
+					);
+			sorting.setDestructiveIteration(true);
+			long countReads=0L;
+			final SAMRecordIterator iter=sfr.iterator();
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(sfr.getFileHeader());
+			while(iter.hasNext())
+				{
+				final SAMRecord rec=progress.watch(iter.next());
+				final SAMFileSource src = rec.getFileSource();
+				if(src==null || !(src.getFilePointer() instanceof BAMFileSpan))
+					{
+					throw new IllegalStateException("cannot get virtual offset for "+rec.getReadName());
+					}
+				sorting.add(new long[] {
+					ReadNameFingerprintIndex.fingerprint(rec.getReadName()),
+					BAMFileSpan.class.cast(src.getFilePointer()).getFirstOffset()
+					});
+				countReads++;
+				}
+			progress.finish();
+			iter.close();
+			sfr.close();
+			sorting.doneAdding();
+			LOG.info("Done Adding. N="+countReads);
+			
+			final File indexFile=new File(bamFile.getAbsoluteFile().getParentFile(), bamFile.getName()+NAME_IDX2_EXTENSION);
+			LOG.info("Writing index "+indexFile);
+			final DataOutputStream daos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+			final CloseableIterator<long[]> iter2=sorting.iterator();
+			ReadNameFingerprintIndex.write(daos, countReads, ReadNameFingerprintIndex.DEFAULT_BLOCK_SIZE,()->iter2);
+			iter2.close();
+			daos.flush();
+			daos.close();
+			sorting.cleanup();
+			}
+
 		
 		private void indexBamFile(File bamFile) throws IOException
 			{
@@ -214,7 +319,14 @@ public class BamIndexReadNames
 				return -1;
 				}
 			
-			indexBamFile(new File(args.get(0)));
+			if(this.index_v2)
+				{
+				indexBamFileV2(new File(args.get(0)));
+				}
+			else
+				{
+				indexBamFile(new File(args.get(0)));
+				}
 			return 0;
 			}
 		catch(Exception err)
@@ -29,6 +29,7 @@ History:
 
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import htsjdk.samtools.BAMRecordCodec;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
@@ -36,6 +37,7 @@ import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.tribble.readers.LineIterator;
 
@@ -44,6 +46,9 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -89,6 +94,13 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+## Version 2 of the index
+
+If the BAM was indexed with `bamindexreadnames --v2`, the version 2 index (suffix `.names.idx2`) is used:
+each name is searched in the memory-mapped index of the fingerprints and the records are read directly in the BAM using their
+virtual offsets. With the option `--batch`, all the names are loaded in memory, sorted and merged with the index; the records
+are then written in the order of the BAM file. Option `-s` is ignored with this index.
+
 
  
  END_DOC
@@ -106,13 +118,16 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	@Parameter(names={"-N"},description=" save unmatched names here")
 	private File notFoundFile=null;
 
+	@Parameter(names={"--batch"},description="[20181210] With a version 2 index: load all the names in memory and merge them with the sorted index. The reads are written in the order of the BAM.")
+	private boolean batch_mode=false;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
-	
+
 	private RandomAccessFile raf;
 	private NameIndexDef indexDef;
 
-	private BamQueryReadNames()
+	public BamQueryReadNames()
 		{
 		}
 	
@@ -171,6 +186,156 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 
 
 	
+	/** a read name in the user's list */
+	private static class ReadQuery
+		{
+		final String line;
+		final String readName;
+		final int side;
+		final long fingerprint;
+		boolean found=false;
+		ReadQuery(final String line) {
+			this.line = line;
+			/* forward or reverse is specified ? */
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.readName=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.readName=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.readName=line;
+				}
+			this.fingerprint = ReadNameFingerprintIndex.fingerprint(this.readName);
+			}
+		boolean accept(final SAMRecord rec) {
+			if(!rec.getReadName().equals(this.readName)) return false;
+			if(this.side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag()))
+				{
+				return false;
+				}
+			else if(this.side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag()))
+				{
+				return false;
+				}
+			return true;
+			}
+		}
+	
+	/** query the BAM using the version 2 of the index */
+	private void queryV2(
+			final File bamFile,
+			final ReadNameFingerprintIndex index,
+			final SAMFileHeader header,
+			final LineIterator r,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			) throws IOException
+		{
+		final BlockCompressedInputStream bgzin = new BlockCompressedInputStream(bamFile);
+		try {
+			final BAMRecordCodec codec = new BAMRecordCodec(header);
+			codec.setInputStream(bgzin);
+			if(!this.batch_mode)
+				{
+				while(r.hasNext())
+					{
+					final String line=r.next();
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					final ReadQuery query = new ReadQuery(line);
+					for(final long offset: index.getVirtualOffsets(query.readName))
+						{
+						bgzin.seek(offset);
+						final SAMRecord rec = codec.decode();
+						if(rec==null || !query.accept(rec)) continue;
+						query.found=true;
+						bamw.addAlignment(rec);
+						}
+					if(!query.found) notFoundStream.println(line);
+					}
+				return;
+				}
+			/* batch mode */
+			final List<ReadQuery> queries = new ArrayList<>();
+			while(r.hasNext())
+				{
+				final String line=r.next();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				queries.add(new ReadQuery(line));
+				}
+			LOG.info("merging "+queries.size()+" names with the index");
+			final ReadQuery sortedQueries[] = queries.toArray(new ReadQuery[queries.size()]);
+			Arrays.sort(sortedQueries,(A,B)->Long.compare(A.fingerprint, B.fingerprint));
+			/* pairs (virtual offset, index in sortedQueries) */
+			final List<long[]> hits = new ArrayList<>();
+			final long n = index.size();
+			long i=0L;
+			int j=0;
+			while(i< n && j< sortedQueries.length)
+				{
+				final long fpi = index.getFingerprint(i);
+				final long fpq = sortedQueries[j].fingerprint;
+				if(fpi < fpq)
+					{
+					/* jump using the fences of the index */
+					i = Math.max(i+1,index.lowerBound(fpq));
+					}
+				else if(fpi > fpq)
+					{
+					j++;
+					}
+				else
+					{
+					long i2=i;
+					while(i2< n && index.getFingerprint(i2)==fpi) i2++;
+					int j2=j;
+					while(j2< sortedQueries.length && sortedQueries[j2].fingerprint==fpq) j2++;
+					for(long ii=i;ii< i2;++ii)
+						{
+						final long offset = index.getVirtualOffset(ii);
+						for(int jj=j;jj< j2;++jj)
+							{
+							hits.add(new long[] {offset,jj});
+							}
+						}
+					i=i2;
+					j=j2;
+					}
+				}
+			/* read the records in the order of the BAM */
+			hits.sort(Comparator.comparingLong(H->H[0]));
+			long prevOffset=-1L;
+			SAMRecord rec=null;
+			for(final long[] hit:hits)
+				{
+				if(hit[0]!=prevOffset)
+					{
+					bgzin.seek(hit[0]);
+					rec = codec.decode();
+					prevOffset=hit[0];
+					}
+				final ReadQuery query = sortedQueries[(int)hit[1]];
+				if(rec==null || !query.accept(rec)) continue;
+				query.found=true;
+				bamw.addAlignment(rec);
+				}
+			for(final ReadQuery query:queries)
+				{
+				if(!query.found) notFoundStream.println(query.line);
+				}
+			}
+		finally
+			{
+			bgzin.close();
+			}
+		}
+
 	@Override
 	public int doWork(final List<String> args) {
 		PrintWriter notFoundStream=new PrintWriter(new NullOuputStream());
@@ -184,7 +349,8 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				return -1;
 				}
 			
-			if(this.notFoundFile==null)
+			/* '-N' : replace the null stream with the user's file */
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream.close();
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
@@ -194,12 +360,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
-			
+			final File nameIdx2File=new File(bamFile.getAbsoluteFile().getParentFile(), bamFile.getName()+NAME_IDX2_EXTENSION);
 			
 			LineIterator r=null;
 			if(args.size()==2)
@@ -214,6 +375,24 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			
 			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
 			
+			if(ReadNameFingerprintIndex.hasMagic(nameIdx2File))
+				{
+				LOG.info("using index "+nameIdx2File);
+				try(final ReadNameFingerprintIndex index = new ReadNameFingerprintIndex(nameIdx2File)) {
+					queryV2(bamFile,index,sfr.getFileHeader(),r,bamw,notFoundStream);
+					}
+				CloserUtil.close(r);
+				notFoundStream.flush();
+				notFoundStream.close();notFoundStream=null;
+				return 0;
+				}
+			
+			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
+			this.indexDef=new NameIndexDef();
+			this.raf=new RandomAccessFile(nameIdxFile, "r");
+			indexDef.countReads=raf.readLong();
+			indexDef.maxNameLengt=raf.readInt();
+
 			
 			long iter_start = 0L;
 			
@@ -37,6 +37,8 @@ public abstract class BaseBamIndexReadNames
 	{
 	protected static final int FILE_PREFIX_SIZE=4+8;
 	protected static final String NAME_IDX_EXTENSION=".names.idx";
+	/** extension of the version 2 index, see {@link ReadNameFingerprintIndex} */
+	protected static final String NAME_IDX2_EXTENSION=".names.idx2";
 	protected static class NameIndexDef
 		{
 		long countReads=0L;
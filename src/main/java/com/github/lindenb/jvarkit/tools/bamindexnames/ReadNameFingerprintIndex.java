@@ -0,0 +1,211 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.samtools.ReadNameFingerprintSet;
+
+/**
+ * Version 2 of the read-name index: a memory-mapped table of 64-bit fingerprints of the read names
+ * associated to the BGZF virtual offset of each record.
+ *
+ * Layout:
+ * <pre>
+ * MAGIC
+ * long: number of entries
+ * int: number of entries per block
+ * entries: (long fingerprint, long virtual offset) , sorted on fingerprint then offset
+ * fences: (long) first fingerprint of each block
+ * </pre>
+ */
+class ReadNameFingerprintIndex implements Closeable
+	{
+	static final byte MAGIC[]="bamnames.0.2".getBytes();
+	static final int DEFAULT_BLOCK_SIZE = 1024;
+	/** size of the header in bytes */
+	private static final int HEADER_SIZE = MAGIC.length + 8 + 4;
+	/** bytes per entry */
+	private static final int ENTRY_SIZE = 8 + 8;
+	/** entries are mapped by segments of 2^SEGMENT_SHIFT entries, the first 1/2 Gb */
+	private static final int SEGMENT_SHIFT = 25;
+	private static final long SEGMENT_MASK = (1L<<SEGMENT_SHIFT)-1L;
+
+	private final File indexFile;
+	private final RandomAccessFile raf;
+	private final long countEntries;
+	private final int blockSize;
+	/** first fingerprint of each block, kept in memory */
+	private final long fences[];
+	/** mapped entries */
+	private final LongBuffer segments[];
+
+	/** 64 bit fingerprint of a read name */
+	static long fingerprint(final CharSequence s) {
+		return ReadNameFingerprintSet.fingerprint(s);
+		}
+
+	/** return true if the index file exists and we can read {@link #MAGIC} */
+	static boolean hasMagic(final File indexFile)
+		{
+		if(indexFile==null || !indexFile.exists() || !indexFile.canRead()) {
+			return false;
+			}
+		try(final InputStream indexio = new FileInputStream(indexFile)) {
+			final byte magic[]=new byte[MAGIC.length];
+			if(indexio.read(magic)!= magic.length) return false;
+			return Arrays.equals(magic, MAGIC);
+			}
+		catch(final IOException err) {
+			return false;
+			}
+		}
+
+	/** write the index. 'sortedEntries' contains the (fingerprint,offset) pairs, sorted */
+	static void write(final DataOutputStream out,final long countEntries,final int blockSize,final Iterable<long[]> sortedEntries) throws IOException {
+		out.write(MAGIC);
+		out.writeLong(countEntries);
+		out.writeInt(blockSize);
+		final long fences[]=new long[(int)((countEntries+blockSize-1)/blockSize)];
+		long n=0L;
+		for(final long[] entry:sortedEntries) {
+			if(n%blockSize==0L) fences[(int)(n/blockSize)]=entry[0];
+			out.writeLong(entry[0]);
+			out.writeLong(entry[1]);
+			n++;
+			}
+		if(n!=countEntries) throw new IllegalStateException("expected "+countEntries+" entries but got "+n);
+		for(final long fence:fences) out.writeLong(fence);
+		out.flush();
+		}
+
+	ReadNameFingerprintIndex(final File indexFile) throws IOException {
+		this.indexFile = indexFile;
+		if(!hasMagic(indexFile)) throw new JvarkitException.FileFormatError("not a read-name index (v2) "+indexFile);
+		this.raf = new RandomAccessFile(indexFile, "r");
+		this.raf.seek(MAGIC.length);
+		this.countEntries = this.raf.readLong();
+		this.blockSize = this.raf.readInt();
+		if(this.countEntries<0L || this.blockSize<=0) throw new JvarkitException.FileFormatError("bad header in "+indexFile);
+		final long fencesOffset = HEADER_SIZE + this.countEntries*ENTRY_SIZE;
+		final int nFences = (int)((this.countEntries+this.blockSize-1)/this.blockSize);
+		this.fences = new long[nFences];
+		this.raf.seek(fencesOffset);
+		for(int i=0;i< nFences;++i) this.fences[i]=this.raf.readLong();
+
+		final FileChannel channel = this.raf.getChannel();
+		final int nSegments = (int)((this.countEntries + SEGMENT_MASK) >> SEGMENT_SHIFT);
+		this.segments = new LongBuffer[nSegments];
+		for(int i=0;i< nSegments;++i) {
+			final long first = ((long)i) << SEGMENT_SHIFT;
+			final long count = Math.min(this.countEntries-first, 1L<<SEGMENT_SHIFT);
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE + first*ENTRY_SIZE,
+					count*ENTRY_SIZE
+					);
+			mapped.order(ByteOrder.BIG_ENDIAN);
+			this.segments[i] = mapped.asLongBuffer();
+			}
+		}
+
+	File getFile() {
+		return this.indexFile;
+		}
+
+	long size() {
+		return this.countEntries;
+		}
+
+	long getFingerprint(final long idx) {
+		return this.segments[(int)(idx>>SEGMENT_SHIFT)].get((int)(idx & SEGMENT_MASK)*2);
+		}
+
+	long getVirtualOffset(final long idx) {
+		return this.segments[(int)(idx>>SEGMENT_SHIFT)].get((int)(idx & SEGMENT_MASK)*2+1);
+		}
+
+	/** return the index of the first entry having a fingerprint greater or equal than 'fp' */
+	long lowerBound(final long fp) {
+		/* first block whose fence is >= fp */
+		int lo=0;
+		int hi=this.fences.length;
+		while(lo<hi) {
+			final int mid=(lo+hi)>>>1;
+			if(this.fences[mid] < fp) {
+				lo=mid+1;
+				}
+			else
+				{
+				hi=mid;
+				}
+			}
+		/* the first entry >= fp is in the previous block or is the first item of block 'lo' */
+		long first = Math.max(0,lo-1)*(long)this.blockSize;
+		long last = Math.min(this.countEntries, lo*(long)this.blockSize);
+		while(first<last) {
+			final long mid = (first+last)>>>1;
+			if(getFingerprint(mid) < fp) {
+				first=mid+1;
+				}
+			else
+				{
+				last=mid;
+				}
+			}
+		return first;
+		}
+
+	/** return the virtual offsets of the records whose name may be 'readName' (fingerprint collisions are possible) */
+	long[] getVirtualOffsets(final String readName) {
+		final long fp = fingerprint(readName);
+		long idx = lowerBound(fp);
+		long offsets[]=new long[2];
+		int n=0;
+		while(idx < this.countEntries && getFingerprint(idx)==fp) {
+			if(n==offsets.length) offsets = Arrays.copyOf(offsets, n*2);
+			offsets[n++]=getVirtualOffset(idx);
+			idx++;
+			}
+		return Arrays.copyOf(offsets, n);
+		}
+
+	@Override
+	public void close() throws IOException {
+		Arrays.fill(this.segments, null);
+		this.raf.close();
+		}
+	}
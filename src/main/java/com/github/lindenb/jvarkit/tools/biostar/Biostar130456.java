@@ -30,12 +30,16 @@ package com.github.lindenb.jvarkit.tools.biostar;
 
 import java.io.File;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import htsjdk.samtools.util.CloserUtil;
 
@@ -79,6 +83,20 @@ chr1	130	microsat1	GTC	G,GTCT	50	PASS	AA=G;DP=9;NS=3	GT:DP:GQ	1/1:3:40
 chr2	130	microsat1	GTC	G,GTCT	50	PASS	AA=G;DP=9;NS=3	GT:DP:GQ	1/1:3:40
 ```
 
+## Parallel mode
+
+With `-j` greater than 1, the main thread reads the variants, extracts the genotype of each sample (htsjdk decodes the
+genotypes lazily and this decoding is not thread-safe) and dispatches them by batches (option `--batch-size`)
+to a pool of writer threads through bounded queues. Each thread owns the writers of a subset of the samples and compresses
+their output.
+
+Option `--max-open-files` limits the number of VCF files opened at the same time: the samples are processed by groups and
+the input VCF is read once for each group (it must be a file, not stdin).
+
+```
+$ java -jar dist/biostar130456.jar -j 8 --max-open-files 1000 -p "sample.__SAMPLE__.vcf.gz" input.vcf.gz
+```
+
 ## See also
 
  * GATK SelectVariants with option -sn 
@@ -110,7 +128,159 @@ public class Biostar130456 extends Launcher
 	@ParametersDelegate
 	private VariantAttributesRecalculator recalculator = new VariantAttributesRecalculator();
 
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of writer threads. A value lower than 1 means 'all available processors'. 1 = write all the files from the main thread.")
+	private int nJobs = 1;
+	@Parameter(names={"--max-open-files"},description="[20181210] Maximum number of output files opened at the same time. The input is read once for each group of samples, so it must be a file. -1 = no limit.")
+	private int maxOpenFiles = -1;
+	@Parameter(names={"--batch-size"},description="[20181210] In parallel mode, number of variants sent to the writer threads at once.")
+	private int batchSize = 1_000;
+	
+	/** number of batches waiting in the queue of each writer thread */
+	private static final int QUEUE_CAPACITY = 10;
+	
+	/** one output file */
+	private static class SampleWriter
+		{
+		final int index;
+		final String sample;
+		final VariantContextWriter writer;
+		SampleWriter(final int index,final String sample,final VariantContextWriter writer) {
+			this.index = index;
+			this.sample = sample;
+			this.writer = writer;
+			}
+		}
+	
+	/** a variant and the genotypes of the current group of samples, extracted by the main thread.
+	 * The variant is stored without its genotypes: the other samples are not kept in memory by the queues */
+	private static class Row
+		{
+		final VariantContext ctx;
+		final Genotype genotypes[];
+		Row(final VariantContext ctx,final List<SampleWriter> writers) {
+			this.genotypes = new Genotype[writers.size()];
+			for(final SampleWriter sw:writers)
+				{
+				this.genotypes[sw.index] = ctx.getGenotype(sw.sample);
+				}
+			this.ctx = new VariantContextBuilder(ctx).noGenotypes().make();
+			}
+		}
 	
+	/** a writer thread: receives batches of variants and writes them for its samples. An empty batch is the end of the input */
+	private class WriterTask implements Callable<Void>
+		{
+		final BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final List<SampleWriter> writers = new ArrayList<>();
+		Future<Void> future = null;
+		
+		@Override
+		public Void call() throws Exception {
+			for(;;)
+				{
+				final List<Row> batch = this.queue.take();
+				if(batch.isEmpty()) break;
+				for(final Row row:batch)
+					{
+					for(final SampleWriter sw:this.writers)
+						{
+						write(row.ctx,row.genotypes[sw.index],sw);
+						}
+					}
+				}
+			for(final SampleWriter sw:this.writers)
+				{
+				sw.writer.close();
+				}
+			return null;
+			}
+		
+		/** put a batch in the queue, fails if the thread has died */
+		void put(final List<Row> batch) throws Exception {
+			while(!this.queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+				{
+				if(this.future.isDone())
+					{
+					this.future.get();
+					throw new IllegalStateException("writer thread has stopped.");
+					}
+				}
+			}
+		}
+	
+	/** write the genotype of the sample for this variant */
+	private void write(final VariantContext ctx,final Genotype g,final SampleWriter sw)
+		{
+		if(g==null) return;
+		if(remove_uncalled && (!g.isAvailable() || !g.isCalled() || g.isNoCall()))
+			{
+			return;
+			}
+		if(remove_homref && g.isHomRef()) return;
+		final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+		final GenotypeBuilder gb=new GenotypeBuilder(g);
+		vcb.genotypes(Collections.singletonList(gb.make()));
+		final VariantContext ctx2= this.recalculator.apply(vcb.make());
+		sw.writer.add(ctx2);
+		}
+	
+	/** write the variants for one group of samples */
+	private void writeSamples(
+		final VcfIterator in,
+		final List<SampleWriter> writers,
+		final ExecutorService executor
+		) throws Exception
+		{
+		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(in.getHeader()).logger(LOG);
+		if(executor==null)
+			{
+			while(in.hasNext())
+				{
+				final VariantContext ctx= progress.watch(in.next());
+				for(final SampleWriter sw: writers)
+					{
+					write(ctx,ctx.getGenotype(sw.sample),sw);
+					}
+				}
+			for(final SampleWriter sw:writers)
+				{
+				LOG.info("Closing for sample "+sw.sample);
+				sw.writer.close();
+				}
+			}
+		else
+			{
+			final List<WriterTask> tasks = new ArrayList<>(this.nJobs);
+			for(int i=0;i< writers.size();++i)
+				{
+				if(i < this.nJobs) tasks.add(new WriterTask());
+				tasks.get(i%this.nJobs).writers.add(writers.get(i));
+				}
+			for(final WriterTask task:tasks)
+				{
+				task.future = executor.submit(task);
+				}
+			List<Row> batch = new ArrayList<>(this.batchSize);
+			while(in.hasNext())
+				{
+				/* genotypes are decoded here, never in the writer threads */
+				batch.add(new Row(progress.watch(in.next()),writers));
+				if(batch.size()>=this.batchSize)
+					{
+					for(final WriterTask task:tasks) task.put(batch);
+					batch = new ArrayList<>(this.batchSize);
+					}
+				}
+			if(!batch.isEmpty())
+				{
+				for(final WriterTask task:tasks) task.put(batch);
+				}
+			/* end of input */
+			for(final WriterTask task:tasks) task.put(Collections.emptyList());
+			for(final WriterTask task:tasks) task.future.get();
+			}
+		progress.finish();
+		}
 	
 	@Override
 	public int doWork(final List<String> args) {
@@ -119,10 +289,21 @@ public class Biostar130456 extends Launcher
 				LOG.error("File pattern is missing "+SAMPLE_TAG);
 				return -1;
 				}
+			if(this.batchSize<1)
+				{
+				LOG.error("bad batch size");
+				return -1;
+				}
+			if(this.nJobs<1)
+				{
+				this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+				LOG.info("setting njobs to "+this.nJobs);
+				}
 			PrintStream out = null;
 			VcfIterator in=null;
 			final String inputName= oneFileOrNull(args);
-
+			final List<SampleWriter> writers = new ArrayList<>();
+			final ExecutorService executor = (this.nJobs>1?Executors.newFixedThreadPool(this.nJobs):null);
 			try
 				{
 				out = openFileOrStdoutAsPrintStream(outputFile);
@@ -130,8 +311,7 @@ public class Biostar130456 extends Launcher
 				final VCFHeader header=in.getHeader();
 				this.recalculator.setHeader(header);
 				
-				final Set<String> samples = new HashSet<String>(header.getSampleNamesInOrder());
-				final Map<String,VariantContextWriter> sample2writer=new HashMap<String,VariantContextWriter>(samples.size());
+				final List<String> samples = new ArrayList<String>(header.getSampleNamesInOrder());
 	
 				if(samples.isEmpty())
 					{
@@ -139,50 +319,36 @@ public class Biostar130456 extends Launcher
 					return -1;
 					}
 				LOG.info("N sample:"+samples.size());
-				for(final String sample:samples)
+				final int groupSize = (this.maxOpenFiles<1?samples.size():this.maxOpenFiles);
+				if(groupSize < samples.size() && inputName==null)
 					{
-					final VCFHeader h2=new VCFHeader(
-							header.getMetaDataInInputOrder(),
-							Collections.singleton(sample)
-							);
-					super.addMetaData(h2);
-					final String sampleFile= filepattern.replaceAll(SAMPLE_TAG,sample);
-					out.println(sampleFile);
-					final File fout = new File(sampleFile);
-					if(fout.getParentFile()!=null) fout.getParentFile().mkdirs();
-					final VariantContextWriter w= VCFUtils.createVariantContextWriter(fout);
-					w.writeHeader(h2);
-					
-					sample2writer.put(sample, w);
+					LOG.error("option --max-open-files requires a VCF file as input, not stdin.");
+					return -1;
 					}
-				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
-				while(in.hasNext())
+				for(int first=0;first< samples.size();first+=groupSize)
 					{
-					final VariantContext ctx= progress.watch(in.next());
-					for(final String sample: samples)
+					if(in==null) in = super.openVcfIterator(inputName);
+					for(final String sample:samples.subList(first, Math.min(samples.size(), first+groupSize)))
 						{
-						final Genotype g= ctx.getGenotype(sample);
-						if(g==null) continue;
-						if(remove_uncalled && (!g.isAvailable() || !g.isCalled() || g.isNoCall()))
-							{
-							continue;
-							}
-						if(remove_homref && g.isHomRef()) continue;
-						final VariantContextWriter w= sample2writer.get(sample);
-						final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-						final GenotypeBuilder gb=new GenotypeBuilder(g);
-						vcb.genotypes(Collections.singletonList(gb.make()));
-						final VariantContext ctx2= this.recalculator.apply(vcb.make());
-						w.add(ctx2);
+						final VCFHeader h2=new VCFHeader(
+								header.getMetaDataInInputOrder(),
+								Collections.singleton(sample)
+								);
+						super.addMetaData(h2);
+						final String sampleFile= filepattern.replaceAll(SAMPLE_TAG,sample);
+						out.println(sampleFile);
+						final File fout = new File(sampleFile);
+						if(fout.getParentFile()!=null) fout.getParentFile().mkdirs();
+						final VariantContextWriter w= VCFUtils.createVariantContextWriter(fout);
+						w.writeHeader(h2);
+						
+						writers.add(new SampleWriter(writers.size(), sample, w));
 						}
+					writeSamples(in,writers,executor);
+					writers.clear();
+					in.close();
+					in=null;
 					}
-				for(final String sample:samples)
-					{
-					LOG.info("Closing for sample "+sample);
-					final VariantContextWriter w= sample2writer.get(sample);
-					w.close();
-					}
-				progress.finish();
 				out.flush();
 				return RETURN_OK;
 				}
@@ -193,6 +359,8 @@ public class Biostar130456 extends Launcher
 				}
 			finally
 				{
+				if(executor!=null) executor.shutdownNow();
+				for(final SampleWriter sw:writers) CloserUtil.close(sw.writer);
 				CloserUtil.close(out);
 				CloserUtil.close(in);
 				}
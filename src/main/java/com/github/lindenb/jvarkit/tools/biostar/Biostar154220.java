@@ -25,16 +25,19 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.biostar;
 
+import htsjdk.samtools.AlignmentBlock;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.util.CloserUtil;
 
@@ -42,16 +45,23 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamFilterParser;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.samtools.ReadNameFingerprintSet;
 
 /*
 BEGIN_DOC
@@ -89,6 +99,23 @@ $ samtools mpileup output.bam  | cut -f 4 | sort | uniq -c
 
 ```
 
+## Coordinate-sorted input
+
+If the input is sorted on coordinate, the reads are processed as a stream: the depth is stored in a circular array
+whose size is the longest span of a read, so the memory doesn't depend on the size of the contigs or on the depth.
+The reads starting at the same position are sorted on a hash of their name, so the selected reads don't depend on
+the order of the input. A pair is kept or dropped as a whole: when the first mate is kept, the hash of its name is
+remembered until its second mate is reached. The second mate of a kept pair is always written, so the depth may
+slightly exceed the cap in the regions of the second mates. The reads rejected by the filter are not written.
+The output is sorted on coordinate.
+
+With `-j` greater than 1, an indexed BAM file is processed contig by contig in parallel and the contigs are merged
+in the order of the dictionary.
+
+```bash
+$ java -jar dist/biostar154220.jar -n 20 -j 4 --samoutputformat BAM sorted.bam > output.bam
+```
+
 END_DOC
 
 */
@@ -109,18 +136,357 @@ public class Biostar154220 extends Launcher
 	@Parameter(names={"-filter","--filter"},description=SamFilterParser.FILTER_DESCRIPTION,converter=SamFilterParser.StringConverter.class)
 	private SamRecordFilter filter  = SamFilterParser.buildDefault();
 
+	@Parameter(names={"-j","--jobs"},description="[20181210] For an indexed BAM sorted on coordinate: number of contigs processed in parallel. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBams=new WritingBamArgs();
 	
+	/** second mate expected at 'pos' for a kept pair */
+	private static class PendingMate
+		{
+		final int pos;
+		final long fingerprint;
+		PendingMate(final int pos,final long fingerprint) {
+			this.pos = pos;
+			this.fingerprint = fingerprint;
+			}
+		}
+	
+	/** caps the depth of a stream of reads sorted on coordinate */
+	private class CoordinateCapper
+		{
+		private final SAMFileWriter out;
+		/** circular depth array, size is a power of 2 */
+		private int ring[] = new int[1024];
+		/** first position stored in the ring */
+		private int windowStart = 1;
+		private int tid = -1;
+		/** reads starting at the same position */
+		private final List<SAMRecord> buffer = new ArrayList<>();
+		private final List<Long> bufferFingerprints = new ArrayList<>();
+		/** kept pairs, waiting for their second mate */
+		private final PriorityQueue<PendingMate> pendingMates = new PriorityQueue<>(
+			(A,B)->Integer.compare(A.pos, B.pos)
+			);
+		/** fingerprints of the pending mates expected at the current position */
+		private long pendingHere[] = new long[16];
+		private int countPendingHere = 0;
+		/** position of the last call to flush */
+		private int lastFlushPos = -1;
+
+		CoordinateCapper(final SAMFileWriter out) {
+			this.out = out;
+			}
+		
+		void add(final SAMRecord rec) {
+			if(rec.getReadUnmappedFlag())
+				{
+				flush();
+				this.out.addAlignment(rec);
+				return;
+				}
+			if(rec.getReferenceIndex()!=this.tid)
+				{
+				flush();
+				this.tid = rec.getReferenceIndex();
+				Arrays.fill(this.ring, 0);
+				this.windowStart = 1;
+				this.pendingMates.clear();
+				this.countPendingHere = 0;
+				this.lastFlushPos = -1;
+				}
+			else if(!this.buffer.isEmpty() && this.buffer.get(0).getAlignmentStart()!=rec.getAlignmentStart())
+				{
+				if(rec.getAlignmentStart() < this.buffer.get(0).getAlignmentStart())
+					{
+					throw new IllegalStateException("input is not sorted on coordinate: "+rec.getReadName()+" "+rec.getContig()+":"+rec.getAlignmentStart());
+					}
+				flush();
+				}
+			this.buffer.add(rec);
+			}
+		
+		/** move the start of the window to 'pos' */
+		private void advance(final int pos) {
+			if(pos - this.windowStart >= this.ring.length)
+				{
+				Arrays.fill(this.ring, 0);
+				}
+			else
+				{
+				for(int p=this.windowStart;p< pos;++p) this.ring[p & (this.ring.length-1)]=0;
+				}
+			this.windowStart = pos;
+			}
+		
+		/** make sure the ring can store the positions up to 'end' */
+		private void ensureCapacity(final int end) {
+			if(end - this.windowStart < this.ring.length) return;
+			int n = this.ring.length;
+			while(end - this.windowStart >= n) n*=2;
+			final int ring2[]=new int[n];
+			for(int p=this.windowStart;p< this.windowStart+this.ring.length;++p)
+				{
+				ring2[p & (n-1)] = this.ring[p & (this.ring.length-1)];
+				}
+			this.ring = ring2;
+			}
+		
+		private boolean fits(final SAMRecord rec) {
+			ensureCapacity(rec.getAlignmentEnd());
+			for(final AlignmentBlock block:rec.getAlignmentBlocks())
+				{
+				for(int x=0;x< block.getLength();++x)
+					{
+					if(this.ring[(block.getReferenceStart()+x) & (this.ring.length-1)]+1 > capDepth) return false;
+					}
+				}
+			return true;
+			}
+		
+		private void addDepth(final SAMRecord rec) {
+			ensureCapacity(rec.getAlignmentEnd());
+			for(final AlignmentBlock block:rec.getAlignmentBlocks())
+				{
+				for(int x=0;x< block.getLength();++x)
+					{
+					this.ring[(block.getReferenceStart()+x) & (this.ring.length-1)]++;
+					}
+				}
+			}
+		
+		private boolean hasMateOnSameContig(final SAMRecord rec) {
+			return rec.getReadPairedFlag() &&
+				!rec.getMateUnmappedFlag() &&
+				!rec.isSecondaryOrSupplementary() &&
+				rec.getMateReferenceIndex().equals(rec.getReferenceIndex());
+			}
+		
+		/** true if this record is the first mate of the pair in the coordinate order */
+		private boolean isFirstMate(final SAMRecord rec) {
+			return rec.getMateAlignmentStart() > rec.getAlignmentStart() ||
+				(rec.getMateAlignmentStart() == rec.getAlignmentStart() && rec.getFirstOfPairFlag());
+			}
+		
+		private void addPendingHere(final long fingerprint) {
+			if(this.countPendingHere==this.pendingHere.length) this.pendingHere = Arrays.copyOf(this.pendingHere, this.countPendingHere*2);
+			this.pendingHere[this.countPendingHere++]=fingerprint;
+			}
+		
+		private boolean removePendingHere(final long fingerprint) {
+			for(int i=0;i< this.countPendingHere;++i)
+				{
+				if(this.pendingHere[i]==fingerprint)
+					{
+					this.pendingHere[i] = this.pendingHere[--this.countPendingHere];
+					return true;
+					}
+				}
+			return false;
+			}
+		
+		/** process the reads starting at the same position */
+		void flush() {
+			if(this.buffer.isEmpty()) return;
+			final int pos = this.buffer.get(0).getAlignmentStart();
+			advance(pos);
+			if(pos!=this.lastFlushPos)
+				{
+				/* pending mates that were not found */
+				while(!this.pendingMates.isEmpty() && this.pendingMates.peek().pos < pos)
+					{
+					this.pendingMates.poll();
+					}
+				this.countPendingHere = 0;
+				while(!this.pendingMates.isEmpty() && this.pendingMates.peek().pos == pos)
+					{
+					addPendingHere(this.pendingMates.poll().fingerprint);
+					}
+				this.lastFlushPos = pos;
+				}
+			/* sort on the hash of the names, first mates first */
+			final Integer order[]=new Integer[this.buffer.size()];
+			this.bufferFingerprints.clear();
+			for(int i=0;i< order.length;++i)
+				{
+				order[i]=i;
+				this.bufferFingerprints.add(ReadNameFingerprintSet.fingerprint(this.buffer.get(i).getReadName()));
+				}
+			Arrays.sort(order,Comparator.
+				comparing((Integer I)->this.bufferFingerprints.get(I)).
+				thenComparing(I->this.buffer.get(I).getReadPairedFlag() && this.buffer.get(I).getSecondOfPairFlag()?1:0).
+				thenComparing(I->I)
+				);
+			for(final Integer i:order)
+				{
+				final SAMRecord rec = this.buffer.get(i);
+				if(filter.filterOut(rec)) continue;
+				final long fingerprint = this.bufferFingerprints.get(i);
+				if(hasMateOnSameContig(rec) && !isFirstMate(rec))
+					{
+					if(!removePendingHere(fingerprint)) continue;
+					addDepth(rec);
+					this.out.addAlignment(rec);
+					}
+				else if(fits(rec))
+					{
+					addDepth(rec);
+					this.out.addAlignment(rec);
+					if(hasMateOnSameContig(rec))
+						{
+						if(rec.getMateAlignmentStart()==pos)
+							{
+							addPendingHere(fingerprint);
+							}
+						else
+							{
+							this.pendingMates.add(new PendingMate(rec.getMateAlignmentStart(), fingerprint));
+							}
+						}
+					}
+				}
+			this.buffer.clear();
+			}
+		}
+	
+	/** cap a stream of reads sorted on coordinate */
+	private void capSorted(final SAMRecordIterator iter,final SAMFileWriter out,final SAMSequenceDictionaryProgress progress)
+		{
+		final CoordinateCapper capper = new CoordinateCapper(out);
+		while(iter.hasNext())
+			{
+			final SAMRecord rec = iter.next();
+			if(progress!=null) progress.watch(rec);
+			capper.add(rec);
+			}
+		capper.flush();
+		}
+	
+	/** process each contig of an indexed BAM in parallel */
+	private int doWorkParallel(final File bamFile)
+		{
+		final SamReaderFactory srf = super.createSamReaderFactory();
+		ExecutorService executor = null;
+		SamReader in = null;
+		SAMFileWriter out=null;
+		final List<File> tmpFiles = new ArrayList<>();
+		try
+			{
+			in = srf.open(bamFile);
+			final SAMFileHeader header = in.getFileHeader();
+			if(header.getSortOrder()!=SAMFileHeader.SortOrder.coordinate || !in.hasIndex())
+				{
+				LOG.error("option --jobs requires an indexed BAM sorted on coordinate");
+				return -1;
+				}
+			final SAMSequenceDictionary dict=header.getSequenceDictionary();
+			final SAMFileHeader header2=header.clone();
+			header2.addComment("Biostar154220"+" "+getVersion()+" "+getProgramCommandLine());
+			
+			executor = Executors.newFixedThreadPool(this.nJobs);
+			final List<Future<File>> futures = new ArrayList<>(dict.size());
+			for(final SAMSequenceRecord ssr:dict.getSequences())
+				{
+				final File tmpFile = File.createTempFile("tmp.biostar154220.", ".bam", IOUtils.getDefaultTmpDir());
+				tmpFiles.add(tmpFile);
+				futures.add(executor.submit(()->{
+					SamReader r2 = null;
+					SAMRecordIterator iter2 = null;
+					SAMFileWriter w2 = null;
+					try {
+						r2 = srf.open(bamFile);
+						iter2 = r2.query(ssr.getSequenceName(), 0, 0, false);
+						w2 = new SAMFileWriterFactory().
+								setCompressionLevel(1).
+								makeBAMWriter(header2, true, tmpFile);
+						capSorted(iter2, w2, null);
+						}
+					finally
+						{
+						CloserUtil.close(iter2);
+						CloserUtil.close(w2);
+						CloserUtil.close(r2);
+						}
+					return tmpFile;
+					}));
+				}
+			out = this.writingBams.openSAMFileWriter(outputFile,header2, true);
+			for(final Future<File> future:futures)
+				{
+				final File tmpFile = future.get();
+				try(SamReader r3 = srf.open(tmpFile)) {
+					try(SAMRecordIterator iter3 = r3.iterator()) {
+						while(iter3.hasNext()) out.addAlignment(iter3.next());
+						}
+					}
+				tmpFile.delete();
+				}
+			/* unmapped reads */
+			try(SAMRecordIterator iter3 = in.queryUnmapped()) {
+				while(iter3.hasNext()) out.addAlignment(iter3.next());
+				}
+			out.close();
+			out=null;
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			if(executor!=null) executor.shutdownNow();
+			CloserUtil.close(out);
+			CloserUtil.close(in);
+			for(final File f:tmpFiles) f.delete();
+			}
+		}
+	
+	/** cap a BAM sorted on coordinate */
+	private int doWorkSorted(final SamReader in)
+		{
+		final SAMFileHeader header= in.getFileHeader();
+		SAMFileWriter out=null;
+		SAMRecordIterator iter=null;
+		try
+			{
+			final SAMFileHeader header2=header.clone();
+			header2.addComment("Biostar154220"+" "+getVersion()+" "+getProgramCommandLine());
+			out = this.writingBams.openSAMFileWriter(outputFile,header2, true);
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
+			iter = in.iterator();
+			capSorted(iter, out, progress);
+			progress.finish();
+			out.close();
+			out=null;
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(iter);
+			CloserUtil.close(out);
+			}
+		}
 	
 
 	@SuppressWarnings("resource")
 	private int doWork(final SamReader in) throws IOException
 		{
 		SAMFileHeader header= in.getFileHeader();
+		if(header.getSortOrder()==SAMFileHeader.SortOrder.coordinate)
+			{
+			return doWorkSorted(in);
+			}
 		if(header.getSortOrder()!=SAMFileHeader.SortOrder.unsorted)
 			{
-			LOG.error("input should be unsorted, reads sorted on REF/query-name e.g: see https://github.com/lindenb/jvarkit/wiki/SortSamRefName");
+			LOG.error("input should be sorted on coordinate or unsorted, reads sorted on REF/query-name e.g: see https://github.com/lindenb/jvarkit/wiki/SortSamRefName");
 			return -1;
 			}
 		SAMSequenceDictionary dict=header.getSequenceDictionary();
@@ -263,10 +629,25 @@ public class Biostar154220 extends Launcher
 			LOG.error("Bad depth:"+this.capDepth);
 			return -1;
 			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
+		final String input = oneFileOrNull(args);
+		if(this.nJobs>1)
+			{
+			if(input==null)
+				{
+				LOG.error("option --jobs requires an indexed BAM file, not stdin");
+				return -1;
+				}
+			return doWorkParallel(new File(input));
+			}
 		SamReader in=null;
 		try
 			{
-			in=openSamReader(oneFileOrNull(args));
+			in=openSamReader(input);
 			return doWork(in); 
 			}
 		catch(Exception err)
@@ -24,42 +24,32 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.blast;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.Comparator;
 import java.util.List;
 
 import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLResolver;
-import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationCodec;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationReader;
 import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 
 import gov.nih.nlm.ncbi.blast.Iteration;
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SortingCollection;
 
 /**
@@ -71,6 +61,11 @@ import htsjdk.samtools.util.SortingCollection;
  $ java -jar dist/mergeblastxml.jar input1.blastn.xml  input2.blastn.xml  input2.blastn.xml > out.xml
  ``` 
  
+ ## Performance
+ 
+ The iterations are read with a streaming StAX parser (no JAXB unmarshalling) and are
+ stored in the temporary files of the sorting collection using a compact binary format, so large
+ BLAST-XML files can be merged.
  
  END_DOC
  */
@@ -80,7 +75,6 @@ keywords={"blast","xml"}
 )
 public class MergeBlastXml extends Launcher {
 private static final Logger LOG=Logger.build(MergeBlastXml.class).make();
-private Unmarshaller unmarshaller;
 private Marshaller marshaller;
 
 @Parameter(names={"-o","--out"},description="Output SVG file or stdout")
@@ -90,48 +84,6 @@ private File tmpFile= IOUtils.getDefaultTmpDir();
 @Parameter(names={"--maxRecordsInRam"},description="Max Records in RAM")
 private int maxRecordsInRam=50000;
 
-private class BlastIterationCodec extends AbstractDataCodec<Iteration>
-	{
-	@Override
-	public Iteration decode(DataInputStream dis) throws IOException {
-		String xmlStr;
-		try
-			{
-			xmlStr=super.readString(dis);
-			}
-		catch(Exception err)
-			{
-			return null;
-			}	
-		try
-			{
-			return unmarshaller.unmarshal(new StreamSource(new StringReader(xmlStr)),Iteration.class).getValue();
-			}
-		catch(JAXBException err)
-			{
-			throw new RuntimeIOException(err);
-			}	
-		}
-	@Override
-	public void encode(DataOutputStream dos, Iteration hit) throws IOException {
-		StringWriter sw=new StringWriter();
-		try
-			{
-			MergeBlastXml.this.marshaller.marshal(hit,sw);
-			super.writeString(dos, sw.toString());
-			}
-		catch(JAXBException err)
-			{
-			LOG.error(err);
-			throw new RuntimeIOException(err);
-			}	
-		}
-	@Override
-	public AbstractDataCodec<Iteration> clone() {
-		return new BlastIterationCodec();
-		}
-	}
-
 /* force javac to compile */
 @SuppressWarnings("unused")
 private gov.nih.nlm.ncbi.blast.ObjectFactory _ignore_for_javac=null;
@@ -149,25 +101,11 @@ private gov.nih.nlm.ncbi.blast.ObjectFactory _ignore_for_javac=null;
 		SortingCollection<Iteration> sortingCollection=null;
 		try {
 			JAXBContext jc = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast");
-			this.unmarshaller=jc.createUnmarshaller();
 			this.marshaller=jc.createMarshaller();
 			this.marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,true);
 			this.marshaller.setProperty(Marshaller.JAXB_FRAGMENT,true);
-			XMLInputFactory xmlInputFactory=XMLInputFactory.newFactory();
-			xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-			xmlInputFactory.setXMLResolver(new XMLResolver()
-				{
-				@Override
-				public Object resolveEntity(String arg0, String arg1, String arg2,
-						String arg3) throws XMLStreamException
-					{
-					LOG.info("resolveEntity:" +arg0+"/"+arg1+"/"+arg2);
-					return null;
-					}
-				});
+			final XMLInputFactory xmlInputFactory=BlastIterationReader.createXMLInputFactory();
+			final BlastIterationReader iterationReader = new BlastIterationReader();
 			final Comparator<Iteration> hitComparator= (A,B) -> {
 					return A.getIterationQueryDef().compareTo(B.getIterationQueryDef());
 				} ;
@@ -192,9 +130,9 @@ private gov.nih.nlm.ncbi.blast.ObjectFactory _ignore_for_javac=null;
 				{
 				final XMLEvent evt=rx.peek();
 				
-				if(evt.isStartElement() && evt.asStartElement().getName().getLocalPart().equals("Iteration"))
+				if(BlastIterationReader.isIteration(evt))
 					{
-					final Iteration iteration = this.unmarshaller.unmarshal(rx, Iteration.class).getValue();
+					final Iteration iteration = iterationReader.parse(rx);
 					sortingCollection.add(iteration);
 					}
 				else if(evt.isStartElement() && 
@@ -209,18 +147,10 @@ private gov.nih.nlm.ncbi.blast.ObjectFactory _ignore_for_javac=null;
 						{
 						LOG.info("opening "+args.get(optind));
 						rx2=xmlInputFactory.createXMLEventReader(new FileReader(args.get(optind)));
-						while(rx2.hasNext())
+						Iteration iteration;
+						while((iteration=iterationReader.next(rx2))!=null)
 							{
-							XMLEvent evt2=rx2.peek();
-							if(evt2.isStartElement() && evt2.asStartElement().getName().getLocalPart().equals("Iteration"))
-								{
-								final Iteration iteration = this.unmarshaller.unmarshal(rx2, Iteration.class).getValue();
-								sortingCollection.add(iteration);
-								}
-							else
-								{
-								rx2.nextEvent();
-								}
+							sortingCollection.add(iteration);
 							}
 						rx2.close();
 						LOG.info("close");
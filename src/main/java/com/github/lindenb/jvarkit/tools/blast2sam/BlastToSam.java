@@ -29,16 +29,20 @@ import gov.nih.nlm.ncbi.blast.Hit;
 import gov.nih.nlm.ncbi.blast.Hsp;
 import gov.nih.nlm.ncbi.blast.Iteration;
 
+import java.io.Closeable;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLResolver;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
@@ -62,6 +66,7 @@ import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.bio.blast.BlastHspAlignment;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationReader;
 
 
 
@@ -251,7 +256,10 @@ RF01_532_688_0:0:0_1:0:0_9/1	99	RF01	532	40	50=	=	639	156	ATAGTAGCTTCAACAGTAAATA
 
 ```
 
+### Performance
 
+The BLAST iterations are read with a streaming StAX parser. With option `-j`, the iterations
+of each read are converted to SAM records on worker threads; the records are written in the input order.
 
 END_DOC
 */
@@ -273,12 +281,18 @@ public class BlastToSam extends Launcher
 	@Parameter(names={"-r","--reference"},description="Indexed fasta Reference")
 	private File faidx = null;
 	
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads converting the BLAST iterations to SAM records. The records are written in the input order. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
 
 	private SAMSequenceDictionary dictionary;
-	private Unmarshaller unmarshaller;
+	/** statistics and messages are not used */
+	private final BlastIterationReader iterationReader = new BlastIterationReader().
+			setKeepStatistics(false).
+			setKeepMessage(false);
 	//fool javac
 	@SuppressWarnings("unused")
 	private final static gov.nih.nlm.ncbi.blast.ObjectFactory _foolJavac=null;
@@ -390,7 +404,45 @@ public class BlastToSam extends Launcher
 			}
 		}
 	
-	private BlastToSam()
+	/** runs the conversions on worker threads if nJobs&gt;1. The results are consumed in the input order */
+	private class OrderedConverter<T> implements Closeable
+		{
+		private final ExecutorService executor;
+		private final Deque<Future<T>> pending = new ArrayDeque<>();
+		private final Consumer<T> consumer;
+		OrderedConverter(final Consumer<T> consumer)
+			{
+			this.consumer = consumer;
+			this.executor = (nJobs>1?Executors.newFixedThreadPool(nJobs):null);
+			}
+		void submit(final Callable<T> task) throws Exception
+			{
+			if(this.executor==null)
+				{
+				this.consumer.accept(task.call());
+				return;
+				}
+			this.pending.add(this.executor.submit(task));
+			while(this.pending.size() > nJobs*2)
+				{
+				this.consumer.accept(this.pending.removeFirst().get());
+				}
+			}
+		void finish() throws Exception
+			{
+			while(!this.pending.isEmpty())
+				{
+				this.consumer.accept(this.pending.removeFirst().get());
+				}
+			}
+		@Override
+		public void close()
+			{
+			if(this.executor!=null) this.executor.shutdownNow();
+			}
+		}
+	
+	public BlastToSam()
 		{
 		
 		}
@@ -398,23 +450,12 @@ public class BlastToSam extends Launcher
 	
 	
 
-	private Iteration peekIteration(XMLEventReader r) throws XMLStreamException,JAXBException
+	private Iteration peekIteration(XMLEventReader r) throws XMLStreamException
 		{
-		while(r.hasNext())
-			{
-			XMLEvent evt=r.peek();
-		
-			if(!(evt.isStartElement() && evt.asStartElement().getName().getLocalPart().equals("Iteration")))
-				{
-				r.next();
-				continue;
-				}
-			return this.unmarshaller.unmarshal(r, Iteration.class).getValue();
-			}
-		return null;
+		return this.iterationReader.next(r);
 		}
 	
-	private void fillHeader(XMLEventReader r,SAMProgramRecord prog) throws XMLStreamException,JAXBException
+	private void fillHeader(XMLEventReader r,SAMProgramRecord prog) throws XMLStreamException
 		{
 		while(r.hasNext())
 			{
@@ -457,30 +498,33 @@ public class BlastToSam extends Launcher
 			final XMLEventReader r,
 			final SAMFileHeader header
 			)
-			throws XMLStreamException,JAXBException
+			throws Exception
 		{
-		final List<Iteration> stack=new ArrayList<Iteration>();
-		String prev=null;
-		for(;;)
+		try(final OrderedConverter<SequenceIteration> converter = new OrderedConverter<>(SI->dumpSingle(w,SI)))
 			{
-			final Iteration iter1=peekIteration(r);
-			if(iter1==null || !(iter1.getIterationQueryDef().equals(prev)))
+			List<Iteration> stack=new ArrayList<Iteration>();
+			String prev=null;
+			for(;;)
 				{
-				final SequenceIteration si=convertIterationToSequenceIteration(stack,header);
-				dumpSingle(w,si);
-				if(iter1==null) break;
-				stack.clear();
-				prev=iter1.getIterationQueryDef();
+				final Iteration iter1=peekIteration(r);
+				if(iter1==null || !(iter1.getIterationQueryDef().equals(prev)))
+					{
+					final List<Iteration> group = stack;
+					converter.submit(()->convertIterationToSequenceIteration(group,header));
+					if(iter1==null) break;
+					stack=new ArrayList<Iteration>();
+					prev=iter1.getIterationQueryDef();
+					}
+				stack.add(iter1);
 				}
-			stack.add(iter1);
+			converter.finish();
 			}
 		}
-	
+
 	private SequenceIteration convertIterationToSequenceIteration(
 			final List<Iteration> stack,
 			final SAMFileHeader header
 			)
-			throws XMLStreamException,JAXBException
 			{
 			final SequenceIteration sequenceIteration=new SequenceIteration(); 
 			if(stack.isEmpty()) return sequenceIteration;
@@ -785,65 +829,70 @@ public class BlastToSam extends Launcher
 			XMLEventReader r,
 			SAMFileHeader header
 			)
-			throws XMLStreamException,JAXBException
+			throws Exception
 		{
-		List<Iteration> stack1=new ArrayList<Iteration>();
-		Iteration iter=null;
-		for(;;)
+		try(final OrderedConverter<SequenceIteration[]> converter = new OrderedConverter<>(A->dumpPaired(w,A[0],A[1])))
 			{
-			String prev_name=null;
-			if( iter==null)
-				{
-				iter=peekIteration(r);
-				if(iter==null) break;
-				}
-			stack1.add(iter);
-			List<Iteration> stack2=new ArrayList<Iteration>();
-			prev_name=iter.getIterationQueryDef();
-			
-			//pileup first of pair
+			List<Iteration> stack1=new ArrayList<Iteration>();
+			Iteration iter=null;
 			for(;;)
 				{
-				iter=peekIteration(r);
-				if(iter==null)
-					{
-					throw new RuntimeException("Illegal number of read forward/reverse");
-					}
-				else if(iter.getIterationQueryDef().equals(prev_name))
+				String prev_name=null;
+				if( iter==null)
 					{
-					stack1.add(iter);
+					iter=peekIteration(r);
+					if(iter==null) break;
 					}
-				else
-					{
-					stack2.add(iter);
-					prev_name=iter.getIterationQueryDef();
-					break;
-					}
-				}
-			
-			//pileup second of pair
-			for(;;)
-				{
-				iter=peekIteration(r);
-				if(iter==null || !iter.getIterationQueryDef().equals(prev_name))
+				stack1.add(iter);
+				List<Iteration> stack2=new ArrayList<Iteration>();
+				prev_name=iter.getIterationQueryDef();
+				
+				//pileup first of pair
+				for(;;)
 					{
-					SequenceIteration si1=convertIterationToSequenceIteration(stack1, header);
-					SequenceIteration si2=convertIterationToSequenceIteration(stack2, header);
-					dumpPaired(w,si1,si2);
-					stack1.clear();
-					stack2.clear();
-					break;
+					iter=peekIteration(r);
+					if(iter==null)
+						{
+						throw new RuntimeException("Illegal number of read forward/reverse");
+						}
+					else if(iter.getIterationQueryDef().equals(prev_name))
+						{
+						stack1.add(iter);
+						}
+					else
+						{
+						stack2.add(iter);
+						prev_name=iter.getIterationQueryDef();
+						break;
+						}
 					}
-				else
+				
+				//pileup second of pair
+				for(;;)
 					{
-					stack2.add(iter);
+					iter=peekIteration(r);
+					if(iter==null || !iter.getIterationQueryDef().equals(prev_name))
+						{
+						final List<Iteration> group1 = stack1;
+						final List<Iteration> group2 = stack2;
+						converter.submit(()->new SequenceIteration[]{
+							convertIterationToSequenceIteration(group1, header),
+							convertIterationToSequenceIteration(group2, header)
+							});
+						stack1=new ArrayList<Iteration>();
+						break;
+						}
+					else
+						{
+						stack2.add(iter);
+						}
 					}
+				if(iter==null) break;
 				}
-			if(iter==null) break;
+			converter.finish();
 			}
-		
 		}
-	
+
 	@Override
 	public int doWork(List<String> args) {
 		
@@ -861,6 +910,11 @@ public class BlastToSam extends Launcher
 		sfwf.setCreateMd5File(false);
 		sfwf.setUseAsyncIo(false);
 		final SAMFileHeader header=new SAMFileHeader();
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		try
 			{
 			LOG.info("opening "+faidx);
@@ -869,23 +923,7 @@ public class BlastToSam extends Launcher
 			header.setSequenceDictionary(this.dictionary);
 			
 			
-			final JAXBContext jc = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast");
-			this.unmarshaller=jc.createUnmarshaller();
-			final XMLInputFactory xmlInputFactory=XMLInputFactory.newFactory();
-			xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
-			xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
-			xmlInputFactory.setXMLResolver(new XMLResolver()
-				{
-				@Override
-				public Object resolveEntity(String arg0, String arg1, String arg2,
-						String arg3) throws XMLStreamException
-					{
-					LOG.info("resolveEntity:" +arg0+"/"+arg1+"/"+arg2);
-					return null;
-					}
-				});
+			final XMLInputFactory xmlInputFactory=BlastIterationReader.createXMLInputFactory();
 			final String inputName=oneFileOrNull(args);
 			if(inputName==null)
 				{
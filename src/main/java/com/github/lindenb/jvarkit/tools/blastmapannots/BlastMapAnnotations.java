@@ -11,8 +11,6 @@ package com.github.lindenb.jvarkit.tools.blastmapannots;
  * 		prints the results as a BED file.
  * 
  */
-import gov.nih.nlm.ncbi.blast.BlastOutput;
-import gov.nih.nlm.ncbi.blast.BlastOutputIterations;
 import gov.nih.nlm.ncbi.blast.Hit;
 import gov.nih.nlm.ncbi.blast.Hsp;
 
@@ -28,6 +26,7 @@ import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -37,6 +36,7 @@ import javax.xml.bind.JAXBContext;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLEventReader;
 
 import org.uniprot.Entry;
 import org.uniprot.FeatureType;
@@ -48,6 +48,8 @@ import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationReader;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -121,8 +123,9 @@ public class BlastMapAnnotations
 	{
     private static Logger LOG=Logger.build(BlastMapAnnotations.class).make(); 
 	
-	private BlastOutput blastOutput=null;
-	
+	/** only the first BLAST iteration is used */
+	private List<Iteration> blastIterations=Collections.emptyList();
+
     
     @Parameter(names={"-u","-g","--genbank","--uniprot"}, description="XML sequence file Genbank.xml or uniprot.xml.",required=true)
     private File IN=null;
@@ -679,8 +682,7 @@ public class BlastMapAnnotations
 			}
 		for(Entry entry:uniprotSet.getEntry())
 			{	
-			BlastOutputIterations iterations=this.blastOutput.getBlastOutputIterations();
-			for(Iteration iteration:iterations.getIteration())
+			for(Iteration iteration:this.blastIterations)
 				{
 				for(FeatureType feature:entry.getFeature())
 					{
@@ -722,8 +724,7 @@ public class BlastMapAnnotations
 		{
 		for(GBSeq gbSeq:gbSet.getGBSeq())
 			{	
-			BlastOutputIterations iterations=this.blastOutput.getBlastOutputIterations();
-			for(Iteration iteration:iterations.getIteration())
+			for(Iteration iteration:this.blastIterations)
 				{
 				for(GBFeature feature:gbSeq.getGBSeqFeatureTable().getGBFeature())
 					{
@@ -816,23 +817,32 @@ public class BlastMapAnnotations
 				LOG.info("unknown root element:"+domEntry.getDocumentElement().getNodeName());
 				return -1;
 				}
-			Document blastDom;
+			final XMLEventReader blastReader;
 			if(args.size()==1)
 				{
 				LOG.info("reading "+args.get(0));
-				blastDom=docBuilder.parse(new File(args.get(0)));
+				blastReader=BlastIterationReader.createXMLInputFactory().createXMLEventReader(IOUtils.openURIForBufferedReading(args.get(0)));
 				}
 			else if(args.isEmpty())
 				{
 				LOG.info("reading from stdin");
-				blastDom=docBuilder.parse(stdin());
+				blastReader=BlastIterationReader.createXMLInputFactory().createXMLEventReader(stdin());
 				}
 			else
 				{
 				LOG.error("Illegal number of args");
 				return -1;
 				}
-			this.blastOutput=unmarshaller.unmarshal(blastDom,BlastOutput.class).getValue();	
+			/* streaming: stop after the first iteration, the remaining of the BLAST output is never loaded */
+			final Iteration firstIteration = new BlastIterationReader().
+					setKeepStatistics(false).
+					setKeepMessage(false).
+					next(blastReader);
+			blastReader.close();
+			this.blastIterations=(firstIteration==null?
+					Collections.emptyList():
+					Collections.singletonList(firstIteration)
+					);
 			if(uniprotSet!=null) printUniprot(uniprotSet);
 			if(gbSet!=null) printGB(gbSet);
 			return 0;
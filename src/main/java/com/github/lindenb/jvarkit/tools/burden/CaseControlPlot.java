@@ -30,9 +30,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
@@ -49,6 +47,7 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeVectors;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
@@ -116,7 +115,8 @@ public class CaseControlPlot extends Launcher
 	
 	private static interface MafExtractor
 		{
-		public Double apply(final VariantContext ctx,Allele alt,final Set<Pedigree.Person> persons);
+		/** @param sampleIndexes indexes of the samples in the VCF header */
+		public Double apply(final GenotypeVectors.Variant row,Allele alt,final int[] sampleIndexes);
 		}
 	
 	private static class AttributeMafExtractor implements MafExtractor
@@ -128,7 +128,8 @@ public class CaseControlPlot extends Launcher
 			return attribute;
 			}
 		@Override
-		public Double apply(final VariantContext ctx,final Allele alt,final Set<Pedigree.Person> persons) {
+		public Double apply(final GenotypeVectors.Variant row,final Allele alt,final int[] sampleIndexes) {
+			final VariantContext ctx = row.getContext();
 			final String att = this.getAttribute();
 			if(att==null || att.isEmpty()) return null;
 			int index=ctx.getAlleleIndex(alt);
@@ -151,10 +152,16 @@ public class CaseControlPlot extends Launcher
 	private static class GenotypeMafExtractor implements MafExtractor
 		{
 		@Override
-		public Double apply(final VariantContext ctx,final Allele alt,final Set<Pedigree.Person> samples) {
+		public Double apply(final GenotypeVectors.Variant row,final Allele alt,final int[] sampleIndexes) {
+			final VariantContext ctx = row.getContext();
 			final MafCalculator calc=new MafCalculator(alt, ctx.getContig());
-			for(final Pedigree.Person sample: samples) {
-				calc.add(ctx.getGenotype(sample.getId()), sample.isMale());
+			final int alt_index = ctx.getAlleleIndex(alt);
+			for(final int sampleIndex: sampleIndexes) {
+				calc.add(
+					row.getPloidy(sampleIndex),
+					row.countAllele(sampleIndex, alt_index),
+					row.getGenotypeVectors().isMale(sampleIndex)
+					);
 				}
 			return calc.isEmpty()?null:calc.getMaf();
 			}
@@ -190,11 +197,12 @@ public class CaseControlPlot extends Launcher
 			}
 
 		public  void visit(
-				final VariantContext vc,
-				final Set<Pedigree.Person> cases,
-				final Set<Pedigree.Person> controls
+				final GenotypeVectors.Variant row,
+				final int[] cases,
+				final int[] controls
 				)
 			{
+			final VariantContext vc = row.getContext();
 			if(vc==null || !vc.isVariant()) return;
 			if(getFilter()!=null)
 				{
@@ -204,9 +212,9 @@ public class CaseControlPlot extends Launcher
 			for(int altidx=0; altidx < alts.size();++altidx)
 				{
 				final Allele alt= alts.get(altidx);
-				final Double casex = this.getCaseMAFExtractor().apply(vc, alt,cases);
+				final Double casex = this.getCaseMAFExtractor().apply(row, alt,cases);
 				if(casex==null || casex<0.0 || casex>1.0) continue;
-				final Double ctrly = this.getControlMAFExtractor().apply(vc, alt,controls);
+				final Double ctrly = this.getControlMAFExtractor().apply(row, alt,controls);
 				if(ctrly==null || ctrly<0.0 || ctrly>1.0) continue;
 				
 				pw.printf(precisionFormat,casex);
@@ -406,22 +414,14 @@ public class CaseControlPlot extends Launcher
 				LOG.error("No pedigree defined , or it is empty");
 				return -1;
 				}
-			final Set<Pedigree.Person> casepersons = pedigree.getPersons().
-					stream().
-					filter(F->F.isAffected() && header.getSampleNamesInOrder().indexOf(F.getId())!=-1).
-					collect(Collectors.toSet());
-					
-			if(casepersons.isEmpty()){
+			final GenotypeVectors genotypeVectors = new GenotypeVectors(header, pedigree);
+			
+			if(genotypeVectors.getCaseIndexes().length==0){
 					LOG.error("No Affected individuals in pedigree/header");
 					return -1;
 					}
 			
-			final Set<Pedigree.Person> controlpersons = pedigree.getPersons().
-					stream().
-					filter(F->F.isUnaffected() && header.getSampleNamesInOrder().indexOf(F.getId())!=-1).
-					collect(Collectors.toSet());
-			
-			if(controlpersons.isEmpty()){
+			if(genotypeVectors.getControlIndexes().length==0){
 					LOG.error("No Unaffected individuals in pedigree/header");
 					return -1;
 					}
@@ -438,9 +438,10 @@ public class CaseControlPlot extends Launcher
 			while(in.hasNext())
 				{
 				final VariantContext ctx = progress.watch(in.next());
+				final GenotypeVectors.Variant row = genotypeVectors.decode(ctx);
 				if(teeVariantWriter!=null) teeVariantWriter.add(ctx);
 				for(final CaseControlExtractor handler : excractors) {
-					handler.visit(ctx,casepersons,controlpersons);
+					handler.visit(row,genotypeVectors.getCaseIndexes(),genotypeVectors.getControlIndexes());
 					}
 				}
 			for(final CaseControlExtractor handler : excractors) {
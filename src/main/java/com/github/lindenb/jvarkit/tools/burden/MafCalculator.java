@@ -146,6 +146,20 @@ public class MafCalculator {
 			addAllele(a,sample_is_male);
 		}
 	
+	/** same as add(Genotype) for a genotype given as counts, e.g. from GenotypeVectors.
+	 * @param ploidy number of alleles in the genotype, including the no-call alleles
+	 * @param alt_count number of copies of the observed ALT allele or a negative number if the genotype is not called
+	 */
+	public void add(final int ploidy,final int alt_count,boolean sample_is_male) {
+		if(alt_count<0) {
+			if(!this.isNoCallIsHomRef()) return;
+			this.count_total+=( this.is_chrom_sexual && sample_is_male?1:2);
+			return;
+			}
+		this.count_total += ploidy * ( this.is_chrom_sexual && sample_is_male ? 0.5 : 1.0);
+		this.count_alt += alt_count;
+		}
+	
 	private void addAllele(final Allele a,boolean sample_is_male)
 		{
 		/* chromosome X and male ? count half */
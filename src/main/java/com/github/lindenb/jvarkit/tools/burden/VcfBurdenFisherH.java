@@ -60,6 +60,7 @@ import com.github.lindenb.jvarkit.tools.lumpysv.LumpyConstants;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeVectors;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.beust.jcommander.Parameter;
@@ -172,7 +173,10 @@ public class VcfBurdenFisherH
 					VCFHeaderLineCount.A,VCFHeaderLineType.String,
 					"Fisher Exact Test Case/Control"
 					);
-			private Set<Pedigree.Person> individualSet= null;
+			private GenotypeVectors genotypeVectors = null;
+			/* persons not found in the VCF header are always counted as 'miss alt' */
+			private int count_case_not_in_header = 0;
+			private int count_ctrl_not_in_header = 0;
 			private final boolean ignoreFiltered = CtxWriterFactory.this.ignoreFiltered;
 			private final Function<VCFHeader,Set<Pedigree.Person>> caseControlExtractor = CtxWriterFactory.this.caseControlExtractor;
 			private final boolean ignore_filtered_genotype = CtxWriterFactory.this.ignore_filtered_genotype;
@@ -190,14 +194,15 @@ public class VcfBurdenFisherH
 				h2.addMetaDataLine(this.fisherAlleleInfoHeader);
 				h2.addMetaDataLine(this.fisherAlleleFilterHeader);
 				h2.addMetaDataLine(this.fisherDetailInfoHeader);
+				final Set<Pedigree.Person> individualSet;
 				if( CtxWriterFactory.this.pedigreeFile == null)
 					{
-					this.individualSet = this.caseControlExtractor.apply(header);
+					individualSet = this.caseControlExtractor.apply(header);
 					}
 				else
 					{
 					try {
-						this.individualSet = new Pedigree.CaseControlExtractor().extract(
+						individualSet = new Pedigree.CaseControlExtractor().extract(
 								header,
 								new Pedigree.Parser().parse( CtxWriterFactory.this.pedigreeFile)
 								);
@@ -207,6 +212,14 @@ public class VcfBurdenFisherH
 						throw new RuntimeIOException(err);
 						}
 					}
+				this.genotypeVectors = new GenotypeVectors(header, individualSet);
+				this.count_case_not_in_header = 0;
+				this.count_ctrl_not_in_header = 0;
+				for(final Pedigree.Person p: this.genotypeVectors.getPersonsNotInHeader()) {
+					LOG.warn("Genotype is null for sample "+p.getId()+" not is pedigree!");
+					if(p.isAffected()) { this.count_case_not_in_header++; }
+					else { this.count_ctrl_not_in_header++; }
+					}
 				super.writeHeader(h2);
 				}
 			
@@ -223,6 +236,8 @@ public class VcfBurdenFisherH
 						;
 				boolean set_filter = true;
 				boolean found_one_alt_to_compute = false;
+				/* lumpy variants need the FORMAT/SU attribute, others are decoded as vectors */
+				final GenotypeVectors.Variant row = identified_as_lumpy ? null : this.genotypeVectors.decode(ctx);
 				final List<String> infoData = new ArrayList<>(ctx.getAlleles().size());
 				final List<Double> fisherValues = new ArrayList<>(ctx.getAlleles().size());
 				
@@ -239,54 +254,65 @@ public class VcfBurdenFisherH
 					
 					/* count for fisher allele */
 					final Count count = new Count();
+					count.case_miss_alt += this.count_case_not_in_header;
+					count.ctrl_miss_alt += this.count_ctrl_not_in_header;
+					final int alt_index = ctx.getAlleleIndex(observed_alt);
 					
 					/* loop over persons in this pop */
-					for(final Pedigree.Person p: this.individualSet ) 	{
-						/* get genotype for this individual */
-						final Genotype genotype = ctx.getGenotype(p.getId());
-						
+					for(final int sampleIndex: this.genotypeVectors.getPersonIndexes() ) 	{
+						final boolean affected = this.genotypeVectors.getPerson(sampleIndex).isAffected();
 						final boolean genotype_contains_allele;
 						
-						if(identified_as_lumpy && !genotype.isCalled())
+						if(identified_as_lumpy)
 							{
-							if(this.ignore_filtered_genotype && genotype.isFiltered())
+							/* get genotype for this individual */
+							final Genotype genotype = this.genotypeVectors.getGenotype(ctx, sampleIndex);
+							if(!genotype.isCalled())
+								{
+								if(this.ignore_filtered_genotype && genotype.isFiltered())
+									{
+									if(affected) { count.case_miss_alt++; }
+									else { count.ctrl_miss_alt++; }
+									continue;
+									}
+								if(!genotype.hasExtendedAttribute("SU"))
+									{
+									throw new JvarkitException.FileFormatError(
+											"Variant identified as lumpysv, but not attribute 'SU' defined in genotye "+genotype);
+									}
+								final int su_count = genotype.getAttributeAsInt("SU", 0);
+								genotype_contains_allele = su_count>= this.lumpy_SU_threshold;
+								}
+							else if(this.ignore_filtered_genotype && genotype.isFiltered())
 								{
-								if(p.isAffected()) { count.case_miss_alt++; }
+								if(affected) { count.case_miss_alt++; }
 								else { count.ctrl_miss_alt++; }
 								continue;
 								}
-							if(!genotype.hasExtendedAttribute("SU"))
+							else
 								{
-								throw new JvarkitException.FileFormatError(
-										"Variant identified as lumpysv, but not attribute 'SU' defined in genotye "+genotype);
+								genotype_contains_allele = genotype.getAlleles().stream().
+										anyMatch(A->A.equals(observed_alt));
 								}
-							final int su_count = genotype.getAttributeAsInt("SU", 0);
-							genotype_contains_allele = su_count>= this.lumpy_SU_threshold;
 							}
 						else
 							{
-							/* individual is not in vcf header */
-							if(genotype==null || !genotype.isCalled() || (this.ignore_filtered_genotype && genotype.isFiltered())) {
-								if(genotype==null) LOG.warn("Genotype is null for sample "+p.getId()+" not is pedigree!");
+							if(!row.isCalled(sampleIndex) || (this.ignore_filtered_genotype && row.isFiltered(sampleIndex))) {
 								//no information , we consider that sample was called AND HOM REF
-								if(p.isAffected()) { count.case_miss_alt++; }
+								if(affected) { count.case_miss_alt++; }
 								else { count.ctrl_miss_alt++; }
 								continue;
 								}
-							
-							/* loop over alleles */
-							genotype_contains_allele = genotype.getAlleles().stream().
-									anyMatch(A->A.equals(observed_alt));
-							
+							genotype_contains_allele = row.countAllele(sampleIndex, alt_index) > 0;
 							}
 						
 						/* fisher */
 						if(genotype_contains_allele) {
-							if(p.isAffected()) { count.case_have_alt++; ;}
+							if(affected) { count.case_have_alt++; ;}
 							else { count.ctrl_have_alt++; }
 							}
 						else {
-							if(p.isAffected()) { count.case_miss_alt++; }
+							if(affected) { count.case_miss_alt++; }
 							else { count.ctrl_miss_alt++; }
 							}
 					}/* end of loop over persons */
@@ -330,7 +356,7 @@ public class VcfBurdenFisherH
 			@Override
 			public void close() {
 				super.close();
-				this.individualSet=null;
+				this.genotypeVectors=null;
 				}
 			}
 		
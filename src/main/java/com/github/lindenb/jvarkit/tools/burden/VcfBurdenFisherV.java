@@ -29,9 +29,8 @@ package com.github.lindenb.jvarkit.tools.burden;
 
 
 import java.io.File;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -48,13 +47,12 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeVectors;
 import com.github.lindenb.jvarkit.util.vcf.VCFBuffer;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.variant.variantcontext.Allele;
-import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
@@ -138,7 +136,9 @@ public class VcfBurdenFisherV
 			{
 			private final File tmpDir;
 			private VCFBuffer tmpw = null;
-			private final Map<Pedigree.Person,SuperVariant> indi2supervariant = new HashMap<>();
+			private GenotypeVectors genotypeVectors = null;
+			/* indexed by sample index in the VCF header */
+			private SuperVariant sample2supervariant[] = null;
 			private Count count= null;
 			private VCFHeader header2 = null;
 			CtxWriter(final VariantContextWriter delegate) {
@@ -148,10 +148,9 @@ public class VcfBurdenFisherV
 			
 			@Override
 			public void writeHeader(final VCFHeader header) {
-				this.indi2supervariant.clear();
-				for(final Pedigree.Person  person: new Pedigree.CaseControlExtractor().extract(header)) {
-					this.indi2supervariant.put(person, SuperVariant.SV0);
-					}
+				this.genotypeVectors = new GenotypeVectors(header, new Pedigree.CaseControlExtractor().extract(header));
+				this.sample2supervariant = new SuperVariant[this.genotypeVectors.getSampleCount()];
+				Arrays.fill(this.sample2supervariant, SuperVariant.SV0);
 				this.tmpw = new VCFBuffer(1000,tmpDir);
 				this.tmpw.writeHeader(header);
 				this.count = new Count();
@@ -179,34 +178,44 @@ public class VcfBurdenFisherV
 					LOG.warn("variant with more than one ALT. Using getAltAlleleWithHighestAlleleCount.");
 					}
 				
-				final Allele observed_alt = ctx.getAltAlleleWithHighestAlleleCount();
+				final GenotypeVectors.Variant row = this.genotypeVectors.decode(ctx);
 				
-				//loop over person in this pedigree
-				for(final Pedigree.Person person : indi2supervariant.keySet() ) {
-					if(this.indi2supervariant.get(person)==SuperVariant.AT_LEAST_ONE_VARIANT) continue;
-					final Genotype g = ctx.getGenotype(person.getId());	
-					if(g==null) {
-						continue;//not in vcf header
+				/* same as ctx.getAltAlleleWithHighestAlleleCount() without decoding the genotypes: on a tie, the last ALT is used */
+				int alt_index = 1;
+				if( n_alts > 1) {
+					int best_count = 0;
+					for(int i=1;i< ctx.getNAlleles();++i) {
+						int allele_count = 0;
+						for(int sampleIndex=0;sampleIndex < this.genotypeVectors.getSampleCount();++sampleIndex) {
+							allele_count += Math.max(0, row.countAllele(sampleIndex, i));
+							}
+						if(allele_count >= best_count) {
+							best_count = allele_count;
+							alt_index = i;
+							}
+						}
 					}
-					if(g.isFiltered()) {
+				
+				//loop over person in this pedigree
+				for(final int sampleIndex : this.genotypeVectors.getPersonIndexes() ) {
+					if(this.sample2supervariant[sampleIndex]==SuperVariant.AT_LEAST_ONE_VARIANT) continue;
+					if(row.isFiltered(sampleIndex)) {
 						LOG.warn("ignoring filtered genotype");
 						continue;//not filter.
 					}
-					for(final Allele alt : g.getAlleles()) {
-						if(observed_alt.equals(alt)) {
-							this.indi2supervariant.put(person,SuperVariant.AT_LEAST_ONE_VARIANT);
-							break;
-							}
-						}//end of allele
-					}//en dof for[person]			
+					if(row.countAllele(sampleIndex, alt_index) > 0) {
+						this.sample2supervariant[sampleIndex] = SuperVariant.AT_LEAST_ONE_VARIANT;
+						}
+					}//en dof for[person]
 				}
 			
 			@Override
 			public void close() {
 				VcfIterator in2  = null;
 				try {
-					for(final Pedigree.Person person : this.indi2supervariant.keySet() ) {
-						final SuperVariant superVariant = indi2supervariant.get(person);
+					for(final int sampleIndex : this.genotypeVectors.getPersonIndexes() ) {
+						final Pedigree.Person person = this.genotypeVectors.getPerson(sampleIndex);
+						final SuperVariant superVariant = this.sample2supervariant[sampleIndex];
 						if(superVariant==SuperVariant.SV0 ) {
 							if(person.isAffected()) count.count_case_sv0++;
 							else count.count_ctrl_sv0++;
@@ -247,7 +256,8 @@ public class VcfBurdenFisherV
 					if(this.tmpw!=null) this.tmpw.dispose();
 					this.tmpw =null;
 					CloserUtil.close(in2);
-					this.indi2supervariant.clear();
+					this.sample2supervariant = null;
+					this.genotypeVectors = null;
 					this.count=null;
 					super.close();
 					}
@@ -34,7 +34,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -62,6 +61,7 @@ import com.github.lindenb.jvarkit.tools.lumpysv.LumpyConstants;
 import com.github.lindenb.jvarkit.util.Pedigree;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeVectors;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 /**
@@ -210,8 +210,7 @@ public class VcfBurdenMAF
 			{
 			private final boolean ignoreFiltered = CtxWriterFactory.this.ignoreFiltered;
 			private final Function<VCFHeader,Set<Pedigree.Person>> caseControlExtractor = CtxWriterFactory.this.caseControlExtractor;
-			private Set<Pedigree.Person> caseSamples=null;
-			private Set<Pedigree.Person> controlSamples=null;
+			private GenotypeVectors genotypeVectors = null;
 			private final VCFInfoHeaderLine mafCasInfoHeader = new VCFInfoHeaderLine(
 					"BurdenMAFCas",VCFHeaderLineCount.A,VCFHeaderLineType.Float,"Burden Filter F2. MAF Cases"
 					);
@@ -255,10 +254,7 @@ public class VcfBurdenMAF
 						throw new RuntimeIOException(err);
 						}
 					}
-				this.caseSamples = persons.stream().
-						filter(I->I.isAffected()).collect(Collectors.toSet());
-				this.controlSamples = persons.stream().
-						filter(I->I.isUnaffected()).collect(Collectors.toSet());
+				this.genotypeVectors = new GenotypeVectors(header, persons);
 
 				final VCFHeader h2= new VCFHeader(header);
 				h2.addMetaDataLine(this.mafCasInfoHeader);
@@ -280,6 +276,8 @@ public class VcfBurdenMAF
 						this.is_lumpy_vcf_header && 
 						LumpyConstants.isLumpyVariant(ctx)
 						;
+				/* lumpy variants need the FORMAT/SU attribute, others are decoded as vectors */
+				final GenotypeVectors.Variant row = identified_as_lumpy ? null : this.genotypeVectors.decode(ctx);
 				final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
 				final List<Double> mafCasList = new ArrayList<>(); 
 				final List<Double> mafCtrlList = new ArrayList<>(); 
@@ -289,21 +287,23 @@ public class VcfBurdenMAF
 				
 				for(final Allele observed_alt : ctx.getAlternateAlleles() )
 					{
+					final int alt_index = ctx.getAlleleIndex(observed_alt);
 					/* loop over two populations : 0 = case, 1=controls */
 					for(int pop=0;pop<2;++pop) {
 						final MafCalculator mafCalculator = new MafCalculator(observed_alt, ctx.getContig());
 						mafCalculator.setNoCallIsHomRef(CtxWriterFactory.this.noCallAreHomRef);
 						
 						/* loop over persons in this pop */
-						for(final Pedigree.Person p:(pop==CASE_POP?this.caseSamples:this.controlSamples)) 
+						for(final int sampleIndex:(pop==CASE_POP?this.genotypeVectors.getCaseIndexes():this.genotypeVectors.getControlIndexes())) 
 							{
-							/* get genotype for this individual */
-							final Genotype genotype = ctx.getGenotype(p.getId());
-							if(this.ignore_filtered_genotype && genotype.isFiltered()) continue;
+							final boolean is_male = this.genotypeVectors.isMale(sampleIndex);
 							
 							/* this is a lumpy genotype */
 							if(identified_as_lumpy)
 								{
+								/* get genotype for this individual */
+								final Genotype genotype = this.genotypeVectors.getGenotype(ctx, sampleIndex);
+								if(this.ignore_filtered_genotype && genotype.isFiltered()) continue;
 								if(!genotype.hasExtendedAttribute("SU"))
 									{
 									throw new JvarkitException.FileFormatError(
@@ -317,13 +317,16 @@ public class VcfBurdenMAF
 												Arrays.asList(observed_alt,observed_alt):
 												Arrays.asList(ctx.getReference(),ctx.getReference())
 												).make()
-										, p.isMale());
+										, is_male);
 								}
 							else /* this is a not a lumpy genotype , regular case...*/
 								{
-								mafCalculator.add(genotype, p.isMale());
+								if(this.ignore_filtered_genotype && row.isFiltered(sampleIndex)) continue;
+								mafCalculator.add(
+										row.getPloidy(sampleIndex),
+										row.countAllele(sampleIndex, alt_index),
+										is_male);
 								}
-							/* if(pop==CASE_POP && genotype.isCalled()) LOG.info("DEBUGMAF: "+p+" "+genotype); */
 							}/* end of loop over persons */
 						/* at least one genotype found */
 						if(!mafCalculator.isEmpty())
@@ -378,8 +381,7 @@ public class VcfBurdenMAF
 			@Override
 			public void close() {
 				super.close();
-				this.caseSamples=null;
-				this.controlSamples=null;
+				this.genotypeVectors=null;
 				}
 			}
 		@Override
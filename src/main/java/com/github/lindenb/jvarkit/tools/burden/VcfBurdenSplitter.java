@@ -46,7 +46,6 @@ import java.util.regex.Pattern;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -54,9 +53,9 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.GroupingSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
@@ -142,6 +141,8 @@ public class VcfBurdenSplitter
 
 	@Parameter(names={"-all_filtered","--all_filtered"},description="If defined, the group where ALL the variants are FILTERED will be saved here.")
 	private File allFilteredFileOut = null;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads sorting the (key,variant) records of each contig before grouping. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	
@@ -600,9 +601,9 @@ public class VcfBurdenSplitter
 	
 	@Override
 	protected int doVcfToVcf(String inputName, File outorNull) {
-		SortingCollection<KeyAndLine> sortingcollection=null;
+		GroupingSortingCollection<KeyAndLine> sortingcollection=null;
 		BufferedReader in = null;
-		CloseableIterator<KeyAndLine> iter=null;
+		CloseableIterator<List<KeyAndLine>> eqiter=null;
 		PrintStream pw = null;
 		PrintWriter allDiscardedLog = null;
 		try {
@@ -646,15 +647,9 @@ public class VcfBurdenSplitter
 				if(variant==null || !variant.getContig().equals(prev_contig)) {
 					if(sortingcollection!=null) {
 						sortingcollection.doneAdding();
-						iter = sortingcollection.iterator();
 						LOG.info("dumping data for CONTIG: \""+prev_contig+"\"");
 						
-						final EqualRangeIterator<KeyAndLine> eqiter = new EqualRangeIterator<>(iter, new Comparator<KeyAndLine>() {
-							@Override
-							public int compare(final KeyAndLine o1, final KeyAndLine o2) {
-								return o1.key.compareTo(o2.key);
-								}
-							});
+						eqiter = sortingcollection.groups();
 						while(eqiter.hasNext())
 							{
 							final List<KeyAndLine> buffer = eqiter.next();
@@ -720,8 +715,7 @@ public class VcfBurdenSplitter
 							out.close();//yes because wrapped into IOUtils.encloseableOutputSream
 							pw.flush();
 							}
-						eqiter.close();
-						iter.close();iter=null;
+						eqiter.close();eqiter=null;
 						//dispose sorting collection
 						sortingcollection.cleanup();
 						sortingcollection=null;
@@ -733,14 +727,14 @@ public class VcfBurdenSplitter
 				
 				if(sortingcollection==null) {
 					/* create sorting collection for new contig */
-					sortingcollection = SortingCollection.newInstance(
-							KeyAndLine.class,
+					sortingcollection = new GroupingSortingCollection<>(
 							new KeyAndLineCodec(),
 							new KeyAndLineComparator(),
+							(o1,o2)->o1.key.compareTo(o2.key),
 							this.writingSortingCollection.maxRecordsInRam,
 							this.writingSortingCollection.getTmpPaths()
 							);
-					sortingcollection.setDestructiveIteration(true);
+					sortingcollection.setThreads(this.nJobs);
 					}
 				
 				if( variant.getAlternateAlleles().size()!=1) {
@@ -778,7 +772,7 @@ public class VcfBurdenSplitter
 			}
 		finally
 			{
-			CloserUtil.close(iter);
+			CloserUtil.close(eqiter);
 			if(sortingcollection!=null) sortingcollection.cleanup();
 			CloserUtil.close(in);
 			CloserUtil.close(pw);
@@ -813,6 +807,11 @@ public class VcfBurdenSplitter
 			return wrapException("Cannot find a splitter named "+this.splitterName);
 			}
 		}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		if(this.listSplitter) {
 			for(final Splitter splitter:this.splitters) {
 				stdout().println(splitter.getName()+"\t"+splitter.getDescription());
@@ -40,12 +40,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 
-import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.AbstractVCFCodec;
 import htsjdk.variant.vcf.VCFConstants;
@@ -53,7 +51,6 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.SortingCollection;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.tribble.readers.LineIterator;
 
@@ -62,14 +59,14 @@ import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.stats.FisherExactTest;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.Pedigree;
-import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+import com.github.lindenb.jvarkit.util.picard.GroupingSortingCollection;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.GenotypeVectors;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 import com.github.lindenb.jvarkit.util.vcf.predictions.AnnPredictionParser;
@@ -109,6 +106,7 @@ chr10   135336656  135369532  CYP2E1     snpeff-gene-name  3                 2
 ## History
 
 * 201707: added pedigree, removed XML output
+* 201812: `--jobs` : the records are sorted by several threads and the temporary files are compressed.
 
 
 END_DOC
@@ -143,6 +141,8 @@ public class GroupByGene
 	private int slidingWindowShift=0;
 	@Parameter(names={"--fisher"},description="[20170726] Print fisher for case/control (experimental, need to work on this)")
 	private boolean print_fisher=false;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads sorting the (gene,variant) records before grouping. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
 	
@@ -346,10 +346,34 @@ public class GroupByGene
 		}
 	
 
+	/** same as testing a Genotype for isAvailable, isCalled, !isNoCall, !isHomRef and (optional) !isFiltered */
+	private boolean hasMutation(final GenotypeVectors.Variant genotypes,final int sampleIndex)
+		{
+		if(!genotypes.isCalled(sampleIndex)) return false;
+		if(genotypes.isHomRef(sampleIndex)) return false;
+		if(this.ignore_filtered_genotype && genotypes.isFiltered(sampleIndex)) return false;
+		return true;
+		}
+	
+	/** number of samples carrying at least one variant. if 'sampleIndexes' is null, all the samples are used */
+	private static int countCarriers(final int sample2count[],final int sampleIndexes[])
+		{
+		int n=0;
+		if(sampleIndexes==null)
+			{
+			for(int i=0;i< sample2count.length;++i) if(sample2count[i]>0) n++;
+			}
+		else
+			{
+			for(final int i:sampleIndexes) if(sample2count[i]>0) n++;
+			}
+		return n;
+		}
+	
 	private void read(final String input) throws IOException
 		{
 		LineIterator lineiter=null;
-		SortingCollection<Call> sortingCollection=null;
+		GroupingSortingCollection<Call> sortingCollection=null;
 		
 		
 		
@@ -361,18 +385,18 @@ public class GroupByGene
 						IOUtils.openURIForLineIterator(input)
 						);
 
-			sortingCollection =SortingCollection.newInstance(
-					Call.class,
+			sortingCollection =new GroupingSortingCollection<>(
 					new CallCodec(),
 					(C1,C2)->{
 						int i= C1.compareTo(C2);
 						if(i!=0) return i;
 						return C1.line.compareTo(C2.line);
 					},
+					(C1,C2)->C1.compareTo(C2),
 					this.writingSortingCollection.getMaxRecordsInRam(),
 					this.writingSortingCollection.getTmpPaths()
 					);
-			sortingCollection.setDestructiveIteration(true);
+			sortingCollection.setThreads(this.nJobs);
 	
 			
 			final VCFUtils.CodecAndHeader cah =VCFUtils.parseHeader(lineiter);
@@ -437,39 +461,11 @@ public class GroupByGene
 			
 			/** dump */			
 	
-			final Set<String> casesSamples = pedigree.getPersons().stream().
-						filter(P->P.isAffected()).
-						map(P->P.getId()).
-						filter(ID->sampleNames.contains(ID)).
-						collect(Collectors.toSet())
-						;
-			final Set<String> controlsSamples = pedigree.getPersons().stream().
-					filter(P->P.isUnaffected()).
-					map(P->P.getId()).
-					filter(ID->sampleNames.contains(ID)).
-					collect(Collectors.toSet())
-					;
-			
-			final Set<String> maleSamples = pedigree.getPersons().stream().
-					filter(P->P.isMale()).
-					map(P->P.getId()).
-					filter(ID->sampleNames.contains(ID)).
-					collect(Collectors.toSet())
-					;
-			final Set<String> femaleSamples = pedigree.getPersons().stream().
-					filter(P->P.isFemale()).
-					map(P->P.getId()).
-					filter(ID->sampleNames.contains(ID)).
-					collect(Collectors.toSet())
-					;
-			final Predicate<Genotype> genotypeFilter = genotype -> {
-				if(!genotype.isAvailable()) return false;
-				if(!genotype.isCalled()) return false;
-				if(genotype.isNoCall()) return false;
-				if(genotype.isHomRef()) return false;
-				if(this.ignore_filtered_genotype && genotype.isFiltered()) return false;
-				return true;
-			};
+			final GenotypeVectors genotypeVectors = new GenotypeVectors(header, pedigree);
+			final int casesSamples[] = genotypeVectors.getCaseIndexes();
+			final int controlsSamples[] = genotypeVectors.getControlIndexes();
+			final int maleSamples[] = genotypeVectors.getMaleIndexes();
+			final int femaleSamples[] = genotypeVectors.getFemaleIndexes();
 			
 			
 			
@@ -490,30 +486,30 @@ public class GroupByGene
 			pw.print('\t');
 			pw.print("count.variations");
 			
-			if(!casesSamples.isEmpty())
+			if(casesSamples.length>0)
 				{
 				pw.print('\t');
 				pw.print("pedigree.cases");
 				}
-			if(!controlsSamples.isEmpty())
+			if(controlsSamples.length>0)
 				{
 				pw.print('\t');
 				pw.print("pedigree.controls");
 				}
 			
 			
-			if(!maleSamples.isEmpty())
+			if(maleSamples.length>0)
 				{
 				pw.print('\t');
 				pw.print("pedigree.males");
 				}
-			if(!femaleSamples.isEmpty())
+			if(femaleSamples.length>0)
 				{
 				pw.print('\t');
 				pw.print("pedigree.females");
 				}
 			
-			if(this.print_fisher && !controlsSamples.isEmpty() && !casesSamples.isEmpty())
+			if(this.print_fisher && controlsSamples.length>0 && casesSamples.length>0)
 				{
 				pw.print('\t');
 				pw.print("fisher");
@@ -529,8 +525,7 @@ public class GroupByGene
 			pw.println();
 				
 			
-			final CloseableIterator<Call> iter=sortingCollection.iterator();
-			final EqualRangeIterator<Call> eqiter = new EqualRangeIterator<>(iter, (C1,C2)->C1.compareTo(C2));
+			final CloseableIterator<List<Call>> eqiter = sortingCollection.groups();
 			while(eqiter.hasNext())
 				{
 				final List<Call> row = eqiter.next();
@@ -539,37 +534,39 @@ public class GroupByGene
 				final List<VariantContext> variantList =row.stream().map(R-> GroupByGene.this.the_codec.decode(R.line)).collect(Collectors.toList());
 				final int minPos = variantList.stream().mapToInt(R->R.getStart()).min().getAsInt();
 				final int maxPos = variantList.stream().mapToInt(R->R.getEnd()).max().getAsInt();
-				final Set<String> sampleCarryingMut = new HashSet<String>();
-				final Counter<String> pedCasesCarryingMut = new Counter<String>();
-				final Counter<String> pedCtrlsCarryingMut = new Counter<String>();
-				final Counter<String> malesCarryingMut = new Counter<String>();
-				final Counter<String> femalesCarryingMut = new Counter<String>();
-				final Counter<String> sample2count = new Counter<String>();
+				/* number of variants carried by each sample */
+				final int sample2count[] = new int[genotypeVectors.getSampleCount()];
+				/* count for fisher */
+				int count_case_mut =0;
+				int count_ctrl_mut = 0;
+				int count_case_wild = 0;
+				int count_ctrl_wild = 0;
 				for(final VariantContext ctx: variantList)
 					{
-					for(final Genotype genotype:ctx.getGenotypes())
+					final GenotypeVectors.Variant genotypes = genotypeVectors.decode(ctx);
+					for(int sampleIndex=0;sampleIndex< sample2count.length;++sampleIndex)
 						{
-						if(!genotypeFilter.test(genotype)) continue;
-	 					final String sampleName= genotype.getSampleName();
-	 					
-						sample2count.incr(sampleName);
-						sampleCarryingMut.add(sampleName);
-						
-						if(casesSamples.contains(sampleName))
+						if(!hasMutation(genotypes,sampleIndex)) continue;
+						sample2count[sampleIndex]++;
+						}
+					for(final int sampleIndex: controlsSamples) {
+						if(hasMutation(genotypes,sampleIndex))
 							{
-							pedCasesCarryingMut.incr(sampleName);
+							count_ctrl_mut++;
 							}
-						if(controlsSamples.contains(sampleName))
+						else
 							{
-							pedCtrlsCarryingMut.incr(sampleName);
+							count_ctrl_wild++;
 							}
-						if(maleSamples.contains(sampleName))
+						}
+					for(final int sampleIndex: casesSamples) {
+						if(hasMutation(genotypes,sampleIndex))
 							{
-							malesCarryingMut.incr(sampleName);
+							count_case_mut++;
 							}
-						if(femaleSamples.contains(sampleName))
+						else
 							{
-							femalesCarryingMut.incr(sampleName);
+							count_case_wild++;
 							}
 						}
 					}
@@ -585,66 +582,33 @@ public class GroupByGene
 					pw.print('\t');
 					pw.print(first.gene.type);
 					pw.print('\t');
-					pw.print(sampleCarryingMut.size());
+					pw.print(countCarriers(sample2count,null));
 					pw.print('\t');
 					pw.print(variantList.size());
 					
-					if(!casesSamples.isEmpty())
+					if(casesSamples.length>0)
 						{
 						pw.print('\t');
-						pw.print(pedCasesCarryingMut.getCountCategories());
+						pw.print(countCarriers(sample2count,casesSamples));
 						}
-					if(!controlsSamples.isEmpty())
+					if(controlsSamples.length>0)
 						{
 						pw.print('\t');
-						pw.print(pedCtrlsCarryingMut.getCountCategories());
+						pw.print(countCarriers(sample2count,controlsSamples));
 						}
-					if(!maleSamples.isEmpty())
+					if(maleSamples.length>0)
 						{
 						pw.print('\t');
-						pw.print(malesCarryingMut.getCountCategories());
+						pw.print(countCarriers(sample2count,maleSamples));
 						}
-					if(!femaleSamples.isEmpty())
+					if(femaleSamples.length>0)
 						{
 						pw.print('\t');
-						pw.print(femalesCarryingMut.getCountCategories());
+						pw.print(countCarriers(sample2count,femaleSamples));
 						}
 					
-					if(this.print_fisher && !controlsSamples.isEmpty() && !casesSamples.isEmpty())
+					if(this.print_fisher && controlsSamples.length>0 && casesSamples.length>0)
 						{
-						int count_case_mut =0;
-						int count_ctrl_mut = 0;
-						int count_case_wild = 0;
-						int count_ctrl_wild = 0;
-						
-						for(final VariantContext ctx: variantList) {
-							for(final Genotype genotype:ctx.getGenotypes())
-								{
-								final String sampleName =  genotype.getSampleName();
-								final boolean has_mutation = genotypeFilter.test(genotype);
-								if( controlsSamples.contains(sampleName)) {
-									if(has_mutation)
-										{
-										count_ctrl_mut++;
-										}
-									else
-										{
-										count_ctrl_wild++;
-										}
-									}
-								else if( casesSamples.contains(sampleName)) {
-									if(has_mutation)
-										{
-										count_case_mut++;
-										}
-									else
-										{
-										count_case_wild++;
-										}
-									}
-								}
-							}
-						
 						final FisherExactTest fisher = FisherExactTest.compute(
 								count_case_mut,count_case_wild,
 								count_ctrl_mut,count_ctrl_wild
@@ -654,17 +618,16 @@ public class GroupByGene
 						}
 	
 					
-					for(final String sample: sampleNames)
+					for(int sampleIndex=0;sampleIndex< sample2count.length;++sampleIndex)
 						{
 						pw.print('\t');
-						pw.print(sample2count.count(sample));
+						pw.print(sample2count[sampleIndex]);
 						}
 					pw.println();
 					if(pw.checkError()) break;
 					
 				}
 			eqiter.close();
-			iter.close();
 			pw.flush();
 			if(this.outFile!=null) pw.close();
 			
@@ -687,6 +650,11 @@ public class GroupByGene
 				return -1;
 				}
 			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		
 		try
 			{
@@ -24,14 +24,18 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.lumpysv;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,31 +46,22 @@ import java.util.stream.Collectors;
 
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.math.stats.Percentile;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
-import com.sleepycat.bind.tuple.TupleBinding;
-import com.sleepycat.bind.tuple.TupleInput;
-import com.sleepycat.bind.tuple.TupleOutput;
-import com.sleepycat.je.Cursor;
-import com.sleepycat.je.Database;
-import com.sleepycat.je.DatabaseConfig;
-import com.sleepycat.je.DatabaseEntry;
-import com.sleepycat.je.Environment;
-import com.sleepycat.je.EnvironmentConfig;
-import com.sleepycat.je.LockMode;
-import com.sleepycat.je.OperationStatus;
-import com.sleepycat.je.Transaction;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.SortingCollection;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -97,10 +92,16 @@ input is a set of VCF file or a file ending with '.list' and containing one line
 
 ```
 $ find DIR -name "*.vcf" > vcf.list
-$ mkdir -p BDB
-$ java -jar dist/lumpysort.jar --bdb BDB/  vcf.list > merged.ved
+$ java -jar dist/lumpysort.jar --tmpDir TMP/ vcf.list > merged.vcf
 ```
 
+## Performance
+
+[20181210] The variants are not stored in a Berkeley DB anymore. They are sorted with an external merge sort of compact
+binary records (the sort key and the VCF line), and the overlapping events are clustered in a single pass over the
+sorted records: only the records that can still be merged with the current record are kept in memory.
+The option `--bdb` is ignored.
+
 END_DOC
  */
 @Program(name="lumpysort",
@@ -128,9 +129,11 @@ public class LumpySort
 	private boolean do_genotype = false;
 	@Parameter(names={"-B","--bed"},description="restrict to variants overlapping this BED file.")
 	private File bedFile = null;
-	@Parameter(names={"-bdb","--bdb"},description="Berkeley DB working directory. It must exists and must be writeable.",required=true)
+	@Parameter(names={"-bdb","--bdb"},description="[20181210] Ignored. Berkeley DB is not used anymore, see --tmpDir.",hidden=true)
 	private File bdbHomeDir = null;
-	
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
+
 	/** encoder for VariantCtx -> line */
 	private VCFEncoder vcfEncoder = null;
 	/** encoder for line -> VariantCtx */
@@ -138,31 +141,50 @@ public class LumpySort
 	
 	
 	
-	/** berkeleyDB LumpyVar encoder */
-	private  class LumpyVarBinding extends TupleBinding<LumpyVar>
+	/** LumpyVar encoder for the SortingCollection: the sort key and the VCF line */
+	private  class LumpyVarCodec extends AbstractDataCodec<LumpyVar>
 		{
+		private final StructuralVariantType sttypes[]=StructuralVariantType.values();
 		@Override
-		public LumpyVar entryToObject(final TupleInput in) {
-			long id=in.readLong();
-			int L=in.readInt();
-			byte array[]=new byte[L];
-			in.readFast(array);
-			final LumpyVar v= new LumpyVar(linetoVariantContext(new String(array)),id);
-			return v;
+		public LumpyVar decode(final DataInputStream dis) throws IOException {
+			final KeySorter ks= new KeySorter();
+			ks.st = this.sttypes[(int)dis.readByte()];
+			ks.contig1= dis.readUTF();
+			if(ks.st.equals(StructuralVariantType.BND)) {
+				ks.contig2= dis.readUTF();
+				}
+			else
+				{
+				ks.contig2= ks.contig1;
+				}
+			ks.start = dis.readInt();
+			ks.end = dis.readInt();
+			ks.id = dis.readLong();
+			final byte line[]=new byte[dis.readInt()];
+			dis.readFully(line);
+			return new LumpyVar(ks,line);
+			}
+		@Override
+		public void encode(final DataOutputStream dos,final LumpyVar v) throws IOException {
+			final KeySorter key = v.getSortKey();
+			dos.writeByte((byte)key.st.ordinal());
+			dos.writeUTF(key.contig1);
+			if(key.st.equals(StructuralVariantType.BND)) {
+				dos.writeUTF(key.contig2);
+				}
+			dos.writeInt(key.start);
+			dos.writeInt(key.end);
+			dos.writeLong(key.id);
+			dos.writeInt(v.line.length);
+			dos.write(v.line);
 			}
 		@Override
-		public void objectToEntry(final LumpyVar v,final TupleOutput out) {
-			out.writeLong(v.id);
-			final String line = variantContextToLine(v.ctx);
-			final byte array[]=line.getBytes();
-			out.writeInt(array.length);
-			out.write(array);
+		public LumpyVarCodec clone() {
+			return new LumpyVarCodec();
 			}
 		}
-	
-	
 
-	/** berkeley DB 'key' object */
+	/** sort key */
 	private static class KeySorter
 		{
 		StructuralVariantType st;
@@ -197,74 +219,36 @@ public class LumpySort
 			}
 		}
 	
-	/** berkeley DB 'key' comparator */
-	public static class KeySorterComparator implements Comparator<byte[]>
-		{
-		private final KeySorterBinding binding = new KeySorterBinding();
-		private KeySorter make(final byte[] o1)
-			{
-			final TupleInput in = new TupleInput(o1);
-			final KeySorter ks = this.binding.entryToObject(in);
-			try{in.close();}catch(Exception err) {}
-			return ks;
-			}
-		@Override
-		public int compare(final byte[] o1, final byte[] o2) {
-			return make(o1).compare2(make(o2));
-			}
-		}
-	
-	/** berkeley DB 'key' bdinding -> DataEntry */
-	private static class KeySorterBinding extends TupleBinding<KeySorter>
-		{
-		private final StructuralVariantType sttypes[]=StructuralVariantType.values();
-		@Override
-		public void objectToEntry(final KeySorter key, final TupleOutput out) {
-			out.writeByte((byte)key.st.ordinal());
-			out.writeString(key.contig1);
-			if(key.st.equals(StructuralVariantType.BND)) {
-				out.writeString(key.contig2);
-				}
-			out.writeInt(key.start);
-			out.writeInt(key.end);
-			out.writeLong(key.id);
-			}
-		@Override
-		public KeySorter entryToObject(final TupleInput in) {
-			final KeySorter ks= new KeySorter();
-			ks.st = this.sttypes[(int)in.readByte()];
-			ks.contig1= in.readString();
-			if(ks.st.equals(StructuralVariantType.BND)) {
-				ks.contig2= in.readString();
-				}
-			else
-				{
-				ks.contig2= ks.contig1;
-				}
-			ks.start = in.readInt();
-			ks.end = in.readInt();
-			ks.id = in.readLong();
-			return ks;
-			}	
-		}
-	
-	
-	/** VariantContext wrapper */
+	/** VariantContext wrapper. Only the VCF line is kept, the variant is decoded when needed. */
 	private class LumpyVar
 		{
-		private final VariantContext ctx;
-		private final long id;
+		private final byte line[];
+		private VariantContext _ctx = null;
 		private Interval _interval=null;
 		private Interval _bndinterval=null;
 		private KeySorter _sortKey = null;
 		
 		LumpyVar(final VariantContext ctx,final long id)
 			{
-			this.ctx = ctx;
-			this.id=id;
+			this._ctx = ctx;
+			this.line = variantContextToLine(ctx).getBytes();
+			getSortKey().id = id;
+			/* the decoded variant is not kept in the SortingCollection */
+			this._ctx = null;
+			}
+		LumpyVar(final KeySorter key,final byte line[])
+			{
+			this._sortKey = key;
+			this.line = line;
+			}
+		private VariantContext getCtx() {
+			if(this._ctx==null) {
+				this._ctx = linetoVariantContext(new String(this.line));
+				}
+			return this._ctx;
 			}
 		private Set<String> getGenotypedSamples() {
-			return ctx.getGenotypes().stream().
+			return getCtx().getGenotypes().stream().
 					filter(G->isAvailableGenotype(G)).
 					map(G->G.getSampleName()).
 					collect(Collectors.toSet());
@@ -272,13 +256,14 @@ public class LumpySort
 		
 		private KeySorter getSortKey() {
 			if(_sortKey==null) {
+				final VariantContext ctx = getCtx();
 				final Function<String,String> normalize=C->C.startsWith("chr")?C.substring(3):C;
 				final Interval rgn = getInterval() ;
 				_sortKey = new KeySorter();
-				_sortKey.st = this.ctx.getStructuralVariantType();
+				_sortKey.st = ctx.getStructuralVariantType();
 				_sortKey.contig1 = normalize.apply(rgn.getContig());
 				if(_sortKey.st.equals(StructuralVariantType.BND)) {
-					_sortKey.contig2 = normalize.apply(LumpyConstants.getBnDContig(this.ctx.getAlternateAllele(0).getDisplayString()));
+					_sortKey.contig2 = normalize.apply(LumpyConstants.getBnDContig(ctx.getAlternateAllele(0).getDisplayString()));
 					}
 				else
 					{
@@ -286,13 +271,13 @@ public class LumpySort
 					}
 				_sortKey.start = rgn.getStart();
 				_sortKey.end = rgn.getEnd();
-				_sortKey.id=this.id;
 				}
 			return _sortKey;
 			}
 		
 		private Interval getInterval() {
 			if(this._interval==null) {
+				final VariantContext ctx = getCtx();
 				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
 				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
 				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
@@ -310,6 +295,7 @@ public class LumpySort
 			}
 		private Interval getBndInterval() {
 			if(this._bndinterval==null) {
+				final VariantContext ctx = getCtx();
 				if(!ctx.hasAttribute("CIPOS")) throw new IllegalArgumentException("No CIPOS in "+ctx);
 				final List<Integer> ciposL= ctx.getAttributeAsIntList("CIPOS",0);
 				if(ciposL.size()!=2) throw new IllegalArgumentException("len(CIPOS)!=2 in "+ctx);
@@ -353,7 +339,7 @@ public class LumpySort
 			Interval L1 = this.getInterval();
 			Interval L2 = o.getInterval();
 			if(!LumpySort.this.overlap(L1,L2)) return false;
-			if(this.ctx.getStructuralVariantType()==StructuralVariantType.BND) {
+			if(this.getCtx().getStructuralVariantType()==StructuralVariantType.BND) {
 				L1 = this.getBndInterval();
 				L2 = o.getBndInterval();
 				if(!LumpySort.this.overlap(L1,L2)) return false;
@@ -404,8 +390,8 @@ public class LumpySort
 	public int doWork(final List<String> args) {
 	VariantContextWriter vcw = null;
 	LineIterator vcfIn= null;
-	Environment environment = null;
-	Database variantsDb1=null;
+	SortingCollection<LumpyVar> sorter = null;
+	CloseableIterator<LumpyVar> sortedIter = null;
 	final List<File> inputs = IOUtil.unrollFiles(
 			args.stream().map(S->new File(S)).collect(Collectors.toList()),
 			".vcf",".vcf.gz");
@@ -413,9 +399,10 @@ public class LumpySort
 		LOG.error("empty vcf list");
 		return -1;
 		}
+	if(this.bdbHomeDir!=null) {
+		LOG.warning("option --bdb is ignored.");
+		}
 	try {
-		IOUtil.assertDirectoryIsWritable(this.bdbHomeDir);
-
 		final Set<VCFHeaderLine> metaData = new HashSet<>();
 		final Set<String> sampleNames = new TreeSet<>();
 		final IntervalTreeMap<Boolean> intervalTreeMapBed;
@@ -492,26 +479,16 @@ public class LumpySort
 				);
 		
 		
-		/* open BDB env */
-		final Transaction txn=null;
-		environment = new Environment(this.bdbHomeDir, 
-				new EnvironmentConfig().
-					setAllowCreate(true).
-					setReadOnly(false)
-			);
-		
-		variantsDb1 = environment.openDatabase(txn,"variants1",
-			new DatabaseConfig().
-				setBtreeComparator(KeySorterComparator.class).
-				setAllowCreate(true).
-				setReadOnly(false).
-				setTemporary(true)
-			);
+		sorter = SortingCollection.newInstance(
+				LumpyVar.class,
+				new LumpyVarCodec(),
+				(A,B)->A.getSortKey().compare2(B.getSortKey()),
+				this.writingSortingCollection.getMaxRecordsInRam(),
+				this.writingSortingCollection.getTmpPaths()
+				);
+		sorter.setDestructiveIteration(true);
 		
 		long total_variants = 0L;
-		
-		final LumpyVarBinding lumpVarBinding = new LumpyVarBinding();
-		final KeySorterBinding keySorterBinding = new KeySorterBinding();
 
 		for(int idx=0;idx< inputs.size();++idx)
 			{
@@ -568,18 +545,7 @@ public class LumpySort
 						rmAttribute("PRPOS").
 						make();
 				
-				final LumpyVar lvar = new LumpyVar(ctx,total_variants);
-				final DatabaseEntry key = new DatabaseEntry();
-				final DatabaseEntry data = new DatabaseEntry();
-				
-				lumpVarBinding.objectToEntry(lvar, data);
-				keySorterBinding.objectToEntry(lvar.getSortKey(), key);
-				if(variantsDb1.put(txn, key, data)!=OperationStatus.SUCCESS)
-					{
-					r.close();
-					LOG.error("insertion failed");
-					return -1;
-					}
+				sorter.add(new LumpyVar(ctx,total_variants));
 				nVariant++;
 				total_variants++;
 				}
@@ -590,11 +556,10 @@ public class LumpySort
 					" Total:"+total_variants + 
 					" That took: " + Duration.ofMillis(System.currentTimeMillis() -millisecstart )
 					);
-			System.gc();
 			}
+		sorter.doneAdding();
 		
 		if(intervalTreeMapBed!=null) intervalTreeMapBed.clear();
-		System.gc();
 		
 		LOG.info("Writing output");
 		final List<Allele> ALLELES_NO_CALLS=
@@ -602,105 +567,111 @@ public class LumpySort
 				? Collections.singletonList(Allele.NO_CALL)
 				: Arrays.asList(Allele.NO_CALL,Allele.NO_CALL)
 				;
-		final Cursor cursor = variantsDb1.openCursor(txn, null);
-
+		sortedIter = sorter.iterator();
 
 		vcw = super.openVariantContextWriter(this.outputFile);
 		vcw.writeHeader(outHeader);
 		
+		/* sorted variants that were read but not merged yet */
+		final LinkedList<LumpyVar> pending = new LinkedList<>();
 		for(;;)
 			{
-			final DatabaseEntry key = new DatabaseEntry();
-			final DatabaseEntry data = new DatabaseEntry();
-			OperationStatus status = cursor.getNext(key, data, LockMode.DEFAULT);
-			if(!status.equals(OperationStatus.SUCCESS)) break;
-			final LumpyVar first = lumpVarBinding.entryToObject(data);
+			if(pending.isEmpty())
+				{
+				if(!sortedIter.hasNext()) break;
+				pending.add(sortedIter.next());
+				}
+			final LumpyVar first = pending.removeFirst();
 			if(this.do_not_merge_ctx)
 				{
-				vcw.add(first.ctx);
+				vcw.add(first.getCtx());
 				continue;
 				}
 
-			final KeySorter keySorter1 = keySorterBinding.entryToObject(key);
-
+			final KeySorter keySorter1 = first.getSortKey();
+			final VariantContext firstCtx = first.getCtx();
 			
 			final List<LumpyVar> buffer = new ArrayList<>();
 			buffer.add(first);
 			
-			final DatabaseEntry key2 = new DatabaseEntry();
-			final DatabaseEntry data2 = new DatabaseEntry();
-
-			final Cursor cursor2=cursor.dup(true);
-			for(;;)
+			/* scan the next variants, first in the pending list, then in the sorted stream */
+			boolean done = false;
+			final Iterator<LumpyVar> iter2 = pending.iterator();
+			while(iter2.hasNext())
 				{
-				status = cursor2.getNext(key2, data2, LockMode.DEFAULT);
-				if(!status.equals(OperationStatus.SUCCESS)) break;
-				final KeySorter keySorter2 = keySorterBinding.entryToObject(key2);
-
-				if(keySorter1.compare1(keySorter2)!=0) 
+				final LumpyVar lv = iter2.next();
+				if(keySorter1.compare1(lv.getSortKey())!=0 || lv.getCtx().getStart()>firstCtx.getEnd()) 
 					{
-					break;
-					}
-				
-				final LumpyVar lv = lumpVarBinding.entryToObject(data2);
-				if(lv.ctx.getStart()>first.ctx.getEnd()) {
+					done = true;
 					break;
 					}
 				if(first.canMerge(lv))
 					{
 					buffer.add(lv);
-					cursor2.delete();
+					iter2.remove();
+					}
+				}
+			while(!done && sortedIter.hasNext())
+				{
+				final LumpyVar lv = sortedIter.next();
+				if(keySorter1.compare1(lv.getSortKey())!=0 || lv.getCtx().getStart()>firstCtx.getEnd()) 
+					{
+					pending.add(lv);
+					done = true;
+					}
+				else if(first.canMerge(lv))
+					{
+					buffer.add(lv);
+					}
+				else
+					{
+					pending.add(lv);
 					}
 				}
-			cursor2.close();
-			
-			
-			cursor.delete();//delete 'first'
-			
 			
 			
 			final int variantStartA = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
+					mapToInt(V->V.getCtx().getStart()).
 					min().getAsInt();
 			final int variantStartB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
+					mapToInt(V->V.getCtx().getStart()).
 					average().getAsDouble();
 			final int variantStartC = buffer.stream().
-					mapToInt(V->V.ctx.getStart()).
+					mapToInt(V->V.getCtx().getStart()).
 					max().getAsInt();
 			
 			final int variantEndA = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
+					mapToInt(V->V.getCtx().getEnd()).
 					min().getAsInt();
 			final int variantEndB = (int)buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
+					mapToInt(V->V.getCtx().getEnd()).
 					average().getAsDouble();
 			final int variantEndC = buffer.stream().
-					mapToInt(V->V.ctx.getEnd()).
+					mapToInt(V->V.getCtx().getEnd()).
 					max().getAsInt();
 			
 			final VariantContextBuilder vcb = new VariantContextBuilder(
 					"lumpymerge",
-					first.ctx.getContig(),
+					firstCtx.getContig(),
 					variantStartB,
 					variantEndB,
-					first.ctx.getAlleles()
+					firstCtx.getAlleles()
 					);
 			vcb.attribute("END", variantEndB);
-			vcb.attribute("SVTYPE", first.ctx.getAttribute("SVTYPE"));
-			vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.ctx.getEnd()-V.ctx.getStart())));
+			vcb.attribute("SVTYPE", firstCtx.getAttribute("SVTYPE"));
+			vcb.attribute("SVLEN", (int)Percentile.median().evaluate(buffer.stream().mapToInt(V->V.getCtx().getEnd()-V.getCtx().getStart())));
 			vcb.attribute("CIPOS",Arrays.asList(variantStartB-variantStartA,variantStartC-variantStartB));
 			vcb.attribute("CIEND",Arrays.asList(variantEndB-variantEndA,variantEndC-variantEndB));
-			vcb.attribute("SU",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
-			vcb.attribute("SR",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
-			vcb.attribute("PE",buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
+			vcb.attribute("SU",buffer.stream().flatMap(V->V.getCtx().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SU", 0)).sum());
+			vcb.attribute("SR",buffer.stream().flatMap(V->V.getCtx().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("SR", 0)).sum());
+			vcb.attribute("PE",buffer.stream().flatMap(V->V.getCtx().getGenotypes().stream()).mapToInt(G->G.getAttributeAsInt("PE", 0)).sum());
 
 			
 			
 			final Map<String,Genotype> sample2genotype = new HashMap<>(sampleNames.size());
 			
 			
-			buffer.stream().flatMap(V->V.ctx.getGenotypes().stream()).
+			buffer.stream().flatMap(V->V.getCtx().getGenotypes().stream()).
 				filter(G->isAvailableGenotype(G)).
 				forEach(G->{
 				sample2genotype.put(G.getSampleName(), G);
@@ -723,11 +694,9 @@ public class LumpySort
 			vcb.genotypes(sample2genotype.values());
 			vcw.add(vcb.make());
 			}
-		cursor.close();
+		sortedIter.close();sortedIter=null;
+		sorter.cleanup();sorter=null;
 		vcw.close();vcw=null;
-		
-		variantsDb1.close();variantsDb1=null;
-		environment.close();environment=null;
 		return 0;
 		}
 	catch(final Exception err)
@@ -739,8 +708,8 @@ public class LumpySort
 		{
 		CloserUtil.close(vcfIn);
 		CloserUtil.close(vcw);
-		CloserUtil.close(variantsDb1);
-		CloserUtil.close(environment);
+		CloserUtil.close(sortedIter);
+		if(sorter!=null) sorter.cleanup();
 		} 
 	}
 	 
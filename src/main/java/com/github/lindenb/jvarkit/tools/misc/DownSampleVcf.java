@@ -28,13 +28,15 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedReader;
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
 
-import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 
@@ -42,8 +44,7 @@ import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
-import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 /**
 BEGIN_DOC
@@ -57,6 +58,12 @@ $ curl -skL "ftp://ftp-trace.ncbi.nih.gov/1000genomes/ftp/release/20130502/ALL.w
 java -jar dist/downsamplevcf.jar -n 100 > output.vcf
 ```
 
+## Algorithm
+
+The tool uses the 'Algorithm L' of reservoir sampling (Li, 1994): the number of lines to skip before the next
+replacement in the reservoir is computed, so most of the input lines are never decoded. Only the retained lines are
+decoded as variants. The retained variants are printed in the same order as in the input VCF.
+
 END_DOC
  */
 
@@ -75,39 +82,91 @@ public class DownSampleVcf extends Launcher
 	@Parameter(names="-N",description="random seed. -1==use current time")
 	private long seed=-1L;
 	
+	/** random number in ]0,1] */
+	private static double uniform(final Random rand) {
+		return 1.0 - rand.nextDouble();
+		}
+	
+	/** Algorithm L: number of lines to skip before the next replacement */
+	private static long skipAhead(final Random rand,final double w) {
+		final double n = Math.floor(Math.log(uniform(rand))/Math.log(1.0-w));
+		if(Double.isNaN(n) || n < 0) return 0L;
+		return (long)Math.min(n, Long.MAX_VALUE/2);
+		}
+	
 	@Override
-	protected int doVcfToVcf(final String inputName, final VcfIterator in, final VariantContextWriter out) {
+	public int doWork(final List<String> args) {
+		if(this.reservoir_size<0)
+			{
+			LOG.error("bad reservoir size "+this.reservoir_size);
+			return -1;
+			}
 		final Random rand=new Random(this.seed==-1L?System.currentTimeMillis():this.seed);
-		final List<VariantContext>  buffer=new ArrayList<>(this.reservoir_size);
-		final VCFHeader h2=new VCFHeader(in.getHeader());
-		super.addMetaData(h2);
-		final SAMSequenceDictionaryProgress progess=
-				new SAMSequenceDictionaryProgress(in.getHeader()).
-				logger(LOG);
-		out.writeHeader(h2);
-		if(this.reservoir_size!=0)
+		BufferedReader in=null;
+		VariantContextWriter out=null;
+		try
 			{
-			while(in.hasNext())
-				{	
-				final VariantContext ctx = progess.watch(in.next());
-				if(buffer.size() < this.reservoir_size)
+			in = super.openBufferedReader(oneFileOrNull(args));
+			final VCFUtils.CodecAndHeader cah=VCFUtils.parseHeader(in);
+			final VCFHeader h2=new VCFHeader(cah.header);
+			super.addMetaData(h2);
+			out = super.openVariantContextWriter(this.outputFile);
+			out.writeHeader(h2);
+			
+			final int k = this.reservoir_size;
+			/* raw lines in the reservoir and their index in the input */
+			final String lines[]=new String[k];
+			final long indexes[]=new long[k];
+			long nLines = 0L;
+			double w = 1.0;
+			long nextLine = Long.MAX_VALUE;
+			if(k>0)
+				{
+				w = Math.exp(Math.log(uniform(rand))/k);
+				nextLine = k + skipAhead(rand,w);
+				}
+			String line;
+			while((line=in.readLine())!=null)
+				{
+				if(nLines < k)
 					{
-					buffer.add(ctx);
+					lines[(int)nLines] = line;
+					indexes[(int)nLines] = nLines;
 					}
-				else
+				else if(nLines == nextLine)
 					{
-					buffer.set(rand.nextInt(buffer.size()), ctx);
+					final int slot = rand.nextInt(k);
+					lines[slot] = line;
+					indexes[slot] = nLines;
+					w *= Math.exp(Math.log(uniform(rand))/k);
+					nextLine = nLines + 1L + skipAhead(rand,w);
 					}
+				nLines++;
 				}
+			LOG.info("kept "+Math.min(nLines, k)+" variants out of "+nLines);
 			
+			/* print the retained variants in the input order */
+			final Integer order[]=new Integer[(int)Math.min(nLines, k)];
+			for(int i=0;i< order.length;++i) order[i]=i;
+			Arrays.sort(order,Comparator.comparingLong(I->indexes[I]));
+			for(final Integer i:order)
+				{
+				out.add(cah.codec.decode(lines[i]));
+				}
+			out.close();
+			out=null;
+			return 0;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(in);
+			CloserUtil.close(out);
 			}
-		buffer.stream().forEach(V->out.add(V));
-		progess.finish();
-		return 0;
-		}
-	@Override
-	public int doWork(final List<String> args) {
-		return doVcfToVcf(args, outputFile);
 		}
 
 	public static void main(final String[] args)
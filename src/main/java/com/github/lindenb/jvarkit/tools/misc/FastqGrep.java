@@ -24,12 +24,15 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import htsjdk.samtools.fastq.BasicFastqWriter;
@@ -37,15 +40,19 @@ import htsjdk.samtools.fastq.FastqConstants;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.fastq.FastqWriter;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.AsyncBlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.CloserUtil;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.iterator.PipelinedMapIterator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.FastqReader;
 import com.github.lindenb.jvarkit.util.picard.FourLinesFastqReader;
+import com.github.lindenb.jvarkit.util.samtools.ReadNameFingerprintSet;
 
 @Program(
 	name="fastqgrep",
@@ -69,13 +76,29 @@ public class FastqGrep
 	private int n_before_remove=-1;
 	@Parameter(names="-V",description="invert)")
 	private boolean inverse=false;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads searching the read names. The fastq is parsed in another thread. A bgzipped fastq is also inflated in a background thread, a plain gzipped fastq is inflated by the parsing thread. The order of the reads is preserved. Default: no thread. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+	@Parameter(names={"--batch-size"},description="[20181210] With --jobs: number of reads per batch sent to the threads.")
+	private int batchSize = 10_000;
 	
-	private Map<String,Integer> readNames=new HashMap<String,Integer>(); 
+	/** read names are stored as fingerprints */
+	private ReadNameFingerprintSet readNames=null;
+	
+	/** a read and the index of its name in the set, or -1 */
+	private static class Hit
+		{
+		final FastqRecord fastq;
+		final int index;
+		Hit(final FastqRecord fastq,final int index) {
+			this.fastq = fastq;
+			this.index = index;
+			}
+		}
 
 	
 	
 	
-	private FastqGrep()
+	public FastqGrep()
 		{
 		}
 	
@@ -95,52 +118,98 @@ public class FastqGrep
 		s= s.substring(beg, end);
 		return s;
 		}
+	private Hit find(final FastqRecord fastq)
+		{
+		return new Hit(fastq,this.readNames.indexOf(getReadName(fastq)));
+		}
+	
+	/** with --jobs, a bgzipped fastq is inflated in a background thread */
+	private FastqReader openFastqReader(final File f) throws IOException
+		{
+		if(this.nJobs>1 && f.getName().endsWith(".gz"))
+			{
+			final InputStream in = new BufferedInputStream(Files.newInputStream(f.toPath()));
+			if(BlockCompressedInputStream.isValidFile(in))
+				{
+				return new FourLinesFastqReader(new AsyncBlockCompressedInputStream(in));
+				}
+			in.close();
+			}
+		return new FourLinesFastqReader(f);
+		}
+	
 	private void run(final FastqReader r,final FastqWriter out)
 		{
 		long nRec=0L;
 		r.setValidationStringency(ValidationStringency.LENIENT);
-		while(r.hasNext())
-			{
-			FastqRecord fastq=r.next();
-			boolean keep=false;
-			String readName=getReadName(fastq);
-			Integer count=readNames.get(readName);
-			if(count!=null)
+		PipelinedMapIterator<FastqRecord,Hit> pipeline = null;
+		try {
+			final Iterator<Hit> iter;
+			if(this.nJobs>1)
 				{
-				keep=true;
+				pipeline = new PipelinedMapIterator<>(r,R->find(R),this.nJobs,this.batchSize);
+				iter = pipeline;
 				}
-			if(inverse) keep=!keep;
-			if(keep)
+			else
 				{
-				++nRec;
-				out.write(fastq);
+				iter = new Iterator<Hit>() {
+					@Override
+					public boolean hasNext() {
+						return r.hasNext();
+						}
+					@Override
+					public Hit next() {
+						return find(r.next());
+						}
+					};
 				}
-			
-			if(n_before_remove!=-1 && !inverse && keep)
+			while(iter.hasNext())
 				{
-				count++;
-				if(count>=n_before_remove)
+				final Hit hit=iter.next();
+				// a removed name is not found anymore
+				boolean keep = hit.index>=0 && !readNames.isRemoved(hit.index);
+				final boolean found = keep;
+				if(inverse) keep=!keep;
+				if(keep)
 					{
-					readNames.remove(readName);
-					if(readNames.isEmpty()) break;
+					++nRec;
+					out.write(hit.fastq);
 					}
-				else
+				
+				if(n_before_remove!=-1 && !inverse && found)
 					{
-					readNames.put(readName,count);
+					if(readNames.incrementCount(hit.index)>=n_before_remove)
+						{
+						readNames.remove(hit.index);
+						if(readNames.isEmpty()) break;
+						}
 					}
 				}
-			
-			
+			}
+		finally
+			{
+			CloserUtil.close(pipeline);
 			}
 		LOG.info("Done. N-Reads:"+nRec);
 		}
-	
+
 	@Override
 	public int doWork(List<String> args) {
 		BufferedReader in=null;
 		FastqWriter out=null;
 		try 
 			{
+			if(this.batchSize<1)
+				{
+				LOG.error("bad batch size");
+				return -1;
+				}
+			if(this.nJobs<1)
+				{
+				this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+				LOG.info("setting njobs to "+this.nJobs);
+				}
+			final ReadNameFingerprintSet.Builder builder = new ReadNameFingerprintSet.Builder();
 			if(this.readNameFile!=null)
 				{
 				in=IOUtils.openFileForBufferedReading(this.readNameFile);
@@ -149,17 +218,18 @@ public class FastqGrep
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		this.readNames.put(getReadName(line),0);
+		    		builder.add(getReadName(line));
 		    		}
 		    	in.close();
 				}
 			
 			for(final String r: this.readNamesInput)
 				{	
-				this.readNames.put(getReadName(r),0);
+				builder.add(getReadName(r));
 				}
+			this.readNames = builder.make();
 			
-			if(readNames.isEmpty())
+			if(readNames.size()==0)
 	    		{
 	    		LOG.warn("no read name found.");
 	    		}
@@ -187,7 +257,7 @@ public class FastqGrep
 				{
 				File f=new File(fname);
 				LOG.info("Reading from "+f);
-				FastqReader fqR=new FourLinesFastqReader(f);
+				FastqReader fqR=openFastqReader(f);
 				run(fqR,out);
 				fqR.close();
 				}
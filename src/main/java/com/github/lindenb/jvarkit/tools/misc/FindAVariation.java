@@ -33,10 +33,22 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -48,6 +60,9 @@ import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLineType;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -75,6 +90,19 @@ htsjdk/testdata/htsjdk/samtools/intervallist/IntervalListFromVCFTestManual.vcf	2
 htsjdk/testdata/htsjdk/samtools/intervallist/IntervalListFromVCFTestManual.vcf	2	2	2	.		NA12892	HET	C T
 ```
 
+## Searching many files
+
+Option `--jobs` searches several VCF files at the same time. The output order is the order of the input list.
+
+Option `--summary` keeps, in a file, a summary of each VCF (path, modification time, size, contigs and the min/max positions on each contig).
+When the tool is invoked again with the same summary file, the VCFs that cannot contain any of the positions are not opened. A summary is
+rebuilt only when its VCF was modified. For the indexed VCFs, the contigs are read from the index and the max position is unknown.
+
+```
+$ find ./ -name "*.vcf.gz" |\
+   java -jar dist/findavariation.jar -j 8 --summary summary.tsv -p "chr1:1234" 
+```
+
  
  END_DOC
  */
@@ -98,6 +126,10 @@ public class FindAVariation extends Launcher
 	private boolean onlySnp=false;
 	@Parameter(names={"-indexed","--indexed"},description="[20171020] Search only in indexed vcf")
 	private boolean indexedOnly=false;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of VCF files searched in parallel. A value lower than 1 means 'all available processors'. The output order is preserved.")
+	private int nJobs = 1;
+	@Parameter(names={"--summary"},description="[20181210] File containing a summary of each VCF (contigs, min/max positions) keyed on path, modification time and size. Created or updated at the end. The VCFs that cannot contain the positions are skipped.")
+	private File summaryFile = null;
 
 	
 	private static class Mutation
@@ -135,15 +167,104 @@ public class FindAVariation extends Launcher
 			}
 		
 		}
+	/** summary of a VCF file: contigs having data and the min/max positions on each contig */
+	private static class FileSummary
+		{
+		final String path;
+		final long lastModified;
+		final long length;
+		/** contig to {min start,max end} */
+		final Map<String,int[]> contig2range = new HashMap<>();
+		FileSummary(final String path,final long lastModified,final long length)
+			{
+			this.path = path;
+			this.lastModified = lastModified;
+			this.length = length;
+			}
+		FileSummary(final File f)
+			{
+			this(f.getPath(),f.lastModified(),f.length());
+			}
+		boolean isUpToDate(final File f)
+			{
+			return f.lastModified()==this.lastModified && f.length()==this.length;
+			}
+		void add(final String contig,final int start,final int end)
+			{
+			final int range[] = this.contig2range.get(contig);
+			if(range==null)
+				{
+				this.contig2range.put(contig,new int[]{start,end});
+				}
+			else
+				{
+				range[0] = Math.min(range[0], start);
+				range[1] = Math.max(range[1], end);
+				}
+			}
+		/** returns false if the file cannot contain a variant at this position */
+		boolean mayContain(final Mutation m)
+			{
+			final String contig = findContigEquivalent(m.chrom,this.contig2range.keySet());
+			if(contig==null) return false;
+			final int range[] = this.contig2range.get(contig);
+			return range[0] <= m.pos && m.pos <= range[1];
+			}
+		boolean mayContainAny(final Set<Mutation> mutations)
+			{
+			return mutations.stream().anyMatch(M->mayContain(M));
+			}
+		String toLine()
+			{
+			final StringBuilder sb = new StringBuilder();
+			sb.append(this.path).append('\t').append(this.lastModified).append('\t').append(this.length);
+			for(final String contig: this.contig2range.keySet())
+				{
+				final int range[] = this.contig2range.get(contig);
+				sb.append('\t').append(contig).append('\t').append(range[0]).append('\t').append(range[1]);
+				}
+			return sb.toString();
+			}
+		static FileSummary parse(final String line)
+			{
+			final String tokens[] = line.split("[\t]");
+			if(tokens.length<3 || (tokens.length-3)%3!=0) throw new IllegalArgumentException("Bad summary line "+line);
+			final FileSummary summary = new FileSummary(tokens[0],Long.parseLong(tokens[1]),Long.parseLong(tokens[2]));
+			for(int i=3;i+2< tokens.length;i+=3)
+				{
+				summary.contig2range.put(tokens[i],new int[]{Integer.parseInt(tokens[i+1]),Integer.parseInt(tokens[i+2])});
+				}
+			return summary;
+			}
+		}
+	
 	private final Set<Mutation> mutations=new HashSet<Mutation>();
-	private PrintWriter out=null;
+	/** summaries of the VCF files, key is the path */
+	private final Map<String,FileSummary> summaries = new ConcurrentHashMap<>();
+	private final AtomicLong countSkipped = new AtomicLong(0L);
 	
     public FindAVariation()
     	{
     	}		
    
+    /** same rules as VCFUtils.findChromNameEquivalent, for a set of contigs */
+    private static String findContigEquivalent(final String chromName,final Set<String> contigs)
+    	{
+    	if(contigs.contains(chromName)) return chromName;
+    	if(chromName.startsWith("chr"))
+			{
+			if(contigs.contains(chromName.substring(3))) return chromName.substring(3);
+			}
+		else
+			{
+			if(contigs.contains("chr"+chromName)) return "chr"+chromName;
+			}
+    	if(chromName.equals("MT") && contigs.contains("chrM")) return "chrM";
+		if(chromName.equals("chrM") && contigs.contains("MT")) return "MT";
+		return null;
+    	}
     
-    private void reportPos(final File f,final VCFHeader header,final VariantContext ctx)
+    private void reportPos(final PrintWriter out,final File f,final VCFHeader header,final VariantContext ctx)
 		{
 		out.print(f);
 		out.print('\t');
@@ -160,6 +281,7 @@ public class FindAVariation extends Launcher
 
     
     private void report(
+    		final PrintWriter out,
     		final File f,
     		final VCFHeader header,
     		final VariantContext ctx,
@@ -170,7 +292,7 @@ public class FindAVariation extends Launcher
     	final GenotypesContext genotypes=ctx.getGenotypes();
     	if(genotypes==null || genotypes.isEmpty())
     		{
-    		reportPos(f,header,ctx);
+    		reportPos(out,f,header,ctx);
     		out.println();
     		}
     	else
@@ -187,7 +309,7 @@ public class FindAVariation extends Launcher
     			Genotype g=genotypes.get(i);
     			if(!g.isCalled() && this.hideNoCall) continue;
     			if(g.isHomRef() && this.hideHomRef) continue;
-    			reportPos(f,header,ctx);
+    			reportPos(out,f,header,ctx);
     			out.print('\t');
     			out.print(g.getSampleName());
     			out.print('\t');
@@ -221,7 +343,7 @@ public class FindAVariation extends Launcher
     		final String s=VCFUtils.findChromNameEquivalent(m.chrom,h);
     		if(s==null)
     			{
-    			LOG.warn("Cannot convert chrom "+s+" in "+f);
+    			LOG.warn("Cannot convert chrom "+m.chrom+" in "+f);
     			continue;
     			}
     		copy.add(new Mutation(s, m.pos));
@@ -229,132 +351,245 @@ public class FindAVariation extends Launcher
     	return copy;
     	}
 
-    private void scan(final BufferedReader in) throws IOException
+    /** search the mutations in one VCF file. Returns the report for this file */
+    private String scanFile(final File f)
     	{
-    	String line;
-    	while((line=in.readLine())!=null)
+    	final StringWriter sw = new StringWriter();
+    	final PrintWriter out = new PrintWriter(sw);
+    	/* summary of the file, built while reading if it is missing or out of date */
+    	FileSummary summary = null;
+    	if(this.summaryFile!=null)
+    		{
+    		final FileSummary cached = this.summaries.get(f.getPath());
+    		if(cached!=null && cached.isUpToDate(f))
+    			{
+    			if(!cached.mayContainAny(this.mutations))
+    				{
+    				this.countSkipped.incrementAndGet();
+    				return "";
+    				}
+    			}
+    		else
+    			{
+    			summary = new FileSummary(f);
+    			}
+    		}
+    	VcfIterator iter=null;
+		
+		if(VCFUtils.isTribbleVcfFile(f) )
 			{
-			if(line.isEmpty() || line.startsWith("#")) continue;
-			final File f=new File(line);
-			if(!f.isFile()) continue;
-			if(!f.canRead()) continue;
-			if(!VCFUtils.isVcfFile(f)) continue;
-			VcfIterator iter=null;
-			
-			
-			if(VCFUtils.isTribbleVcfFile(f) )
+			VCFFileReader r=null;
+			try
 				{
-				VCFFileReader r=null;
-    			try
+				if(summary!=null)
 					{
-					r=new VCFFileReader(f,true);
-					final VCFHeader header =r.getFileHeader();
-					for(final Mutation m:convertFromVcfHeader(f,header))
+					final Index index = IndexFactory.loadIndex(Tribble.indexFile(f).getPath());
+					for(final String contig:index.getSequenceNames())
 						{
-						final CloseableIterator<VariantContext> iter2 = r.query(
-								m.chrom, m.pos, m.pos);
-						while(iter2.hasNext())
-							{
-							final VariantContext ctx=iter2.next();
-							if(this.onlySnp )
-								{	
-								if(ctx.getStart()!=m.pos || ctx.getEnd()!=m.pos) continue;
-								}
-							report(f,header,ctx,m);
-							}
-						CloserUtil.close(iter2);
+						summary.add(contig, 1, Integer.MAX_VALUE);
 						}
 					}
-    			catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
-    				{
-    				LOG.warn(f+"\t"+err.getMessage());
-    				}
-				catch(final Exception err)
+				r=new VCFFileReader(f,true);
+				final VCFHeader header =r.getFileHeader();
+				for(final Mutation m:convertFromVcfHeader(f,header))
 					{
-					LOG.severe("cannot read "+f,err);
+					final CloseableIterator<VariantContext> iter2 = r.query(
+							m.chrom, m.pos, m.pos);
+					while(iter2.hasNext())
+						{
+						final VariantContext ctx=iter2.next();
+						if(this.onlySnp )
+							{	
+							if(ctx.getStart()!=m.pos || ctx.getEnd()!=m.pos) continue;
+							}
+						report(out,f,header,ctx,m);
+						}
+					CloserUtil.close(iter2);
 					}
-				finally
-					{
-					CloserUtil.close(r);
-					}    				
 				}
-			else if(VCFUtils.isTabixVcfFile(f)) {
-				TabixVcfFileReader r=null;
-    			try
+			catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
+				{
+				LOG.warn(f+"\t"+err.getMessage());
+				summary = null;
+				}
+			catch(final Exception err)
+				{
+				LOG.severe("cannot read "+f,err);
+				summary = null;
+				}
+			finally
+				{
+				CloserUtil.close(r);
+				}    				
+			}
+		else if(VCFUtils.isTabixVcfFile(f)) {
+			TabixVcfFileReader r=null;
+			try
+				{
+				r=new TabixVcfFileReader(f.getPath());
+				final VCFHeader header =r.getHeader();
+				if(summary!=null)
 					{
-					r=new TabixVcfFileReader(f.getPath());
-					final VCFHeader header =r.getHeader();
-					for(final Mutation m:convertFromVcfHeader(f,header))
+					/* min position on each contig is the start of the first variant */
+					for(final String contig:r.getChromosomes())
 						{
-						final Iterator<VariantContext> iter2 = r.iterator(
-								m.chrom, m.pos, m.pos);
-						while(iter2.hasNext())
+						final Iterator<VariantContext> iter2 = r.iterator(contig);
+						if(iter2.hasNext())
 							{
-							final VariantContext ctx=iter2.next();
-							if(this.onlySnp )
-								{	
-								if(ctx.getStart()!=m.pos || ctx.getEnd()!=m.pos) continue;
-								}
-							report(f,header,ctx,m);
+							summary.add(contig, iter2.next().getStart(), Integer.MAX_VALUE);
 							}
 						CloserUtil.close(iter2);
 						}
 					}
-    			catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
-    				{
-    				LOG.warn(f+"\t"+err.getMessage());
-    				}
-				catch(final Exception err)
+				for(final Mutation m:convertFromVcfHeader(f,header))
 					{
-					LOG.severe("cannot read "+f,err);
+					final Iterator<VariantContext> iter2 = r.iterator(
+							m.chrom, m.pos, m.pos);
+					while(iter2.hasNext())
+						{
+						final VariantContext ctx=iter2.next();
+						if(this.onlySnp )
+							{	
+							if(ctx.getStart()!=m.pos || ctx.getEnd()!=m.pos) continue;
+							}
+						report(out,f,header,ctx,m);
+						}
+					CloserUtil.close(iter2);
 					}
-				finally
-					{
-					CloserUtil.close(r);
-					}    				
 				}
-			else if(!this.indexedOnly)
+			catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
+				{
+				LOG.warn(f+"\t"+err.getMessage());
+				summary = null;
+				}
+			catch(final Exception err)
+				{
+				LOG.severe("cannot read "+f,err);
+				summary = null;
+				}
+			finally
+				{
+				CloserUtil.close(r);
+				}    				
+			}
+		else if(!this.indexedOnly)
+			{
+			try
 				{
-				try
+				iter=VCFUtils.createVcfIteratorFromFile(f);
+				final VCFHeader header = iter.getHeader();
+				final Set<Mutation> mutlist=convertFromVcfHeader(f,iter.getHeader());
+				while(iter.hasNext())
 					{
-					iter=VCFUtils.createVcfIteratorFromFile(f);
-					final VCFHeader header = iter.getHeader();
-					final Set<Mutation> mutlist=convertFromVcfHeader(f,iter.getHeader());
-					while(iter.hasNext())
+					final VariantContext ctx=iter.next();
+					if(summary!=null) summary.add(ctx.getContig(), ctx.getStart(), ctx.getEnd());
+					final Mutation m=new Mutation(ctx.getContig(), ctx.getStart());
+					
+					for(final Mutation m2: mutlist)
 						{
-						final VariantContext ctx=iter.next();
-						final Mutation m=new Mutation(ctx.getContig(), ctx.getStart());
-						
-						for(final Mutation m2: mutlist)
-							{
-							if(m.equals(m2)) {
-						    	if(this.onlySnp )
-									{	
-									if(ctx.getStart()!=m2.pos || ctx.getEnd()!=m2.pos) continue;
-									}	
-								report(f,header,ctx,m2);
-								break;
-								}
+						if(m.equals(m2)) {
+					    	if(this.onlySnp )
+								{	
+								if(ctx.getStart()!=m2.pos || ctx.getEnd()!=m2.pos) continue;
+								}	
+							report(out,f,header,ctx,m2);
+							break;
 							}
 						}
 					}
-				catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
-    				{
-    				LOG.warn(f+"\t"+err.getMessage());
-    				}
-				catch(final Exception err)
+				}
+			catch(final htsjdk.tribble.TribbleException.InvalidHeader err)
+				{
+				LOG.warn(f+"\t"+err.getMessage());
+				summary = null;
+				}
+			catch(final Exception err)
+				{
+				LOG.severe("Error in "+f,err);
+				summary = null;
+				}
+			finally
+				{
+				CloserUtil.close(iter);
+				}
+			}
+		else
+			{
+			summary = null;
+			}
+		if(summary!=null)
+			{
+			this.summaries.put(summary.path, summary);
+			}
+		out.flush();
+		return sw.toString();
+    	}
+    
+    private void scan(final BufferedReader in,final PrintWriter out) throws Exception
+    	{
+    	final ExecutorService executor = (this.nJobs>1?Executors.newFixedThreadPool(this.nJobs):null);
+    	/* pending searches, in the order of the input */
+    	final Deque<Future<String>> pending = new ArrayDeque<>();
+    	try {
+	    	String line;
+	    	while((line=in.readLine())!=null)
+				{
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				final File f=new File(line);
+				if(!f.isFile()) continue;
+				if(!f.canRead()) continue;
+				if(!VCFUtils.isVcfFile(f)) continue;
+				if(executor==null)
 					{
-					LOG.severe("Error in "+f,err);
+					out.print(scanFile(f));
+					continue;
 					}
-				finally
+				pending.add(executor.submit(()->scanFile(f)));
+				while(pending.size() > this.nJobs*4)
 					{
-					CloserUtil.close(iter);
+					out.print(pending.removeFirst().get());
 					}
 				}
-    			
-			}
+	    	while(!pending.isEmpty())
+	    		{
+	    		out.print(pending.removeFirst().get());
+	    		}
+	    	}
+    	finally
+    		{
+    		if(executor!=null) executor.shutdownNow();
+    		}
     	}
     
+    private void readSummaries() throws IOException
+    	{
+    	if(this.summaryFile==null || !this.summaryFile.exists()) return;
+    	try(BufferedReader r = IOUtils.openFileForBufferedReading(this.summaryFile)) {
+	    	String line;
+	    	while((line=r.readLine())!=null)
+	    		{
+	    		if(line.isEmpty() || line.startsWith("#")) continue;
+	    		final FileSummary summary = FileSummary.parse(line);
+	    		this.summaries.put(summary.path, summary);
+	    		}
+	    	}
+    	LOG.info(String.valueOf(this.summaries.size())+" summaries loaded from "+this.summaryFile);
+    	}
+    
+    private void writeSummaries() throws IOException
+    	{
+    	if(this.summaryFile==null) return;
+    	final File tmp = new File(this.summaryFile.getPath()+".tmp");
+    	try(PrintWriter pw = new PrintWriter(tmp)) {
+    		pw.println("#path\tlastModified\tlength\t(contig\tmin\tmax)*");
+    		for(final FileSummary summary:this.summaries.values())
+    			{
+    			pw.println(summary.toLine());
+    			}
+    		pw.flush();
+    		}
+    	Files.move(tmp.toPath(), this.summaryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    	}
 
 	private Mutation parseMutation(final String s)
 		{
@@ -376,8 +611,15 @@ public class FindAVariation extends Launcher
 	@Override
 	public int doWork(final List<String> args) {
 		BufferedReader r=null;
+		PrintWriter out=null;
 		try
 			{
+			if(this.nJobs<1)
+				{
+				this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+				LOG.info("setting njobs to "+this.nJobs);
+				}
+			readSummaries();
 			
 			for(final String f:this.positionFilesList)
 				{
@@ -400,12 +642,12 @@ public class FindAVariation extends Launcher
 				this.mutations.add(m);
 				}			
 			
-			this.out=super.openFileOrStdoutAsPrintWriter(this.outputFile);
-			this.out.println("#FILE\tCHROM\tstart\tend\tID\tREF\tsample\ttype\tALLELES\tDP4");
+			out=super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			out.println("#FILE\tCHROM\tstart\tend\tID\tREF\tsample\ttype\tALLELES\tDP4");
 			if(args.isEmpty())
 				{
 				LOG.info("Reading from stdin");
-				scan(new BufferedReader(new InputStreamReader(stdin())));
+				scan(new BufferedReader(new InputStreamReader(stdin())),out);
 				}
 			else
 				{
@@ -413,13 +655,18 @@ public class FindAVariation extends Launcher
 					{
 					LOG.info("Reading from "+filename);
 					r=IOUtils.openURIForBufferedReading(filename);
-					scan(r);
+					scan(r,out);
 					r.close();
 					}
 				}
-			this.out.flush();
-			this.out.close();
-			this.out=null;
+			out.flush();
+			out.close();
+			out=null;
+			if(this.summaryFile!=null)
+				{
+				LOG.info("files skipped using the summaries: "+this.countSkipped.get());
+				writeSummaries();
+				}
 			return 0;
 			}
 		catch(final Exception err)
@@ -31,15 +31,23 @@ package com.github.lindenb.jvarkit.tools.misc;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.CigarOperator;
@@ -48,14 +56,12 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.filter.SamRecordFilter;
 import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SAMRecordCoordinateComparator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Locatable;
-import htsjdk.samtools.util.MergingIterator;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 
@@ -85,6 +91,13 @@ BEGIN_DOC
 ```bash
 $ java -jar dist/gcanddepth.jar -R ref.fasta -b capture.bed 1.bam 2.bam ... > result.tsv
 ```
+
+## Performance
+
+The windows are grouped into shards of about `--shard-size` bases. For each shard, the BAMs are read only once and the depth of each sample is stored
+in a buffer that is re-used by the next shard. The GC% and the depth of each window are computed using prefix sums.
+With `-j/--jobs` the shards are processed in parallel (each thread opens all the BAMs) and the output stays in genomic order.
+Memory for one thread is about sizeof(int)*shard-size*num(samples).
 END_DOC
  */
 @Program(name="gcpercentanddepth",
@@ -115,11 +128,17 @@ public class GcPercentAndDepth extends Launcher
 	private SamRecordFilter filter  = SamRecordJEXLFilter.buildDefault();
 	@Parameter(names={"-partition","--partition"},description="[20171219]"+SAMRecordPartition.OPT_DESC)
 	private SAMRecordPartition partition = SAMRecordPartition.sample;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads. Each thread opens all the BAMs. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+	@Parameter(names={"--shard-size"},description="[20181210] The windows are processed by shards of about 'x' bases. Memory per thread is about sizeof(int)*shard-size*num(samples).")
+	private int shardSize = 100_000;
 	//@Parameter(names={"-percentile","--percentile"},description="[20171219] data percentile method")
 	//private Percentile percentile = Percentile.average();
 	
 	
 	private SAMSequenceDictionary samSequenceDictionary=null;
+	/** sum of the lengths of the previous contigs, for each contig */
+	private long contigOffsets[]=null;
 
 	
 	/** A bed segment from the catpure */
@@ -218,17 +237,7 @@ public class GcPercentAndDepth extends Launcher
 			
 			public long getGenomicIndex()
 				{
-				long n=0;
-				for(final SAMSequenceRecord x: GcPercentAndDepth.this.samSequenceDictionary.getSequences())
-					{
-					if(x.getSequenceName().equals(this.getContig()))
-						{
-						break;
-						}
-					n+= x.getSequenceLength();
-					}
-				n+= this.getStart();
-				return n;
+				return GcPercentAndDepth.this.contigOffsets[RegionCaptured.this.ssr.getSequenceIndex()] + this.getStart();
 				}
 			@Override
 			public String getContig()
@@ -278,6 +287,193 @@ public class GcPercentAndDepth extends Launcher
 		}
 	
 	
+	/** consecutive sliding windows of a RegionCaptured, processed by one worker */
+	private class Shard
+		{
+		final RegionCaptured roi;
+		final int firstWindow;
+		final int countWindows;
+		Shard(final RegionCaptured roi,final int firstWindow,final int countWindows)
+			{
+			this.roi = roi;
+			this.firstWindow = firstWindow;
+			this.countWindows = countWindows;
+			}
+		RegionCaptured.SlidingWindow getWindow(final int i)
+			{
+			return this.roi.new SlidingWindow(this.firstWindow+i);
+			}
+		}
+	
+	/** BAM readers and re-usable buffers used by one thread */
+	private class ShardWorker
+		{
+		final List<SamReader> readers;
+		final Map<String,Integer> sample2index;
+		final int nSamples;
+		/** depth for each sample, sample after sample */
+		int depth[] = new int[0];
+		/** prefix sums of the depth for the current sample */
+		long depthPrefix[] = new long[0];
+		/** mean depth for each window and each sample */
+		double meanDepth[] = new double[0];
+		/** prefix sums of the count of GC and N */
+		int gcPrefix[] = new int[0];
+		int nPrefix[] = new int[0];
+		
+		ShardWorker(final List<SamReader> readers,final List<String> samples)
+			{
+			this.readers = readers;
+			this.nSamples = samples.size();
+			this.sample2index = new HashMap<>(this.nSamples);
+			for(int i=0;i< samples.size();i++) this.sample2index.put(samples.get(i), i);
+			}
+		
+		/** compute the windows of this shard and return the output lines */
+		String run(final Shard shard,final ReferenceGenome referenceGenome)
+			{
+			final RegionCaptured roi = shard.roi;
+			final int from1 = shard.getWindow(0).getStart();
+			final int to1 = shard.getWindow(shard.countWindows-1).getEnd();
+			final int len = to1-from1+1;
+			
+			if(this.depth.length < this.nSamples*len)
+				{
+				this.depth = new int[this.nSamples*len];
+				}
+			if(this.gcPrefix.length < len+1)
+				{
+				this.gcPrefix = new int[len+1];
+				this.nPrefix = new int[len+1];
+				this.depthPrefix = new long[len+1];
+				}
+			if(this.meanDepth.length < this.nSamples*shard.countWindows)
+				{
+				this.meanDepth = new double[this.nSamples*shard.countWindows];
+				}
+			Arrays.fill(this.depth, 0, this.nSamples*len, 0);
+			
+			/* GC and N, reference is shared by the threads */
+			synchronized(referenceGenome)
+				{
+				final ReferenceContig genomicSequence = referenceGenome.getContig(roi.getContig());
+				if(genomicSequence==null)
+					{
+					throw new JvarkitException.ContigNotFoundInDictionary(roi.getContig(), GcPercentAndDepth.this.samSequenceDictionary);
+					}
+				for(int i=0;i< len;++i)
+					{
+					int gc=0;
+					int n=0;
+					switch(genomicSequence.charAt(from1+i-1))
+						{
+						case 'c':case 'C':
+						case 'g':case 'G':		
+						case 's':case 'S': gc=1; break;
+						case 'n':case 'N': n=1; break;
+						default:break;
+						}
+					this.gcPrefix[i+1] = this.gcPrefix[i] + gc;
+					this.nPrefix[i+1] = this.nPrefix[i] + n;
+					}
+				}
+			
+			/* depth */
+			for(final SamReader r:this.readers)
+				{
+				final CloseableIterator<SAMRecord> iter = r.query(roi.getContig(), from1, to1, false);
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(GcPercentAndDepth.this.filter.filterOut(rec)) continue;
+					final String sample= GcPercentAndDepth.this.partition.getPartion(rec,null);
+					if(sample==null ) continue;
+					final Integer sampleIndex = this.sample2index.get(sample);
+					if(sampleIndex==null) continue;
+					final Cigar cigar=rec.getCigar();
+					if(cigar==null) continue;
+					final int offset = sampleIndex*len;
+					int refpos1=rec.getAlignmentStart();
+					for(final CigarElement ce: cigar.getCigarElements())
+						{
+						final CigarOperator op = ce.getOperator();
+						if(!op.consumesReferenceBases() ) continue;
+						if(op.consumesReadBases())
+							{
+							for(int i=0;i< ce.getLength();++i)
+								{
+								if(refpos1+i < from1) continue;
+								if(refpos1+i > to1) break;
+								this.depth[offset+refpos1+i-from1]++;
+								}
+							}
+						refpos1 += ce.getLength();
+						}
+					}
+				iter.close();
+				}
+			/* mean depth on [start,end[ for each sample and each window */
+			for(int s=0;s< this.nSamples;++s)
+				{
+				final int offset = s*len;
+				for(int i=0;i< len;++i)
+					{
+					this.depthPrefix[i+1] = this.depthPrefix[i] + this.depth[offset+i];
+					}
+				for(int w=0;w< shard.countWindows;++w)
+					{
+					final RegionCaptured.SlidingWindow win = shard.getWindow(w);
+					final int i0 = win.getStart()-from1;
+					final int i1 = Math.min(win.getEnd(),roi.getEnd())-from1;
+					final double sum = (i1<=i0?0L:this.depthPrefix[i1]-this.depthPrefix[i0]);
+					this.meanDepth[w*this.nSamples+s] = sum/(double)roi.length();
+					}
+				}
+			
+			final StringWriter sw = new StringWriter();
+			final PrintWriter out = new PrintWriter(sw);
+			for(int w=0;w< shard.countWindows;++w)
+				{
+				final RegionCaptured.SlidingWindow win = shard.getWindow(w);
+				/* GC% on [start,end] */
+				final int i0 = win.getStart()-from1;
+				final int i1 = win.getEnd()-from1+1;
+				final int countN = this.nPrefix[i1]-this.nPrefix[i0];
+				if(skip_if_contains_N && countN>0) continue;
+				final double total = this.gcPrefix[i1]-this.gcPrefix[i0];
+				final double GCPercent=total/(double)win.length();
+				
+				int max_depth_for_win=0;
+				for(int s=0;s< this.nSamples;++s)
+					{
+					max_depth_for_win=Math.max(max_depth_for_win, (int)this.meanDepth[w*this.nSamples+s]);
+					}
+				if(max_depth_for_win< GcPercentAndDepth.this.min_depth) continue;
+				if(!GcPercentAndDepth.this.hide_genomic_index)
+					{
+					out.print(win.getGenomicIndex());
+					out.print("\t");
+					}
+				out.print(win.getContig());
+				out.print("\t");
+				out.print(win.getStart()-1);
+				out.print("\t");
+				out.print(win.getEnd());
+				out.print("\t");
+				out.printf("%.2f",GCPercent);
+				for(int s=0;s< this.nSamples;++s)
+					{
+					out.print("\t");
+					out.printf("%.2f",this.meanDepth[w*this.nSamples+s]);
+					}
+				out.println();
+				}
+			out.flush();
+			return sw.toString();
+			}
+		}
+	
 	/** constructor */
 	public GcPercentAndDepth()
 		{
@@ -298,7 +494,17 @@ public class GcPercentAndDepth extends Launcher
 			LOG.error("Bad window step.");
 			return -1;
 			}
-		
+		if(this.shardSize<=0)
+			{
+			LOG.error("Bad shard size.");
+			return -1;
+			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
+
 		if(this.refFile==null)
 			{
 			LOG.error("Undefined REF File");
@@ -326,7 +532,12 @@ public class GcPercentAndDepth extends Launcher
 				LOG.error("Cannot get sequence dictionary for "+this.refFile);
 				return -1;
 				}
-			
+			this.contigOffsets = new long[this.samSequenceDictionary.size()];
+			for(int i=1;i< this.contigOffsets.length;i++)
+				{
+				this.contigOffsets[i] = this.contigOffsets[i-1] + this.samSequenceDictionary.getSequence(i-1).getSequenceLength();
+				}
+
 			out= super.openFileOrStdoutAsPrintWriter(outPutFile);
 			
 			Set<String> all_samples=new TreeSet<String>();
@@ -425,128 +636,81 @@ public class GcPercentAndDepth extends Launcher
 				}
 			
 			
-			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
-			ReferenceContig genomicSequence=null;
+			/* split the regions into shards of consecutive windows */
+			final int windowsPerShard = Math.max(1, this.shardSize/this.windowStep);
+			final List<Shard> shards = new ArrayList<>();
 			for(final RegionCaptured roi:regionsCaptured)
 				{
-				if(genomicSequence==null || !genomicSequence.hasName(roi.getContig()))
+				int nWindows = 0;
+				for(final Iterator<RegionCaptured.SlidingWindow> iter=roi.windows();iter.hasNext();iter.next())
 					{
-					genomicSequence= indexedFastaSequenceFile.getContig(roi.getContig());
-					if(genomicSequence==null)
-						{
-						LOG.error(JvarkitException.ContigNotFoundInDictionary.getMessage(roi.getContig(), this.samSequenceDictionary));
-						return -1;
-						}
+					nWindows++;
 					}
-				Map<String,int[]> sample2depth=new HashMap<String,int[]>();
-				Map<String,Double> sample2meanDepth=new HashMap<String,Double>();
-				for(final String sample:all_samples)
+				for(int i=0;i< nWindows;i+=windowsPerShard)
 					{
-					int depth[]=new int[roi.length()];
-					Arrays.fill(depth, 0);
-					sample2depth.put(sample, depth);
+					shards.add(new Shard(roi,i,Math.min(windowsPerShard, nWindows-i)));
 					}
-				List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>();
-				for(final SamReader r:readers)
+				}
+			LOG.info("N shards="+shards.size());
+			
+			final List<String> samplesList = new ArrayList<>(all_samples);
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(this.samSequenceDictionary).logger(LOG);
+			if(this.nJobs<=1)
+				{
+				final ShardWorker worker = new ShardWorker(readers,samplesList);
+				for(final Shard shard:shards)
 					{
-					iterators.add(r.query(roi.getContig(), roi.getStart(), roi.getEnd(), false));
+					progress.watch(shard.roi.getContig(),shard.getWindow(0).getStart());
+					out.print(worker.run(shard,indexedFastaSequenceFile));
 					}
-				
-				final MergingIterator<SAMRecord> merginIter=
-						new MergingIterator<>(new SAMRecordCoordinateComparator(),iterators);
-					
-				while(merginIter.hasNext())
+				}
+			else
+				{
+				/* each worker has its own BAM readers */
+				final BlockingQueue<ShardWorker> workers = new ArrayBlockingQueue<>(this.nJobs);
+				workers.add(new ShardWorker(readers,samplesList));
+				for(int i=1;i< this.nJobs;i++)
 					{
-					final SAMRecord rec=merginIter.next();
-					if(rec.getReadUnmappedFlag()) continue;
-					if(this.filter.filterOut(rec)) continue;
-										
-					final String sample= this.partition.getPartion(rec,null);
-					if(sample==null ) continue;
-					
-					final int depth[]=sample2depth.get(sample);
-					if(depth==null) continue;
-					final Cigar cigar=rec.getCigar();
-					if(cigar==null) continue;
-					
-					int refpos1=rec.getAlignmentStart();
-					
-					for(final CigarElement ce: cigar.getCigarElements())
+					final List<SamReader> workerReaders = new ArrayList<>(args.size());
+					for(final String filename:args)
 						{
-						final CigarOperator op = ce.getOperator();
-						if(!op.consumesReferenceBases() ) continue;
-						if(op.consumesReadBases())
-							{
-							for(int i=0;i< ce.getLength();++i)
-								{
-								if(refpos1+i < roi.getStart()) continue;
-								if(refpos1+i > roi.getEnd()) break;
-								depth[refpos1+i-roi.getStart()]++;
-								}
-							}
-						refpos1 += ce.getLength();
+						final SamReader r = super.openSamReader(filename);
+						readers.add(r);
+						workerReaders.add(r);
 						}
+					workers.add(new ShardWorker(workerReaders,samplesList));
 					}
-				merginIter.close();
-				
-				for(final RegionCaptured.SlidingWindow win: roi)
-					{
-					double total=0f;
-					int countN=0;
-					for(int pos1=win.getStart();pos1<=win.getEnd();++pos1)
+				final ReferenceGenome referenceGenome = indexedFastaSequenceFile;
+				final ExecutorService executor = Executors.newFixedThreadPool(this.nJobs);
+				/* pending shards, in genomic order */
+				final Deque<Future<String>> pending = new ArrayDeque<>();
+				try {
+					for(final Shard shard:shards)
 						{
-						switch(genomicSequence.charAt(pos1-1))
-							{
-							case 'c':case 'C':
-							case 'g':case 'G':		
-							case 's':case 'S':
+						pending.add(executor.submit(()->{
+							final ShardWorker worker = workers.take();
+							try {
+								return worker.run(shard,referenceGenome);
+								}
+							finally
 								{
-								total++;
-								break;
+								workers.put(worker);
 								}
-							case 'n':case 'N':countN++;break;
-							default:break;
-							}
-						}
-					if(skip_if_contains_N && countN>0) continue;
- 					double GCPercent=total/(double)win.length();
-					
-					int max_depth_for_win=0;
-					sample2meanDepth.clear();
-					for(final String sample:all_samples)
-						{
-						int depth[]=sample2depth.get(sample);
-						double sum=0;
-						for(int pos=win.getStart();
-								pos<win.getEnd() && (pos-roi.getStart())< depth.length;
-								++pos)
+							}));
+						while(pending.size() > this.nJobs*2)
 							{
-							sum+=depth[pos-roi.getStart()];
-							}		
-						double mean= (sum/(double)depth.length);
-						max_depth_for_win=Math.max(max_depth_for_win, (int)mean);
-						sample2meanDepth.put(sample,mean);
-						}
-					if(max_depth_for_win< this.min_depth) continue;
-					if(!this.hide_genomic_index)
-						{
-						out.print(win.getGenomicIndex());
-						out.print("\t");
+							out.print(pending.removeFirst().get());
+							}
+						progress.watch(shard.roi.getContig(),shard.getWindow(0).getStart());
 						}
-					out.print(win.getContig());
-					out.print("\t");
-					out.print(win.getStart()-1);
-					out.print("\t");
-					out.print(win.getEnd());
-					out.print("\t");
-					out.printf("%.2f",GCPercent);
-					
-					for(String sample:all_samples)
+					while(!pending.isEmpty())
 						{
-						out.print("\t");
-						out.printf("%.2f",(double)sample2meanDepth.get(sample));
+						out.print(pending.removeFirst().get());
 						}
-					out.println();
+					}
+				finally
+					{
+					executor.shutdownNow();
 					}
 				}
 			progress.finish();
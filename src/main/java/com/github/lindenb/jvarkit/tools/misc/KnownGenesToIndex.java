@@ -0,0 +1,96 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
+
+/**
+
+BEGIN_DOC
+
+Creates a compact binary, memory-mapped, index of a UCSC knownGene file.
+The index can be used instead of the knownGene file by
+vcfpredictions, vcfstats and lowresbam2raster: the tools open the index instantly and only decode the
+transcripts overlapping the queried regions.
+
+The output file must end with '.kgi'.
+
+### Example
+
+```
+$ java -jar dist/kg2index.jar -o knownGene.kgi "http://hgdownload.cse.ucsc.edu/goldenPath/hg19/database/knownGene.txt.gz"
+$ java -jar dist/vcfpredictions.jar -R ref.fasta -k knownGene.kgi input.vcf
+```
+
+END_DOC
+*/
+@Program(name="kg2index",
+	description="Creates a binary memory-mapped index of a UCSC knownGene file.",
+	keywords={"ucsc","knownGenes","index"}
+	)
+public class KnownGenesToIndex extends Launcher
+	{
+	private static final Logger LOG = Logger.build(KnownGenesToIndex.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output index file. Must end with '"+KnownGeneIndex.SUFFIX+"'",required=true)
+	private File outputFile = null;
+
+	@Parameter(names={"--noncoding"},description="Skip non-coding transcripts")
+	private boolean skip_non_coding = false;
+
+	@Override
+	public int doWork(final List<String> args) {
+		try
+			{
+			if(!this.outputFile.getName().endsWith(KnownGeneIndex.SUFFIX)) {
+				LOG.error("output file should end with "+KnownGeneIndex.SUFFIX);
+				return -1;
+				}
+			final String input = oneAndOnlyOneFile(args);
+			LOG.info("indexing "+input);
+			KnownGeneIndex.build(input,
+					KG->!(this.skip_non_coding && KG.isNonCoding()),
+					this.outputFile
+					);
+			return RETURN_OK;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		}
+
+	public static void main(final String[] args) {
+		new KnownGenesToIndex().instanceMainWithExit(args);
+		}
+	}
@@ -13,12 +13,16 @@ import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.github.lindenb.jvarkit.lang.SubSequence;
-import com.github.lindenb.jvarkit.util.align.LongestCommonSequence;
-import com.github.lindenb.jvarkit.util.bio.RevCompCharSequence;
+import com.github.lindenb.jvarkit.util.align.StripedSmithWaterman;
+import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.picard.GenomicSequence;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
@@ -28,6 +32,35 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
+/**
+BEGIN_DOC
+
+## Motivation
+
+For each read having a long soft-clipped end, the clipped sequence (and its reverse-complement)
+is aligned with a striped Smith-Waterman in a window around the read.
+The best local alignment is written in the attribute defined by `--tag` , one entry per clipped end:
+
+```
+XR:Z:chrom,pos,strand,CIGAR,score;
+```
+
+`pos` is the 1-based position of the first aligned base on the reference, the CIGAR describes the clipped sequence, soft-clipping
+the bases that were not aligned. All the reads are written to the output.
+
+## Performance
+
+The alignment uses reusable 16-bit score arrays and no object per cell. With `--jobs` , the reads are aligned
+by batches in several threads and the batches are written in the input order.
+
+## Example
+
+```
+$ java -jar dist/localrealignreads.jar -R ref.fa -j 4 in.bam > out.bam
+```
+
+END_DOC
+ */
 @Program(name="localrealignreads",description="Local Realignment of Reads")
 public class LocalRealignReads extends Launcher
 	{
@@ -39,45 +72,99 @@ public class LocalRealignReads extends Launcher
 
 	@Parameter(names={"-R","--reference"},description="Indexed fasta Reference")
 	private File faidxFile = null;
-	
+
+	@Parameter(names={"-m","--min-length"},description="[20181210] Min soft-clip length and min number of aligned bases.")
+	private int MIN_ALIGN_LEN=15;
+
+	@Parameter(names={"-t","--tag"},description="[20181210] Attribute used to store the local alignments of the clipped sequences.")
+	private String attributeName = "XR";
+
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads aligning the reads. The reads are aligned by batches and the batches are written in the input order. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+
+	@Parameter(names={"--batch-size"},description="[20181210] Number of reads per batch when using more than one thread.")
+	private int batchSize = 1000;
+
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
-	
 
-	private int MIN_ALIGN_LEN=15;
-	
-	
-	
-	
-	private void align(
-			final List<LongestCommonSequence.Hit> hits,
-			final LongestCommonSequence matrix,
-			final CharSequence S1,
-		    int start1,
-		    int end1,
-			final CharSequence S2,
-			int start2,
-			int end2,
-			int side
+	/** a read and the window of the reference around it, null if the read doesn't need to be aligned */
+	private static class Task
+		{
+		final SAMRecord rec;
+		final String contig;
+		final byte window[];
+		/** 0-based position of window[0] on the reference */
+		final int windowStart;
+		Task(final SAMRecord rec,final String contig,final byte window[],final int windowStart) {
+			this.rec = rec;
+			this.contig = contig;
+			this.window = window;
+			this.windowStart = windowStart;
+			}
+		}
+
+	private boolean hasLongClip(final CigarElement ce) {
+		return ce.getOperator().equals(CigarOperator.S) && ce.getLength()>=MIN_ALIGN_LEN;
+		}
+
+	/** align the clipped sequence bases[start,end) and its reverse-complement on the window, append the best hit to 'sb' */
+	private void alignClip(
+			final StripedSmithWaterman aligner,
+			final Task task,
+			final byte bases[],
+			final int start,
+			final int end,
+			final StringBuilder sb
 			)
 		{
-		if(end1-start1<MIN_ALIGN_LEN) return;
-		if(end2-start2<MIN_ALIGN_LEN) return;
-		
-		LongestCommonSequence.Hit hit = matrix.align(
-				S1,
-				start1,end1,
-				S2,
-				start2,end2
-				);
-		int align_size = hit.size();
-		if(align_size<MIN_ALIGN_LEN) return;
-		hits.add(hit);
-		
-		if(side==-1 || side==1) align(hits,matrix,S1,start1,end1,S2,hit.getEndY(),end2,1);
-		if(side==-1 || side==2) align(hits,matrix,S1,start1,end1,S2,0,hit.getStartY(),2);
+		final int len = end-start;
+		final byte revcomp[] = new byte[len];
+		for(int i=0;i< len;i++) {
+			revcomp[i] = (byte)AcidNucleics.complement((char)bases[end-1-i]);
+			}
+		final StripedSmithWaterman.Alignment fwd = aligner.align(bases,start,end,task.window,0,task.window.length);
+		final StripedSmithWaterman.Alignment rev = aligner.align(revcomp,0,len,task.window,0,task.window.length);
+		final boolean negative = rev.getScore() > fwd.getScore();
+		final StripedSmithWaterman.Alignment best = negative?rev:fwd;
+		if(best.isEmpty() || best.getAlignedLength()<MIN_ALIGN_LEN) return;
+		/* soft clip the unaligned bases of the clipped sequence */
+		final int clip5 = negative?best.getQueryStart():best.getQueryStart()-start;
+		final int clip3 = (negative?len:end)-best.getQueryEnd();
+		final List<CigarElement> elements = new ArrayList<>(best.getCigar().getCigarElements().size()+2);
+		if(clip5>0) elements.add(new CigarElement(clip5, CigarOperator.S));
+		elements.addAll(best.getCigar().getCigarElements());
+		if(clip3>0) elements.add(new CigarElement(clip3, CigarOperator.S));
+		LOG.debug(task.rec.getReadName()+" "+task.rec.getCigarString()+" clip "+start+"-"+end+" "+best);
+		sb.append(task.contig).append(',').
+			append(task.windowStart+best.getTargetStart()+1).append(',').
+			append(negative?'-':'+').append(',').
+			append(new Cigar(elements).toString()).append(',').
+			append(best.getScore()).append(';');
 		}
-	
+
+	/** align the clipped ends of the read and set the attribute */
+	private SAMRecord realign(final StripedSmithWaterman aligner,final Task task)
+		{
+		if(task.window==null) return task.rec;
+		final SAMRecord rec = task.rec;
+		final Cigar cigar = rec.getCigar();
+		final byte bases[] = rec.getReadBases();
+		final CigarElement ce5 = cigar.getCigarElement(0);
+		final CigarElement ce3 = cigar.getCigarElement(cigar.numCigarElements()-1);
+		final StringBuilder sb = new StringBuilder();
+		if(hasLongClip(ce5))
+			{
+			alignClip(aligner,task,bases,0,ce5.getLength(),sb);
+			}
+		if(hasLongClip(ce3))
+			{
+			alignClip(aligner,task,bases,bases.length-ce3.getLength(),bases.length,sb);
+			}
+		if(sb.length()>0) rec.setAttribute(this.attributeName, sb.toString());
+		return rec;
+		}
+
 	@Override
 	public int doWork(List<String> args) {
 		if(this.faidxFile==null)
@@ -85,181 +172,98 @@ public class LocalRealignReads extends Launcher
 			LOG.error("REFerence file missing;");
 			return -1;
 			}
+		if(this.attributeName==null || this.attributeName.length()!=2)
+			{
+			LOG.error("bad attribute name "+this.attributeName);
+			return -1;
+			}
+		if(this.batchSize<1)
+			{
+			LOG.error("bad batch size");
+			return -1;
+			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		IndexedFastaSequenceFile  indexedFastaSequenceFile =null;
 		SamReader samReader =null;
 		SAMFileWriter w = null;
 		SAMRecordIterator iter = null;
 		GenomicSequence genomicSequence = null;
-		LongestCommonSequence matrix =new LongestCommonSequence();
+		ExecutorService executor = null;
 		try {
 			indexedFastaSequenceFile = new IndexedFastaSequenceFile(this.faidxFile);
-			
+
 			samReader  = openSamReader(oneFileOrNull(args));
 			final SAMFileHeader header1 = samReader.getFileHeader();
 			final SAMFileHeader header2 = header1.clone();
 			header2.setSortOrder(SortOrder.unsorted);
 			w = this.writingBamArgs.setReferenceFile(faidxFile).openSAMFileWriter(outputFile,header2, true);
 			final SAMSequenceDictionaryProgress progress = new  SAMSequenceDictionaryProgress(header1);
+			/* one aligner per thread: the aligners re-use their buffers */
+			final ThreadLocal<StripedSmithWaterman> threadAligner = ThreadLocal.withInitial(StripedSmithWaterman::new);
+			executor = (this.nJobs>1?Executors.newFixedThreadPool(this.nJobs):null);
+			final Deque<Future<List<SAMRecord>>> pending = new ArrayDeque<>();
+			List<Task> batch = new ArrayList<>(this.batchSize);
 			iter = samReader.iterator();
-			while(iter.hasNext())
+			for(;;)
 				{
-				final SAMRecord rec = progress.watch(iter.next());
-				if( rec.getReadUnmappedFlag() ||
-					rec.isSecondaryOrSupplementary() ||
-					rec.getReadFailsVendorQualityCheckFlag() ||
-					rec.getDuplicateReadFlag()) {
-					w.addAlignment(rec);
-					continue;
-					}
-				
-				final Cigar cigar = rec.getCigar(); 
-				final int nCigarElement = cigar.numCigarElements();
-				if(	nCigarElement <2) {
-					w.addAlignment(rec);
-					continue;
-					}
-				final  CigarElement ce5 =  cigar.getCigarElement(0);
-				final  CigarElement ce3 =  cigar.getCigarElement(nCigarElement-1);
-				if(!(
-					(ce3.getOperator().equals(CigarOperator.S) && ce3.getLength()>=MIN_ALIGN_LEN) ||
-					(ce5.getOperator().equals(CigarOperator.S) && ce5.getLength()>=MIN_ALIGN_LEN)) )
-					{
-					w.addAlignment(rec);
-					continue;
-					}
-				
-				if( genomicSequence == null || 
-					!genomicSequence.getChrom().equals(rec.getReferenceName())
-					)
-					{
-					genomicSequence = new GenomicSequence(indexedFastaSequenceFile, rec.getReferenceName());
-					}
-				
-				final CharSequence readseq = rec.getReadString();
-				
-				
-				/** short invert */
-				if(ce5.getOperator()==CigarOperator.S && ce5.getLength()>=MIN_ALIGN_LEN)
+				final SAMRecord rec = iter.hasNext()?progress.watch(iter.next()):null;
+				if(rec!=null)
 					{
-					CharSequence clipseq = new SubSequence(readseq, 0, ce5.getLength());
-					CharSequence revcomp = new RevCompCharSequence(clipseq);
-					LongestCommonSequence.Hit hit = matrix.align(genomicSequence,
-							Math.max(0,rec.getUnclippedStart()-rec.getReadLength()),
-							Math.min(rec.getUnclippedEnd()+rec.getReadLength(),genomicSequence.length()),
-							revcomp,
-							0,
-							revcomp.length()
-							);
-					if(hit.size()>=MIN_ALIGN_LEN)
+					Task task = new Task(rec,null,null,0);
+					final Cigar cigar = rec.getCigar();
+					if( !rec.getReadUnmappedFlag() &&
+						!rec.isSecondaryOrSupplementary() &&
+						!rec.getReadFailsVendorQualityCheckFlag() &&
+						!rec.getDuplicateReadFlag() &&
+						cigar!=null &&
+						cigar.numCigarElements()>=2 &&
+						(hasLongClip(cigar.getCigarElement(0)) || hasLongClip(cigar.getCigarElement(cigar.numCigarElements()-1)))
+						)
 						{
-						System.err.println("REVCOMP5' "+hit.getMatchingSequence()+" "+clipseq+" for "+readseq+" "+rec.getReadName()+" "+rec.getCigarString());
+						if( genomicSequence == null ||
+							!genomicSequence.getChrom().equals(rec.getReferenceName())
+							)
+							{
+							genomicSequence = new GenomicSequence(indexedFastaSequenceFile, rec.getReferenceName());
+							}
+						/* the window is extracted here because GenomicSequence is not thread-safe */
+						final int start0 = Math.max(0,rec.getUnclippedStart()-1-rec.getReadLength());
+						final int end0 = Math.min(rec.getUnclippedEnd()+rec.getReadLength(),genomicSequence.length());
+						if(start0<end0)
+							{
+							final byte window[] = new byte[end0-start0];
+							for(int i=0;i< window.length;i++) window[i]=(byte)genomicSequence.charAt(start0+i);
+							task = new Task(rec,rec.getReferenceName(),window,start0);
+							}
 						}
-					/*
-					
-					hit = matrix.align(
-							readseq, 0, readseq.length(),
-							revcomp,
-							0,
-							revcomp.length()
-							);
-					if(hit.size()>=MIN_ALIGN_LEN)
+					if(executor==null)
 						{
-						System.err.println("REVCOMP5' vs ITSELF: "+hit.getMatchingSequence()+" "+clipseq+" for "+readseq+" "+rec.getReadName()+" "+rec.getCigarString());
+						w.addAlignment(realign(threadAligner.get(),task));
+						continue;
 						}
-					*/
+					batch.add(task);
 					}
-				if(ce3.getOperator()==CigarOperator.S && ce3.getLength()>=MIN_ALIGN_LEN)
+				if(executor==null) break;
+				if(!batch.isEmpty() && (rec==null || batch.size()>=this.batchSize))
 					{
-					CharSequence clipseq = new SubSequence(readseq,readseq.length()-ce3.getLength(),readseq.length());
-					CharSequence revcomp = new RevCompCharSequence(clipseq);
-					LongestCommonSequence.Hit hit = matrix.align(genomicSequence,
-							Math.max(0,rec.getUnclippedStart()-rec.getReadLength()),
-							Math.min(rec.getUnclippedEnd()+rec.getReadLength(),genomicSequence.length()),
-							revcomp,
-							0,
-							revcomp.length()
-							);
-					if(hit.size()>=MIN_ALIGN_LEN)
-						{
-						System.err.println("REVCOMP3' "+hit.getMatchingSequence()+" "+clipseq+" for "+readseq+" "+rec.getReadName());
-						}
-					/*
-					hit = matrix.align(
-							readseq, 0, readseq.length(),
-							revcomp,
-							0,
-							revcomp.length()
-							);
-					if(hit.size()>=MIN_ALIGN_LEN)
-						{
-						System.err.println("REVCOMP3' vs ITSELF: "+hit.getMatchingSequence()+" "+clipseq+" for "+readseq+" "+rec.getReadName()+" "+rec.getCigarString());
-						}*/
+					final List<Task> tasks = batch;
+					pending.add(executor.submit(()->{
+						final StripedSmithWaterman aligner = threadAligner.get();
+						final List<SAMRecord> L = new ArrayList<>(tasks.size());
+						for(final Task t:tasks) L.add(realign(aligner,t));
+						return L;
+						}));
+					batch = new ArrayList<>(this.batchSize);
 					}
-				
-				/* other */
-				List<LongestCommonSequence.Hit> hits = new ArrayList<>();
-				align(hits, matrix,
-						genomicSequence,
-						Math.max(0,rec.getUnclippedStart()-rec.getReadLength()),
-						Math.min(rec.getUnclippedEnd()+rec.getReadLength(),genomicSequence.length()),
-						readseq,
-						0,readseq.length(),
-						-1
-						);
-				if(hits.size()<2000) continue;
-				for(LongestCommonSequence.Hit hit:hits)
+				while(!pending.isEmpty() && (rec==null || pending.size() > this.nJobs*2))
 					{
-					int readstart=0;
-					boolean in_M=false;
-					for(int i=0;i< nCigarElement;++i)
-						{
-						final CigarElement ce = cigar.getCigarElement(i);
-						if(ce.getOperator().consumesReadBases())
-							{
-							int readend = readstart + ce.getLength(); 
-							if( ce.getOperator() == CigarOperator.M ||
-								ce.getOperator() == CigarOperator.X ||
-								ce.getOperator() == CigarOperator.EQ)
-								{
-								if(!(hit.getEndY() <=readstart || readend<= hit.getStartY()))
-									{
-									in_M=true;
-									break;
-									}
-								}
-							readstart=readend;
-							}
-						}
-					if(in_M) continue;
-					
-					int align_size =  hit.size();
-					System.err.println(rec.getReadName()+" "+rec.getCigarString()+" "+rec.getAlignmentStart()+"-"+rec.getAlignmentEnd());
-					System.err.println("REF: "+hit.getStartX()+"-"+hit.getEndX());
-					System.err.println("READ "+hit.getStartY()+"-"+hit.getEndY());
-
-					System.err.print("REF  :");
-					for(int i=0;i< align_size;++i)
-						{
-						System.err.print(genomicSequence.charAt(hit.getStartX()+i));
-						}
-					System.err.println();
-					System.err.print("READ :");
-					
-					for(int i=0;i< align_size;++i)
-						{
-						System.err.print(readseq.charAt(hit.getStartY()+i));
-						}
-					System.err.println();
-					
-					
-					
-						
-						
-					
+					for(final SAMRecord r2: pending.removeFirst().get()) w.addAlignment(r2);
 					}
-				
-				System.err.println();
-				
+				if(rec==null) break;
 				}
 			progress.finish();
 			return RETURN_OK;
@@ -269,12 +273,12 @@ public class LocalRealignReads extends Launcher
 			}
 		finally
 			{
+			if(executor!=null) executor.shutdownNow();
 			genomicSequence=null;
 			CloserUtil.close(iter);
 			CloserUtil.close(samReader);
 			CloserUtil.close(w);
 			CloserUtil.close(indexedFastaSequenceFile);
-			matrix=null;
 			}
 		}
 	public static void main(String[] args) {
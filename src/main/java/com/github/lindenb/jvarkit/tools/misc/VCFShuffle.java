@@ -38,6 +38,7 @@ import java.util.Random;
 
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
@@ -45,6 +46,8 @@ import htsjdk.variant.vcf.VCFHeader;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
+import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -59,6 +62,17 @@ BEGIN_DOC
 $ java -jar dist/vcfshuffle.jar input.vcf
 ```
 
+## Random access
+
+With option `--offsets`, the input (a '.vcf' or a bgzipped '.vcf.gz' file) is indexed for the offsets of its variants.
+If an index `input.vcf.offsets` exists, it is re-created if it is older than the VCF. Otherwise, a temporary index is created.
+The indexes of the variants are shuffled in memory (4 bytes per variant) and the variants are read using random access:
+the variants are not written to the temporary files of the sorting collection.
+
+```
+$ java -jar dist/vcfshuffle.jar --offsets input.vcf.gz
+```
+
 
 END_DOC
  */
@@ -77,9 +91,12 @@ public class VCFShuffle extends Launcher
 	@Parameter(names={"-N","--seed"},description="random seed. Optional. -1 = time.")
 	private long seed = -1L ;
 
+	@Parameter(names={"--offsets"},description="[20181210] Use random access: index the offsets of the variants, shuffle the offsets in memory and read the variants in the new order. Input must be a '.vcf' or a bgzipped '.vcf.gz' file.")
+	private boolean use_offsets = false;
+
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
-	
+
 	
 	private static class RLine
 		{
@@ -121,9 +138,74 @@ public class VCFShuffle extends Launcher
 		{
 		}
 	
+	/** shuffle the variants using an index of the offsets */
+	private int shuffleOffsets(final String input) {
+		if(input==null || IOUtil.isUrl(input) || !(input.endsWith(".vcf") || input.endsWith(".vcf.gz")))
+			{
+			LOG.error("option --offsets requires a local '.vcf' or '.vcf.gz' file");
+			return -1;
+			}
+		final File vcfFile = new File(input);
+		File indexFile = VcfOffsetsIndexFactory.getDefaultIndexFile(vcfFile);
+		File tmpIndex = null;
+		VcfList vcfList = null;
+		VariantContextWriter out=null;
+		try
+			{
+			IOUtil.assertFileIsReadable(vcfFile);
+			if(!indexFile.exists())
+				{
+				tmpIndex = File.createTempFile("shuffle.", VcfOffsetsIndexFactory.INDEX_EXTENSION,
+						this.writingSortingCollection.getTmpDirectories().get(0));
+				indexFile = tmpIndex;
+				}
+			indexFile = new VcfOffsetsIndexFactory().
+					setLogger(LOG).
+					indexVcfFileIfNeeded(vcfFile, indexFile);
+			vcfList = VcfList.fromFile(vcfFile, indexFile);
+			
+			/* Fisher-Yates shuffle of the indexes */
+			final Random random=new Random(this.seed);
+			final int permutation[]=new int[vcfList.size()];
+			for(int i=0;i< permutation.length;++i) permutation[i]=i;
+			for(int i=permutation.length-1;i>0;--i)
+				{
+				final int j = random.nextInt(i+1);
+				final int tmp = permutation[i];
+				permutation[i] = permutation[j];
+				permutation[j] = tmp;
+				}
+			
+			final VCFHeader header=new VCFHeader(vcfList.getHeader());
+			super.addMetaData(header);
+			out = super.openVariantContextWriter(this.outputFile);
+			out.writeHeader(header);
+			for(final int idx:permutation)
+				{
+				out.add(vcfList.get(idx));
+				if(out.checkError()) break;
+				}
+			out.close();
+			out=null;
+			return RETURN_OK;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			CloserUtil.close(vcfList);
+			CloserUtil.close(out);
+			if(tmpIndex!=null) tmpIndex.delete();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(seed==-1L) seed= System.currentTimeMillis();
+		if(this.use_offsets) return shuffleOffsets(oneFileOrNull(args));
 		SortingCollection<RLine> shuffled=null;
 		VariantContextWriter out=null;
 		BufferedReader lr=null;
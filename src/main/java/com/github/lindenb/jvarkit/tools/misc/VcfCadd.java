@@ -29,6 +29,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -91,8 +92,17 @@ $ java -Dhttp.proxyHost=my.proxy.host.fr -Dhttp.proxyPort=1234 -jar dist/vcfcadd
 (..)
 ```
 
+## Sorted mode
+
+By default, the variants are grouped in windows of `--buffer-size` bases and the CADD file is queried for each window.
+With `--sorted` , the input VCF must be sorted and the CADD file is read forward, once per contig, while the variants are read (merge-join).
+The index is only used to jump over the large gaps between two variants (option `--jump`). Only the position of the
+CADD lines is parsed until a line matches the position of a variant. This mode is much faster for large VCFs (WGS).
+
 ## History
 
+  * 2018-12-10 : sorted mode
+
   * 2018-06-29 : handling user's field for url like "http://krishna.gs.washington.edu/download/CADD/v1.3/whole_genome_SNVs_inclAnno.tsv.gz" 
   * 2018-04-25 : changing INFO -type to 'A', splitting into two CADD_score/phred and adding dict converter
 
@@ -128,6 +138,10 @@ public class VcfCadd extends Launcher
 			"Other Fields to be included. See the header of http://krishna.gs.washington.edu/download/CADD/v1.3/whole_genome_SNVs_inclAnno.tsv.gz . Multiple separeted by space, semicolon or comma."
 			+ " Warning: This tool currently uses the first CHROM/POS/REF/ALT values it finds while I saw some duplicated fields in 'whole_genome_SNVs_inclAnno.tsv.gz'.")
 	private String otherFieldsStr = "";
+	@Parameter(names={"--sorted"},description="[20181210] Input VCF is sorted on contig/position. The CADD file is read forward once per contig (merge-join) instead of being queried for each window of variants. Faster for large VCFs.")
+	private boolean sorted_input = false;
+	@Parameter(names={"--jump"},description="[20181210] In sorted mode: if the distance between the current position in the CADD file and the next variant is greater than 'x' bases, use the tabix index to jump to the next variant.")
+	private int jump_distance = 100_000;
 
 	
 	private final Pattern TAB=Pattern.compile("[\t]");
@@ -188,10 +202,117 @@ public class VcfCadd extends Launcher
 			}
 		}
 	
-	public VcfCadd()
+	/** sorted mode: the CADD file is read forward along each contig */
+	private class CaddMergeJoin
 		{
+		private String contigVcf = null;
+		private String chromCadd = null;
+		private final Set<String> contigsDone = new HashSet<>();
+		private Iterator<String> iter = null;
+		/** last line read but not consumed yet and its position */
+		private String pendingLine = null;
+		private int pendingPos = -1;
+		private int prevStart = 0;
+		/** re-used buffer of the CADD records at position 'bufferPos' */
+		private final List<Record> buffer = new ArrayList<>();
+		private int bufferPos = -1;
+		
+		/** get the position of a CADD line without splitting the whole line */
+		private int parsePos(final String line) {
+			int i = line.indexOf('\t');
+			if(i==-1) throw new JvarkitException.FileFormatError("Bad CADD line "+line);
+			i++;
+			int pos=0;
+			while(i< line.length() && line.charAt(i)!='\t') {
+				final char c = line.charAt(i);
+				if(c<'0' || c>'9') throw new JvarkitException.FileFormatError("Bad position in CADD line "+line);
+				pos = pos*10 + (c-'0');
+				i++;
+				}
+			return pos;
+			}
+		
+		private void openIterator(final int pos) {
+			CloserUtil.close(this.iter);
+			this.iter = VcfCadd.this.tabix.iterator(this.chromCadd,pos);
+			this.pendingLine = null;
+			this.pendingPos = -1;
+			}
+		
+		/** return the CADD records having the same position than the variant */
+		List<Record> get(final VariantContext ctx) {
+			if(!ctx.getContig().equals(this.contigVcf)) {
+				if(this.contigVcf!=null) this.contigsDone.add(this.contigVcf);
+				if(this.contigsDone.contains(ctx.getContig())) {
+					throw new JvarkitException.FileFormatError("Input VCF is not sorted: contig "+ctx.getContig()+" was already seen. Don't use --sorted");
+					}
+				CloserUtil.close(this.iter);
+				this.iter = null;
+				this.contigVcf = ctx.getContig();
+				this.chromCadd = VcfCadd.this.convertToCaddContigs.apply(this.contigVcf);
+				if(StringUtil.isBlank(this.chromCadd)) {
+					LOG.warning("Cannot find or convert VCF contig "+this.contigVcf+" to cadd contigs");
+					this.chromCadd = null;
+					}
+				this.prevStart = 0;
+				this.buffer.clear();
+				this.bufferPos = -1;
+				}
+			if(ctx.getStart() < this.prevStart) {
+				throw new JvarkitException.FileFormatError("Input VCF is not sorted: got "+ctx.getContig()+":"+ctx.getStart()+" after "+this.prevStart+". Don't use --sorted");
+				}
+			this.prevStart = ctx.getStart();
+			if(this.chromCadd==null) return Collections.emptyList();
+			
+			final int pos = ctx.getStart();
+			if(pos==this.bufferPos) return this.buffer;
+			this.buffer.clear();
+			this.bufferPos = pos;
+			
+			/* pendingPos is the position of the last line read */
+			if(this.iter==null || (this.pendingPos!=-1 && pos - this.pendingPos > VcfCadd.this.jump_distance)) {
+				openIterator(pos);
+				}
+			for(;;) {
+				if(this.pendingLine==null) {
+					if(!this.iter.hasNext()) break;
+					final String line = this.iter.next();
+					if(line.startsWith("#") || StringUtil.isBlank(line)) continue;
+					this.pendingPos = parsePos(line);
+					this.pendingLine = line;
+					}
+				if(this.pendingPos < pos) {
+					this.pendingLine = null;
+					continue;
+					}
+				if(this.pendingPos > pos) break;
+				final String tokens[] = TAB.split(this.pendingLine);
+				this.pendingLine = null;
+				if(!Allele.acceptableAlleleBases(tokens[2], true))
+					{
+					LOG.warn("REF allele not suitable in  line "+String.join("\t", tokens)+". skipping");
+					continue;
+					}
+				if(!Allele.acceptableAlleleBases(tokens[VcfCadd.this.column_index_for_Alt], false))
+					{
+					LOG.warn("ALT allele not suitable in  line "+String.join("\t", tokens)+". skipping");
+					continue;
+					}
+				this.buffer.add(new Record(tokens));
+				}
+			return this.buffer;
+			}
+		
+		void close() {
+			CloserUtil.close(this.iter);
+			this.iter = null;
+			}
 		}
 	
+	public VcfCadd()
+		{
+		}
+
 	private final Set<String> contigsNotFounds = new HashSet<>();
 	
 	private void runTabix(final List<VariantContext> buffer)
@@ -259,110 +380,116 @@ public class VcfCadd extends Launcher
 		for(int i=0;i< buffer.size();++i)
 			{
 			final VariantContext ctx=buffer.get(i);
-			final List<Record> cadd_rec_for_ctx = caddMap.get(new ContigPosRef(ctx));
-			if(cadd_rec_for_ctx==null || cadd_rec_for_ctx.isEmpty()) continue;
-			
-			final List<Float> cadd_array_score=new ArrayList<>();
-			final List<Float> cadd_array_phred=new ArrayList<>();
-			boolean got_non_null = false;
-			for(final Allele alt:ctx.getAlternateAlleles())
-				{
-				final Record rec = cadd_rec_for_ctx.
-						stream().
-						filter(REC->REC.alt.equals(alt)).
-						findAny().
-						orElse(null);
-				if(rec==null) {
-					cadd_array_score.add(null);
-					cadd_array_phred.add(null);
-					}
-				else {
-					got_non_null = true;
-					cadd_array_score.add(rec.score);
-					cadd_array_phred.add(rec.phred);
-					}
+			buffer.set(i, annotate(ctx,caddMap.get(new ContigPosRef(ctx))));
+			}
+		}
+
+	/** annotate a variant with the CADD records having the same position and REF */
+	private VariantContext annotate(final VariantContext ctx,final List<Record> cadd_rec_for_ctx)
+		{
+		if(cadd_rec_for_ctx==null || cadd_rec_for_ctx.isEmpty()) return ctx;
+		
+		final List<Float> cadd_array_score=new ArrayList<>();
+		final List<Float> cadd_array_phred=new ArrayList<>();
+		boolean got_non_null = false;
+		for(final Allele alt:ctx.getAlternateAlleles())
+			{
+			final Record rec = cadd_rec_for_ctx.
+					stream().
+					filter(REC->REC.alt.equals(alt)).
+					findAny().
+					orElse(null);
+			if(rec==null) {
+				cadd_array_score.add(null);
+				cadd_array_phred.add(null);
 				}
+			else {
+				got_non_null = true;
+				cadd_array_score.add(rec.score);
+				cadd_array_phred.add(rec.phred);
+				}
+			}
 
-			final Map<String,List<String>> cadd_array_other = new HashMap<>();
+		final Map<String,List<String>> cadd_array_other = new HashMap<>();
 
-			if(got_non_null && !this.userFields.isEmpty())
-				{
-				for(final String key: this.userFields) {
-					
-					if(getFieldHeaderLineCount(key).equals(VCFHeaderLineCount.A)) {
-						final List<String> vals = new ArrayList<>();
-						cadd_array_other.put(key, vals);
-						for(final Allele alt:ctx.getAlternateAlleles())
-							{
-							final String rec = cadd_rec_for_ctx.
-									stream().
-									filter(REC->REC.alt.equals(alt)).
-									filter(REC->REC.otherKeyValues!=null).
-									filter(REC->REC.otherKeyValues.containsKey(key)).
-									map(REC->REC.otherKeyValues.get(key)).
-									findAny().
-									orElse(null);
-							if(StringUtil.isBlank(rec) || rec.equals("NA") ) {
-								vals.add(null);
-								}
-							else
-								{
-								vals.add(rec);
-								}
-							}
-						}
-					else
+		if(got_non_null && !this.userFields.isEmpty())
+			{
+			for(final String key: this.userFields) {
+				
+				if(getFieldHeaderLineCount(key).equals(VCFHeaderLineCount.A)) {
+					final List<String> vals = new ArrayList<>();
+					cadd_array_other.put(key, vals);
+					for(final Allele alt:ctx.getAlternateAlleles())
 						{
-						cadd_array_other.put(key, new ArrayList<>(
-							cadd_rec_for_ctx.
+						final String rec = cadd_rec_for_ctx.
 								stream().
-								filter(R->R.otherKeyValues!=null).
-								map(R->R.otherKeyValues.get(key)).
-								filter(S->!(StringUtil.isBlank(S) || S.equals(".")|| S.equals("NA"))).
-								collect(Collectors.toSet())
-								));
+								filter(REC->REC.alt.equals(alt)).
+								filter(REC->REC.otherKeyValues!=null).
+								filter(REC->REC.otherKeyValues.containsKey(key)).
+								map(REC->REC.otherKeyValues.get(key)).
+								findAny().
+								orElse(null);
+						if(StringUtil.isBlank(rec) || rec.equals("NA") ) {
+							vals.add(null);
+							}
+						else
+							{
+							vals.add(rec);
+							}
 						}
-					
 					}
-					
+				else
+					{
+					cadd_array_other.put(key, new ArrayList<>(
+						cadd_rec_for_ctx.
+							stream().
+							filter(R->R.otherKeyValues!=null).
+							map(R->R.otherKeyValues.get(key)).
+							filter(S->!(StringUtil.isBlank(S) || S.equals(".")|| S.equals("NA"))).
+							collect(Collectors.toSet())
+							));
+					}
+				
 				}
-			if(!cadd_array_score.isEmpty() && got_non_null)
+				
+			}
+		if(!cadd_array_score.isEmpty() && got_non_null)
+			{
+			final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
+			vcb.attribute(this.CADD_FLAG_SCORE, cadd_array_score);
+			vcb.attribute(this.CADD_FLAG_PHRED, cadd_array_phred);
+			for(final String uf:this.userFields)
 				{
-				final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
-				vcb.attribute(this.CADD_FLAG_SCORE, cadd_array_score);
-				vcb.attribute(this.CADD_FLAG_PHRED, cadd_array_phred);
-				for(final String uf:this.userFields)
-					{
-					final List<String> cadd_other = cadd_array_other.get(uf);
-					if(cadd_array_other==null || cadd_array_other.isEmpty()) continue;
-					final List<String> array2 = new ArrayList<>(cadd_other.size());
+				final List<String> cadd_other = cadd_array_other.get(uf);
+				if(cadd_array_other==null || cadd_array_other.isEmpty()) continue;
+				final List<String> array2 = new ArrayList<>(cadd_other.size());
 
-					boolean all_na=true;
-					boolean all_null=true;
-					for(String v:cadd_other)
+				boolean all_na=true;
+				boolean all_null=true;
+				for(String v:cadd_other)
+					{
+					if(StringUtil.isBlank(v))
 						{
-						if(StringUtil.isBlank(v))
-							{
-							array2.add(".");
-							}
-						else
-							{
-							all_null = false;
-							String s= v;
-							if(StringUtil.isBlank(s)) s="NA";
-							if(!s.equals("NA")) all_na=false;
-							s=VCFUtils.escapeInfoField(s.replace(',','&'));
-							array2.add(s);
-							}
+						array2.add(".");
+						}
+					else
+						{
+						all_null = false;
+						String s= v;
+						if(StringUtil.isBlank(s)) s="NA";
+						if(!s.equals("NA")) all_na=false;
+						s=VCFUtils.escapeInfoField(s.replace(',','&'));
+						array2.add(s);
 						}
-					
-					if(array2.isEmpty() || all_na || all_null) continue;
-					vcb.attribute("CADD_"+uf, cadd_other);
 					}
 				
-				buffer.set(i, vcb.make());
+				if(array2.isEmpty() || all_na || all_null) continue;
+				vcb.attribute("CADD_"+uf, cadd_other);
 				}
+			
+			return vcb.make();
 			}
+		return ctx;
 		}
 	
 	private VCFHeaderLineCount getFieldHeaderLineCount(final String field) {
@@ -410,6 +537,28 @@ public class VcfCadd extends Launcher
 				}
 			
 			out.writeHeader(header);
+			if(this.sorted_input)
+				{
+				final CaddMergeJoin mergeJoin = new CaddMergeJoin();
+				try {
+					while(in.hasNext())
+						{
+						final VariantContext ctx = progress.watch(in.next());
+						final Allele ref = ctx.getReference();
+						final List<Record> records = mergeJoin.get(ctx).
+								stream().
+								filter(R->R.ref.equals(ref)).
+								collect(Collectors.toList());
+						out.add(annotate(ctx,records));
+						}
+					}
+				finally
+					{
+					mergeJoin.close();
+					}
+				progress.finish();
+				return 0;
+				}
 			final List<VariantContext> buffer= new ArrayList<>();
 			for(;;)
 				{	
@@ -452,6 +601,10 @@ public class VcfCadd extends Launcher
 				LOG.error("tag phred same as tag score");
 				return -1;
 				}
+			if(this.jump_distance<0) {
+				LOG.error("bad jump distance");
+				return -1;
+				}
 			if(this.ccaduri==null || !this.ccaduri.endsWith(".gz"))
 				{
 				LOG.error("CCAD uri should end with gz. got "+this.ccaduri);
@@ -26,14 +26,22 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.Allele;
@@ -43,9 +51,14 @@ import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
 import htsjdk.variant.vcf.VCFStandardHeaderLines;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
@@ -57,8 +70,20 @@ import com.github.lindenb.jvarkit.util.vcf.VariantAttributesRecalculator;
 /**
 BEGIN_DOC
 
-TODO
+Generates a random VCF from a reference. Everything is streamed: the memory doesn't depend on the number of variants.
+With a fixed seed (option `-S`) the output is reproducible. It can be used to create large inputs to benchmark the other tools.
 
+The reference is split into fake genes (option `--gene-size`). The genes are used for the functional annotations (`--annotations`) and for the BED file (`--bed`).
+
+With `--depth`, each genotype gets the FORMAT fields DP, AD and GQ. The option `--bam` writes simulated single-end reads carrying
+the alleles of each sample (one read-group per sample), sorted on coordinate.
+
+## Example
+
+```
+$ java -jar dist/vcfsimulator.jar -R ref.fa -S 1 -n 100 --density 0.001 --depth 30 \
+	--annotations 3 --bed genes.bed --bam reads.bam -o out.vcf 
+```
 
 END_DOC
 */
@@ -78,16 +103,154 @@ public class VcfSimulator extends Launcher
 	private int numSamples=-1;
 	@Parameter(names= {"-nv","--num-variants"},description="Number of variants to output. <0 == no limit.")
 	private long numberOfVariants = 1000;
+	@Parameter(names= {"--density"},description="[20181210] Probability of a variant at each base of the reference. 1.0 = one variant per base.")
+	private double density = 1.0;
+	@Parameter(names= {"--depth"},description="[20181210] Mean depth. If greater than 0, each genotype gets the FORMAT fields DP, AD and GQ, and it's the depth of the reads written with '--bam'. Otherwise, a random DP is set for some genotypes.")
+	private int meanDepth = -1;
+	@Parameter(names= {"--annotations"},description="[20181210] Number of functional annotations per variant. 0 = no annotation.")
+	private int numAnnotations = 0;
+	@Parameter(names= {"--annotation-format"},description="[20181210] Format of the functional annotations.")
+	private AnnotationFormat annotationFormat = AnnotationFormat.ANN;
+	@Parameter(names= {"--gene-size"},description="[20181210] The reference is split into fake genes of 'x' bases.")
+	private int geneSize = 10_000;
+	@Parameter(names= {"--bed"},description="[20181210] Write the fake genes containing at least one variant in this BED file.")
+	private File bedFile = null;
+	@Parameter(names= {"--bam"},description="[20181210] Write simulated reads in this BAM/SAM file. Requires '--depth'.")
+	private File bamFile = null;
+	@Parameter(names= {"--read-length"},description="[20181210] Length of the simulated reads.")
+	private int readLength = 100;
+	@ParametersDelegate
+	private WritingBamArgs writingBamArgs = new WritingBamArgs();
+	
+	private enum AnnotationFormat {ANN,CSQ};
+	
+	private static final String EFFECTS[]={
+		"synonymous_variant","missense_variant","stop_gained","intron_variant",
+		"splice_region_variant","upstream_gene_variant","3_prime_UTR_variant"
+		};
+	private static final String IMPACTS[]={
+		"LOW","MODERATE","HIGH","MODIFIER",
+		"LOW","MODIFIER","MODIFIER"
+		};
 	
-	private Set<String> samples=new HashSet<String>();
+	/** a variant in the window of the reads: the alleles carried by each haplotype of each sample */
+	private static class SimVariant
+		{
+		final int pos;
+		final byte alt;
+		/** for each sample: bit 1 = ALT on first haplotype, bit 2 = ALT on second haplotype */
+		final byte haplotypes[];
+		SimVariant(final int pos,final byte alt,final int nSamples) {
+			this.pos = pos;
+			this.alt = alt;
+			this.haplotypes = new byte[nSamples];
+			}
+		}
+	
+	private Set<String> samples=new LinkedHashSet<String>();
 	
 	
 	private Random random;
+	/** random generator for the reads, so the VCF doesn't depend on the BAM */
+	private Random readRandom;
+	private long countVariantsSoFar=0;
+	private long countReads=0L;
 	public VcfSimulator()
 		{
 		}
 	
-
+	/** random number of events, poisson distribution */
+	private static int poisson(final Random rand,final double lambda) {
+		if(lambda<=0) return 0;
+		if(lambda>50) {
+			return (int)Math.max(0L,Math.round(lambda + Math.sqrt(lambda)*rand.nextGaussian()));
+			}
+		final double L = Math.exp(-lambda);
+		int k=0;
+		double p=1.0;
+		do {
+			k++;
+			p*=rand.nextDouble();
+			} while(p > L);
+		return k-1;
+		}
+	
+	private String geneName(final String contig,final int pos) {
+		return "GENE_"+contig+"_"+(1+(pos-1)/this.geneSize);
+		}
+	
+	private List<String> createAnnotations(final String contig,final int pos,final char ALT) {
+		final String gene = geneName(contig,pos);
+		final List<String> L = new ArrayList<>(this.numAnnotations);
+		for(int i=0;i< this.numAnnotations;++i)
+			{
+			final int e = this.random.nextInt(EFFECTS.length);
+			final String transcript = gene+".T"+(i+1);
+			switch(this.annotationFormat)
+				{
+				case CSQ:
+					L.add(String.join("|",
+						String.valueOf(ALT),EFFECTS[e],IMPACTS[e],gene,gene,
+						"Transcript",transcript,"protein_coding"
+						));
+					break;
+				default:
+					L.add(String.join("|",
+						String.valueOf(ALT),EFFECTS[e],IMPACTS[e],gene,gene,
+						"transcript",transcript,"protein_coding",
+						(1+this.random.nextInt(10))+"/10",
+						"c."+(1+this.random.nextInt(3000)),
+						"","","","","",""
+						));
+					break;
+				}
+			}
+		return L;
+		}
+	
+	/** write the reads of each sample starting at 'start' */
+	private void writeReads(
+			final SAMFileWriter samWriter,
+			final SAMFileHeader samHeader,
+			final GenomicSequence genomic,
+			final int start,
+			final Deque<SimVariant> window,
+			final List<String> sampleList,
+			final byte quals[]
+			)
+		{
+		while(!window.isEmpty() && window.peekFirst().pos < start) window.removeFirst();
+		final double lambda = this.meanDepth/(double)this.readLength;
+		for(int s=0;s< sampleList.size();++s)
+			{
+			final int nReads = poisson(this.readRandom,lambda);
+			for(int n=0;n< nReads;++n)
+				{
+				final int haplotype = (this.readRandom.nextBoolean()?1:2);
+				final byte bases[]=new byte[this.readLength];
+				for(int i=0;i< bases.length;++i)
+					{
+					bases[i]=(byte)Character.toUpperCase(genomic.charAt(start-1+i));
+					}
+				for(final SimVariant v:window)
+					{
+					if(v.pos >= start+this.readLength) break;
+					if((v.haplotypes[s] & haplotype)!=0) bases[v.pos-start]=v.alt;
+					}
+				final SAMRecord rec=new SAMRecord(samHeader);
+				rec.setReadName(sampleList.get(s)+"."+(++this.countReads));
+				rec.setReferenceName(genomic.getChrom());
+				rec.setAlignmentStart(start);
+				rec.setMappingQuality(60);
+				rec.setCigarString(this.readLength+"M");
+				rec.setReadNegativeStrandFlag(this.readRandom.nextBoolean());
+				rec.setReadBases(bases);
+				rec.setBaseQualities(quals);
+				rec.setAttribute(SAMRecord.READ_GROUP_ID, sampleList.get(s));
+				samWriter.addAlignment(rec);
+				}
+			}
+		}
 
 	@Override
 	public int doWork(final List<String> args)
@@ -101,27 +264,67 @@ public class VcfSimulator extends Launcher
 			LOG.error("too many arguments");
 			return -1;
 		}
+		if(this.density<=0 || this.density>1.0) {
+			LOG.error("density should be in ]0,1]");
+			return -1;
+			}
+		if(this.geneSize<=0 || this.readLength<=0 || this.numAnnotations<0) {
+			LOG.error("bad gene size, read length or number of annotations");
+			return -1;
+			}
+		if(this.bamFile!=null && this.meanDepth<=0) {
+			LOG.error("option --bam requires --depth");
+			return -1;
+			}
 		
 		if(this.randomSeed==-1L) {
-			this.random = new Random(System.currentTimeMillis());
-			}
-		else
-			{
-			this.random = new Random(this.randomSeed);
+			this.randomSeed = System.currentTimeMillis();
 			}
+		this.random = new Random(this.randomSeed);
+		this.readRandom = new Random(this.randomSeed+1L);
 		if(this.numSamples<0)
 			{
 			this.numSamples=1+this.random.nextInt(10);
 			}
 		
 		while(this.samples.size()<numSamples) this.samples.add("SAMPLE"+(1+this.samples.size()));
+		final List<String> sampleList = new ArrayList<>(this.samples);
 		VariantContextWriter writer=null;
 		PrintStream pw = null;
+		PrintWriter bedWriter = null;
+		SAMFileWriter samWriter = null;
 		try
 			{
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
-			VCFStandardHeaderLines.addStandardFormatLines(metaData, true, "GT","DP");
+			if(this.meanDepth>0)
+				{
+				VCFStandardHeaderLines.addStandardFormatLines(metaData, true, "GT","DP","AD","GQ");
+				}
+			else
+				{
+				VCFStandardHeaderLines.addStandardFormatLines(metaData, true, "GT","DP");
+				}
 			VCFStandardHeaderLines.addStandardInfoLines(metaData, true, "AF","AN","AC","DP");
+			if(this.numAnnotations>0)
+				{
+				switch(this.annotationFormat)
+					{
+					case CSQ:
+						metaData.add(new VCFInfoHeaderLine("CSQ",
+							VCFHeaderLineCount.UNBOUNDED,
+							VCFHeaderLineType.String,
+							"Consequence annotations from Ensembl VEP. Format: Allele|Consequence|IMPACT|SYMBOL|Gene|Feature_type|Feature|BIOTYPE"
+							));
+						break;
+					default:
+						metaData.add(new VCFInfoHeaderLine("ANN",
+							VCFHeaderLineCount.UNBOUNDED,
+							VCFHeaderLineType.String,
+							"Functional annotations: 'Allele | Annotation | Annotation_Impact | Gene_Name | Gene_ID | Feature_Type | Feature_ID | Transcript_BioType | Rank | HGVS.c | HGVS.p | cDNA.pos / cDNA.length | CDS.pos / CDS.length | AA.pos / AA.length | Distance | ERRORS / WARNINGS / INFO'"
+							));
+						break;
+					}
+				}
 			VariantAttributesRecalculator calc= new VariantAttributesRecalculator();
 			
 			final VCFHeader header=new VCFHeader(
@@ -133,21 +336,62 @@ public class VcfSimulator extends Launcher
 			pw = super.openFileOrStdoutAsPrintStream(this.outputFile);
 			writer = VCFUtils.createVariantContextWriterToOutputStream(pw);
 			
+			SAMFileHeader samHeader = null;
+			if(this.bamFile!=null)
+				{
+				samHeader = new SAMFileHeader();
+				samHeader.setSequenceDictionary(this.indexedFastaSequenceFile.getSequenceDictionary());
+				samHeader.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+				for(final String sample:sampleList)
+					{
+					final SAMReadGroupRecord rg = new SAMReadGroupRecord(sample);
+					rg.setSample(sample);
+					samHeader.addReadGroup(rg);
+					}
+				samWriter = this.writingBamArgs.openSAMFileWriter(this.bamFile, samHeader, true);
+				}
+			if(this.bedFile!=null)
+				{
+				bedWriter = IOUtils.openFileForPrintWriter(this.bedFile);
+				}
+			final byte quals[]=new byte[this.readLength];
+			Arrays.fill(quals, (byte)30);
+			
 			writer.writeHeader(header);
-			long countVariantsSoFar=0;
-			for(;;)
+			this.countVariantsSoFar=0;
+			for(int pass=0;;++pass)
 				{
 				if(pw.checkError()) break;
 				if(this.numberOfVariants>=0 && countVariantsSoFar>=this.numberOfVariants) break;
+				if(pass>0 && (samWriter!=null || bedWriter!=null))
+					{
+					LOG.warn("end of reference reached: no more variant can be written in the BAM or in the BED file.");
+					break;
+					}
+				final long countBeforePass = this.countVariantsSoFar;
 				for(final SAMSequenceRecord ssr: this.indexedFastaSequenceFile.getSequenceDictionary().getSequences())
 					{
 					if(pw.checkError()) break;
+					if(this.numberOfVariants>=0 && countVariantsSoFar>=this.numberOfVariants) break;
 					final GenomicSequence genomic=new GenomicSequence(this.indexedFastaSequenceFile, ssr.getSequenceName());
-					for(int pos=1;pos<=ssr.getSequenceLength();++pos)
+					final Deque<SimVariant> window = new ArrayDeque<>();
+					/* index of the gene that was last written to the bed */
+					int lastBedGene = -1;
+					/* position of the last variant written on this contig */
+					int lastVariantPos = 0;
+					int pos=1;
+					for(pos=1;pos<=ssr.getSequenceLength();++pos)
 						{
 						if(pw.checkError()) break;
+						if(this.numberOfVariants>=0 && countVariantsSoFar>=this.numberOfVariants) break;
+						/* all the variants overlapping a read starting at 'pos-readLength' are known */
+						if(samWriter!=null && pos>this.readLength)
+							{
+							writeReads(samWriter,samHeader,genomic,pos-this.readLength,window,sampleList,quals);
+							}
 						char REF=Character.toUpperCase(genomic.charAt(pos-1));
 						if(REF=='N') continue;
+						if(this.density<1.0 && this.random.nextDouble()>=this.density) continue;
 						char ALT='N';
 						switch(REF)
 							{
@@ -164,16 +408,35 @@ public class VcfSimulator extends Launcher
 						cb.chr(genomic.getChrom());
 						cb.start(pos);
 						cb.stop(pos);
+						final SimVariant simVariant = (samWriter==null?null:new SimVariant(pos,(byte)ALT,sampleList.size()));
 						List<Genotype> genotypes=new ArrayList<Genotype>(samples.size());
-						for(String sample: samples)
+						for(int s=0;s< sampleList.size();++s)
 							{
+							final String sample = sampleList.get(s);
 							final Allele a1=(random.nextBoolean()?refAllele:altAllele);
 							final Allele a2=(random.nextBoolean()?refAllele:altAllele);
 							GenotypeBuilder gb=new GenotypeBuilder(
 									sample,
 									Arrays.asList(a1,a2)
 									);
-							if(random.nextBoolean())
+							if(simVariant!=null)
+								{
+								simVariant.haplotypes[s] = (byte)((a1.isReference()?0:1) | (a2.isReference()?0:2));
+								}
+							if(this.meanDepth>0)
+								{
+								final int dp = poisson(this.random,this.meanDepth);
+								final int nAlt = (a1.isReference()?0:1) + (a2.isReference()?0:1);
+								int ad=0;
+								for(int d=0;d< dp;++d)
+									{
+									if(this.random.nextInt(2) < nAlt) ad++;
+									}
+								gb.DP(dp);
+								gb.AD(new int[]{dp-ad,ad});
+								gb.GQ(Math.min(99,dp*3));
+								}
+							else if(random.nextBoolean())
 								{
 								gb=new GenotypeBuilder(
 										sample,
@@ -186,10 +449,42 @@ public class VcfSimulator extends Launcher
 							}
 						cb.genotypes(genotypes);
 						cb.alleles(Arrays.asList(refAllele,altAllele));
+						if(this.numAnnotations>0)
+							{
+							cb.attribute(this.annotationFormat.name(),createAnnotations(genomic.getChrom(),pos,ALT));
+							}
 						writer.add(calc.apply(cb.make()));
+						if(simVariant!=null) window.add(simVariant);
+						if(bedWriter!=null && lastBedGene!=(pos-1)/this.geneSize)
+							{
+							lastBedGene = (pos-1)/this.geneSize;
+							bedWriter.print(genomic.getChrom());
+							bedWriter.print('\t');
+							bedWriter.print(lastBedGene*(long)this.geneSize);
+							bedWriter.print('\t');
+							bedWriter.print(Math.min(ssr.getSequenceLength(),(lastBedGene+1L)*this.geneSize));
+							bedWriter.print('\t');
+							bedWriter.print(geneName(genomic.getChrom(),pos));
+							bedWriter.println();
+							}
+						lastVariantPos = pos;
 						countVariantsSoFar++;
 						}
-					
+					/* remaining reads: up to the end of the contig if it was scanned, else up to the last variant */
+					if(samWriter!=null && ssr.getSequenceLength()>=this.readLength)
+						{
+						final int lastStart = ssr.getSequenceLength()-this.readLength+1;
+						final int endStart = (pos>ssr.getSequenceLength()?lastStart:Math.min(lastStart,lastVariantPos));
+						for(int start=Math.max(1,pos-this.readLength);start<=endStart;++start)
+							{
+							writeReads(samWriter,samHeader,genomic,start,window,sampleList,quals);
+							}
+						}
+					}
+				if(countBeforePass==this.countVariantsSoFar)
+					{
+					LOG.warn("no variant was generated in the reference.");
+					break;
 					}
 				}
 			writer.close();
@@ -197,6 +492,17 @@ public class VcfSimulator extends Launcher
 			pw.flush();
 			pw.close();
 			pw=null;
+			if(samWriter!=null)
+				{
+				samWriter.close();
+				samWriter=null;
+				}
+			if(bedWriter!=null)
+				{
+				bedWriter.flush();
+				bedWriter.close();
+				bedWriter=null;
+				}
 			return 0;
 			}
 		catch(final Exception err)
@@ -209,6 +515,8 @@ public class VcfSimulator extends Launcher
 			CloserUtil.close(this.indexedFastaSequenceFile);
 			CloserUtil.close(pw);
 			CloserUtil.close(writer);
+			CloserUtil.close(samWriter);
+			CloserUtil.close(bedWriter);
 			}
 		}
 
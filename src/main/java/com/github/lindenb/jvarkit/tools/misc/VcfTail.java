@@ -29,8 +29,10 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.misc;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -42,15 +44,20 @@ import javax.xml.bind.annotation.XmlType;
 
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.AbstractVCFCodec;
 import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.TailLineReader;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.vcf.DelegateVariantContextWriter;
 import com.github.lindenb.jvarkit.util.vcf.PostponedVariantContextWriter;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VariantContextWriterFactory;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
@@ -71,6 +78,12 @@ chr1    935492  G   T
 chr1    1334052 CTAGAG  C
 ```
 
+## Performance
+
+When the input is a plain or a bgzipped VCF file (not stdin) and option `--bycontig` is not used,
+the file is read backward from its end: only the last BGZF blocks are decompressed. Use `--stream` to
+read the whole file.
+
 END_DOC
 
 **/
@@ -86,7 +99,9 @@ public class VcfTail extends com.github.lindenb.jvarkit.util.jcommander.Launcher
 	private PostponedVariantContextWriter.WritingVcfConfig writingVcfArgs = new PostponedVariantContextWriter.WritingVcfConfig();
 	@ParametersDelegate
 	private CtxWriterFactory component = new CtxWriterFactory();
-	
+	@Parameter(names={"--stream"},description="[20181210] Always read the whole VCF. By default, when the input is a plain or a bgzipped VCF file, the file is read backward from its end.")
+	private boolean forceStreaming = false;
+
 	@XmlType(name="vcftail")
 	@XmlRootElement(name="vcftail")
 	@XmlAccessorType(XmlAccessType.FIELD)
@@ -182,6 +197,37 @@ public class VcfTail extends com.github.lindenb.jvarkit.util.jcommander.Launcher
 				final VariantContextWriter out  = this.component.open(delegate);
 				out.writeHeader(in.getHeader());
 				
+				final File inputFile = new File(inputName);
+				if(canReadBackward(inputFile))
+					{
+					LOG.info("reading "+inputFile+" backward");
+					/* decode the lines like the forward reader: version from the ##fileformat line */
+					final String fileformat = in.getHeader().getMetaDataInInputOrder().stream().
+							filter(H->VCFHeaderVersion.isFormatString(H.getKey())).
+							map(H->VCFHeader.METADATA_INDICATOR+H.getKey()+"="+H.getValue()).
+							findFirst().
+							orElse(null);
+					VCFHeaderVersion version = (fileformat==null?null:VCFHeaderVersion.getHeaderVersion(fileformat));
+					if(version==null)
+						{
+						final VCFHeaderVersion versions[]=VCFHeaderVersion.values();
+						version = versions[versions.length-1];
+						}
+					final AbstractVCFCodec codec = (fileformat==null?
+							VCFUtils.createDefaultVCFCodec():
+							VCFUtils.findCodecFromLines(Collections.singletonList(fileformat))
+							);
+					codec.setVCFHeader(in.getHeader(), version);
+					try(final TailLineReader tail = new TailLineReader(inputFile)) {
+						for(final String line: tail.tail((int)this.component.count,L->!L.isEmpty() && !L.startsWith("#")))
+							{
+							out.add(codec.decode(line));
+							}
+						}
+					out.close();
+					return 0;
+					}
+				
 				final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(in.getHeader()).logger(LOG);
 				while(in.hasNext())
 					{
@@ -198,6 +244,21 @@ public class VcfTail extends com.github.lindenb.jvarkit.util.jcommander.Launcher
 				}
 			}
 		
+		/** returns true if the last variants can be read from the end of the file */
+		private boolean canReadBackward(final File inputFile) {
+			if(this.forceStreaming || this.component.by_contig) return false;
+			if(this.component.count <= 0L || this.component.count > Integer.MAX_VALUE) return false;
+			if(!TailLineReader.isSupported(inputFile)) return false;
+			/* e.g. BCF is also compressed with BGZF */
+			try(final BufferedReader r = IOUtils.openFileForBufferedReading(inputFile)) {
+				final String line = r.readLine();
+				return line!=null && line.startsWith("##fileformat=VCF");
+				}
+			catch(final IOException err) {
+				return false;
+				}
+			}
+		
 		@Override
 		public int doWork(final List<String> args) {
 			return doVcfToVcf(args,output);
@@ -29,9 +29,19 @@ History:
 */
 package com.github.lindenb.jvarkit.tools.sam2tsv;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -49,6 +59,7 @@ import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 /**
 
 BEGIN_DOC
@@ -126,6 +137,12 @@ sam2tsv can read data from a linux pipe.
 samtools view -h input.bam | java -jar dist/sam2tsv.jar
 ```
 
+## Performance
+
+The rows are encoded as bytes in a re-used buffer (no String, no `printf`) and written by blocks.
+With option `-j`, the reads are encoded by batches (option `--batch-size`) in parallel and the batches are written
+in the input order: the output is the same as with one thread.
+
 
 
 
@@ -168,343 +185,551 @@ public class Sam2Tsv
 	@Parameter(names={"-r","-R","--reference"},description=INDEXED_FASTA_REFERENCE_DESCRIPTION)
 	private File refFile = null;
 	
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads encoding the rows. The reads are encoded by batches and the batches are written in the input order. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+
+	@Parameter(names={"--batch-size"},description="[20181210] When using more than one thread, number of reads in a batch.")
+	private int batchSize = 10_000;
+
+	/** flush the bytes to the output when the buffer is larger than this value */
+	private static final int FLUSH_SIZE = 1<<16;
+	/** names of the cigar operators, as bytes */
+	private static final byte OPERATOR_NAMES[][];
+	static {
+		final CigarOperator ops[] = CigarOperator.values();
+		OPERATOR_NAMES = new byte[ops.length][];
+		for(final CigarOperator op:ops) OPERATOR_NAMES[op.ordinal()] = op.name().getBytes();
+		}
 	
-
-	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
-	private GenomicSequence genomicSequence=null;
-	/** lines for alignments */
-	private StringBuilder L1=null;
-	private StringBuilder L2=null;
-	private StringBuilder L3=null;
-
-	private PrintWriter out = null;
+	/** growable array of bytes, used to encode the rows without creating any String */
+	static class ByteBuilder
+		{
+		private byte array[];
+		private int size=0;
+		private final byte digits[]=new byte[20];
+		
+		ByteBuilder(final int capacity) {
+			this.array = new byte[Math.max(16, capacity)];
+			}
+		void clear() {
+			this.size=0;
+			}
+		int size() {
+			return this.size;
+			}
+		private void ensure(final int extra) {
+			if(this.size+extra > this.array.length) {
+				this.array = Arrays.copyOf(this.array, Math.max(this.array.length*2, this.size+extra));
+				}
+			}
+		ByteBuilder append(final byte b) {
+			ensure(1);
+			this.array[this.size++] = b;
+			return this;
+			}
+		ByteBuilder append(final char c) {
+			return append((byte)c);
+			}
+		ByteBuilder append(final byte b[]) {
+			ensure(b.length);
+			System.arraycopy(b, 0, this.array, this.size, b.length);
+			this.size += b.length;
+			return this;
+			}
+		ByteBuilder append(final ByteBuilder b) {
+			ensure(b.size);
+			System.arraycopy(b.array, 0, this.array, this.size, b.size);
+			this.size += b.size;
+			return this;
+			}
+		/** append a string made of ASCII characters */
+		ByteBuilder appendAscii(final CharSequence s) {
+			final int n = s.length();
+			ensure(n);
+			for(int i=0;i< n;++i) this.array[this.size++] = (byte)s.charAt(i);
+			return this;
+			}
+		ByteBuilder appendInt(final int v) {
+			ensure(11);
+			long n = v;
+			if(n<0L) {
+				this.array[this.size++] = '-';
+				n = -n;
+				}
+			int d=0;
+			do {
+				this.digits[d++] = (byte)('0'+(n%10L));
+				n/=10L;
+				} while(n!=0L);
+			while(d>0) this.array[this.size++] = this.digits[--d];
+			return this;
+			}
+		ByteBuilder repeat(final byte b,final int n) {
+			if(n<=0) return this;
+			ensure(n);
+			Arrays.fill(this.array, this.size, this.size+n, b);
+			this.size += n;
+			return this;
+			}
+		/** same as printf("%<i>width</i>s") */
+		ByteBuilder appendRightAligned(final CharSequence s,final int width) {
+			return repeat((byte)' ', width-s.length()).appendAscii(s);
+			}
+		/** same as printf("%<i>width</i>d") */
+		ByteBuilder appendRightAligned(final int v,final int width) {
+			return repeat((byte)' ', width-intWidth(v)).appendInt(v);
+			}
+		/** same as printf("%-<i>width</i>d") */
+		ByteBuilder appendLeftAligned(final int v,final int width) {
+			return appendInt(v).repeat((byte)' ', width-intWidth(v));
+			}
+		/** number of characters needed to print 'v' */
+		static int intWidth(final int v) {
+			long n = v;
+			int w = 1;
+			if(n<0L) {
+				w++;
+				n=-n;
+				}
+			while(n>=10L) {
+				n/=10L;
+				w++;
+				}
+			return w;
+			}
+		void writeTo(final OutputStream os) throws IOException {
+			os.write(this.array, 0, this.size);
+			}
+		byte[] toByteArray() {
+			return Arrays.copyOf(this.array, this.size);
+			}
+		}
 	
-	private class Row
+	/** encodes the rows of the reads. Each thread has its own encoder */
+	private class RowEncoder implements Closeable
 		{
-		SAMRecord rec;
-		byte readbases[];
-		byte readQuals[];
-
-		int readPos;
-		int refPos;
-		CigarOperator op;
+		private final IndexedFastaSequenceFile indexedFastaSequenceFile;
+		private GenomicSequence genomicSequence=null;
+		/** encoded rows */
+		final ByteBuilder out = new ByteBuilder(FLUSH_SIZE*2);
+		/** 'read-name TAB flag TAB chrom TAB' of the current read */
+		private final ByteBuilder prefix = new ByteBuilder(1000);
+		/** lines for alignments */
+		private final ByteBuilder L1;
+		private final ByteBuilder L2;
+		private final ByteBuilder L3;
+		
+		private SAMRecord rec;
+		private byte readbases[];
+		private byte readQuals[];
+		private int readPos;
+		private int refPos;
+		private CigarOperator op;
 		
-		public char getRefBase()
+		RowEncoder() throws IOException {
+			this.indexedFastaSequenceFile = Sam2Tsv.this.refFile==null?
+					null:
+					new IndexedFastaSequenceFile(Sam2Tsv.this.refFile)
+					;
+			if(Sam2Tsv.this.printAlignment) {
+				this.L1 = new ByteBuilder(1000);
+				this.L2 = new ByteBuilder(1000);
+				this.L3 = new ByteBuilder(1000);
+				}
+			else
+				{
+				this.L1 = null;
+				this.L2 = null;
+				this.L3 = null;
+				}
+			}
+		
+		private char getRefBase()
 			{
-			if(Sam2Tsv.this.genomicSequence==null)
+			if(this.genomicSequence==null)
 				{
 				return 'N';
 				}
-			else if(refPos>=1 && refPos<= genomicSequence.length())
+			else if(this.refPos>=1 && this.refPos<= this.genomicSequence.length())
  				{
-				return genomicSequence.charAt(refPos-1);
+				return this.genomicSequence.charAt(this.refPos-1);
  				}
 			return '.';
 			}
 		
-		public char getReadBase()
+		private char getReadBase()
 			{
-			return readPos==-1 || this.readPos>=this.readbases.length?'.':(char)this.readbases[this.readPos];
+			return this.readPos==-1 || this.readPos>=this.readbases.length?'.':(char)this.readbases[this.readPos];
 			}
-		public char getReadQual()
+		
+		private char getReadQual()
 			{
-			byte c= readPos==-1 || this.readQuals==null || this.readPos>=this.readQuals.length?(byte)0:this.readQuals[this.readPos];
+			final byte c= this.readPos==-1 || this.readQuals==null || this.readPos>=this.readQuals.length?(byte)0:this.readQuals[this.readPos];
 			return SAMUtils.phredToFastq(c);
 			}
 		
-		}
-	
-	private void writeAln(final Row row)
+		private void writeAln()
 			{
-			char c1;
-			char c3;
-			this.out.print(row.rec.getReadName());
-			this.out.print("\t");
-			this.out.print(row.rec.getFlags());
-			this.out.print("\t");
-			this.out.print(row.rec.getReadUnmappedFlag()?".":row.rec.getReferenceName());
-			this.out.print("\t");
-			if(row.readPos!=-1)
+			final char c1;
+			final char c3;
+			this.out.append(this.prefix);
+			if(this.readPos!=-1)
 				{
-				c1 =row.getReadBase();
-				this.out.print(row.readPos);
-				this.out.print("\t");
-				this.out.print(c1);
-				this.out.print("\t");
-				this.out.print(row.getReadQual());
-				this.out.print("\t");
+				c1 = getReadBase();
+				this.out.appendInt(this.readPos).append('\t').
+					append(c1).append('\t').
+					append(getReadQual()).append('\t');
 				}
 			else
 				{
 				c1= '-';
-				this.out.print(".\t.\t.\t");
+				this.out.append(DOT_DOT_DOT);
 				}
 			
-			if(row.refPos != -1)
+			if(this.refPos != -1)
 				{
-				c3 = row.getRefBase();
-				this.out.print(row.refPos);
-				this.out.print("\t");
-				this.out.print(c3);
-				this.out.print("\t");
+				c3 = getRefBase();
+				this.out.appendInt(this.refPos).append('\t').
+					append(c3).append('\t');
 				}
 			else
 				{
 				c3= '-';
-				this.out.print(".\t.\t");
+				this.out.append(DOT_DOT);
+				}
+			if(this.op==null)
+				{
+				this.out.append('.');
+				}
+			else
+				{
+				this.out.append(OPERATOR_NAMES[this.op.ordinal()]);
 				}
-			this.out.print(row.op==null?".":row.op.name());
-			this.out.println();
+			this.out.append('\n');
 			
-			if(this.printAlignment)
+			if(this.L1!=null)
 				{
-				L1.append(c1);
-				L3.append(c3);
+				this.L1.append(c1);
+				this.L3.append(c3);
 				
 				if(Character.isLetter(c1) &&  Character.toUpperCase(c1)== Character.toUpperCase(c3))
 					{
-					L2.append('|');
+					this.L2.append('|');
 					}
 				else
 					{
-					L2.append(' ');
+					this.L2.append(' ');
 					}
 				}
 			}
-	
-	private void printAln(final Row row)
-		{
-		final SAMRecord rec = row.rec;
-		if(rec==null) return;
-		Cigar cigar=rec.getCigar();
-		if(cigar==null) return;
 		
-		row.readbases = rec.getReadBases();
-		row.readQuals = rec.getBaseQualities();
-		if(row.readbases==null )
+		void encode(final SAMRecord rec) throws IOException
 			{
-			row.op=null;
-			row.refPos=-1;
-			row.readPos=-1;
-			writeAln(row);
-			return;
-			}
-		if(rec.getReadUnmappedFlag())
-			{
-			row.op=null;
-			row.refPos=-1;
-			for(int i=0;i< row.readbases.length;++i)
-				{
-				row.readPos=i;
-				writeAln(row);
+			if(rec==null) return;
+			final Cigar cigar=rec.getCigar();
+			if(cigar==null) return;
+			this.rec = rec;
+			
+			this.prefix.clear();
+			this.prefix.appendAscii(rec.getReadName()).append('\t').
+				appendInt(rec.getFlags()).append('\t').
+				appendAscii(rec.getReadUnmappedFlag()?".":rec.getReferenceName()).append('\t');
+			if(this.L1!=null) {
+				this.L1.clear();
+				this.L2.clear();
+				this.L3.clear();
 				}
-			return;
-			}
-		
-		//fix hard clipped reads
-		StringBuilder fixReadBases=new StringBuilder(row.readbases.length);
-		StringBuilder fixReadQuals=new StringBuilder(row.readbases.length);
-		int readIndex = 0;
-		for (final CigarElement ce : cigar.getCigarElements())
-		 {
-		 final CigarOperator op= ce.getOperator();
-		 
-		 for(int i=0;i< ce.getLength();++i)
-			{
-			if(op.equals(CigarOperator.H))
+			
+			this.readbases = rec.getReadBases();
+			this.readQuals = rec.getBaseQualities();
+			if(this.readbases==null )
 				{
-				
-				fixReadBases.append('*');
-				fixReadQuals.append('*');
+				this.op=null;
+				this.refPos=-1;
+				this.readPos=-1;
+				writeAln();
+				return;
 				}
-			else if(!op.consumesReadBases())
+			if(rec.getReadUnmappedFlag())
 				{
-				break;
+				this.op=null;
+				this.refPos=-1;
+				for(int i=0;i< this.readbases.length;++i)
+					{
+					this.readPos=i;
+					writeAln();
+					}
+				return;
 				}
-			else
+			
+			//fix hard clipped reads
+			final int fixedLength = cigar.getCigarElements().stream().
+					filter(CE->CE.getOperator().equals(CigarOperator.H) || CE.getOperator().consumesReadBases()).
+					mapToInt(CE->CE.getLength()).
+					sum();
+			final byte fixReadBases[] = new byte[fixedLength];
+			final byte fixReadQuals[] = new byte[fixedLength];
+			int fixIndex = 0;
+			int readIndex = 0;
+			for (final CigarElement ce : cigar.getCigarElements())
 				{
-				fixReadBases.append((char)row.readbases[readIndex]);
-				fixReadQuals.append(
-						row.readQuals==null ||
-						row.readQuals.length<=readIndex ?
-						'*':(char)row.readQuals[readIndex]);
-				readIndex++;
+				final CigarOperator op= ce.getOperator();
+				for(int i=0;i< ce.getLength();++i)
+					{
+					if(op.equals(CigarOperator.H))
+						{
+						fixReadBases[fixIndex] = '*';
+						fixReadQuals[fixIndex] = '*';
+						}
+					else if(!op.consumesReadBases())
+						{
+						break;
+						}
+					else
+						{
+						fixReadBases[fixIndex] = this.readbases[readIndex];
+						fixReadQuals[fixIndex] = 
+							this.readQuals==null ||
+							this.readQuals.length<=readIndex ?
+							(byte)'*':this.readQuals[readIndex];
+						readIndex++;
+						}
+					fixIndex++;
+					}
 				}
-			}
-		 }
-		row.readbases = fixReadBases.toString().getBytes();
-		row.readQuals = fixReadQuals.toString().getBytes();
-
-		if(this.indexedFastaSequenceFile!=null)
-			{
-			if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(rec.getReferenceName()))
+			this.readbases = fixReadBases;
+			this.readQuals = fixReadQuals;
+	
+			if(this.indexedFastaSequenceFile!=null)
 				{
-				this.genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile, rec.getReferenceName());
+				if(this.genomicSequence==null || !this.genomicSequence.getChrom().equals(rec.getReferenceName()))
+					{
+					this.genomicSequence = new GenomicSequence(this.indexedFastaSequenceFile, rec.getReferenceName());
+					}
 				}
-			}
-		
-
-		 readIndex = 0;
-		 int refIndex = rec.getUnclippedStart();
-		 				 
-		 for (final CigarElement e : cigar.getCigarElements())
-			 {
-			 row.op=e.getOperator();
-			 
-			 switch (e.getOperator())
-				 {
-				 case S :
-				 case H : //length of read has been fixed previously, so same as 'S'
-					 	{
-					 	
-				 		for(int i=0;i<e.getLength();++i)
-				 			{
-				 			row.readPos=  readIndex;
-				 			row.refPos  = refIndex;
-			 				writeAln(row);
-				 			readIndex++;
-				 			refIndex++;//because we used getUnclippedStart
-				 			}
+	
+			readIndex = 0;
+			int refIndex = rec.getUnclippedStart();
+			 				 
+			for (final CigarElement e : cigar.getCigarElements())
+				{
+				this.op=e.getOperator();
+				 
+				switch (e.getOperator())
+					{
+					case S :
+					case H : //length of read has been fixed previously, so same as 'S'
+						{
+						for(int i=0;i<e.getLength();++i)
+							{
+							this.readPos=  readIndex;
+							this.refPos  = refIndex;
+							writeAln();
+							readIndex++;
+							refIndex++;//because we used getUnclippedStart
+							}
 						break; 
-					 	}
-				 case P : 
-					 	{
-					 	row.refPos  = -1;
-					 	row.readPos = -1;
-				 		for(int i=0;i<e.getLength();++i)
-				 			{
-				 			writeAln(row);
-				 			}
+						}
+					case P : 
+						{
+						this.refPos  = -1;
+						this.readPos = -1;
+						for(int i=0;i<e.getLength();++i)
+							{
+							writeAln();
+							}
 						break; 
-					 	}
-				 case I :
-				 		{
-				 		row.refPos  = -1;
-				 		for(int i=0;i<e.getLength();++i)
-				 			{
-				 			row.readPos=readIndex;
-				 			writeAln(row);
-				 			readIndex++;
-				 			}
-				 		break;
-				 		}
-				 case N :  //cont. -- reference skip
-				 case D :
-				 		{
-				 		row.readPos  = -1;
-				 		for(int i=0;i<e.getLength();++i)
-				 			{
-				 			row.refPos = refIndex;
-				 			writeAln(row);
-				 			refIndex++;
-				 			}
-				 		break;
-				 		}
-				 case M :
-				 case EQ :
-				 case X :
-			 			{
-				 		for(int i=0;i< e.getLength();++i)
-				 			{
-				 			row.refPos = refIndex;
-				 			row.readPos = readIndex;
-				 			writeAln(row);
-				 			refIndex++;
-				 			readIndex++;
-				 			}
-				 		break;
-			 			}
-					
-				 default : throw new IllegalStateException("Case statement didn't deal with cigar op: " + e.getOperator());
-				 }
-
-			 }
-	
-		
-		
-		 if(printAlignment)
+						}
+					case I :
+						{
+						this.refPos  = -1;
+						for(int i=0;i<e.getLength();++i)
+							{
+							this.readPos=readIndex;
+							writeAln();
+							readIndex++;
+							}
+						break;
+						}
+					case N :  //cont. -- reference skip
+					case D :
+						{
+						this.readPos  = -1;
+						for(int i=0;i<e.getLength();++i)
+							{
+							this.refPos = refIndex;
+							writeAln();
+							refIndex++;
+							}
+						break;
+						}
+					case M :
+					case EQ :
+					case X :
+						{
+						for(int i=0;i< e.getLength();++i)
+							{
+							this.refPos = refIndex;
+							this.readPos = readIndex;
+							writeAln();
+							refIndex++;
+							readIndex++;
+							}
+						break;
+						}
+					default : throw new IllegalStateException("Case statement didn't deal with cigar op: " + e.getOperator());
+					}
+				}
+			
+			if(this.L1!=null)
 				{
-				
-				final int len=Math.max(rec.getReadNameLength(), rec.getReferenceName().length())+2;
-
-				this.out.printf(":%"+len+"s %8d %s %-8d\n",
-						rec.getReferenceName(),
-						rec.getUnclippedStart(),
-						L3.toString(),
-						rec.getUnclippedEnd()
-						);
-				this.out.printf(":%"+len+"s %8s %s\n",
-						"",
-						"",
-						L2.toString()
-						);
-
-				this.out.printf(":%"+len+"s %8d %s %-8d\n",
-						rec.getReadName(),
-						1,
-						L1.toString(),
-						rec.getReadLength()
-						);
-
-				L1.setLength(0);
-				L2.setLength(0);
-				L3.setLength(0);
+				final String refName = rec.getReferenceName();
+				final String readName = rec.getReadName();
+				final int len=Math.max(readName.length(), refName.length())+2;
+				/* same as printf(":%{len}s %8d %s %-8d\n") */
+				this.out.append(':').appendRightAligned(refName,len).append(' ').
+					appendRightAligned(rec.getUnclippedStart(),8).append(' ').
+					append(this.L3).append(' ').
+					appendLeftAligned(rec.getUnclippedEnd(),8).append('\n');
+				this.out.append(':').appendRightAligned("",len).append(' ').
+					appendRightAligned("",8).append(' ').
+					append(this.L2).append('\n');
+				this.out.append(':').appendRightAligned(readName,len).append(' ').
+					appendRightAligned(1,8).append(' ').
+					append(this.L1).append(' ').
+					appendLeftAligned(rec.getReadLength(),8).append('\n');
 				}
-
+			this.rec = null;
+			}
+		
+		/** encode a batch of reads, return the bytes */
+		byte[] encode(final List<SAMRecord> batch) throws IOException
+			{
+			this.out.clear();
+			for(final SAMRecord rec:batch) encode(rec);
+			final byte array[] = this.out.toByteArray();
+			this.out.clear();
+			return array;
+			}
+		
+		@Override
+		public void close() {
+			CloserUtil.close(this.indexedFastaSequenceFile);
+			}
 		}
 	
+	private static final byte DOT_DOT_DOT[] = ".\t.\t.\t".getBytes();
+	private static final byte DOT_DOT[] = ".\t.\t".getBytes();
+	private static final byte HEADER[] = "#READ_NAME\tFLAG\tCHROM\tREAD_POS\tBASE\tQUAL\tREF_POS\tREF\tOP\n".getBytes();
 	
-	
-	private void scan(final SamReader r) 
+	private void scan(final SamReader r,final OutputStream os) throws IOException
 		{
-		final Row row=new Row();
 		SAMRecordIterator iter=null;
+		final RowEncoder encoder = new RowEncoder();
 		try{
-			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(r.getFileHeader());
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(r.getFileHeader()).logger(LOG);
 			iter=r.iterator();	
 			while(iter.hasNext())
 				{
-				row.rec =progress.watch(iter.next());
-				printAln(row);
-				if(this.out.checkError()) break;
+				encoder.encode(progress.watch(iter.next()));
+				if(encoder.out.size() >= FLUSH_SIZE)
+					{
+					encoder.out.writeTo(os);
+					encoder.out.clear();
+					}
 				}
+			encoder.out.writeTo(os);
+			encoder.out.clear();
 			progress.finish();
 			}
-		catch(final Exception err)
+		finally
 			{
-			LOG.error("scan error:",err);
-			throw new RuntimeException(String.valueOf(err.getMessage()),err);
+			CloserUtil.close(iter);
+			CloserUtil.close(encoder);
+			}
+		}
+	
+	/** the reads are encoded by batches in parallel, the batches are written in the input order */
+	private void scanParallel(final SamReader r,final OutputStream os) throws Exception
+		{
+		final List<RowEncoder> encoders = new ArrayList<>();
+		final ThreadLocal<RowEncoder> threadEncoder = ThreadLocal.withInitial(()->{
+			try {
+				final RowEncoder encoder = new RowEncoder();
+				synchronized(encoders) {
+					encoders.add(encoder);
+					}
+				return encoder;
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			});
+		final ExecutorService executor = Executors.newFixedThreadPool(this.nJobs);
+		final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+		SAMRecordIterator iter=null;
+		try{
+			final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(r.getFileHeader()).logger(LOG);
+			iter=r.iterator();
+			List<SAMRecord> batch = new ArrayList<>(this.batchSize);
+			for(;;)
+				{
+				final SAMRecord rec = iter.hasNext()?progress.watch(iter.next()):null;
+				if(rec!=null) batch.add(rec);
+				if(!batch.isEmpty() && (rec==null || batch.size()>=this.batchSize))
+					{
+					final List<SAMRecord> reads = batch;
+					pending.add(executor.submit(()->threadEncoder.get().encode(reads)));
+					batch = new ArrayList<>(this.batchSize);
+					}
+				while(!pending.isEmpty() && (rec==null || pending.size() > this.nJobs*2))
+					{
+					os.write(pending.removeFirst().get());
+					}
+				if(rec==null) break;
+				}
+			progress.finish();
 			}
 		finally
 			{
+			executor.shutdownNow();
 			CloserUtil.close(iter);
+			synchronized(encoders) {
+				encoders.forEach(E->E.close());
+				}
 			}
 		}
+	
 	@Override
 	public int doWork(final List<String> args) {
-		
-		if(printAlignment)
+		if(this.batchSize<1)
 			{
-			L1=new StringBuilder();
-			L2=new StringBuilder();
-			L3=new StringBuilder();
+			LOG.error("bad batch size");
+			return -1;
+			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
 			}
-		
 		SamReader samFileReader=null;
+		OutputStream out = null;
 		try
 			{
-			if(refFile!=null)
+			out  =  new BufferedOutputStream(openFileOrStdoutAsStream(this.outputFile),FLUSH_SIZE);
+			out.write(HEADER);
+			samFileReader= openSamReader(oneFileOrNull(args));
+			if(this.nJobs==1)
 				{
-				this.indexedFastaSequenceFile=new IndexedFastaSequenceFile(refFile);
+				scan(samFileReader,out);
+				}
+			else
+				{
+				scanParallel(samFileReader,out);
 				}
-			this.out  =  openFileOrStdoutAsPrintWriter(outputFile);
-			this.out.println("#READ_NAME\tFLAG\tCHROM\tREAD_POS\tBASE\tQUAL\tREF_POS\tREF\tOP");
-			samFileReader= openSamReader(oneFileOrNull(args));
-			
-			scan(samFileReader);
 			samFileReader.close();
 			samFileReader = null;
-			this.out.flush();this.out.close();this.out=null;
+			out.flush();out.close();out=null;
 			return RETURN_OK;
 			}
 		catch (final Exception e)
@@ -514,12 +739,8 @@ public class Sam2Tsv
 			}
 		finally
 			{
-			CloserUtil.close(this.indexedFastaSequenceFile);
 			CloserUtil.close(samFileReader);
 			CloserUtil.close(out);
-			L1=null;
-			L2=null;
-			L3=null;
 			}
 		}
 	
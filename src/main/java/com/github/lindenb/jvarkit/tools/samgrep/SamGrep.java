@@ -31,17 +31,19 @@ package com.github.lindenb.jvarkit.tools.samgrep;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.iterator.PipelinedMapIterator;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.samtools.ReadNameFingerprintSet;
 
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
@@ -125,7 +127,12 @@ r001	83	ref	37	30	9M	=	7	-39	CAGCGCCAT	*
 
 ```
 
+### Performance
 
+The read names are not stored: each name is replaced by a 96-bits fingerprint, so millions of names can be loaded in a few hundred Mb.
+(The probability of a false positive is negligible).
+
+With `-j/--jobs` , the BGZF blocks of the BAM are inflated ahead in a background thread (htsjdk asynchronous IO), the records are decoded in a dedicated thread and the names are searched by a pool of threads. The order of the reads is preserved.
 
 
 
@@ -176,18 +183,46 @@ public class SamGrep extends Launcher
 	@Parameter(names={"-V","--invert"},description="invert")
 	private boolean inverse = false;
 	
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads searching the read names. The BAM is inflated and decoded in two other threads. The order of the reads is preserved. Default: no thread. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+	
+	@Parameter(names={"--batch-size"},description="[20181210] With --jobs: number of reads per batch sent to the threads.")
+	private int batchSize = 10_000;
+	
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
 	
-
-	private final Map<String,Integer> readNames=new HashMap<String,Integer>(); 
-   
+	/** a read and the index of its name in the set, or -1 */
+	private static class Hit
+		{
+		final SAMRecord rec;
+		final int index;
+		Hit(final SAMRecord rec,final int index) {
+			this.rec = rec;
+			this.index = index;
+			}
+		}
     
+	/** with --jobs, the BGZF blocks are inflated in a background thread */
+	@Override
+	protected SamReaderFactory createSamReaderFactory() {
+		return super.createSamReaderFactory().setUseAsyncIo(this.nJobs>1);
+		}
+	
     @Override
     public int doWork(List<String> args) {
+    	if(this.batchSize<1)
+    		{
+    		LOG.error("bad batch size");
+    		return -1;
+    		}
+    	if(this.nJobs<1)
+    		{
+    		this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+    		LOG.info("setting njobs to "+this.nJobs);
+    		}
     	
-    	
-    	readNames.clear();
+    	final ReadNameFingerprintSet.Builder builder = new ReadNameFingerprintSet.Builder();
     	
     	if(namefile!=null) {
 	    	BufferedReader in=null;
@@ -199,7 +234,7 @@ public class SamGrep extends Launcher
 		    		{
 		    		line=line.trim();
 		    		if(line.isEmpty()) continue;
-		    		readNames.put(line,0);
+		    		builder.add(line);
 		    		}
 				}
 			catch(Exception err)
@@ -213,9 +248,10 @@ public class SamGrep extends Launcher
 				}
 	    	}
     	for(final String line: this.nameStrings) {
-    		readNames.put(line,0);
+    		builder.add(line);
     		}
-    	if(readNames.isEmpty())
+    	final ReadNameFingerprintSet readNames = builder.make();
+    	if(readNames.size()==0)
 			{
 			LOG.warn("no read found.");
 			}
@@ -224,6 +260,7 @@ public class SamGrep extends Launcher
 		SAMFileWriter sfw=null;
 		SAMFileWriter samStdout=null;
 		SamReader sfr=null;
+		PipelinedMapIterator<SAMRecord,Hit> pipeline=null;
 		try {
 			sfr = super.openSamReader(oneFileOrNull(args));
 			final SAMFileHeader header=sfr.getFileHeader().clone();
@@ -242,35 +279,54 @@ public class SamGrep extends Launcher
 				sfw= this.writingBamArgs.openSAMFileWriter(outputFile, header, true);
 				}
 		
-			SAMRecordIterator iter=sfr.iterator();
+			final SAMRecordIterator samIter=sfr.iterator();
+			final Iterator<Hit> iter;
+			if(this.nJobs>1)
+				{
+				pipeline = new PipelinedMapIterator<>(
+					samIter,
+					R->new Hit(R,readNames.indexOf(R.getReadName())),
+					this.nJobs,
+					this.batchSize
+					);
+				iter = pipeline;
+				}
+			else
+				{
+				iter = new Iterator<Hit>() {
+					@Override
+					public boolean hasNext() {
+						return samIter.hasNext();
+						}
+					@Override
+					public Hit next() {
+						final SAMRecord rec = samIter.next();
+						return new Hit(rec,readNames.indexOf(rec.getReadName()));
+						}
+					};
+				}
+			
 			while(iter.hasNext())
 				{
-				boolean keep=false;
-				final SAMRecord rec=progress.watch(iter.next());
+				final Hit hit = iter.next();
+				final SAMRecord rec=progress.watch(hit.rec);
 				if(samStdout!=null) samStdout.addAlignment(rec);
-				Integer count = readNames.get(rec.getReadName());
-				if(count!=null)
-					{
-					keep=true;
-					}
+				// a removed name is not found anymore
+				boolean keep = hit.index>=0 && !readNames.isRemoved(hit.index);
+				final boolean found = keep;
 				if(this.inverse) keep=!keep;
 				if(keep)
 					{
 					sfw.addAlignment(rec);
 					}
 				
-				if(n_before_remove!=-1 && !inverse && keep)
+				if(n_before_remove!=-1 && !inverse && found)
 					{
-					count++;
-					if(count>=n_before_remove)
+					if(readNames.incrementCount(hit.index)>=n_before_remove)
 						{
-						readNames.remove(rec.getReadName());
+						readNames.remove(hit.index);
 						if(samStdout==null && readNames.isEmpty()) break;
 						}
-					else
-						{
-						readNames.put(rec.getReadName(),count);
-						}
 					}
 				}
 			progress.finish();
@@ -279,6 +335,7 @@ public class SamGrep extends Launcher
 			LOG.error(err);
 			return -1;
 		} finally {
+			CloserUtil.close(pipeline);
 			CloserUtil.close(samStdout);
 			CloserUtil.close(sfw);
 			CloserUtil.close(sfr);
@@ -31,17 +31,24 @@ package com.github.lindenb.jvarkit.tools.structvar;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.function.Function;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 
@@ -56,11 +63,11 @@ import htsjdk.samtools.SAMReadGroupRecord;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SAMUtils;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.util.CloserUtil;
-import htsjdk.samtools.util.Interval;
-import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.IntervalTree;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
@@ -194,19 +201,24 @@ cat circos.conf | sed 's%__FILENAME__%tmp.txt%' >  tmp.txt.conf
 circos-0.69-2/bin/circos  -outputdir ./  -outputfile output  -conf  tmp.txt.conf
 ```
 
+## Parallel scan
+
+When the input BAMs are indexed, option `--jobs` scans each contig in a separate thread. Each thread decodes the reads
+and their supplementary alignments and returns the arcs of the contig. The arcs are merged into the main database by
+the main thread, one contig after the other, in the order of the sequence dictionary: the output is the same as a serial scan.
+
 
 
 END_DOC
 */
 @Program(name="samscansplitreads",description="scan split reads",keywords={"sam","sv","splitreads"})
 	public class SamScanSplitReads extends Launcher {
-	private static long ID_GENERATOR=0L;
 	private static final Logger LOG = Logger.build(SamScanSplitReads.class).make();
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
 	@Parameter(names={"-x","--extend"},description="extends interval by 'x' pb before merging.")
 	private int extentd=20;
-	
+
 	@Parameter(names={"-F","--format"},
 			description="Output format. if 'vcf', will save the file as a vcf file",
 			hidden=true /* this option is not mature */
@@ -214,15 +226,19 @@ END_DOC
 	private String outputFormat="txt";
 	@Parameter(names={"--defaultSampleName"},description="Default Sample name if not read group")
 	private String defaultSampleName="UNDEFINED";
-	
+
 	@Parameter(names={"--normalize"},description="Optional. Normalize count to this value. e.g '1' ")
 	private Integer nomalizeReadCount=null;
 
 	@Parameter(names={"-msr","--minSupportingReads"},description="Minimal number of supporting reads.")
 	private int minSupportingReads=0;
 
-	private Map<String,IntervalTreeMap<Set<Arc>>> sample2database = new HashMap<>();
-	
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of parallel jobs. When the BAMs are indexed, each contig is scanned in a separate thread and the arcs are merged in the order of the dictionary. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+
+	private final Map<String,ArcDatabase> sample2database = new HashMap<>();
+	private SAMSequenceDictionary dictionary = null;
+
 	private final Comparator<SAMRecord> coordinateComparator=new Comparator<SAMRecord>()
 		{
 	    @Override
@@ -233,111 +249,125 @@ END_DOC
 	        if (cmp != 0) return cmp;
 	        return samRecord1.getAlignmentStart() - samRecord2.getAlignmentStart();
 	    }
-	
+
 		};
-		
-		
-	
-	
+
+
+
+	/** a link between two regions. Coordinates are stored as primitives: (tid1,start1,end1) is the 'from' side */
 	private static class Arc
 		{
-		long id;
+		int tid1;
+		int start1;
+		int end1;
+		int tid2;
+		int start2;
+		int end2;
 		int countSupportingReads=0;
-		Interval intervalFrom;
-		Interval intervalTo;
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + (int) (id ^ (id >>> 32));
-			return result;
+
+		private static boolean overlaps(int tidA,int startA,int endA,int tidB,int startB,int endB) {
+			return tidA==tidB && startA<=endB && startB<=endA;
 			}
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj) return true;
-			if (obj == null) return false;
-			final Arc other = (Arc) obj;
-			return id == other.id;
+
+		boolean sameOrientationIntersects(final Arc arc) {
+			return overlaps(this.tid1,this.start1,this.end1,arc.tid1,arc.start1,arc.end1) &&
+				   overlaps(this.tid2,this.start2,this.end2,arc.tid2,arc.start2,arc.end2);
 			}
+
 		boolean intersects(final Arc arc) {
-			return intersects(arc.intervalFrom,arc.intervalTo);
+			if(sameOrientationIntersects(arc)) return true;
+			return overlaps(this.tid1,this.start1,this.end1,arc.tid2,arc.start2,arc.end2) &&
+				   overlaps(this.tid2,this.start2,this.end2,arc.tid1,arc.start1,arc.end1);
 			}
-		boolean intersects(final Interval i1,final Interval i2) {
-			if( this.intervalFrom.intersects(i1) &&
-				    this.intervalTo.intersects(i2) ) return true;
-			
-			if( this.intervalFrom.intersects(i2) &&
-				    this.intervalTo.intersects(i1) ) return true;
-			return false;
+
+		/** extends this arc with an intersecting arc and add its supporting reads */
+		void merge(final Arc arc) {
+			if(sameOrientationIntersects(arc))
+				{
+				this.start1 = Math.min(this.start1, arc.start1);
+				this.end1 = Math.max(this.end1, arc.end1);
+				this.start2 = Math.min(this.start2, arc.start2);
+				this.end2 = Math.max(this.end2, arc.end2);
+				}
+			else if(intersects(arc))
+				{
+				this.start1 = Math.min(this.start1, arc.start2);
+				this.end1 = Math.max(this.end1, arc.end2);
+				this.start2 = Math.min(this.start2, arc.start1);
+				this.end2 = Math.max(this.end2, arc.end1);
+				}
+			else
+				{
+				throw new IllegalArgumentException(""+this+"/"+arc);
+				}
+			this.countSupportingReads += arc.countSupportingReads;
 			}
+
 		@Override
 		public String toString() {
-			return "[" + intervalFrom.toString()+" -> "+intervalTo.toString()+"]";
+			return "[" + tid1+":"+start1+"-"+end1+" -> "+tid2+":"+start2+"-"+end2+"]";
 			}
 		}
-	
-	private Interval extendInterval(final Interval i1) {
-		if(this.extentd<=0) return i1;
-		return new Interval(i1.getContig(),
-				Math.max(i1.getStart()-this.extentd,0),
-				i1.getEnd()+this.extentd
-				);
-		}
-	
-	private Interval merge(Interval i1,Interval i2) {
-		if(!i1.intersects(i2)) throw new IllegalArgumentException(""+i1+"/"+i2);
-		return new Interval(i1.getContig(),
-				Math.min(i1.getStart(), i2.getStart()),
-				Math.max(i1.getEnd(), i2.getEnd())
-				);
-		}
-	
-	private void analyseSamPair(final IntervalTreeMap<Set<Arc>> database,final SAMRecord rec1,final SAMRecord rec2)
+
+	/** all the arcs for one sample, indexed on their 'from' side */
+	private static class ArcDatabase
 		{
-		int diff = coordinateComparator.compare(rec1, rec2);
-		if(diff==0) return;
-		if(diff>0) {
-			analyseSamPair(database,rec2,rec1);
-			return;
-			}
-		
-		final Interval interval1 = extendInterval(new Interval(rec1.getReferenceName(),rec1.getAlignmentStart(), rec1.getAlignmentEnd()));
-		final Interval interval2 = extendInterval(new Interval(rec2.getReferenceName(),rec2.getAlignmentStart(), rec2.getAlignmentEnd()));
-		if( interval1.intersects(interval2)) return;
-		
-		
-		final Set<Arc> merge=new HashSet<>();
-		final Collection<Set<Arc>> col= database.getOverlapping(interval1);
-		for(final Set<Arc> arcset:col)
-			{
-			for(final Arc arc:arcset)
+		private final Map<Integer,IntervalTree<List<Arc>>> tid2tree = new TreeMap<>();
+
+		private void put(final Arc arc) {
+			final IntervalTree<List<Arc>> tree = this.tid2tree.computeIfAbsent(arc.tid1, T->new IntervalTree<>());
+			final IntervalTree.Node<List<Arc>> node = tree.find(arc.start1, arc.end1);
+			if(node==null)
+				{
+				final List<Arc> L = new ArrayList<>(1);
+				L.add(arc);
+				tree.put(arc.start1, arc.end1, L);
+				}
+			else
 				{
-				if(!arc.intersects(interval1,interval2)) continue;
-				merge.add(arc);
+				node.getValue().add(arc);
 				}
 			}
-		
-		if(!merge.isEmpty())
-			{
-			//remove from database
-			for(final Set<Arc> arcset:col)
+
+		private void remove(final Arc arc) {
+			final IntervalTree<List<Arc>> tree = this.tid2tree.get(arc.tid1);
+			final IntervalTree.Node<List<Arc>> node = tree.find(arc.start1, arc.end1);
+			final List<Arc> L = node.getValue();
+			L.remove(arc);
+			if(L.isEmpty()) tree.remove(arc.start1, arc.end1);
+			}
+
+		/** insert an arc, merge it with the arcs it overlaps */
+		void insert(final Arc newArc) {
+			final List<Arc> mergeList = new ArrayList<>();
+			final IntervalTree<List<Arc>> tree = this.tid2tree.get(newArc.tid1);
+			if(tree!=null)
 				{
-				arcset.removeAll(merge);
+				final Iterator<IntervalTree.Node<List<Arc>>> iter = tree.overlappers(newArc.start1, newArc.end1);
+				while(iter.hasNext())
+					{
+					for(final Arc arc: iter.next().getValue())
+						{
+						if(!arc.intersects(newArc)) continue;
+						mergeList.add(arc);
+						}
+					}
 				}
-			final List<Arc> mergeList=new ArrayList<>(merge);
-			//merge new arc with at least one arc in database
-			boolean check_one_overlap=false;
-			for(final Arc arc: mergeList)
+			if(mergeList.isEmpty())
 				{
-				if(!arc.intervalFrom.intersects(interval1)) continue;
-				if(!arc.intervalTo.intersects(interval2)) continue;
-				arc.intervalFrom = merge(arc.intervalFrom,interval1);
-				arc.intervalTo = merge(arc.intervalTo,interval2);
-				arc.countSupportingReads++;
-				check_one_overlap=true;
-				break;
+				put(newArc);
+				return;
 				}
-			if(!check_one_overlap) throw new IllegalStateException();
+			//remove from database
+			for(final Arc arc: mergeList) remove(arc);
+
+			//merge new arc with one arc in database, prefer the same orientation
+			mergeList.stream().
+				filter(A->A.sameOrientationIntersects(newArc)).
+				findFirst().
+				orElse(mergeList.get(0)).
+				merge(newArc);
+
 			int x=0;
 			while(x+1<mergeList.size())
 				{
@@ -348,11 +378,7 @@ END_DOC
 					final Arc arcy = mergeList.get(y);
 					if(arcx.intersects(arcy))
 						{
-						LOG.debug("mergin "+arcx+" "+arcy+" "+ID_GENERATOR);
-						
-						arcx.intervalFrom = merge(arcx.intervalFrom,arcy.intervalFrom);
-						arcx.intervalTo = merge(arcx.intervalTo,arcy.intervalTo);
-						arcx.countSupportingReads+=arcx.countSupportingReads;
+						arcx.merge(arcy);
 						mergeList.remove(y);
 						}
 					else
@@ -360,42 +386,66 @@ END_DOC
 						++y;
 						}
 					}
-				
 				++x;
 				}
-			for(final Arc arc: mergeList)
+			for(final Arc arc: mergeList) put(arc);
+			}
+
+		/** all arcs sorted on the 'from' side */
+		List<Arc> getArcs() {
+			final List<Arc> arcs = new ArrayList<>();
+			for(final IntervalTree<List<Arc>> tree:this.tid2tree.values())
 				{
-				Set<Arc> arcset = database.get(arc.intervalFrom);
-				if(arcset==null) {
-					arcset=new HashSet<>();
-					 database.put(arc.intervalFrom,arcset);
-					}
-				arcset.add(arc);
+				final Iterator<IntervalTree.Node<List<Arc>>> iter = tree.iterator();
+				while(iter.hasNext()) arcs.addAll(iter.next().getValue());
 				}
+			return arcs;
 			}
-		else
+		}
+
+	/** insert an arc in the main database */
+	private void insertArc(final String sample,final Arc arc) {
+		this.sample2database.computeIfAbsent(sample,S->new ArcDatabase()).insert(arc);
+		}
+
+	/** insert the arcs of a contig, in the order of the reads, in the main database */
+	private void mergeShard(final Map<String,List<Arc>> shard) {
+		for(final String sample: shard.keySet())
 			{
-			final Arc arc = new Arc();
-			arc.id = ++ID_GENERATOR;
-			arc.countSupportingReads=1;
-			arc.intervalFrom = interval1;
-			arc.intervalTo = interval2;
-			Set<Arc> arcset = database.get(interval1);
-			if(arcset==null) {
-				arcset=new HashSet<>();
-				database.put(interval1,arcset);
+			for(final Arc arc:shard.get(sample))
+				{
+				insertArc(sample,arc);
 				}
-			arcset.add(arc);
-			if(ID_GENERATOR%1000==0) LOG.info(ID_GENERATOR);
 			}
 		}
-	
-	private void analyseSamRecord(final SAMRecord rec) {
+
+	private void analyseSamPair(final BiConsumer<String,Arc> consumer,final String sample,final SAMRecord rec1,final SAMRecord rec2)
+		{
+		int diff = coordinateComparator.compare(rec1, rec2);
+		if(diff==0) return;
+		if(diff>0) {
+			analyseSamPair(consumer,sample,rec2,rec1);
+			return;
+			}
+		final Arc arc = new Arc();
+		arc.countSupportingReads=1;
+		arc.tid1 = rec1.getReferenceIndex();
+		arc.start1 = Math.max(rec1.getAlignmentStart()-Math.max(0,this.extentd),0);
+		arc.end1 = rec1.getAlignmentEnd()+Math.max(0,this.extentd);
+		arc.tid2 = rec2.getReferenceIndex();
+		arc.start2 = Math.max(rec2.getAlignmentStart()-Math.max(0,this.extentd),0);
+		arc.end2 = rec2.getAlignmentEnd()+Math.max(0,this.extentd);
+		if(arc.tid1<0 || arc.tid2<0) return;
+		if(Arc.overlaps(arc.tid1,arc.start1,arc.end1,arc.tid2,arc.start2,arc.end2)) return;
+		consumer.accept(sample,arc);
+		}
+
+	private void analyseSamRecord(final BiConsumer<String,Arc> consumer,final SAMRecord rec) {
 		if(rec.getReadUnmappedFlag()) return;
 		if(rec.getReadFailsVendorQualityCheckFlag()) return;
 		if(rec.isSecondaryOrSupplementary()) return;
 		if(rec.getDuplicateReadFlag()) return;
-		
+
 		final List<SAMRecord> others= SAMUtils.getOtherCanonicalAlignments(rec);
 		if(others.isEmpty()) return;
 		String sample=this.defaultSampleName;
@@ -404,50 +454,69 @@ END_DOC
 			final String sa = g.getSample();
 			if(sa!=null) sample=sa;
 			}
-		
-		IntervalTreeMap<Set<Arc>> database = this.sample2database.get(sample);
-		if(database==null) {
-			database=new IntervalTreeMap<Set<Arc>>();
-			this.sample2database.put(sample, database);
-			}
-		
+
 		for(final SAMRecord other:others)
 			{
-			analyseSamPair(database,rec,other);
+			analyseSamPair(consumer,sample,rec,other);
 			}
 		}
-	
-		private void scanFile(SamReader r) {
+
+		private void scanFile(final SamReader r) {
 			final SAMSequenceDictionaryProgress progess= new SAMSequenceDictionaryProgress(r.getFileHeader());
 			final SAMRecordIterator iter = r.iterator();
 			while(iter.hasNext())
 				{
-				analyseSamRecord(progess.watch(iter.next()));
+				analyseSamRecord(this::insertArc,progess.watch(iter.next()));
 				}
 			progess.finish();
 			iter.close();
 			}
-	
-		private void saveAsVcf(Set<String> sampleNames,SAMSequenceDictionary dict) throws IOException {
-			 final Function<String,Integer> contig2tid = S -> {
-				 int i= dict.getSequenceIndex(S);
-				 if( i == -1 ) throw new IllegalArgumentException("cannot find contig "+S+" in dictionary");
-				 return i;
-			 }; 
-			
-			 final Comparator<Interval> intervalComparator=new Comparator<Interval>()
+
+		/** scan each contig in a separate thread, merge the arcs in the order of the dictionary */
+		private void scanFileInParallel(final String filename,final SAMSequenceDictionary dict) throws Exception {
+			final ExecutorService executorService = Executors.newFixedThreadPool(this.nJobs);
+			try {
+				final Deque<Future<Map<String,List<Arc>>>> pending = new ArrayDeque<>();
+				final Iterator<SAMSequenceRecord> contigs = dict.getSequences().iterator();
+				for(;;)
+					{
+					/* keep a few contigs ahead of the merge */
+					while(contigs.hasNext() && pending.size()< 2*this.nJobs)
+						{
+						final SAMSequenceRecord ssr = contigs.next();
+						pending.add(executorService.submit(()->{
+							final Map<String,List<Arc>> shard = new HashMap<>();
+							final SamReader sr = openSamReader(filename);
+							try {
+								final SAMRecordIterator iter = sr.query(ssr.getSequenceName(), 0, 0, false);
+								while(iter.hasNext())
+									{
+									analyseSamRecord((S,A)->shard.computeIfAbsent(S,K->new ArrayList<>()).add(A),iter.next());
+									}
+								iter.close();
+								}
+							finally
+								{
+								CloserUtil.close(sr);
+								}
+							return shard;
+							}));
+						}
+					if(pending.isEmpty()) break;
+					mergeShard(pending.poll().get());
+					}
+				LOG.info("scanned "+filename+" on "+dict.size()+" contigs");
+				}
+			finally
 				{
-			    @Override
-			    public int compare(final Interval r1, final Interval r2) {
-			        final int cmp = contig2tid.apply(r1.getContig())-contig2tid.apply(r2.getContig());
-			        if (cmp != 0) return cmp;
-			        return r1.getStart() - r2.getStart();
-			    	}
-				};
-
-			
+				executorService.shutdownNow();
+				}
+			}
+
+		private void saveAsVcf(Set<String> sampleNames) throws IOException {
+			final SAMSequenceDictionary dict = this.dictionary;
 			final Allele REF = Allele.create("N", true);
-			
+
 			final Set<VCFHeaderLine> meta=new HashSet<>();
 			VCFStandardHeaderLines.addStandardFormatLines(meta,false,
 					VCFConstants.GENOTYPE_KEY,
@@ -459,126 +528,118 @@ END_DOC
 			header.setSequenceDictionary(dict);
 			VariantContextWriter vcw = super.openVariantContextWriter(outputFile);
 			vcw.writeHeader(header);
-			final List<Arc> all_arcs = new ArrayList<>();
-			
+
+			final List<Map.Entry<String,Arc>> all_arcs = new ArrayList<>();
 			for(final String sample: this.sample2database.keySet())
 				{
-				final IntervalTreeMap<Set<Arc>> database = this.sample2database.get(sample);
-				for(final Interval interval: database.keySet()) {
-					for(final Arc arc: database.get(interval))
-						{
-						all_arcs.add(arc);
-						}
+				for(final Arc arc: this.sample2database.get(sample).getArcs())
+					{
+					all_arcs.add(new AbstractMap.SimpleEntry<>(sample,arc));
 					}
 				}
-			
-			Collections.sort(all_arcs, (A1,A2)->intervalComparator.compare(A1.intervalFrom, A2.intervalFrom));
-			
-			for(final Arc row:all_arcs)
+
+			Collections.sort(all_arcs, (A1,A2)->{
+				final int cmp = A1.getValue().tid1 - A2.getValue().tid1;
+				if(cmp!=0) return cmp;
+				return A1.getValue().start1 - A2.getValue().start1;
+				});
+
+			for(final Map.Entry<String,Arc> row:all_arcs)
 				{
-				final List<Genotype> genotypes = new ArrayList<>();
-				final Set<Allele> alleles =  new HashSet<>();
-				for(final String sample: this.sample2database.keySet())
-					{
-					final IntervalTreeMap<Set<Arc>> database = this.sample2database.get(sample);
-						for(final Arc arc: database.get(row.intervalFrom))
-							{
-							if(!arc.equals(row)) continue;
-							final Allele alt = Allele.create(
-									new StringBuilder().append("<").
-									append(arc.intervalFrom.getContig()).append(":").append(arc.intervalFrom.getStart()).append("-").append(arc.intervalFrom.getEnd()).
-									append("|").
-									append(arc.intervalTo.getContig()).append(":").append(arc.intervalTo.getStart()).append("-").append(arc.intervalTo.getEnd()).
-									append(">").toString()
-									, false);
-							alleles.add(alt);
-							final Genotype g = new GenotypeBuilder(sample).alleles(Collections.singletonList(alt)).DP(arc.countSupportingReads).make();
-							genotypes.add(g);
-							}
-					}
+				final Arc arc = row.getValue();
+				final String contig1 = dict.getSequence(arc.tid1).getSequenceName();
+				final String contig2 = dict.getSequence(arc.tid2).getSequenceName();
+				final Allele alt = Allele.create(
+						new StringBuilder().append("<").
+						append(contig1).append(":").append(arc.start1).append("-").append(arc.end1).
+						append("|").
+						append(contig2).append(":").append(arc.start2).append("-").append(arc.end2).
+						append(">").toString()
+						, false);
+				final List<Allele> alleles = new ArrayList<>();
 				alleles.add(REF);
-				VariantContextBuilder vcb=new VariantContextBuilder().
-						chr(row.intervalFrom.getContig()).
-						start(row.intervalFrom.getStart()).
-						stop(row.intervalFrom.getStart()).
+				alleles.add(alt);
+				final Genotype g = new GenotypeBuilder(row.getKey()).alleles(Collections.singletonList(alt)).DP(arc.countSupportingReads).make();
+				final VariantContextBuilder vcb=new VariantContextBuilder().
+						chr(contig1).
+						start(arc.start1).
+						stop(arc.start1).
 						alleles(alleles).
-						genotypes(genotypes);
-				vcw.add(vcb.make());				
+						genotypes(Collections.singletonList(g));
+				vcw.add(vcb.make());
 				}
 			vcw.close();
 			}
 
-		
+
 		private void saveAsText() throws IOException {
-			PrintWriter out = super.openFileOrStdoutAsPrintWriter(outputFile);
-			
+			final PrintWriter out = super.openFileOrStdoutAsPrintWriter(outputFile);
+
 			double maxCount=0.0;
-			for(final String sample: this.sample2database.keySet())
+			for(final ArcDatabase database: this.sample2database.values())
 				{
-				final IntervalTreeMap<Set<Arc>> database = this.sample2database.get(sample);
-				for(final Interval interval: database.keySet()) {
-					for(final Arc arc: database.get(interval))
-						{
-						maxCount=Math.max(arc.countSupportingReads, maxCount);
-						}
+				for(final Arc arc: database.getArcs())
+					{
+					maxCount=Math.max(arc.countSupportingReads, maxCount);
 					}
 				}
-			
+
 			for(final String sample: this.sample2database.keySet())
 				{
-				final IntervalTreeMap<Set<Arc>> database = this.sample2database.get(sample);
-				for(final Interval interval: database.keySet()) {
-					for(final Arc arc: database.get(interval))
+				for(final Arc arc: this.sample2database.get(sample).getArcs())
+					{
+					if(arc.countSupportingReads<this.minSupportingReads) continue;
+					out.print(this.dictionary.getSequence(arc.tid1).getSequenceName());
+					out.print("\t");
+					out.print(arc.start1-1);
+					out.print("\t");
+					out.print(arc.end1);
+					out.print("\t");
+					out.print(this.dictionary.getSequence(arc.tid2).getSequenceName());
+					out.print("\t");
+					out.print(arc.start2-1);
+					out.print("\t");
+					out.print(arc.end2);
+					out.print("\t");
+					if(this.nomalizeReadCount==null) {
+						out.print(arc.countSupportingReads);
+						}
+					else
 						{
-						if(arc.countSupportingReads<this.minSupportingReads) continue;
-						out.print(arc.intervalFrom.getContig());
-						out.print("\t");
-						out.print(arc.intervalFrom.getStart()-1);
-						out.print("\t");
-						out.print(arc.intervalFrom.getEnd());
-						out.print("\t");
-						out.print(arc.intervalTo.getContig());
-						out.print("\t");
-						out.print(arc.intervalTo.getStart()-1);
-						out.print("\t");
-						out.print(arc.intervalTo.getEnd());
-						out.print("\t");
-						if(this.nomalizeReadCount==null) {
-							out.print(arc.countSupportingReads);
-							}
-						else
-							{
-							out.print(this.nomalizeReadCount.doubleValue()*(arc.countSupportingReads/maxCount));
-							}
-						out.print("\t");
-						out.print(sample);
-						out.println();
+						out.print(this.nomalizeReadCount.doubleValue()*(arc.countSupportingReads/maxCount));
 						}
+					out.print("\t");
+					out.print(sample);
+					out.println();
 					}
 				}
 			out.flush();
 			out.close();
 		}
-		
+
 		private Set<String> samples(SAMFileHeader header )
 			{
 			return header.getReadGroups().stream().
 					map(G->G.getSample()).filter(S->S!=null).
 					collect(Collectors.toSet());
 			}
-		
+
 		@Override
 		public int doWork(final List<String> args) {
 		 	 SamReader r = null;
-		 	 SAMSequenceDictionary dic=null;
 		 	 final Set<String> sampleNames=new TreeSet<>();
 			try {
+				if(this.nJobs<1)
+					{
+					this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+					LOG.info("setting njobs to "+this.nJobs);
+					}
 				if(args.isEmpty()) {
 					LOG.info("read stdin");
 					r= openSamReader(null);
 					sampleNames.addAll(samples(r.getFileHeader()));
-					dic = r.getFileHeader().getSequenceDictionary();
-					if(dic==null) {
+					this.dictionary = r.getFileHeader().getSequenceDictionary();
+					if(this.dictionary==null) {
 						LOG.error("SAM input is missing a dictionary");
 						return -1;
 						}
@@ -596,28 +657,38 @@ END_DOC
 						LOG.error("SAM input is missing a dictionary");
 						return -1;
 						}
-					else if(dic==null)
+					else if(this.dictionary==null)
 						{
-						dic=dict2;
+						this.dictionary=dict2;
 						}
-					else if(!SequenceUtil.areSequenceDictionariesEqual(dic, dict2))
+					else if(!SequenceUtil.areSequenceDictionariesEqual(this.dictionary, dict2))
 						{
 						LOG.error("incompatibles sequences dictionaries");
 						return -1;
 						}
-					scanFile(r);
-					r.close();
-					r=null;
+					if(this.nJobs>1 && r.hasIndex())
+						{
+						r.close();
+						r=null;
+						scanFileInParallel(filename,dict2);
+						}
+					else
+						{
+						if(this.nJobs>1) LOG.warn("no index for "+filename+". Scanning serially.");
+						scanFile(r);
+						r.close();
+						r=null;
+						}
 					}
-				
+
 				if("vcf".equalsIgnoreCase(this.outputFormat) || (this.outputFile!=null && (this.outputFile.getName().endsWith(".vcf") || this.outputFile.getName().endsWith(".vcf.gz")))) {
-					saveAsVcf(sampleNames,dic);
+					saveAsVcf(sampleNames);
 					}
 				else
 					{
 					saveAsText();
 					}
-				
+
 				return 0;
 		} catch (Exception e) {
 			LOG.error(e);
@@ -625,12 +696,12 @@ END_DOC
 			}
 		finally
 			{
-			CloserUtil.close(r);	
+			CloserUtil.close(r);
 			}
 		}
-	
+
 	public static void main(String[] args) {
 		new SamScanSplitReads().instanceMainWithExit(args);
 	}
-	// 
+	//
 }
@@ -305,6 +305,8 @@ public class TView implements Closeable
 	private IndexedFastaSequenceFile indexedFastaSequenceFile=null;
 	private final List<SamInputResource> samInputResources=new ArrayList<>();
 	private final List<SamReader> samReaders=new ArrayList<>();
+	/** readers owned by the caller (e.g. a pool in tviewserver): never closed by this TView */
+	private final List<SamReader> externalSamReaders=new ArrayList<>();
 	private final List<VcfSource> vcfReaders=new ArrayList<>();
 	private TabixKnownGeneFileReader tabixKnownGene =null;
 	
@@ -366,6 +368,13 @@ public class TView implements Closeable
 		this.samInputResources.addAll(bamFiles);
 		}
 	
+	/** use some SamReaders opened by the caller. Those readers won't be closed by this object */
+	public void setSamReaders(final List<SamReader> samReaders)
+		{
+		this.externalSamReaders.clear();
+		this.externalSamReaders.addAll(samReaders);
+		}
+	
 	public void setInterval(final Interval interval)
 		{
 		this.interval = interval;
@@ -427,6 +436,7 @@ public class TView implements Closeable
 			}
 		this.samInputResources.clear();
 		this.samReaders.clear();
+		this.externalSamReaders.clear();
 		this.vcfReaders.clear();
 		CloserUtil.close(this.tabixKnownGene);
 		this.tabixKnownGene =null;
@@ -502,7 +512,9 @@ public class TView implements Closeable
 
 		final Map<String, List<SAMRecord>> group2record=new TreeMap<>();
 		
-		for(final SamReader samReader:this.samReaders)
+		final List<SamReader> allSamReaders = new ArrayList<>(this.samReaders);
+		allSamReaders.addAll(this.externalSamReaders);
+		for(final SamReader samReader:allSamReaders)
 			{
 			SAMRecordIterator iter = samReader.query(
 					this.interval.getContig(),
@@ -552,7 +564,6 @@ public class TView implements Closeable
 					}
 				}
 			CloserUtil.close(iter);
-			CloserUtil.close(samReader);
 			}
 		
 
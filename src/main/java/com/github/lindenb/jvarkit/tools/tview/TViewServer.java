@@ -25,6 +25,7 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.tview;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
@@ -33,7 +34,13 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -47,7 +54,6 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 
 import com.beust.jcommander.Parameter;
-import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.tools.tview.TView.Formatout;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
@@ -57,8 +63,9 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.JavascriptSamRecordFilter;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -95,6 +102,12 @@ $ java -jar dist/tviewserver.jar -R src/test/resources/toy.fa src/test/resources
 
 ```
 
+## Performance
+
+Opened BAM readers are kept in a pool (option `--pool-size`) and re-used by the following requests.
+The rendered alignments are kept in a cache (option `--cache-size`): re-loading a page, or switching back to a previous region, doesn't
+query the BAM again. The number of requests, the number of cache hits and the rendering times are displayed
+at the bottom of each page.
 
 END_DOC
 
@@ -127,6 +140,28 @@ private int max_interval_length = 2000;
 private String userCustomUrl=null;
 @Parameter(names={"--shutdown-after"},description="Stop the server after 'x' seconds.")
 private long shutdownAferSeconds=-1L;
+@Parameter(names={"--pool-size"},description="[20181210] Max number of idle opened readers kept for each BAM file. Readers are re-used between the http requests. 0 = disable pool.")
+private int readerPoolSize = 4;
+@Parameter(names={"--cache-size"},description="[20181210] Max number of rendered views kept in memory. Key is (bam,interval,options). 0 = disable cache.")
+private int renderCacheSize = 100;
+
+/** pool of opened SamReaders for each BAM file */
+private final Map<File,BlockingQueue<SamReader>> samReaderPool = new ConcurrentHashMap<>();
+/** rendered views, access-ordered */
+private final Map<String,byte[]> renderCache = new LinkedHashMap<String,byte[]>(16,0.75f,true) {
+	private static final long serialVersionUID = 1L;
+	@Override
+	protected boolean removeEldestEntry(final Map.Entry<String,byte[]> eldest) {
+		return size() > TViewServer.this.renderCacheSize;
+		}
+	};
+/** request metrics */
+final AtomicLong countRequests = new AtomicLong(0L);
+final AtomicLong countRendered = new AtomicLong(0L);
+final AtomicLong countCacheHits = new AtomicLong(0L);
+final AtomicLong countOpenedReaders = new AtomicLong(0L);
+private final AtomicLong sumRequestMillis = new AtomicLong(0L);
+private final AtomicLong maxRequestMillis = new AtomicLong(0L);
 
 
 private class SamViewHandler extends AbstractHandler
@@ -335,6 +370,10 @@ private class SamViewHandler extends AbstractHandler
 			writer.writeEndElement();//a
 			writer.writeCharacters(".");
 			writer.writeEndElement();//div
+			writer.writeStartElement("div");
+			writer.writeAttribute("class","metrics");
+			writer.writeCharacters(TViewServer.this.getMetrics());
+			writer.writeEndElement();//div
 			this.writer.flush();
 			}
 		
@@ -512,18 +551,36 @@ private class SamViewHandler extends AbstractHandler
 						interval = TViewServer.this.trimInterval(new Interval(rec.getSequenceName(),1,Math.min(100, rec.getSequenceLength())));
 						}
 					
+					final boolean showClip = "true".equals(this.request.getParameter(SHOWCLIP));
+					final boolean showName = "true".equals(this.request.getParameter(SHOWNAME));
+					final boolean showInsert = "true".equals(this.request.getParameter(SHOWINSERT));
+					final boolean hideBases = "true".equals(this.request.getParameter(HIDEBASES));
+					final String js_expr = TViewServer.this.disable_javascript?
+							null:
+							this.request.getParameter(JAVASCRIPT_PARAM)
+							;
+					final String cacheKey = String.join("\t",
+							samFile.getPath(),
+							interval.getContig(),
+							String.valueOf(interval.getStart()),
+							String.valueOf(interval.getEnd()),
+							String.valueOf(showClip),
+							String.valueOf(showName),
+							String.valueOf(showInsert),
+							String.valueOf(hideBases),
+							StringUtil.isBlank(js_expr)?"":js_expr
+							);
+
 					tview.setInterval(interval);
 					if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
 					tview.setFormatOut(Formatout.html);
-					tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
-					tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
-					tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
-					tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
-					tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
-	
+					tview.setShowClip(showClip);
+					tview.setShowReadName(showName);
+					tview.setShowInsertions(showInsert);
+					tview.setHideBases(hideBases);
+
 					if(!TViewServer.this.disable_javascript)
 						{
-						final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
 						if(!StringUtil.isBlank(js_expr))
 							{
 							final JavascriptSamRecordFilter filter;
@@ -545,12 +602,6 @@ private class SamViewHandler extends AbstractHandler
 							}
 						}
 					
-					if(tview.initialize()!=0)
-						{
-						writeError("cannot initialize tview");
-						return ;
-						}
-					
 					/* Hyperlink to IGV */
 					if(!StringUtil.isBlank(TViewServer.this.userCustomUrl)) {
 						final String gotostr=Launcher.createUrlFromInterval(
@@ -574,11 +625,40 @@ private class SamViewHandler extends AbstractHandler
 					this.writer.writeCharacters("");
 					this.writer.flush();
 					
-					final PrintStream out  = new PrintStream(IOUtils.uncloseableOutputStream(this.response.getOutputStream()));
-					tview.paint(out);
-					out.flush();
-					tview.close();
-					tview=null;
+					byte[] rendered = TViewServer.this.getCachedView(cacheKey);
+					if(rendered!=null)
+						{
+						TViewServer.this.countCacheHits.incrementAndGet();
+						}
+					else
+						{
+						final SamReader samReader = TViewServer.this.borrowSamReader(samFile);
+						try {
+							tview.setSamReaders(Collections.singletonList(samReader));
+							if(tview.initialize()!=0)
+								{
+								writeError("cannot initialize tview");
+								return ;
+								}
+							final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+							final PrintStream out  = new PrintStream(baos);
+							tview.paint(out);
+							out.flush();
+							out.close();
+							rendered = baos.toByteArray();
+							}
+						finally
+							{
+							/* close the view before its reader goes back to the pool */
+							tview.close();
+							tview=null;
+							TViewServer.this.releaseSamReader(samFile,samReader);
+							}
+						TViewServer.this.countRendered.incrementAndGet();
+						TViewServer.this.putCachedView(cacheKey,rendered);
+						}
+					this.response.getOutputStream().write(rendered);
+					this.response.getOutputStream().flush();
 					this.writer.flush();
 					this.writer.writeCharacters("");
 					this.writer.writeEndElement();//pre
@@ -627,6 +707,7 @@ private class SamViewHandler extends AbstractHandler
 			final javax.servlet.http.HttpServletResponse res
 			) throws java.io.IOException ,javax.servlet.ServletException
 		{
+		final long startMillis = System.currentTimeMillis();
 		DelegateHandler delegate=null;
 		final File samFile = this.getSamFile(req);
 		
@@ -652,10 +733,78 @@ private class SamViewHandler extends AbstractHandler
 		finally
 			{
 			CloserUtil.close(delegate);
+			TViewServer.this.updateMetrics(System.currentTimeMillis()-startMillis);
 			}
 		}
 	}
 
+/** get a reader for this BAM from the pool, or open a new one if the pool is empty */
+private SamReader borrowSamReader(final File samFile) {
+	final BlockingQueue<SamReader> queue = this.samReaderPool.get(samFile);
+	final SamReader samReader = (queue==null?null:queue.poll());
+	if(samReader!=null) return samReader;
+	this.countOpenedReaders.incrementAndGet();
+	return SamReaderFactory.makeDefault().
+			referenceSequence(this.optionalReferenceFile).
+			validationStringency(ValidationStringency.LENIENT).
+			open(samFile);
+	}
+
+/** give a reader back to the pool. Close it if the pool is full */
+private void releaseSamReader(final File samFile,final SamReader samReader) {
+	if(samReader==null) return;
+	if(this.readerPoolSize<=0) {
+		CloserUtil.close(samReader);
+		return;
+		}
+	final BlockingQueue<SamReader> queue = this.samReaderPool.computeIfAbsent(samFile,
+			F->new ArrayBlockingQueue<>(this.readerPoolSize));
+	if(!queue.offer(samReader)) {
+		CloserUtil.close(samReader);
+		}
+	}
+
+private void closeSamReaderPool() {
+	for(final BlockingQueue<SamReader> queue: this.samReaderPool.values()) {
+		SamReader samReader;
+		while((samReader=queue.poll())!=null) {
+			CloserUtil.close(samReader);
+			}
+		}
+	this.samReaderPool.clear();
+	}
+
+private byte[] getCachedView(final String key) {
+	if(this.renderCacheSize<=0) return null;
+	synchronized(this.renderCache) {
+		return this.renderCache.get(key);
+		}
+	}
+
+private void putCachedView(final String key,final byte[] rendered) {
+	if(this.renderCacheSize<=0) return;
+	synchronized(this.renderCache) {
+		this.renderCache.put(key,rendered);
+		}
+	}
+
+private void updateMetrics(final long millis) {
+	this.countRequests.incrementAndGet();
+	this.sumRequestMillis.addAndGet(millis);
+	this.maxRequestMillis.accumulateAndGet(millis, Math::max);
+	LOG.debug("request processed in "+millis+" ms");
+	}
+
+private String getMetrics() {
+	final long n = this.countRequests.get();
+	return "Requests: "+n+
+			". Rendered: "+this.countRendered.get()+
+			". Cache hits: "+this.countCacheHits.get()+
+			". Opened readers: "+this.countOpenedReaders.get()+
+			". Mean time: "+(n==0?0L:this.sumRequestMillis.get()/n)+" ms"+
+			". Max time: "+this.maxRequestMillis.get()+" ms.";
+	}
+
 private Interval trimInterval(final Interval interval) {
 	if(interval.length()<=this.max_interval_length) return interval;
 	final Interval interval2 = new Interval(
@@ -712,6 +861,11 @@ public int doWork(final List<String> args) {
 		samFiles.forEach(F->{
 			IOUtil.assertFileIsReadable(F);
 			});
+		if(this.readerPoolSize<0 || this.renderCacheSize<0)
+			{
+			LOG.error("pool size and cache size should be >=0");
+			return -1;
+			}
 		
 		server = new Server(this.port);
 		final HandlerList handlers = new HandlerList();
@@ -752,6 +906,8 @@ public int doWork(final List<String> args) {
 			{
 			server.destroy();
 			}
+		LOG.info(getMetrics());
+		closeSamReaderPool();
 		}
 	}
 
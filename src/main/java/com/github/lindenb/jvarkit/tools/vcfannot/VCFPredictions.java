@@ -28,18 +28,26 @@ package com.github.lindenb.jvarkit.tools.vcfannot;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -52,7 +60,6 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.lang.DelegateCharSequence;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.bio.GeneticCode;
@@ -67,6 +74,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 
 
@@ -162,13 +170,18 @@ public class VCFPredictions extends Launcher
 	{
 	private static final Logger LOG = Logger.build(VCFPredictions.class).make();
 	private enum OutputSyntax {Native,Vep,SnpEff };
+	private static final int EXTEND_GENE_SEARCH = 5000; // because we want to set SO:5KB_upstream_variant
 	private IntervalTreeMap<List<KnownGene>> knownGenes=null;
+	/** binary knownGene index, used instead of knownGenes when kgURI is an index */
+	private KnownGeneIndex knownGeneIndex=null;
+	/** convert the contigs of the REFERENCE to the contigs of knownGeneIndex */
+	private ContigNameConverter knownGeneIndexContigConverter=null;
 	private ReferenceGenome referenceGenome = null;
 	
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
 
-	@Parameter(names={"-k","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC)
+	@Parameter(names={"-k","--knownGene"},description=KnownGene.OPT_KNOWNGENE_DESC+" "+KnownGeneIndex.OPT_INDEX_DESC)
 	private String kgURI =KnownGene.getDefaultUri();
 
 	@Parameter(names={"-soacn","--printsoacn"},description="Print SO:term accession rather than label")
@@ -180,55 +193,32 @@ public class VCFPredictions extends Launcher
 	@Parameter(names={"-R","--reference"},description="[20180122](moved to faidx/DAS). "+ReferenceGenomeFactory.OPT_DESCRIPTION,required=true)
 	private String referenceGenomeSource = null;
 
-	
-	private static class MutedSequence extends DelegateCharSequence
-		{
-		private final Map<Integer, Character> pos2char=new TreeMap<Integer, Character>();
-		MutedSequence(final CharSequence wild)
-			{
-			super(wild);
-			}
-		
-		void put(final int pos,final char c)
-			{
-			this.pos2char.put(pos, c);
-			}
-		
-		@Override
-		public char charAt(final int i)
-			{
-			final Character c= pos2char.get(i);
-			return c==null?getDelegate().charAt(i):c;
-			}
-		
-		}
-	
-	
-	private static class ProteinCharSequence extends DelegateCharSequence
-		{
-		private final GeneticCode geneticCode;
-		ProteinCharSequence(final GeneticCode geneticCode,final CharSequence cDNA)
-			{
-			super(cDNA);
-			this.geneticCode=geneticCode;
-			}
-		
-		@Override
-		public char charAt(int i)
-			{
-			return geneticCode.translate(
-				getDelegate().charAt(i*3+0),
-				getDelegate().charAt(i*3+1),
-				getDelegate().charAt(i*3+2));
-			}	
-		
-		@Override
-		public int length()
-			{
-			return getDelegate().length()/3;
-			}
-		}
-		
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of parallel jobs. The variants are annotated by batches on a pool of workers, each worker having its own reference and transcript cache; the output order is preserved. A value lower than 1 means use all procs available.")
+	private int nJobs = 1;
+
+	@Parameter(names={"--batch-size"},description="[20181210] When using more than one job, number of variants in each batch.")
+	private int batchSize = 1000;
+
+	private final GeneticCode geneticCode = GeneticCode.getStandard();
+	private SequenceOntologyTree.Term so_intron=null;
+	private SequenceOntologyTree.Term so_exon=null;
+	private SequenceOntologyTree.Term so_splice_donor=null;
+	private SequenceOntologyTree.Term so_splice_acceptor=null;
+	private SequenceOntologyTree.Term so_5_prime_UTR_variant=null;
+	private SequenceOntologyTree.Term so_3_prime_UTR_variant=null;
+	private SequenceOntologyTree.Term so_splicing_variant=null;
+	private SequenceOntologyTree.Term so_stop_lost=null;
+	private SequenceOntologyTree.Term so_stop_gained=null;
+	private SequenceOntologyTree.Term so_coding_synonymous=null;
+	private SequenceOntologyTree.Term so_coding_non_synonymous=null;
+	private SequenceOntologyTree.Term so_intergenic=null;
+	private SequenceOntologyTree.Term so_nc_transcript_variant=null;
+	private SequenceOntologyTree.Term so_non_coding_exon_variant=null;
+	private SequenceOntologyTree.Term _2KB_upstream_variant=null;
+	private SequenceOntologyTree.Term _5KB_upstream_variant=null;
+	private SequenceOntologyTree.Term _5KB_downstream_variant=null;
+	private SequenceOntologyTree.Term _500bp_downstream_variant=null;
+
 	
 	class Annotation
 		{
@@ -348,6 +338,14 @@ public class VCFPredictions extends Launcher
 			if (this.referenceGenome.getDictionary() == null) {
 				throw new JvarkitException.FastaDictionaryMissing(this.referenceGenomeSource);
 			}
+			if(KnownGeneIndex.isIndex(this.kgURI)) {
+				LOG.info("opening gene index "+this.kgURI);
+				this.knownGeneIndex = KnownGeneIndex.open(new File(this.kgURI));
+				this.knownGeneIndexContigConverter = ContigNameConverter.fromContigSet(this.knownGeneIndex.getContigs());
+				this.knownGeneIndexContigConverter.setOnNotFound(OnNotFound.SKIP);
+				LOG.info("genes:" + this.knownGeneIndex.size());
+				return;
+				}
 			int n_ignored=0;
 			int n_genes = 0;
 			this.knownGenes = new IntervalTreeMap<>();
@@ -374,13 +372,10 @@ public class VCFPredictions extends Launcher
 					++n_ignored;
 					continue;
 				}
-				final int extend_gene_search = 5000; // because we want to set
-														// SO:5KB_upstream_variant
-
 				final Interval interval = new Interval(
 						normalizedContig,
-						Math.max(1, g.getTxStart() + 1 - extend_gene_search),
-						g.getTxEnd() + extend_gene_search
+						Math.max(1, g.getTxStart() + 1 - EXTEND_GENE_SEARCH),
+						g.getTxEnd() + EXTEND_GENE_SEARCH
 						);
 				List<KnownGene> L= this.knownGenes.get(interval);
 				if(L==null) {
@@ -398,6 +393,32 @@ public class VCFPredictions extends Launcher
 			CloserUtil.close(in);
 			}
 		}
+	/** get the genes overlapping the variant. normalizedContig is the contig in the REFERENCE */
+	private List<KnownGene> getOverlappingGenes(final String normalizedContig,final VariantContext ctx)
+		{
+		if(StringUtil.isBlank(normalizedContig)) return Collections.emptyList();
+		if(this.knownGeneIndex!=null)
+			{
+			final String indexContig = this.knownGeneIndexContigConverter.apply(normalizedContig);
+			if(StringUtil.isBlank(indexContig)) return Collections.emptyList();
+			return this.knownGeneIndex.getOverlapping(
+					indexContig,
+					Math.max(1,ctx.getStart() - EXTEND_GENE_SEARCH),
+					ctx.getEnd() + EXTEND_GENE_SEARCH
+					);
+			}
+		final List<KnownGene> genes=new ArrayList<>();
+		for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
+				normalizedContig,
+				ctx.getStart(),
+				ctx.getEnd() //1-based
+				)))
+			{
+			genes.addAll(l2);
+			}
+		return genes;
+		}
+	
 	private boolean isStop(char c)
 		{
 		return !Character.isLetter(c);
@@ -424,7 +445,7 @@ public class VCFPredictions extends Launcher
 	@Override
 	protected int doVcfToVcf(final String inputName, final VcfIterator r, VariantContextWriter w)
 		{
-		ReferenceContig genomicSequence=null;
+		ExecutorService executorService=null;
 		try {
 		LOG.info("opening REF:"+this.referenceGenomeSource);
 		this.referenceGenome=new ReferenceGenomeFactory().
@@ -478,46 +499,199 @@ public class VCFPredictions extends Launcher
 		
         w.writeHeader(h2);
 
-		
 		final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
-		final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
-		final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
-		final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
-		final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
-		final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
-		final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
-		final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
-		final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
-		final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
-		final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
-		final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
-		final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
-		final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
-		final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
-		final SequenceOntologyTree.Term _2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
-		final SequenceOntologyTree.Term _5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
-		final SequenceOntologyTree.Term _5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
-		final SequenceOntologyTree.Term _500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
-		
+		this.so_intron=soTree.getTermByAcn("SO:0001627");
+		this.so_exon=soTree.getTermByAcn("SO:0001791");
+		this.so_splice_donor=soTree.getTermByAcn("SO:0001575");
+		this.so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
+		this.so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
+		this.so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
+		this.so_splicing_variant=soTree.getTermByAcn("SO:0001568");
+		this.so_stop_lost=soTree.getTermByAcn("SO:0001578");
+		this.so_stop_gained=soTree.getTermByAcn("SO:0001587");
+		this.so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
+		this.so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
+		this.so_intergenic=soTree.getTermByAcn("SO:0001628");
+		this.so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
+		this.so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
+		this._2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
+		this._5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
+		this._5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
+		this._500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
 		
 		final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header);
-		while(r.hasNext())
+		if(this.nJobs==1)
 			{
-			final VariantContext ctx=progress.watch(r.next());
-			final String normalizedContig=contigNameConverter.apply(ctx.getContig());
-			final List<KnownGene> genes=new ArrayList<>();
-			
-			
-			if(!StringUtil.isBlank(normalizedContig)) {
-				for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
-						normalizedContig,
-						ctx.getStart(),
-						ctx.getEnd() //1-based
-						)))
+			final Annotator annotator = new Annotator(this.referenceGenome,contigNameConverter);
+			while(r.hasNext())
+				{
+				final VariantContext ctx=progress.watch(r.next());
+				w.add(annotator.annotate(ctx));
+				}
+			}
+		else
+			{
+			LOG.info("using "+this.nJobs+" jobs");
+			/* each worker thread has its own reference and transcript cache */
+			final List<Annotator> allAnnotators = Collections.synchronizedList(new ArrayList<>());
+			final ThreadLocal<Annotator> threadAnnotator = ThreadLocal.withInitial(()->{
+				try {
+					final Annotator a = new Annotator(
+						new ReferenceGenomeFactory().open(this.referenceGenomeSource),
+						contigNameConverter
+						);
+					allAnnotators.add(a);
+					return a;
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				});
+			executorService = Executors.newFixedThreadPool(this.nJobs);
+			/* batches are submitted in order, and written in the same order */
+			final Deque<Future<List<VariantContext>>> pending = new ArrayDeque<>();
+			try {
+				while(r.hasNext())
+					{
+					final List<VariantContext> batch = new ArrayList<>(this.batchSize);
+					while(r.hasNext() && batch.size() < this.batchSize)
+						{
+						batch.add(progress.watch(r.next()));
+						}
+					pending.add(executorService.submit(()->{
+						final Annotator annotator = threadAnnotator.get();
+						final List<VariantContext> annotated = new ArrayList<>(batch.size());
+						for(final VariantContext ctx: batch) annotated.add(annotator.annotate(ctx));
+						return annotated;
+						}));
+					/* don't keep too many batches in memory */
+					while(pending.size() >= 2*this.nJobs)
+						{
+						for(final VariantContext ctx:pending.removeFirst().get()) w.add(ctx);
+						}
+					}
+				while(!pending.isEmpty())
+					{
+					for(final VariantContext ctx:pending.removeFirst().get()) w.add(ctx);
+					}
+				}
+			finally
+				{
+				executorService.shutdownNow();
+				for(final Annotator a:allAnnotators) CloserUtil.close(a.referenceGenome);
+				}
+			}
+		progress.finish();
+		return RETURN_OK;
+		} catch(Exception err ) {
+			LOG.error(err);
+			return -1;
+		} finally {
+			if(executorService!=null) executorService.shutdownNow();
+			CloserUtil.close(this.referenceGenome);
+			CloserUtil.close(this.knownGeneIndex);
+			this.knownGeneIndex=null;
+		}
+		}
+	
+	/** spliced CDS of a transcript, cached while the cursor is within the transcript */
+	private static class CachedTranscript
+		{
+		final int txEnd;
+		final String cds;
+		CachedTranscript(final int txEnd,final String cds) {
+			this.txEnd = txEnd;
+			this.cds = cds;
+			}
+		}
+	
+	/** annotates the variants. One instance per thread: it's not thread-safe */
+	private class Annotator
+		{
+		private static final int MAX_CACHED_TRANSCRIPTS = 10_000;
+		final ReferenceGenome referenceGenome;
+		private final ContigNameConverter contigNameConverter;
+		private ReferenceContig genomicSequence=null;
+		private final Map<String,CachedTranscript> transcriptCache = new HashMap<>();
+		private String cacheContig = null;
+		private int lastEvictPos = 0;
+		
+		Annotator(final ReferenceGenome referenceGenome,final ContigNameConverter contigNameConverter)
+			{
+			this.referenceGenome = referenceGenome;
+			this.contigNameConverter = contigNameConverter;
+			}
+		
+		/** remove the transcripts that are behind the cursor */
+		private void updateCache(final String contig,final int pos0)
+			{
+			if(this.cacheContig==null || !this.cacheContig.equals(contig) || this.transcriptCache.size()>=MAX_CACHED_TRANSCRIPTS)
+				{
+				this.transcriptCache.clear();
+				this.cacheContig = contig;
+				this.lastEvictPos = pos0;
+				}
+			else if(pos0 - this.lastEvictPos > EXTEND_GENE_SEARCH)
+				{
+				this.transcriptCache.values().removeIf(T->T.txEnd + EXTEND_GENE_SEARCH < pos0);
+				this.lastEvictPos = pos0;
+				}
+			}
+		
+		/** get the spliced CDS of the transcript, in the transcript orientation */
+		private String getCodingSequence(final KnownGene gene)
+			{
+			final String key = gene.getName()+":"+gene.getTxStart()+":"+gene.getCdsStart()+":"+gene.getCdsEnd();
+			CachedTranscript cached = this.transcriptCache.get(key);
+			if(cached==null)
+				{
+				final StringBuilder sb = new StringBuilder();
+				if(gene.isPositiveStrand())
 					{
-					genes.addAll(l2);
+					for(int exon_index=0;exon_index< gene.getExonCount();++exon_index)
+						{
+						final int beg = Math.max(gene.getExonStart(exon_index), Math.max(gene.getCdsStart(),gene.getTxStart()));
+						final int end = Math.min(gene.getExonEnd(exon_index), gene.getCdsEnd());
+						for(int i=beg;i< end;++i) sb.append(this.genomicSequence.charAt(i));
+						}
 					}
+				else
+					{
+					for(int exon_index = gene.getExonCount()-1;exon_index>=0;--exon_index)
+						{
+						final int beg = Math.max(gene.getExonStart(exon_index), gene.getCdsStart());
+						final int end = Math.min(gene.getExonEnd(exon_index), gene.getCdsEnd());
+						for(int i=end-1;i>= beg;--i) sb.append(AcidNucleics.complement(this.genomicSequence.charAt(i)));
+						}
+					}
+				cached = new CachedTranscript(gene.getTxEnd(), sb.toString());
+				this.transcriptCache.put(key, cached);
 				}
+			return cached.cds;
+			}
+		
+		/** set the splicing terms for the position in the segment */
+		private void addSplicing(final Annotation annotations,final KnownGene.Segment segment,final int position)
+			{
+			if(!segment.isSplicing(position)) return;
+			if(segment.isSplicingAcceptor(position))
+				{
+				annotations.seqont.add(so_splice_acceptor);
+				}
+			else if(segment.isSplicingDonor(position))
+				{
+				annotations.seqont.add(so_splice_donor);
+				}
+			else //??
+				{
+				annotations.seqont.add(so_splicing_variant);
+				}
+			}
+		
+		VariantContext annotate(final VariantContext ctx)
+			{
+			final String normalizedContig=this.contigNameConverter.apply(ctx.getContig());
+			final List<KnownGene> genes= getOverlappingGenes(normalizedContig,ctx);
 			final List<Annotation> ctx_annotations=new ArrayList<Annotation>();
 			if(genes==null || genes.isEmpty())
 				{
@@ -528,18 +702,17 @@ public class VCFPredictions extends Launcher
 				}
 			else
 				{
-				if(genomicSequence==null || !genomicSequence.hasName(normalizedContig))
+				if(this.genomicSequence==null || !this.genomicSequence.hasName(normalizedContig))
 					{
 					LOG.info("getting genomic Sequence for "+normalizedContig);
-					genomicSequence= this.referenceGenome.getContig(normalizedContig);
-					if(genomicSequence==null) throw new JvarkitException.ContigNotFoundInDictionary(normalizedContig, this.referenceGenome.getDictionary());
+					this.genomicSequence= this.referenceGenome.getContig(normalizedContig);
+					if(this.genomicSequence==null) throw new JvarkitException.ContigNotFoundInDictionary(normalizedContig, this.referenceGenome.getDictionary());
 					}
+				final int position=ctx.getStart()-1;
+				updateCache(normalizedContig,position);
 				
 				for(final KnownGene gene:genes)
 					{
-					final GeneticCode geneticCode=GeneticCode.getStandard();
-            		
-            		
 					for(final Allele alt2:ctx.getAlternateAlleles())
 						{
 						if(alt2.isNoCall()) continue;
@@ -559,325 +732,190 @@ public class VCFPredictions extends Launcher
 							continue;
 							}
 						
-						
 						ctx_annotations.add(annotations);
-
-		        		StringBuilder wildRNA=null;
-		        		ProteinCharSequence wildProt=null;
-		        		ProteinCharSequence mutProt=null;
-		        		MutedSequence mutRNA=null;
-		        		int position_in_cds=-1;
-		        		
-		        		final int position=ctx.getStart()-1;
-		        		if(!String.valueOf(genomicSequence.charAt(position)).equalsIgnoreCase(ctx.getReference().getBaseString()))
-		        			{
-		        			if(isSimpleBase(ctx.getReference()))
-			        			{
-			        			LOG.warn("Warning REF!=GENOMIC SEQ!!! at "+position+"/"+ctx.getReference());
-			        			}
-		        			continue;
-		        			}
-		        		
-		        		if(gene.isPositiveStrand())
-		            		{
-		        			if(position < gene.getTxStart() - 2000) {
-		        				annotations.seqont.add(_5KB_upstream_variant);
-		        				}
-		        			else if(position < gene.getTxStart()) {
-		        				annotations.seqont.add(_2KB_upstream_variant);
-		        				}
-		        			else if( position >= gene.getTxEnd() + 500) {
-		        				annotations.seqont.add(_5KB_downstream_variant);
-		        				}
-		        			else if( position >= gene.getTxEnd() ) {
-		        				annotations.seqont.add(_500bp_downstream_variant);
-		        				}
-		        			else if(position < gene.getCdsStart())
-		            			{
-		            			annotations.seqont.add(so_5_prime_UTR_variant);//UTR5
-		            			}
-		            		else if( gene.getCdsEnd()<= position )
-		            			{
-		            			annotations.seqont.add(so_3_prime_UTR_variant);
-		            			}
-		            		else
-			            		{
-			            		int exon_index=0;
-			            		while(exon_index< gene.getExonCount())
-			            			{
-			            			final KnownGene.Exon exon= gene.getExon(exon_index);
-			            			
-			            			for(int i= exon.getStart();
-			            					i< exon.getEnd();
-			            					++i)
-			            				{
-			            				
-			            				if(i==position)
-			        						{
-			        						annotations.exon_name= exon.getName();
-			        						if(exon.isNonCoding())
-			            						{
-			            						annotations.seqont.add(so_non_coding_exon_variant);
-			            						}
-			        						}
-			            				if(i< gene.getTxStart()) continue;
-			            				if(i< gene.getCdsStart()) continue;
-			            				if(i>=gene.getCdsEnd()) break;
-			        					
-			        					if(wildRNA==null)
-			        						{
-			        						wildRNA=new StringBuilder();
-			        						mutRNA=new MutedSequence(wildRNA);
-			        						}
-			        					
-			        					if(i==position)
-			        						{
-			        						annotations.seqont.add(so_exon);
-			        						annotations.exon_name=exon.getName();
-			        						position_in_cds=wildRNA.length();
-			        						annotations.position_cds= position_in_cds;
-			        						//in splicing ?
-			        						if(exon.isSplicing(position))
-			        							{
-			        							
-			        							if(exon.isSplicingAcceptor(position))
-			        								{
-			        								annotations.seqont.add(so_splice_acceptor); //SPLICING_ACCEPTOR
-			        								}
-			        							else  if(exon.isSplicingDonor(position))
-			        								{
-			        								annotations.seqont.add(so_splice_donor); // SPLICING_DONOR
-			        								}
-			        							else //??
-			        								{
-				        							annotations.seqont.add(so_splicing_variant);
-			        								}
-			        							}
-			        						}
-			        					
-			            				wildRNA.append(genomicSequence.charAt(i));
-			            				
-			            				if(i==position && 
-			            						isSimpleBase(alt2) && 
-			            						isSimpleBase(ctx.getReference()))
-			            					{
-			            					mutRNA.put(
-			            							position_in_cds,
-			            							alt2.getBaseString().charAt(0)
-			            							);
-			            					
-			            					}
-			            				
-			            				if(wildRNA.length()%3==0 && wildRNA.length()>0 && wildProt==null)
-				            				{
-				            				wildProt=new ProteinCharSequence(geneticCode,wildRNA);
-				            				mutProt=new ProteinCharSequence(geneticCode,mutRNA);
-				            				}
-			            				}
-			            			final KnownGene.Intron intron= exon.getNextIntron();
-			            			if(intron!=null && intron.contains(position))
-			            				{
-			            				annotations.intron_name=intron.getName();
-			            				annotations.seqont.add(so_intron);
-			            				
-			            				if(intron.isSplicing(position))
-			        						{
-			        						if(intron.isSplicingAcceptor(position))
-			        							{
-			        							annotations.seqont.add(so_splice_acceptor);
-			        							}
-			        						else if(intron.isSplicingDonor(position))
-			        							{
-			        							annotations.seqont.add(so_splice_donor);
-			        							}
-			        						else //???
-			        							{
-			        							annotations.seqont.add(so_splicing_variant);
-			        							}
-			        						}
-			            				}
-			            			++exon_index;
-			            			}
-			            		}
-		            		
-		            		
-		            		}
-		            	else // reverse orientation
-		            		{
-		            		if(position >= gene.getTxEnd() + 2000) {
-		        				annotations.seqont.add(_5KB_upstream_variant);
-		        				}
-		        			else if(position >= gene.getTxEnd()) {
-		        				annotations.seqont.add(_2KB_upstream_variant);
-		        				}
-		        			else if( position < gene.getTxStart() - 500) {
-		        				annotations.seqont.add(_5KB_downstream_variant);
-		        				}
-		        			else if( position < gene.getTxStart() ) {
-		        				annotations.seqont.add(_500bp_downstream_variant);
-		        				}
-		        			else if(position < gene.getCdsStart())
-		            			{
-		            			annotations.seqont.add(so_3_prime_UTR_variant);
-		            			}
-		            		else if( gene.getCdsEnd()<=position )
-		            			{
-		            			annotations.seqont.add(so_5_prime_UTR_variant);
-		            			}
-		            		else
-			            		{
-			            		int exon_index = gene.getExonCount()-1;
-			            		while(exon_index >=0)
-			            			{
-
-			            			final KnownGene.Exon exon= gene.getExon(exon_index);
-			            			
-			            			
-			            			for(int i= exon.getEnd()-1;
-			            				    i>= exon.getStart();
-			            				--i)
-			            				{
-			            				
-			            				
-			            				if(i==position)
-			        						{
-			            					annotations.exon_name=exon.getName();
-			            					if(exon.isNonCoding())
-			            						{
-			            						annotations.seqont.add(so_non_coding_exon_variant);
-			            						}
-			        						}
-			            				if(i>= gene.getCdsEnd()) continue;
-			            				if(i<  gene.getCdsStart()) break;
-			            				
-			            				
-			            				if(wildRNA==null)
-			        						{
-			        						wildRNA=new StringBuilder();
-			        						mutRNA=new MutedSequence(wildRNA);
-			        						}
-			            				
-			            				if(i==position)
-			        						{
-			            					annotations.seqont.add(so_exon);
-			            					position_in_cds=wildRNA.length();
-			        						annotations.position_cds=position_in_cds;
-			        						//in splicing ?
-			        						if(exon.isSplicing(position))
-			        							{		        							
-			        							if(exon.isSplicingAcceptor(position))
-			        								{
-			        								annotations.seqont.add(so_splice_acceptor);
-			        								}
-			        							else  if(exon.isSplicingDonor(position))
-			        								{
-			        								annotations.seqont.add(so_splice_donor);
-			        								}
-			        							else //?
-			        								{
-			        								annotations.seqont.add(so_splicing_variant);
-			        								}
-			        							}
-			        						
-			        						if(isSimpleBase(alt2) &&
-			        							isSimpleBase(ctx.getReference()))
-				        						{
-				        						mutRNA.put(
-				        								position_in_cds,
-				        								AcidNucleics.complement(alt2.getBaseString().charAt(0))
-				        								);
-				        						}
-			        						}
-			            				
-			            				wildRNA.append(AcidNucleics.complement(genomicSequence.charAt(i)));
-			            				if( wildRNA.length()%3==0 &&
-			            					wildRNA.length()>0 &&
-			            					wildProt==null)
-				            				{
-				            				wildProt=new ProteinCharSequence(geneticCode,wildRNA);
-				            				mutProt=new ProteinCharSequence(geneticCode,mutRNA);
-				            				}
-			            				}
-			            			final KnownGene.Intron intron= exon.getPrevIntron();
-			            			if(intron!=null &&
-			            				intron.contains(position))
-			            				{
-			            				annotations.intron_name=intron.getName();
-			            				annotations.seqont.add(so_intron);
-			            				
-			            				if(intron.isSplicing(position))
-			        						{
-			        						if(intron.isSplicingAcceptor(position))
-			        							{
-			        							annotations.seqont.add(so_splice_acceptor);
-			        							}
-			        						else if(intron.isSplicingDonor(position))
-			        							{
-			        							annotations.seqont.add(so_splice_donor);
-			        							}
-			        						else //?	
-			        							{
-			        							annotations.seqont.add(so_splicing_variant);
-			        							}
-			        						}
-			            				}
-			            			--exon_index;
-			            			}
-			            		}
-
-		            		}//end of if reverse
-		        		
-		        		
-		        		if( isSimpleBase(alt2) &&
-		        			isSimpleBase(ctx.getReference()) &&
-		        			wildProt!=null &&
-		        			mutProt!=null && 
-		        			position_in_cds>=0)
-			    			{
-		            		final int pos_aa=position_in_cds/3;
-		            		final int mod= position_in_cds%3;
-		            		annotations.wildCodon=(""+
-		            			wildRNA.charAt(position_in_cds-mod+0)+
-		            			wildRNA.charAt(position_in_cds-mod+1)+
-		            			wildRNA.charAt(position_in_cds-mod+2)
-		            			);
-		            		annotations.mutCodon=(""+
-		            			mutRNA.charAt(position_in_cds-mod+0)+
-		            			mutRNA.charAt(position_in_cds-mod+1)+
-		            			mutRNA.charAt(position_in_cds-mod+2)
-		            			);
-		            		annotations.position_protein=(pos_aa+1);
-		            		annotations.wildAA=String.valueOf(wildProt.charAt(pos_aa));
-		            		annotations.mutAA=(String.valueOf(mutProt.charAt(pos_aa)));
-		            		
-		            		annotations.seqont.remove(so_exon);
-		            		
-			    			if(isStop(wildProt.charAt(pos_aa)) &&
-			    			   !isStop(mutProt.charAt(pos_aa)))
-			    				{
-			    				annotations.seqont.add(so_stop_lost);
-			    				}
-			    			else if( !isStop(wildProt.charAt(pos_aa)) &&
-			    				 isStop(mutProt.charAt(pos_aa)))
-			    				{
-			    				annotations.seqont.add(so_stop_gained);
-			    				}
-			    			else if(wildProt.charAt(pos_aa)==mutProt.charAt(pos_aa))
-			    				{
-			    				annotations.seqont.add(so_coding_synonymous);
-			    				}
-			    			else
-			    				{
-			    				annotations.seqont.add(so_coding_non_synonymous);
-			    				}
-			    			}
-		        		
+						
+						/* number of coding bases in the transcript */
+						int cds_length=0;
+						int position_in_cds=-1;
+						
+						if(!String.valueOf(this.genomicSequence.charAt(position)).equalsIgnoreCase(ctx.getReference().getBaseString()))
+							{
+							if(isSimpleBase(ctx.getReference()))
+								{
+								LOG.warn("Warning REF!=GENOMIC SEQ!!! at "+position+"/"+ctx.getReference());
+								}
+							continue;
+							}
+						
+						if(gene.isPositiveStrand())
+							{
+							if(position < gene.getTxStart() - 2000) {
+								annotations.seqont.add(_5KB_upstream_variant);
+								}
+							else if(position < gene.getTxStart()) {
+								annotations.seqont.add(_2KB_upstream_variant);
+								}
+							else if( position >= gene.getTxEnd() + 500) {
+								annotations.seqont.add(_5KB_downstream_variant);
+								}
+							else if( position >= gene.getTxEnd() ) {
+								annotations.seqont.add(_500bp_downstream_variant);
+								}
+							else if(position < gene.getCdsStart())
+								{
+								annotations.seqont.add(so_5_prime_UTR_variant);//UTR5
+								}
+							else if( gene.getCdsEnd()<= position )
+								{
+								annotations.seqont.add(so_3_prime_UTR_variant);
+								}
+							else
+								{
+								for(int exon_index=0;exon_index< gene.getExonCount();++exon_index)
+									{
+									final KnownGene.Exon exon= gene.getExon(exon_index);
+									if(exon.contains(position))
+										{
+										annotations.exon_name= exon.getName();
+										if(exon.isNonCoding())
+											{
+											annotations.seqont.add(so_non_coding_exon_variant);
+											}
+										}
+									/* coding part of this exon */
+									final int beg = Math.max(exon.getStart(), Math.max(gene.getCdsStart(),gene.getTxStart()));
+									final int end = Math.min(exon.getEnd(), gene.getCdsEnd());
+									if(beg < end)
+										{
+										if(beg<= position && position < end)
+											{
+											annotations.seqont.add(so_exon);
+											annotations.exon_name=exon.getName();
+											position_in_cds = cds_length + (position - beg);
+											annotations.position_cds= position_in_cds;
+											addSplicing(annotations,exon,position);
+											}
+										cds_length += (end-beg);
+										}
+									final KnownGene.Intron intron= exon.getNextIntron();
+									if(intron!=null && intron.contains(position))
+										{
+										annotations.intron_name=intron.getName();
+										annotations.seqont.add(so_intron);
+										addSplicing(annotations,intron,position);
+										}
+									}
+								}
+							}
+						else // reverse orientation
+							{
+							if(position >= gene.getTxEnd() + 2000) {
+								annotations.seqont.add(_5KB_upstream_variant);
+								}
+							else if(position >= gene.getTxEnd()) {
+								annotations.seqont.add(_2KB_upstream_variant);
+								}
+							else if( position < gene.getTxStart() - 500) {
+								annotations.seqont.add(_5KB_downstream_variant);
+								}
+							else if( position < gene.getTxStart() ) {
+								annotations.seqont.add(_500bp_downstream_variant);
+								}
+							else if(position < gene.getCdsStart())
+								{
+								annotations.seqont.add(so_3_prime_UTR_variant);
+								}
+							else if( gene.getCdsEnd()<=position )
+								{
+								annotations.seqont.add(so_5_prime_UTR_variant);
+								}
+							else
+								{
+								for(int exon_index = gene.getExonCount()-1;exon_index >=0;--exon_index)
+									{
+									final KnownGene.Exon exon= gene.getExon(exon_index);
+									if(exon.contains(position))
+										{
+										annotations.exon_name=exon.getName();
+										if(exon.isNonCoding())
+											{
+											annotations.seqont.add(so_non_coding_exon_variant);
+											}
+										}
+									/* coding part of this exon */
+									final int beg = Math.max(exon.getStart(), gene.getCdsStart());
+									final int end = Math.min(exon.getEnd(), gene.getCdsEnd());
+									if(beg < end)
+										{
+										if(beg<= position && position < end)
+											{
+											annotations.seqont.add(so_exon);
+											position_in_cds = cds_length + ((end-1) - position);
+											annotations.position_cds=position_in_cds;
+											addSplicing(annotations,exon,position);
+											}
+										cds_length += (end-beg);
+										}
+									final KnownGene.Intron intron= exon.getPrevIntron();
+									if(intron!=null && intron.contains(position))
+										{
+										annotations.intron_name=intron.getName();
+										annotations.seqont.add(so_intron);
+										addSplicing(annotations,intron,position);
+										}
+									}
+								}
+							}//end of if reverse
+						
+						if( isSimpleBase(alt2) &&
+							isSimpleBase(ctx.getReference()) &&
+							cds_length>=3 &&
+							position_in_cds>=0)
+							{
+							final String wildRNA = getCodingSequence(gene);
+							final int pos_aa=position_in_cds/3;
+							final int mod= position_in_cds%3;
+							final char wildCodon[]=new char[]{
+								wildRNA.charAt(position_in_cds-mod+0),
+								wildRNA.charAt(position_in_cds-mod+1),
+								wildRNA.charAt(position_in_cds-mod+2)
+								};
+							final char mutCodon[]=Arrays.copyOf(wildCodon, 3);
+							final char altBase = alt2.getBaseString().charAt(0);
+							mutCodon[mod] = (gene.isPositiveStrand()?altBase:AcidNucleics.complement(altBase));
+							
+							final char wildAA = geneticCode.translate(wildCodon[0], wildCodon[1], wildCodon[2]);
+							final char mutAA = geneticCode.translate(mutCodon[0], mutCodon[1], mutCodon[2]);
+							
+							annotations.wildCodon= new String(wildCodon);
+							annotations.mutCodon= new String(mutCodon);
+							annotations.position_protein=(pos_aa+1);
+							annotations.wildAA=String.valueOf(wildAA);
+							annotations.mutAA=String.valueOf(mutAA);
+							
+							annotations.seqont.remove(so_exon);
+							
+							if(isStop(wildAA) && !isStop(mutAA))
+								{
+								annotations.seqont.add(so_stop_lost);
+								}
+							else if( !isStop(wildAA) && isStop(mutAA))
+								{
+								annotations.seqont.add(so_stop_gained);
+								}
+							else if(wildAA==mutAA)
+								{
+								annotations.seqont.add(so_coding_synonymous);
+								}
+							else
+								{
+								annotations.seqont.add(so_coding_non_synonymous);
+								}
+							}
 						}
 					}
 				}
 			
-		
-			
 			final Set<String> info=new HashSet<String>(ctx_annotations.size());
 			for(final Annotation a:ctx_annotations)
 				{
@@ -886,24 +924,17 @@ public class VCFPredictions extends Launcher
 			
 			final VariantContextBuilder vb=new VariantContextBuilder(ctx);
 			final String thetag;
-			switch(this.outputSyntax)
+			switch(VCFPredictions.this.outputSyntax)
 				{
 				case Vep : thetag="CSQ"; break;
 				case SnpEff : thetag="ANN"; break;
 				default: thetag=TAG;break;
 				}
 			vb.attribute(thetag, info.toArray());
-			w.add(vb.make());
+			return vb.make();
 			}
-		
-		return RETURN_OK;
-		} catch(Exception err ) {
-			LOG.error(err);
-			return -1;
-		} finally {
-			CloserUtil.close(this.referenceGenome);
-		}
 		}
+
 	
 	@Override
 	public int doWork(final List<String> args) {
@@ -917,6 +948,16 @@ public class VCFPredictions extends Launcher
 			LOG.error("knownGene undefined.");
 			return -1;
 			}
+		if(this.batchSize<1)
+			{
+			LOG.error("bad batch size.");
+			return -1;
+			}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
 		return doVcfToVcf(args,outputFile);
 		}
 	
@@ -29,9 +29,12 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -101,6 +104,12 @@ A	33926	.	G	A	182	.	GERP=-6.35(...)
 A	45365	.	A	G	222	.	GERP=-3.55(...)
 ```
 
+## Sorted mode
+
+When the input VCF is sorted, option `--sorted` reads each bigwig resource as a forward-moving stream of
+decoded blocks of `--block-size` bases: each block is decoded only once and the last decoded blocks are kept in memory.
+This is much faster for large VCFs and large bigwig files (e.g. conservation tracks). The output is the same.
+
 
 END_DOC
 */
@@ -111,6 +120,8 @@ END_DOC
 public class VCFBigWig extends Launcher
 	{
 	private static final Logger LOG = Logger.build(VCFBigWig.class).make();
+	/** in sorted mode, max number of decoded blocks kept in memory per resource */
+	private static final int MAX_CACHED_BLOCKS = 4;
 
 	/** wraps a BigWigIterator */
 	private static class WigItemIterator
@@ -128,6 +139,87 @@ public class VCFBigWig extends Launcher
 			}
 		}
 	
+	/** growable buffer of values */
+	private static class ValueBuffer
+		{
+		private double array[]=new double[100];
+		private int size=0;
+		void clear() {
+			this.size=0;
+			}
+		void add(final double v) {
+			if(this.size==this.array.length) {
+				this.array = Arrays.copyOf(this.array, this.size*2);
+				}
+			this.array[this.size++]=v;
+			}
+		boolean isEmpty() {
+			return this.size==0;
+			}
+		double get(int i) {
+			return this.array[i];
+			}
+		double evaluate(final Percentile percentile) {
+			return percentile.evaluate(this.array, 0, this.size);
+			}
+		List<Float> toFloatList() {
+			final List<Float> L = new ArrayList<>(this.size);
+			for(int i=0;i< this.size;i++) L.add((float)this.array[i]);
+			return L;
+			}
+		}
+
+	/** decoded wig items overlapping the 0-based region [blockStart,blockEnd) , sorted on start */
+	private static class WigBlock
+		{
+		final int blockStart;
+		final int blockEnd;
+		int starts[]=new int[1000];
+		int ends[]=new int[1000];
+		float values[]=new float[1000];
+		/** maxEnds[i] = max(ends[0..i]) used for the binary search */
+		int maxEnds[]=null;
+		int size=0;
+		WigBlock(final int blockStart,final int blockEnd) {
+			this.blockStart = blockStart;
+			this.blockEnd = blockEnd;
+			}
+		void add(final WigItem item) {
+			if(this.size==this.starts.length) {
+				final int n = this.size*2;
+				this.starts = Arrays.copyOf(this.starts,n);
+				this.ends = Arrays.copyOf(this.ends,n);
+				this.values = Arrays.copyOf(this.values,n);
+				}
+			this.starts[this.size] = item.getStartBase();
+			this.ends[this.size] = item.getEndBase();
+			this.values[this.size] = item.getWigValue();
+			this.size++;
+			}
+		void seal() {
+			this.maxEnds = new int[this.size];
+			for(int i=0;i< this.size;i++) {
+				this.maxEnds[i] = (i==0?this.ends[i]:Math.max(this.ends[i],this.maxEnds[i-1]));
+				}
+			}
+		/** index of the first item that may end after pos */
+		int lowerBound(final int pos) {
+			int low=0;
+			int high=this.size;
+			while(low<high) {
+				final int mid = (low+high)>>>1;
+				if(this.maxEnds[mid] <= pos) {
+					low=mid+1;
+					}
+				else
+					{
+					high=mid;
+					}
+				}
+			return low;
+			}
+		}
+
 	/** describe a BigWig Resource */
 	private static class BigWigResource
 		implements Closeable
@@ -138,8 +230,16 @@ public class VCFBigWig extends Launcher
 		private BBFileReader bbFileReader=null;
 		private ContigNameConverter contigNameConverter = null;
 		private final Set<String> userContigsNotFound = new HashSet<>();
-		
-	
+		/** in sorted mode: last decoded blocks, access-ordered */
+		private final Map<String,WigBlock> blockCache = new LinkedHashMap<String,WigBlock>(16,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String,WigBlock> eldest) {
+				return size() > MAX_CACHED_BLOCKS;
+				}
+			};
+
+
 		public String getToken() {
 			if(StringUtil.isBlank(this.tag))
 				{
@@ -193,8 +293,50 @@ public class VCFBigWig extends Launcher
 					));
 			}
 		
+		private WigBlock getBlock(final String contig,final int blockIndex,final int blockSize) {
+			final String key = contig+":"+blockIndex;
+			WigBlock block = this.blockCache.get(key);
+			if(block==null) {
+				block = new WigBlock(blockIndex*blockSize,(blockIndex+1)*blockSize);
+				final BigWigIterator iter = this.bbFileReader.getBigWigIterator(
+						contig,
+						block.blockStart,
+						contig,
+						block.blockEnd,
+						false
+						);
+				while(iter!=null && iter.hasNext()) {
+					block.add(iter.next());
+					}
+				block.seal();
+				this.blockCache.put(key, block);
+				}
+			return block;
+			}
+
+		/** sorted mode: fill 'buffer' with the values of the items in the 1-based locatable, using the decoded blocks */
+		void fetch(final Locatable locatable,final boolean contained,final boolean firstOnly,final int blockSize,final ValueBuffer buffer)
+			{
+			final int qStart = locatable.getStart()-1;
+			final int qEnd = locatable.getEnd();
+			final int firstBlock = qStart/blockSize;
+			final int lastBlock = Math.max(qStart,qEnd-1)/blockSize;
+			for(int k=firstBlock;k<=lastBlock;++k) {
+				final WigBlock block = getBlock(locatable.getContig(), k, blockSize);
+				for(int i=block.lowerBound(qStart);i< block.size && block.starts[i] < qEnd;++i) {
+					/* item starting before this block was already seen in the previous block */
+					if(k>firstBlock && block.starts[i] < block.blockStart) continue;
+					if(block.ends[i] <= qStart) continue;
+					if(contained && (block.starts[i] < qStart || block.ends[i] > qEnd)) continue;
+					buffer.add(block.values[i]);
+					if(firstOnly) return;
+					}
+				}
+			}
+
 		@Override
 		public void close() {
+			this.blockCache.clear();
 			try
 				{
 				if(this.bbFileReader!=null)
@@ -247,14 +389,22 @@ public class VCFBigWig extends Launcher
 		@XmlElement(name="onNotFound")
 		@Parameter(names={"--onNotFound"},description="[20170707] " + ContigNameConverter.OPT_ON_NT_FOUND_DESC)
 		private ContigNameConverter.OnNotFound onContigNotFound =ContigNameConverter.OnNotFound.SKIP;
-		
+
+		@XmlElement(name="sorted")
+		@Parameter(names={"--sorted"},description="[20181210] Input is sorted on contig/position: the bigwig files are decoded as a stream of blocks that are re-used by the consecutive variants. Faster for large VCF files.")
+		private boolean sorted_input = false;
+
+		@XmlElement(name="block-size")
+		@Parameter(names={"--block-size"},description="[20181210] In sorted mode, size of a decoded block (in bases)." )
+		private int blockSize = 100_000;
+
 		private final List<BigWigResource> bigwigResources = new ArrayList<>();
 
 		
 		private class CtxWriter extends DelegateVariantContextWriter
 			{
 			private final AggregateMethod aggregateMethod;
-			private final List<Float> values=new ArrayList<Float>();
+			private final ValueBuffer values=new ValueBuffer();
 
 			
 			CtxWriter(final VariantContextWriter delegate) {
@@ -316,18 +466,32 @@ public class VCFBigWig extends Launcher
 						}
 					
 					
-					final Iterator<WigItem> iter=rsrc.iterator(
-							new Interval(variantChrom,ctx.getStart(),ctx.getEnd()),
-							CtxWriterFactory.this.contained
+					final Interval interval = new Interval(variantChrom,ctx.getStart(),ctx.getEnd());
+					if(CtxWriterFactory.this.sorted_input)
+						{
+						rsrc.fetch(
+							interval,
+							CtxWriterFactory.this.contained,
+							this.aggregateMethod.equals(AggregateMethod.first),
+							CtxWriterFactory.this.blockSize,
+							this.values
 							);
-					while(iter!=null && iter.hasNext())
+						}
+					else
 						{
-						final WigItem item=iter.next();
-						final float v=item.getWigValue();
-						this.values.add(v);
-						if(this.aggregateMethod.equals(AggregateMethod.first)) break;
+						final Iterator<WigItem> iter=rsrc.iterator(
+								interval,
+								CtxWriterFactory.this.contained
+								);
+						while(iter!=null && iter.hasNext())
+							{
+							final WigItem item=iter.next();
+							final float v=item.getWigValue();
+							this.values.add(v);
+							if(this.aggregateMethod.equals(AggregateMethod.first)) break;
+							}
 						}
-					
+
 					if(this.values.isEmpty())
 						{
 						continue;
@@ -337,18 +501,18 @@ public class VCFBigWig extends Launcher
 					switch(this.aggregateMethod)
 						{
 						case all:
-							vcb.attribute(rsrc.getToken(),this.values);
+							vcb.attribute(rsrc.getToken(),this.values.toFloatList());
 							break;
 						case avg:
 							vcb.attribute(rsrc.getToken(),
-									(float)Percentile.average().evaluate(values.stream().mapToDouble(V->V.doubleValue()).toArray()));
+									(float)this.values.evaluate(Percentile.average()));
 							break;
 						case first:
-							vcb.attribute(rsrc.getToken(),values.get(0));
+							vcb.attribute(rsrc.getToken(),(float)this.values.get(0));
 							break;
 						case median:
 							vcb.attribute(rsrc.getToken(),
-									(float)Percentile.median().evaluate(values.stream().mapToDouble(V->V.doubleValue()).toArray()));
+									(float)this.values.evaluate(Percentile.median()));
 							break;
 						default: throw new IllegalStateException();
 						}
@@ -392,7 +556,12 @@ public class VCFBigWig extends Launcher
 					LOG.info("Undefined BigWig file ");
 					return -1;
 					}
-				
+				if(this.blockSize<=0)
+					{
+					LOG.error("bad block size "+this.blockSize);
+					return -1;
+					}
+
 				if(this.userBigWigFileUri.endsWith(".xml"))
 					{
 					XMLInputFactory xif=XMLInputFactory.newFactory();
@@ -510,7 +679,7 @@ public class VCFBigWig extends Launcher
 			w.add(progress.watch(r.next()));
 			
 			// JVM crash sometimes ? suspect there is a memory leak ?
-			if(progress.getCount()%1000L==0)
+			if(!this.component.sorted_input && progress.getCount()%1000L==0)
 				{
 				System.gc();
 				}
@@ -29,10 +29,15 @@ import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
@@ -79,7 +84,14 @@ BEGIN_DOC
 
 input is a VCF file annotated with SNPEff or VEP.
 
+## Streaming mode
 
+By default, all the (gene,variant) pairs are sorted on disk, the genes are scanned and the variants are sorted again.
+
+[20181210] With `--streaming` , the input must be sorted on position. The variants of each gene are kept in memory
+while the gene is 'open'. A gene is closed when the current variant is more than `--max-gene-size` bases after the first variant
+of this gene (or on another contig), the disease model is then evaluated and the variants that don't belong to any open gene
+are written in the input order. The memory is proportional to the number of variants in the largest genes.
 
 END_DOC
 */
@@ -102,6 +114,10 @@ public class VCFComposite extends Launcher {
 	private int max_number_of_variant_per_gene = -1;
 	@Parameter(names={"--filter"},description="[20180718] set FILTER for the variants that are not part of a composite mutation.")
 	private String filterTag = "NOT_COMPOSITE";
+	@Parameter(names={"--streaming"},description="[20181210] Input is sorted on contig/position: process the genes in a single pass without sorting the variants on disk.")
+	private boolean streaming = false;
+	@Parameter(names={"--max-gene-size"},description="[20181210] In streaming mode, max distance between two variants of the same gene. A gene is closed when the current variant is further than this distance.")
+	private int maxGeneSize = 3_000_000;
 
 	
 	
@@ -121,6 +137,8 @@ public class VCFComposite extends Launcher {
 		{
 		long id;
 		VariantContext ctx;
+		/** streaming mode: number of open genes containing this variant */
+		int countOpenGenes = 0;
 		VariantLine(long id,VariantContext ctx) {
 			this.id = id;
 			this.ctx = ctx;
@@ -444,6 +462,157 @@ public class VCFComposite extends Launcher {
 		return new HashSet<>(vc.getAttributeAsStringList(INFO_TAG, ""));
 		}
 	
+	/** get the genes of a variant, the contig of the genes is not set */
+	private Set<GeneIdentifier> getGeneKeys(
+			final VariantContext ctx,
+			final AnnPredictionParser annParser,
+			final VepPredictionParser vepParser) {
+		final Set<GeneIdentifier> geneKeys = new HashSet<>();
+		
+		for(final AnnPredictionParser.AnnPrediction pred: annParser.getPredictions(ctx)) {
+			if(pred.isIntergenicRegion())
+				{
+				continue;
+				}
+			
+			if(!StringUtil.isBlank(pred.getGeneName())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getGeneName(),"ANN_GeneName"));
+				}
+			if(!StringUtil.isBlank(pred.getGeneId())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getGeneId(),"ANN_GeneId"));
+				}
+			if(!StringUtil.isBlank(pred.getFeatureId())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getFeatureId(),"ANN_FeatureId"));
+				}
+			}
+		
+		for(final VepPredictionParser.VepPrediction pred: vepParser.getPredictions(ctx)) {
+			if(!StringUtil.isBlank(pred.getGene())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getGene(),"VEP_Gene"));
+				}
+			if(!StringUtil.isBlank(pred.getFeature())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getFeature(),"VEP_Feature"));
+				}
+			if(!StringUtil.isBlank(pred.getSymbol())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getSymbol(),"VEP_Symbol"));
+				}
+			if(!StringUtil.isBlank(pred.getHgncId())) 
+				{
+				geneKeys.add(new GeneIdentifier(pred.getHgncId(),"VEP_HgncId"));
+				}
+			}
+		return geneKeys;
+		}
+	
+	/** set the FILTER and the INFO of a variant before writing */
+	private VariantContext toOutputVariant(final VariantContext firstCtx,final Set<String> set) {
+		final VariantContextBuilder vcb = new VariantContextBuilder(firstCtx);
+		if(set.isEmpty())
+			{
+			vcb.filter(this.filterTag);
+			}
+		else
+			{
+			if(!firstCtx.isFiltered())
+				{
+				vcb.passFilters();
+				}
+			vcb.attribute(INFO_TAG, new ArrayList<>(set));
+			}
+		return vcb.make();
+		}
+	
+	/** a gene in streaming mode */
+	private class OpenGene
+		{
+		final GeneIdentifier gene;
+		final int firstPos;
+		final List<VariantLine> variants = new ArrayList<>();
+		OpenGene(final GeneIdentifier gene,final int firstPos) {
+			this.gene = gene;
+			this.firstPos = firstPos;
+			}
+		}
+	
+	/** streaming mode: the input is sorted, the genes are scanned as soon as they are closed */
+	private void streaming(
+			final VcfIterator iterin,
+			final VariantContextWriter out,
+			final VCFHeader header,
+			final DiseaseModel model,
+			final Comparator<String> contigCmp,
+			final AnnPredictionParser annParser,
+			final VepPredictionParser vepParser)
+		{
+		/* open genes, in the order of their first variant */
+		final Map<GeneIdentifier,OpenGene> openGenes = new LinkedHashMap<>();
+		/* variants not written yet, in the input order */
+		final Deque<VariantLine> pending = new ArrayDeque<>();
+		final Set<String> seenContigs = new HashSet<>();
+		/* without a dictionary, the order of the contigs is unknown: only check the contigs are not seen twice */
+		final boolean hasDictionary = header.getSequenceDictionary()!=null && !header.getSequenceDictionary().isEmpty();
+		long ID_GENERATOR = 0L;
+		VariantContext prev = null;
+		out.writeHeader(header);
+		for(;;)
+			{
+			final VariantContext ctx = iterin.hasNext()?iterin.next():null;
+			if(ctx!=null && prev!=null)
+				{
+				final int i = contigCmp.compare(prev.getContig(), ctx.getContig());
+				if((hasDictionary && i>0) || (i==0 && prev.getStart()>ctx.getStart()) || (i!=0 && seenContigs.contains(ctx.getContig())))
+					{
+					throw new IllegalArgumentException("In streaming mode, the input must be sorted. Got "+
+						prev.getContig()+":"+prev.getStart()+" before "+ctx.getContig()+":"+ctx.getStart());
+					}
+				}
+			/* close the genes */
+			final Iterator<OpenGene> iter = openGenes.values().iterator();
+			while(iter.hasNext())
+				{
+				final OpenGene og = iter.next();
+				if(ctx!=null &&
+					og.gene.contig.equals(ctx.getContig()) &&
+					(long)og.firstPos + (long)this.maxGeneSize >= ctx.getStart()) break;
+				model.scan(og.gene, og.variants);
+				for(final VariantLine vl:og.variants) vl.countOpenGenes--;
+				iter.remove();
+				}
+			/* write the variants that don't belong to an open gene */
+			while(!pending.isEmpty() && pending.peekFirst().countOpenGenes==0)
+				{
+				final VariantContext firstCtx = pending.removeFirst().ctx;
+				out.add(toOutputVariant(firstCtx,getAnnotationsForVariant(firstCtx)));
+				}
+			if(ctx==null) break;
+			seenContigs.add(ctx.getContig());
+			prev = ctx;
+			
+			final VariantLine variantLine = new VariantLine(++ID_GENERATOR,ctx);
+			pending.add(variantLine);
+			if(!this.variantJexl.test(ctx)) continue;
+			if(!model.accept(ctx)) continue;
+			for(final GeneIdentifier gk:getGeneKeys(ctx,annParser,vepParser)) 
+				{
+				gk.contig = ctx.getContig();
+				OpenGene og = openGenes.get(gk);
+				if(og==null)
+					{
+					og = new OpenGene(gk,ctx.getStart());
+					openGenes.put(gk, og);
+					}
+				og.variants.add(variantLine);
+				variantLine.countOpenGenes++;
+				}
+			}
+		}
+
 	@Override
 	protected int doVcfToVcf(final String inputName,
 		final VcfIterator iterin,
@@ -518,6 +687,12 @@ public class VCFComposite extends Launcher {
 
 		try
 			{
+			if(this.streaming)
+				{
+				LOG.info("streaming genes");
+				streaming(iterin,out,header,model,contigCmp,annParser,vepParser);
+				return 0;
+				}
 			LOG.info("reading variants and genes");
 			/* Gene and variant sorter */
 			sorting = SortingCollection.newInstance(GeneAndVariant.class,
@@ -553,46 +728,7 @@ public class VCFComposite extends Launcher {
 					continue;
 					}
 				
-				final Set<GeneIdentifier> geneKeys = new HashSet<>();
-				
-				for(final AnnPredictionParser.AnnPrediction pred: annParser.getPredictions(ctx)) {
-					if(pred.isIntergenicRegion())
-						{
-						continue;
-						}
-					
-					if(!StringUtil.isBlank(pred.getGeneName())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getGeneName(),"ANN_GeneName"));
-						}
-					if(!StringUtil.isBlank(pred.getGeneId())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getGeneId(),"ANN_GeneId"));
-						}
-					if(!StringUtil.isBlank(pred.getFeatureId())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getFeatureId(),"ANN_FeatureId"));
-						}
-					}
-				
-				for(final VepPredictionParser.VepPrediction pred: vepParser.getPredictions(ctx)) {
-					if(!StringUtil.isBlank(pred.getGene())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getGene(),"VEP_Gene"));
-						}
-					if(!StringUtil.isBlank(pred.getFeature())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getFeature(),"VEP_Feature"));
-						}
-					if(!StringUtil.isBlank(pred.getSymbol())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getSymbol(),"VEP_Symbol"));
-						}
-					if(!StringUtil.isBlank(pred.getHgncId())) 
-						{
-						geneKeys.add(new GeneIdentifier(pred.getHgncId(),"VEP_HgncId"));
-						}
-					}
+				final Set<GeneIdentifier> geneKeys = getGeneKeys(ctx,annParser,vepParser);
 				if(geneKeys.isEmpty()) {
 					outputSorter.add(variantLine);
 					continue;
@@ -637,27 +773,10 @@ public class VCFComposite extends Launcher {
 				final List<VariantLine> array = eqiter1.next();
 				final VariantContext firstCtx = array.get(0).ctx;
 				final Set<String> set= getAnnotationsForVariant(firstCtx);
-				final VariantContext outCtx;
-				final VariantContextBuilder vcb = new VariantContextBuilder(firstCtx);
 				for(int y=1;y<array.size();++y) {
 					set.addAll(getAnnotationsForVariant(array.get(y).ctx));
 					}
-				if(set.isEmpty())
-					{
-					vcb.filter(this.filterTag);
-					}
-				else
-					{
-					if(!firstCtx.isFiltered())
-						{
-						vcb.passFilters();
-						}
-					vcb.attribute(INFO_TAG, new ArrayList<>(set));
-					}
-
-				outCtx = vcb.make();
-					
-				out.add(outCtx);
+				out.add(toOutputVariant(firstCtx,set));
 				}
 			outputSorter.cleanup();
 			eqiter1.close();
@@ -679,6 +798,11 @@ public class VCFComposite extends Launcher {
 			LOG.error("bad name for FILTER");
 			return -1;
 			}
+		if(this.maxGeneSize<1) 
+			{
+			LOG.error("bad max gene size");
+			return -1;
+			}
 		try {
 			/*
 			if(this.listModels)
@@ -25,9 +25,16 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfconcat;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -35,13 +42,23 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.SequenceUtil;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.util.TabixUtils;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
 import htsjdk.variant.vcf.VCFHeaderLineType;
@@ -49,6 +66,7 @@ import htsjdk.variant.vcf.VCFInfoHeaderLine;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.util.JVarkitVersion;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -74,6 +92,18 @@ $ find ./ -name "*.vcf" | grep Sample1 | java -jar dist/vcfconcat.jar > out.vcf
 $ java -jar dist/vcfconcat.jar Sample1.samtools.vcf Sample1.gatk.vcf > out.vcf
 ```
 
+### Raw mode
+
+With option `--raw`, the inputs are bgzipped VCFs (e.g. one file per chromosome) with the same samples, the same
+INFO/FORMAT/FILTER header lines and the same sequence dictionary, and whose ranges don't overlap. The records are not decoded: the compressed BGZF blocks are copied byte-for-byte,
+only the block containing the end of the header of each input is re-compressed. The inputs are sorted on their first record.
+The header is the header of the first file and the INFO attribute `VARIANTSOURCE` is not added.
+Option `--index` creates the tabix index of the output.
+
+```bash
+$ java -jar dist/vcfconcat.jar --raw --index -o out.vcf.gz chr1.vcf.gz chr2.vcf.gz chr3.vcf.gz
+```
+
 
 END_DOC
 */
@@ -90,8 +120,317 @@ public class VcfConcat extends Launcher
 	@Parameter(names={"-o","--out"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputfile=null;
 	
+	@Parameter(names={"--raw"},description="[20181210] Fast path for bgzipped VCFs having the same header and whose ranges don't overlap (e.g. one VCF per chromosome): the compressed blocks are copied without decoding the variants. The attribute "+VARIANTSOURCE+" is not added. See the documentation.")
+	private boolean rawMode = false;
+	
+	@Parameter(names={"--index"},description="[20181210] In raw mode, when the output is a file ending with '.vcf.gz', create its tabix index.")
+	private boolean createIndex = false;
+	
 	private Set<String> inputFiles=new HashSet<>();
 	
+	/** a BGZF block in a file */
+	private static class BgzfBlock
+		{
+		/** offset of the block in the file */
+		final long address;
+		/** compressed size, including the header and the footer */
+		final int size;
+		/** uncompressed size */
+		final int isize;
+		BgzfBlock(final long address,final int size,final int isize) {
+			this.address = address;
+			this.size = size;
+			this.isize = isize;
+			}
+		}
+	
+	/** an input of the raw mode */
+	private static class RawInput
+		{
+		final File file;
+		final List<String> headerLines = new ArrayList<>();
+		VCFHeader header;
+		/** non-empty blocks */
+		final List<BgzfBlock> blocks = new ArrayList<>();
+		/** virtual file pointer of the first record */
+		long dataStart = -1L;
+		/** contig and position of the first and the last record, null if there is no record */
+		String firstContig = null;
+		int firstPos = -1;
+		String lastContig = null;
+		int lastPos = -1;
+		
+		RawInput(final File file) {
+			this.file = file;
+			}
+		boolean hasVariants() {
+			return this.firstContig!=null;
+			}
+		}
+	
+	/** uncompress a BGZF block */
+	private static byte[] inflate(final RandomAccessFile raf,final BgzfBlock block) throws IOException
+		{
+		final byte compressed[] = new byte[block.size];
+		raf.seek(block.address);
+		raf.readFully(compressed);
+		final byte uncompressed[] = new byte[block.isize];
+		final Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed,
+					BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH,
+					block.size - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH
+					);
+			int n = 0;
+			while(n< uncompressed.length) {
+				final int count = inflater.inflate(uncompressed, n, uncompressed.length-n);
+				if(count==0 && (inflater.finished() || inflater.needsInput())) break;
+				n += count;
+				}
+			if(n!=uncompressed.length) throw new IOException("cannot inflate block at "+block.address);
+			}
+		catch(final DataFormatException err) {
+			throw new IOException(err);
+			}
+		finally
+			{
+			inflater.end();
+			}
+		return uncompressed;
+		}
+	
+	/** read the header, the first record, the list of blocks and the last record of a bgzipped VCF */
+	private RawInput scanRawInput(final File file) throws IOException
+		{
+		final RawInput input = new RawInput(file);
+		try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			if(!file.getName().endsWith(".vcf.gz") || !BlockCompressedInputStream.isValidFile(in))
+				{
+				throw new JvarkitException.UserError("not a bgzipped VCF "+file);
+				}
+			}
+		/* header and first record */
+		try(BlockCompressedInputStream bgzin = new BlockCompressedInputStream(file)) {
+			for(;;) {
+				final long vfp = bgzin.getFilePointer();
+				final String line = bgzin.readLine();
+				if(line==null) break;
+				if(line.startsWith("#")) {
+					input.headerLines.add(line);
+					continue;
+					}
+				input.dataStart = vfp;
+				final String tokens[] = line.split("[\t]",3);
+				if(tokens.length<3) throw new JvarkitException.TokenErrors("bad VCF line in "+file,tokens);
+				input.firstContig = tokens[0];
+				input.firstPos = Integer.parseInt(tokens[1]);
+				break;
+				}
+			}
+		input.header = VCFUtils.parseHeader(input.headerLines).header;
+		
+		/* blocks */
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final byte head[] = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+			final long length = raf.length();
+			long address = 0L;
+			while(address < length) {
+				raf.seek(address);
+				raf.readFully(head);
+				if(head[0]!=BlockCompressedStreamConstants.GZIP_ID1 || (head[1]&0xFF)!=BlockCompressedStreamConstants.GZIP_ID2) {
+					throw new IOException("not a BGZF block at "+address+" in "+file);
+					}
+				final int size = ((head[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET]&0xFF) |
+						((head[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET+1]&0xFF)<<8)) + 1;
+				raf.seek(address + size - 4);
+				final int isize = Integer.reverseBytes(raf.readInt());
+				if(isize>0) input.blocks.add(new BgzfBlock(address, size, isize));
+				address += size;
+				}
+			
+			/* last record */
+			if(input.hasVariants()) {
+				int blockIndex = input.blocks.size()-1;
+				byte data[] = inflate(raf,input.blocks.get(blockIndex));
+				int end = data.length;
+				while(end>0 && (data[end-1]=='\n' || data[end-1]=='\r')) end--;
+				for(;;) {
+					int start = end;
+					while(start>0 && data[start-1]!='\n') start--;
+					if(start>0 || blockIndex==0) {
+						final String tokens[] = new String(data, start, end-start).split("[\t]",3);
+						if(tokens.length<3) throw new JvarkitException.TokenErrors("bad VCF line in "+file,tokens);
+						input.lastContig = tokens[0];
+						input.lastPos = Integer.parseInt(tokens[1]);
+						break;
+						}
+					/* the last line started in the previous block */
+					blockIndex--;
+					final byte prev[] = inflate(raf,input.blocks.get(blockIndex));
+					final byte merged[] = new byte[prev.length + end];
+					System.arraycopy(prev, 0, merged, 0, prev.length);
+					System.arraycopy(data, 0, merged, prev.length, end);
+					data = merged;
+					end = merged.length;
+					}
+				}
+			}
+		return input;
+		}
+	
+	/** raw mode: copy the BGZF blocks of the inputs */
+	private int fromFilesRaw() throws IOException
+		{
+		if(this.outputfile!=null && !this.outputfile.getName().endsWith(".vcf.gz"))
+			{
+			LOG.error("In raw mode, the output must end with '.vcf.gz'");
+			return -1;
+			}
+		final List<RawInput> inputs = new ArrayList<>(this.inputFiles.size());
+		for(final String vcfFile:this.inputFiles)
+			{
+			LOG.info("Scanning "+vcfFile);
+			inputs.add(scanRawInput(new File(vcfFile)));
+			}
+		/* check headers */
+		RawInput first = inputs.get(0);
+		final SAMSequenceDictionary dict = first.header.getSequenceDictionary();
+		if(dict==null || dict.isEmpty()) throw new JvarkitException.VcfDictionaryMissing(first.file);
+		for(final RawInput input:inputs)
+			{
+			if(!input.header.getSampleNamesInOrder().equals(first.header.getSampleNamesInOrder()))
+				{
+				LOG.error("No same samples in "+first.file+" and "+input.file);
+				return -1;
+				}
+			if(!getRawHeaderDefinitions(input.header).equals(getRawHeaderDefinitions(first.header)))
+				{
+				LOG.error("No same INFO/FORMAT/FILTER header lines in "+first.file+" and "+input.file);
+				return -1;
+				}
+			if(input.header.getSequenceDictionary()==null ||
+				!SequenceUtil.areSequenceDictionariesEqual(dict, input.header.getSequenceDictionary()))
+				{
+				LOG.error("not.the.same.sequence.dictionaries "+first.file+" and "+input.file);
+				return -1;
+				}
+			}
+		/* sort on first variant, check the ranges don't overlap */
+		final Comparator<RawInput> cmp = (A,B)->{
+			final int i = contigIndex(dict,A.firstContig) - contigIndex(dict,B.firstContig);
+			if(i!=0) return i;
+			return Integer.compare(A.firstPos, B.firstPos);
+			};
+		final List<RawInput> dataInputs = inputs.stream().
+				filter(I->I.hasVariants()).
+				sorted(cmp).
+				collect(Collectors.toList());
+		for(int i=0;i+1< dataInputs.size();++i)
+			{
+			final RawInput a = dataInputs.get(i);
+			final RawInput b = dataInputs.get(i+1);
+			final int lastTid = contigIndex(dict,a.lastContig);
+			final int nextTid = contigIndex(dict,b.firstContig);
+			if(lastTid > nextTid || (lastTid==nextTid && a.lastPos > b.firstPos))
+				{
+				LOG.error("ranges of "+a.file+" and "+b.file+" are overlapping. "+a.lastContig+":"+a.lastPos+" > "+b.firstContig+":"+b.firstPos);
+				return -1;
+				}
+			}
+		/* the header is the header of the first input */
+		if(!dataInputs.isEmpty()) first = dataInputs.get(0);
+		
+		/* write */
+		final OutputStream os = new BufferedOutputStream(this.outputfile==null?
+				stdout():
+				new FileOutputStream(this.outputfile)
+				);
+		BlockCompressedOutputStream bgzout = new BlockCompressedOutputStream(os,(File)null);
+		try {
+			final StringBuilder sb = new StringBuilder();
+			for(final String line: first.headerLines)
+				{
+				if(line.startsWith("#CHROM"))
+					{
+					sb.append("##").append(getClass().getSimpleName()).append("CmdLine=").append(getProgramCommandLine()).append('\n');
+					sb.append("##").append(getClass().getSimpleName()).append("Version=").append(getVersion()).append('\n');
+					}
+				sb.append(line).append('\n');
+				}
+			bgzout.write(sb.toString().getBytes());
+			bgzout.flush();
+			
+			final byte buffer[] = new byte[1<<20];
+			for(final RawInput input: dataInputs)
+				{
+				LOG.info("Copying "+input.file);
+				try(RandomAccessFile raf = new RandomAccessFile(input.file, "r")) {
+					final long dataAddress = BlockCompressedFilePointerUtil.getBlockAddress(input.dataStart);
+					final int dataOffset = BlockCompressedFilePointerUtil.getBlockOffset(input.dataStart);
+					int blockIndex = 0;
+					while(blockIndex< input.blocks.size() && input.blocks.get(blockIndex).address < dataAddress) blockIndex++;
+					if(blockIndex==input.blocks.size() || input.blocks.get(blockIndex).address!=dataAddress)
+						{
+						throw new IOException("cannot find block at "+dataAddress+" in "+input.file);
+						}
+					if(dataOffset>0)
+						{
+						/* block containing the end of the header: re-compress the remaining bytes */
+						final byte data[] = inflate(raf,input.blocks.get(blockIndex));
+						bgzout.write(data, dataOffset, data.length-dataOffset);
+						bgzout.flush();
+						blockIndex++;
+						}
+					if(blockIndex< input.blocks.size())
+						{
+						final BgzfBlock lastBlock = input.blocks.get(input.blocks.size()-1);
+						long remain = (lastBlock.address + lastBlock.size) - input.blocks.get(blockIndex).address;
+						raf.seek(input.blocks.get(blockIndex).address);
+						while(remain>0L)
+							{
+							final int n = raf.read(buffer, 0, (int)Math.min(buffer.length, remain));
+							if(n<=0) throw new IOException("unexpected end of file "+input.file);
+							os.write(buffer, 0, n);
+							remain-=n;
+							}
+						}
+					}
+				}
+			/* flush and write the EOF marker */
+			bgzout.close();
+			bgzout = null;
+			}
+		finally
+			{
+			CloserUtil.close(bgzout);
+			}
+		
+		if(this.createIndex && this.outputfile!=null)
+			{
+			LOG.info("writing tabix index for "+this.outputfile);
+			final TabixIndex index=IndexFactory.createTabixIndex(this.outputfile,new VCFCodec(),dict);
+			index.write(new File(this.outputfile.getPath()+TabixUtils.STANDARD_INDEX_EXTENSION));
+			}
+		return 0;
+		}
+	
+	/** the INFO, FORMAT and FILTER header lines: in raw mode, the records are not decoded so those definitions must be the same */
+	private static Set<String> getRawHeaderDefinitions(final VCFHeader header)
+		{
+		final Set<String> set = new HashSet<>();
+		header.getInfoHeaderLines().stream().map(H->H.toString()).forEach(S->set.add(S));
+		header.getFormatHeaderLines().stream().map(H->H.toString()).forEach(S->set.add(S));
+		header.getFilterLines().stream().map(H->H.toString()).forEach(S->set.add(S));
+		return set;
+		}
+	
+	private static int contigIndex(final SAMSequenceDictionary dict,final String contig)
+		{
+		final int tid = dict.getSequenceIndex(contig);
+		if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(contig, dict);
+		return tid;
+		}
+
 	public VcfConcat()
 		{
 		}
@@ -252,6 +591,10 @@ public class VcfConcat extends Launcher
 				LOG.error("No input");
 				return -1;
 				}
+			if(this.rawMode)
+				{
+				return fromFilesRaw();
+				}
 			w= super.openVariantContextWriter(this.outputfile);
 			return fromFiles(w);
 			}
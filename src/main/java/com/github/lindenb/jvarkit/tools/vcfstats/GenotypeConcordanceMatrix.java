@@ -0,0 +1,267 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfstats;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Genotype concordance for all the pairs of samples (x&lt;=y) stored in a dense triangular matrix.
+ * Two samples are concordant for a variant if both genotypes are called and {@link Genotype#sameGenotype(Genotype)}.
+ *
+ * Bi-allelic diploid variants are packed by batches of 64 into bit-planes: one long per sample for HOM_REF, HET and HOM_VAR.
+ * The concordance of a pair of samples over a batch is the popcount of the intersection of their planes.
+ * The other variants are grouped on their genotype.
+ *
+ * If an ExecutorService is provided, the batches are processed in parallel, each thread filling its own matrix.
+ * The matrices are merged by {@link #finish()}.
+ *
+ * The matrices computed on several parts of a VCF can be combined with {@link #merge(GenotypeConcordanceMatrix)}.
+ */
+class GenotypeConcordanceMatrix
+	{
+	private static final int BATCH_SIZE = 64;
+	private final int nSamples;
+	/** index of (x,x) in the matrix */
+	private final int rowOffsets[];
+	/** matrix of the calling thread */
+	private final long matrix[];
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final Deque<Future<?>> pending = new ArrayDeque<>();
+	/** matrices of the worker threads */
+	private final List<long[]> threadMatrices = new ArrayList<>();
+	private final ThreadLocal<long[]> threadMatrix;
+	/** current batch */
+	private long homRef[];
+	private long het[];
+	private long homVar[];
+	private int batchCount = 0;
+	private boolean finished = false;
+	
+	GenotypeConcordanceMatrix(final int nSamples,final ExecutorService executor,final int nThreads)
+		{
+		this.nSamples = nSamples;
+		final long size = (long)nSamples*(nSamples+1L)/2L;
+		if(size > Integer.MAX_VALUE-8) throw new IllegalArgumentException("too many samples for the genotype concordance: "+nSamples);
+		this.rowOffsets = new int[nSamples];
+		long offset=0L;
+		for(int x=0;x< nSamples;++x)
+			{
+			this.rowOffsets[x]=(int)offset;
+			offset += nSamples-x;
+			}
+		this.matrix = new long[(int)size];
+		this.executor = executor;
+		this.maxPending = Math.max(1, nThreads)*2;
+		this.threadMatrix = ThreadLocal.withInitial(()->{
+			final long m[] = new long[(int)size];
+			synchronized(this.threadMatrices) {
+				this.threadMatrices.add(m);
+				}
+			return m;
+			});
+		newBatch();
+		}
+	
+	private void newBatch() {
+		this.homRef = new long[this.nSamples];
+		this.het = new long[this.nSamples];
+		this.homVar = new long[this.nSamples];
+		this.batchCount = 0;
+		}
+	
+	private int index(final int x,final int y) {
+		return x<=y?
+			this.rowOffsets[x]+(y-x):
+			this.rowOffsets[y]+(x-y);
+		}
+	
+	/** true if the variant can be stored in the bit-planes */
+	private boolean isBitPlaneCompatible(final VariantContext ctx) {
+		if(ctx.getNAlleles()!=2 || ctx.getNSamples()!=this.nSamples) return false;
+		for(int i=0;i< this.nSamples;++i)
+			{
+			final Genotype g = ctx.getGenotype(i);
+			switch(g.getType())
+				{
+				case NO_CALL: case UNAVAILABLE: break;
+				case HOM_REF: case HET: case HOM_VAR: if(g.getPloidy()!=2) return false; break;
+				default: return false;
+				}
+			}
+		return true;
+		}
+	
+	void visit(final VariantContext ctx) {
+		if(this.finished) throw new IllegalStateException("finish() was called");
+		if(isBitPlaneCompatible(ctx))
+			{
+			final long bit = 1L << this.batchCount;
+			for(int i=0;i< this.nSamples;++i)
+				{
+				switch(ctx.getGenotype(i).getType())
+					{
+					case HOM_REF: this.homRef[i] |= bit; break;
+					case HET: this.het[i] |= bit; break;
+					case HOM_VAR: this.homVar[i] |= bit; break;
+					default: break;
+					}
+				}
+			this.batchCount++;
+			if(this.batchCount==BATCH_SIZE) flushBatch();
+			}
+		else
+			{
+			visitGroups(ctx);
+			}
+		}
+	
+	/** group the samples on their genotype, all the pairs in a group are concordant */
+	private void visitGroups(final VariantContext ctx) {
+		final Map<String,List<Integer>> groups = new HashMap<>();
+		final int n = Math.min(this.nSamples, ctx.getNSamples());
+		for(int i=0;i< n;++i)
+			{
+			final Genotype g = ctx.getGenotype(i);
+			if(!g.isCalled()) continue;
+			final String key = g.getPloidy()+":"+new TreeSet<>(g.getAlleles());
+			groups.computeIfAbsent(key, K->new ArrayList<>()).add(i);
+			}
+		for(final List<Integer> group: groups.values())
+			{
+			for(int i=0;i< group.size();++i)
+				{
+				final int x = group.get(i);
+				for(int j=i;j< group.size();++j)
+					{
+					this.matrix[index(x,group.get(j))]++;
+					}
+				}
+			}
+		}
+	
+	/** update the matrix 'm' with a batch */
+	private void processBatch(final long hr[],final long he[],final long hv[],final long m[]) {
+		for(int x=0;x< this.nSamples;++x)
+			{
+			final long a = hr[x];
+			final long b = he[x];
+			final long c = hv[x];
+			if((a|b|c)==0L) continue;
+			final int base = this.rowOffsets[x]-x;
+			for(int y=x;y< this.nSamples;++y)
+				{
+				m[base+y] += Long.bitCount((a & hr[y]) | (b & he[y]) | (c & hv[y]));
+				}
+			}
+		}
+	
+	private void flushBatch() {
+		if(this.batchCount==0) return;
+		final long hr[] = this.homRef;
+		final long he[] = this.het;
+		final long hv[] = this.homVar;
+		newBatch();
+		if(this.executor==null)
+			{
+			processBatch(hr,he,hv,this.matrix);
+			return;
+			}
+		try
+			{
+			while(this.pending.size() >= this.maxPending)
+				{
+				this.pending.removeFirst().get();
+				}
+			}
+		catch(final InterruptedException|ExecutionException err)
+			{
+			throw new IllegalStateException(err);
+			}
+		this.pending.add(this.executor.submit(()->processBatch(hr,he,hv,this.threadMatrix.get())));
+		}
+	
+	/** process the last batch, wait for the threads and merge the matrices */
+	void finish() {
+		if(this.finished) return;
+		flushBatch();
+		try
+			{
+			while(!this.pending.isEmpty())
+				{
+				this.pending.removeFirst().get();
+				}
+			}
+		catch(final InterruptedException|ExecutionException err)
+			{
+			throw new IllegalStateException(err);
+			}
+		synchronized(this.threadMatrices) {
+			for(final long m[]:this.threadMatrices)
+				{
+				for(int i=0;i< m.length;++i) this.matrix[i]+=m[i];
+				}
+			this.threadMatrices.clear();
+			}
+		this.finished = true;
+		}
+	
+	/** add the counts of a matrix computed on another part of the VCF. 'other' is finished if needed */
+	void merge(final GenotypeConcordanceMatrix other) {
+		if(this.finished) throw new IllegalStateException("finish() was called");
+		if(other.nSamples!=this.nSamples) throw new IllegalArgumentException("not the same number of samples "+this.nSamples+"/"+other.nSamples);
+		other.finish();
+		for(int i=0;i< this.matrix.length;++i) this.matrix[i]+=other.matrix[i];
+		}
+	
+	/** add 'n' to the count of (x,y), used to restore a saved matrix */
+	void add(final int x,final int y,final long n) {
+		if(this.finished) throw new IllegalStateException("finish() was called");
+		if(x<0 || x>=this.nSamples || y<0 || y>=this.nSamples) throw new IndexOutOfBoundsException("("+x+","+y+")");
+		this.matrix[index(x,y)]+=n;
+		}
+	
+	int getSampleCount() {
+		return this.nSamples;
+		}
+	
+	/** number of variants where both samples have the same called genotype. Call {@link #finish()} first */
+	long get(final int x,final int y) {
+		if(!this.finished) throw new IllegalStateException("finish() was not called");
+		return this.matrix[index(x,y)];
+		}
+	}
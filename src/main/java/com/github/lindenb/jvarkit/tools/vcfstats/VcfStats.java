@@ -22,26 +22,35 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
-import java.io.Closeable;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.ArchiveFactory;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.CharSplitter;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.RangeOfIntegers;
 import com.github.lindenb.jvarkit.tools.burden.MafCalculator;
@@ -54,16 +63,19 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.vcf.VcfIterator;
 import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
-import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeType;
@@ -71,6 +83,7 @@ import htsjdk.variant.variantcontext.StructuralVariantType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 /*
 BEGIN_DOC
@@ -111,6 +124,28 @@ cat input.vcf |\
 ```
 
 
+## Genotype concordance
+
+The genotype concordance of all the pairs of samples is stored in a triangular matrix. The bi-allelic diploid variants
+are packed by batches of 64 variants in bit-planes (HOM_REF/HET/HOM_VAR) and the pairs are compared with a popcount.
+Option `-j` processes the batches in parallel.
+
+## Sharded mode and saved states
+
+With option `--sharded`, the input must be an indexed VCF with a sequence dictionary: the statistics of each contig
+are computed in parallel (option `-j`) and the partial statistics are merged in the order of the dictionary.
+The output is the same as the output of the default mode.
+
+Option `--save-state` saves the partial statistics in a (gzipped) text file. Option `--load-states` reads the states saved
+by several jobs (e.g. one per chromosome), merges them and writes the statistics, without re-reading the VCFs.
+The states must have been produced with the same samples, the same tranches and the same `--binSize`.
+The distances between the variants are only computed within a state: split the VCF on the contigs, not within a contig.
+
+```
+$ for C in 1 2 3 ; do bcftools view -r ${C} input.vcf.gz | java -jar dist/vcfstats.jar --save-state chr${C}.state.gz ; done
+$ java -jar dist/vcfstats.jar --load-states -o out.zip chr1.state.gz chr2.state.gz chr3.state.gz
+```
+
 ## Example
 
 ```
@@ -211,12 +246,13 @@ public class VcfStats extends Launcher
 	{
 	private static final Logger LOG = Logger.build(VcfStats.class).make();
 
-	@Parameter(names={"-o","--output"},description="output Directory or zip file. The output contains the data files as well as a Makefile to convert the data files to graphics using gnuplot.",required=true)
+	@Parameter(names={"-o","--output"},description="output Directory or zip file. The output contains the data files as well as a Makefile to convert the data files to graphics using gnuplot. Can be omitted if option --save-state is used.")
 	private File outputFile = null;
 	
-	@Parameter(names={"-K","-kg","--knownGenes"},description=KnownGene.OPT_KNOWNGENE_DESC)
+	@Parameter(names={"-K","-kg","--knownGenes"},description=KnownGene.OPT_KNOWNGENE_DESC+" "+KnownGeneIndex.OPT_INDEX_DESC)
 	private String kgFile = null;
 	private IntervalTreeMap<List<KnownGene>> knownGeneTreeMap=null;
+	private KnownGeneIndex knownGeneIndex=null;
 	
 	@Parameter(names={"-ped","--pedigree"},description=Pedigree.OPT_DESCRIPTION)
 	private File pedigreeFile = null;
@@ -252,13 +288,29 @@ public class VcfStats extends Launcher
 	private boolean disableGenotypeConcordance=false;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
+	@Parameter(names={"-j","--jobs"},description="[20181210] Number of threads used to compute the genotype concordance or, with --sharded, number of contigs processed in parallel. A value lower than 1 means 'all available processors'.")
+	private int nJobs = 1;
+	@Parameter(names={"--sharded"},description="[20181210] Input is an indexed VCF: compute the statistics of each contig of the dictionary in parallel (see option -j) and merge them.")
+	private boolean sharded = false;
+	@Parameter(names={"--save-state"},description="[20181210] Save the partial statistics in this file (compressed if it ends with '.gz'). The states of several jobs can be merged later with option --load-states.")
+	private File saveStateFile = null;
+	@Parameter(names={"--load-states"},description="[20181210] The input files are some states saved with --save-state. Merge them and write the statistics without re-reading the VCFs. The tranches and the bin size must be the same as the ones used to save the states.")
+	private boolean loadStates = false;
+	
+	/** first line of a saved state */
+	private static final String STATE_MAGIC = "##vcfstats.state.v1";
 	
+	/** thread pool for the genotype concordance, null if nJobs==1 or in sharded mode */
+	private ExecutorService executor = null;
+
 	private ArchiveFactory archiveFactory=null;
 	/** the SAMSequenceDictionary used to sort reference */
 	private SAMSequenceDictionary the_dictionary = null;
 	/** list of samples in order*/
 	private List<String> sampleNamesInOrder = Collections.emptyList();
-	
+	/** header of the VCF, or of the first saved state */
+	private VCFHeader vcfHeader = null;
+
 	private final Function<String, Integer> contig2tid = (S)->{
 		final int tid = the_dictionary.getSequenceIndex(S);
 		if(tid<0) throw new JvarkitException.ContigNotFoundInDictionary(S, the_dictionary);
@@ -326,75 +378,130 @@ public class VcfStats extends Launcher
 			}
 		}
 	
-	//define a pair of samples
-	private class SamplePair
+	/** points (cases,controls) of the MAF plot. The points are written as soon as they are plotted, 
+	 * they are kept in memory only if the stats must be merged (--sharded) or saved (--save-state) */
+	private class PlotMaf
 		{
-		final int sample1;
-		final int sample2;
-		
-		SamplePair(final int sample1,final int sample2)
+		final String filename;
+		/** writer of the points, null if the points are kept in memory */
+		private PrintWriter pw = null;
+		/** x0,y0,x1,y1,... */
+		private double xy[] = null;
+		private int size = 0;
+		PlotMaf(final String title)
 			{
-			if(sample1 < sample2)
+			this.filename = VcfStats.this.prefix + title+".maf.tsv";
+			if(VcfStats.this.sharded || VcfStats.this.saveStateFile!=null)
 				{
-				this.sample1 = sample1;
-				this.sample2 = sample2;
+				this.xy = new double[200];
 				}
 			else
 				{
-				this.sample1 = sample2;
-				this.sample2 = sample1;
+				try {
+					this.pw = archiveFactory.openWriter(this.filename);
+				} catch (final IOException e) {
+					throw new RuntimeIOException(e);
+				}
 				}
 			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.sample1;
-			result = prime * result + this.sample2;
-			return result;
+		void plot(double xcas,double yctrl) {
+			if(this.pw!=null) {
+				this.pw.print(xcas);
+				this.pw.print('\t');
+				this.pw.print(yctrl);
+				this.pw.print('\n');
+				return;
+				}
+			if(this.size+2 > this.xy.length) {
+				this.xy = Arrays.copyOf(this.xy, this.xy.length*2);
+				}
+			this.xy[this.size++] = xcas;
+			this.xy[this.size++] = yctrl;
 			}
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)  return true;
-			if (obj == null)  return false;
-			if (!(obj instanceof SamplePair)) return false;
-			final SamplePair other = (SamplePair) obj;
-			return other.sample1==this.sample1 && 
-				   other.sample2==this.sample2; 
+		void merge(final PlotMaf other) {
+			for(int i=0;i+1< other.size;i+=2) {
+				plot(other.xy[i],other.xy[i+1]);
+				}
 			}
-		@Override
-		public String toString() {
-			return  VcfStats.this.sampleNamesInOrder.get(sample1)+"/"+
-					VcfStats.this.sampleNamesInOrder.get(sample2);
+		void save(final PrintWriter pw,final String key) {
+			if(this.xy==null) throw new IllegalStateException("MAF points were not kept in memory");
+			for(int i=0;i+1< this.size;i+=2) {
+				pw.println("M\t"+key+"\t"+this.xy[i]+"\t"+this.xy[i+1]);
+				}
+			}
+		/** write the points kept in memory, close the file */
+		void write() throws IOException {
+			if(this.pw==null) {
+				this.pw = archiveFactory.openWriter(this.filename);
+				for(int i=0;i+1< this.size;i+=2) {
+					this.pw.print(this.xy[i]);
+					this.pw.print('\t');
+					this.pw.print(this.xy[i+1]);
+					this.pw.print('\n');
+					}
+				this.xy = null;
+				this.size = 0;
+				}
+			this.pw.flush();
+			this.pw.close();
 			}
 		}
 	
+	/** converts the keys of a Counter from/to a String, for the saved states */
+	private static class KeyCodec<T>
+		{
+		final Function<T,String> encoder;
+		final Function<String,T> decoder;
+		KeyCodec(final Function<T,String> encoder,final Function<String,T> decoder) {
+			this.encoder = encoder;
+			this.decoder = decoder;
+			}
+		}
+	
+	/** ranges are saved as their index in the tranches */
+	private static KeyCodec<RangeOfIntegers.Range> rangeCodec(final RangeOfIntegers tranches) {
+		return new KeyCodec<>(
+			R->String.valueOf(tranches.getRanges().indexOf(R)),
+			S->tranches.getRanges().get(Integer.parseInt(S))
+			);
+		}
+	
+	private static <E extends Enum<E>> KeyCodec<E> enumCodec(final Class<E> clazz) {
+		return new KeyCodec<>(E->E.name(),S->Enum.valueOf(clazz, S));
+		}
+	
+	private static final KeyCodec<String> STRING_CODEC = new KeyCodec<>(S->S,S->S);
+	
+	private final KeyCodec<ContigBin> contigBinCodec = new KeyCodec<>(
+			B->B.contig+":"+B.pos,
+			S->{
+			final int colon = S.lastIndexOf(':');
+			return new ContigBin(S.substring(0,colon),Integer.parseInt(S.substring(colon+1)));
+			});
 	
-	private class PlotMaf implements Closeable
+	/** a Counter and the codec of its keys */
+	private static class CounterAndCodec<T>
 		{
-		//final String title;
-		final String filename;
-		final PrintWriter pw;
-		PlotMaf(final String title)
-			{
-			//this.title=title;
-			this.filename = VcfStats.this.prefix + title+".maf.tsv";
-			try {
-				this.pw = archiveFactory.openWriter(this.filename);
-			} catch (IOException e) {
-				throw new RuntimeIOException(e);
+		final Counter<T> counter;
+		final KeyCodec<T> codec;
+		CounterAndCodec(final Counter<T> counter,final KeyCodec<T> codec) {
+			this.counter = counter;
+			this.codec = codec;
 			}
+		@SuppressWarnings("unchecked")
+		void merge(final CounterAndCodec<?> other) {
+			this.counter.putAll((Counter<T>)other.counter);
 			}
-		void plot(double xcas,double yctrl) {
-			this.pw.print(xcas);
-			this.pw.print('\t');
-			this.pw.print(yctrl);
-			this.pw.print('\n');
-			}	
-		@Override
-		public void close() throws IOException {
-			this.pw.flush();
-			this.pw.close();
+		void save(final PrintWriter pw,final String prefix) {
+			for(final T k: this.counter.keySet()) {
+				pw.print(prefix);
+				pw.print(this.codec.encoder.apply(k));
+				pw.print('\t');
+				pw.println(this.counter.count(k));
+				}
+			}
+		void load(final String key,final long n) {
+			this.counter.incr(this.codec.decoder.apply(key),n);
 			}
 		}
 	
@@ -435,6 +542,46 @@ public class VcfStats extends Launcher
 		final Counter<StructuralVariantType> countStructuralVariations = new Counter<>();
 		
 		protected ContigPosRef prevCtx=null;
+		private Map<String,CounterAndCodec<?>> counters = null;
+		
+		/** all the counters with their name */
+		protected Map<String,CounterAndCodec<?>> createCounters() {
+			final Map<String,CounterAndCodec<?>> m = new LinkedHashMap<>();
+			m.put("depth", new CounterAndCodec<>(this.countDepth, rangeCodec(VcfStats.this.depthTranches)));
+			m.put("distances", new CounterAndCodec<>(this.countDistances, rangeCodec(VcfStats.this.distanceTranches)));
+			m.put("nucleicAcidChanges", new CounterAndCodec<>(this.nucleicAcidChanges, enumCodec(NucleicAcidChange.class)));
+			m.put("geneLocations", new CounterAndCodec<>(this.geneLocations, enumCodec(GeneLocation.class)));
+			m.put("consequences", new CounterAndCodec<>(this.consequences, STRING_CODEC));
+			m.put("contigs", new CounterAndCodec<>(this.variantsPerContigs, STRING_CODEC));
+			m.put("bins", new CounterAndCodec<>(this.countBins, VcfStats.this.contigBinCodec));
+			m.put("structuralVariations", new CounterAndCodec<>(this.countStructuralVariations, enumCodec(StructuralVariantType.class)));
+			return m;
+			}
+		
+		final Map<String,CounterAndCodec<?>> getCounters() {
+			if(this.counters==null) this.counters = createCounters();
+			return this.counters;
+			}
+		
+		/** add the counts of another stat computed on another part of the VCF */
+		void merge(final AbstractStat other) {
+			final Map<String,CounterAndCodec<?>> otherCounters = other.getCounters();
+			for(final Map.Entry<String,CounterAndCodec<?>> entry: this.getCounters().entrySet()) {
+				entry.getValue().merge(otherCounters.get(entry.getKey()));
+				}
+			}
+		
+		void save(final PrintWriter pw,final String prefix) {
+			for(final Map.Entry<String,CounterAndCodec<?>> entry: this.getCounters().entrySet()) {
+				entry.getValue().save(pw, prefix+entry.getKey()+"\t");
+				}
+			}
+		
+		void load(final String counterName,final String key,final long n) {
+			final CounterAndCodec<?> c = this.getCounters().get(counterName);
+			if(c==null) throw new JvarkitException.FileFormatError("unknown counter \""+counterName+"\" in saved state");
+			c.load(key, n);
+			}
 
 		protected void visitForDistance(final VariantContext ctx)
 			{
@@ -517,7 +664,8 @@ public class VcfStats extends Launcher
 		final Counter<RangeOfIntegers.Range> countAffectedSamples = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countAltAlleles = new Counter<>();
 		final Counter<RangeOfIntegers.Range> countIndelSize = new Counter<>();
-		final Counter<SamplePair>  genotypeConcordance = new Counter<>();
+		/** null if disabled */
+		final GenotypeConcordanceMatrix  genotypeConcordance;
 
 		private int countVariants=0;
 		
@@ -533,6 +681,14 @@ public class VcfStats extends Launcher
 				this.pedireePerson= VcfStats.this.pedigree.getPersonById(sampleName);
 				}
 			
+			@Override
+			protected Map<String,CounterAndCodec<?>> createCounters() {
+				final Map<String,CounterAndCodec<?>> m = super.createCounters();
+				m.put("genotypeTypes", new CounterAndCodec<>(this.countTypes, enumCodec(GenotypeType.class)));
+				m.put("mendelianViolations", new CounterAndCodec<>(this.countMendelianViolations, STRING_CODEC));
+				return m;
+				}
+
 			public void visit(final VariantContext ctx,final List<KnownGene> knownGenes) {
 				final Genotype genotype = ctx.getGenotype(this.sampleName);
 				if(genotype==null) return;
@@ -634,18 +790,98 @@ public class VcfStats extends Launcher
 						collect(Collectors.toSet())
 						;
 			// genotype concordance
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				final int n_samples = VcfStats.this.sampleNamesInOrder.size();
-				for(int x=0;x +1 < n_samples;++x)
-					{
-					for(int y= x +1; y < n_samples;++y)
-						{
-						this.genotypeConcordance.initializeIfNotExists(new SamplePair(x,y));
+			if(!VcfStats.this.disableGenotypeConcordance && !VcfStats.this.sampleNamesInOrder.isEmpty()) {
+				this.genotypeConcordance = new GenotypeConcordanceMatrix(
+					VcfStats.this.sampleNamesInOrder.size(),
+					VcfStats.this.executor,
+					VcfStats.this.nJobs
+					);
+				}
+			else
+				{
+				this.genotypeConcordance = null;
+				}
+			}
+		
+		@Override
+		protected Map<String,CounterAndCodec<?>> createCounters() {
+			final Map<String,CounterAndCodec<?>> m = super.createCounters();
+			m.put("variantTypes", new CounterAndCodec<>(this.countTypes, enumCodec(VariantContext.Type.class)));
+			m.put("affectedSamples", new CounterAndCodec<>(this.countAffectedSamples, rangeCodec(VcfStats.this.affectedTranches)));
+			m.put("altAlleles", new CounterAndCodec<>(this.countAltAlleles, rangeCodec(VcfStats.this.altTranches)));
+			m.put("indelSize", new CounterAndCodec<>(this.countIndelSize, rangeCodec(VcfStats.this.indelTranches)));
+			return m;
+			}
+		
+		/** add the stats of another part of the VCF */
+		void merge(final VariantStats other) {
+			super.merge(other);
+			this.countVariants += other.countVariants;
+			if(other.mafPlotter!=null) {
+				if(this.mafPlotter==null) this.mafPlotter = new PlotMaf(this.key);
+				this.mafPlotter.merge(other.mafPlotter);
+				}
+			if(this.genotypeConcordance!=null && other.genotypeConcordance!=null) {
+				this.genotypeConcordance.merge(other.genotypeConcordance);
+				}
+			for(final SampleStat st: this.sample2stats.values()) {
+				final SampleStat otherSt = other.sample2stats.get(st.sampleName);
+				if(otherSt!=null) st.merge(otherSt);
+				}
+			}
+		
+		/** save the stats. One line per item: type, category, (sample), counter, key, count */
+		void save(final PrintWriter pw) {
+			pw.println("N\t"+this.key+"\t"+this.countVariants);
+			super.save(pw, "V\t"+this.key+"\t");
+			for(final SampleStat st: this.sample2stats.values()) {
+				st.save(pw, "S\t"+this.key+"\t"+st.sampleName+"\t");
+				}
+			if(this.mafPlotter!=null) {
+				this.mafPlotter.save(pw, this.key);
+				}
+			if(this.genotypeConcordance!=null) {
+				this.genotypeConcordance.finish();
+				final int n = this.genotypeConcordance.getSampleCount();
+				for(int x=0;x< n;++x) {
+					for(int y=x;y< n;++y) {
+						final long count = this.genotypeConcordance.get(x, y);
+						if(count==0L) continue;
+						pw.println("G\t"+this.key+"\t"+x+"\t"+y+"\t"+count);
 						}
 					}
 				}
 			}
 		
+		/** load a line of a saved state */
+		void load(final String tokens[]) {
+			switch(tokens[0]) {
+				case "N":
+					this.countVariants += Integer.parseInt(tokens[2]);
+					break;
+				case "V":
+					super.load(tokens[2], tokens[3], Long.parseLong(tokens[4]));
+					break;
+				case "S":
+					{
+					final SampleStat st = this.sample2stats.get(tokens[2]);
+					if(st==null) throw new JvarkitException.SampleMissing("sample "+tokens[2]+" in saved state");
+					st.load(tokens[3], tokens[4], Long.parseLong(tokens[5]));
+					break;
+					}
+				case "M":
+					if(VcfStats.this.disableMAFPlot) break;
+					if(this.mafPlotter==null) this.mafPlotter = new PlotMaf(this.key);
+					this.mafPlotter.plot(Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3]));
+					break;
+				case "G":
+					if(this.genotypeConcordance==null) break;
+					this.genotypeConcordance.add(Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3]), Long.parseLong(tokens[4]));
+					break;
+				default: throw new JvarkitException.FileFormatError("bad line type in saved state "+String.join("\t", tokens));
+				}
+			}
+		
 		public void visit(final VariantContext ctx) {
 			this.countVariants++;
 			this.countTypes.incr(ctx.getType());
@@ -681,7 +917,7 @@ public class VcfStats extends Launcher
 			if(alternates.size()==1 )
 				{
 				boolean in_cds=false;
-				if(VcfStats.this.knownGeneTreeMap!=null)
+				if(VcfStats.this.hasKnownGenes())
 					{
 					in_cds = knownGenes.stream().
 							filter(K->!((K.getTxStart()+1) > ctx.getEnd() || (K.getTxEnd()) < ctx.getStart()  )).
@@ -696,13 +932,13 @@ public class VcfStats extends Launcher
 				final Character altChar=asSimpleATGC(alternates.get(0));
 				if(isTransition(refChar,altChar)) {
 					this.nucleicAcidChanges.incr(NucleicAcidChange.transition);
-					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
+					if(VcfStats.this.hasKnownGenes() && in_cds) {
 						this.nucleicAcidChanges.incr(NucleicAcidChange.transition_in_cds);
 						}
 					}	
 				else if(isTransversion(refChar,altChar)) {
 					this.nucleicAcidChanges.incr(NucleicAcidChange.transversion);
-					if(VcfStats.this.knownGeneTreeMap!=null && in_cds) {
+					if(VcfStats.this.hasKnownGenes() && in_cds) {
 						this.nucleicAcidChanges.incr(NucleicAcidChange.transversion_in_cds);
 						}
 					}	
@@ -801,23 +1037,10 @@ public class VcfStats extends Launcher
 			
 			// genotype concordance
 
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				for(int x=0;x < ctx.getNSamples();++x)
-					{
-					final Genotype g1 = ctx.getGenotype(x);
-					if(!g1.isCalled()) continue;
-					for(int y= x ; y < ctx.getNSamples();++y)
-						{
-						final Genotype g2 = ctx.getGenotype(y);
-						if(!g2.isCalled()) continue;
-						if(g1.sameGenotype(g2))
-							{
-							this.genotypeConcordance.incr(new SamplePair(x,y));
-							}
-						}
-					}
+			if(this.genotypeConcordance!=null) {
+				this.genotypeConcordance.visit(ctx);
 				}
-			
+
 			}
 		private String toTsv(final String filename)
 			{
@@ -1346,8 +1569,8 @@ public class VcfStats extends Launcher
 			
 			if(this.mafPlotter!=null)
 				{
-				this.mafPlotter.close();
-				
+				this.mafPlotter.write();
+
 				final String png= toPng(this.mafPlotter.filename);
 				makefileWriter.println("ALL_TARGETS+=" + png);
 				makefileWriter.println(png+":"+this.mafPlotter.filename);
@@ -1571,8 +1794,9 @@ public class VcfStats extends Launcher
 
 				}
 			
-			if(!VcfStats.this.disableGenotypeConcordance && !this.genotypeConcordance.isEmpty())
+			if(this.genotypeConcordance!=null)
 				{
+				this.genotypeConcordance.finish();
 				final String filename = toTsv("gtConcordance");
 				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
 				
@@ -1589,7 +1813,7 @@ public class VcfStats extends Launcher
 					for(int x=0;x<  VcfStats.this.sampleNamesInOrder.size();++x)
 						{
 						pw.print(",");
-						pw.print(this.genotypeConcordance.count(new SamplePair(x,y)));
+						pw.print(this.genotypeConcordance.get(x,y));
 						}
 					pw.println();
 					}
@@ -1704,8 +1928,19 @@ public class VcfStats extends Launcher
 		//this.selectExpressions.add("vc azd");
 		}
 	
+	private boolean hasKnownGenes()
+		{
+		return this.knownGeneTreeMap!=null || this.knownGeneIndex!=null;
+		}
+	
 	public List<KnownGene> getOverlappingKnownGenes(final VariantContext ctx)
 		{
+		if(this.knownGeneIndex!=null) {
+			/* the index is shared by the threads in sharded mode */
+			synchronized(this.knownGeneIndex) {
+				return this.knownGeneIndex.getOverlapping(ctx);
+				}
+			}
 		if(this.knownGeneTreeMap==null) return Collections.emptyList();
 		final List<KnownGene> L = new ArrayList<>();
 		for(final List<KnownGene> lkg:VcfStats.this.knownGeneTreeMap.getOverlapping(ctx))
@@ -1751,104 +1986,332 @@ public class VcfStats extends Launcher
 	
 	
 	
-	@Override
-	public int doWork(final List<String> args) {
-		if(this.binSize<=0) {
-			LOG.error("binSize < 0");
-			return -1;
-		}
-		
-		VariantContextWriter teeOut=null;
-		VcfIterator iter = null;
-		final Map<String,VariantStats> category2stats = new HashMap<>();
+	/** set the samples, the dictionary and the pedigree from the VCF header */
+	private void initFromHeader(final VCFHeader header) throws IOException
+		{
+		this.vcfHeader = header;
+		this.sampleNamesInOrder = Collections.unmodifiableList(header.getSampleNamesInOrder());
 		
-		PrintWriter makefileWriter =null;
-		try {
-			
-			
-			this.archiveFactory = ArchiveFactory.open(this.outputFile);
-			if(this.tee) teeOut = super.openVariantContextWriter(null);
-			
-			iter= super.openVcfIterator(oneFileOrNull(args));
-			
-			
-			
-			final VCFHeader header=iter.getHeader();
-			this.sampleNamesInOrder = Collections.unmodifiableList(header.getSampleNamesInOrder());
-			
-			final SAMSequenceDictionary dict=header.getSequenceDictionary();
-			if(dict!=null && !dict.isEmpty()) {
-				this.the_dictionary = dict;
+		final SAMSequenceDictionary dict=header.getSequenceDictionary();
+		if(dict!=null && !dict.isEmpty()) {
+			this.the_dictionary = dict;
+			}
+		if(this.pedigreeFile!=null)
+			{
+			this.pedigree = Pedigree.newParser().parse(this.pedigreeFile);
+			}
+		else
+			{
+			Pedigree tmpPed=null;
+			try 
+				{
+				tmpPed =  Pedigree.newParser().parse(header);
 				}
-			
-			if(this.kgFile!=null)
+			catch(Exception err) {
+				tmpPed = Pedigree.createEmptyPedigree();
+				}
+			this.pedigree = tmpPed;
+			}
+		}
+	
+	private void loadKnownGenes() throws IOException
+		{
+		final SAMSequenceDictionary dict = this.the_dictionary;
+		if(this.kgFile!=null && KnownGeneIndex.isIndex(this.kgFile))
+			{
+			LOG.info("open index "+kgFile);
+			this.knownGeneIndex=KnownGeneIndex.open(new File(this.kgFile));
+			this.knownGeneTreeMap=null;
+			}
+		else if(this.kgFile!=null)
+			{
+			LOG.info("load "+kgFile);
+			this.knownGeneTreeMap=KnownGene.loadUriAsIntervalTreeMap(this.kgFile,KG->(dict==null || dict.getSequence(KG.getContig())!=null));
+			}
+		else
+			{
+			this.knownGeneTreeMap=null;
+			}
+		}
+	
+	private VariantStats getVariantStats(final Map<String,VariantStats> category2stats,final String category)
+		{
+		VariantStats vcstat = category2stats.get(category);
+		if(vcstat==null) {
+			vcstat = new VariantStats(category,this.vcfHeader);
+			category2stats.put(category, vcstat);
+			}
+		return vcstat;
+		}
+	
+	private void visit(final Map<String,VariantStats> category2stats,final VariantContext ctx)
+		{
+		for(final String category: this.variantToCategoryKeys.apply(ctx))
+			{
+			getVariantStats(category2stats,category).visit(ctx);
+			}
+		}
+	
+	/** add the partial stats to 'category2stats' */
+	private void mergeStats(final Map<String,VariantStats> category2stats,final Map<String,VariantStats> partial)
+		{
+		for(final VariantStats vcstats: partial.values())
+			{
+			final VariantStats prev = category2stats.get(vcstats.key);
+			if(prev==null)
 				{
-				LOG.info("load "+kgFile);
-				this.knownGeneTreeMap=KnownGene.loadUriAsIntervalTreeMap(this.kgFile,KG->(dict==null || dict.getSequence(KG.getContig())!=null));
+				category2stats.put(vcstats.key, vcstats);
 				}
 			else
 				{
-				this.knownGeneTreeMap=null;
+				prev.merge(vcstats);
+				}
+			}
+		}
+	
+	/** compute the stats of one contig of an indexed VCF */
+	private Map<String,VariantStats> visitContig(final File vcfFile,final SAMSequenceRecord ssr)
+		{
+		final Map<String,VariantStats> category2stats = new HashMap<>();
+		try(VCFFileReader reader = new VCFFileReader(vcfFile, true)) {
+			try(CloseableIterator<VariantContext> iter = reader.query(ssr.getSequenceName(), 1, ssr.getSequenceLength())) {
+				while(iter.hasNext())
+					{
+					visit(category2stats,iter.next());
+					}
 				}
-			if(this.pedigreeFile!=null)
+			}
+		LOG.info("done "+ssr.getSequenceName());
+		return category2stats;
+		}
+	
+	/** sharded mode: the contigs are processed in parallel, the partial stats are merged in the order of the dictionary */
+	private void visitSharded(final File vcfFile,final Map<String,VariantStats> category2stats) throws Exception
+		{
+		if(this.the_dictionary==null) throw new JvarkitException.VcfDictionaryMissing(vcfFile);
+		final ForkJoinPool pool = new ForkJoinPool(this.nJobs);
+		try
+			{
+			final Deque<ForkJoinTask<Map<String,VariantStats>>> pending = new ArrayDeque<>();
+			for(final SAMSequenceRecord ssr: this.the_dictionary.getSequences())
 				{
-				this.pedigree = Pedigree.newParser().parse(this.pedigreeFile);
+				pending.add(pool.submit(()->visitContig(vcfFile,ssr)));
+				while(pending.size() > this.nJobs*2)
+					{
+					mergeStats(category2stats,pending.removeFirst().get());
+					}
 				}
-			else
+			while(!pending.isEmpty())
+				{
+				mergeStats(category2stats,pending.removeFirst().get());
+				}
+			}
+		finally
+			{
+			pool.shutdownNow();
+			}
+		}
+	
+	/** tranches, by name, saved in the states */
+	private Map<String,RangeOfIntegers> getTranches() {
+		final Map<String,RangeOfIntegers> m = new LinkedHashMap<>();
+		m.put("affected", this.affectedTranches);
+		m.put("depth", this.depthTranches);
+		m.put("indelSize", this.indelTranches);
+		m.put("alts", this.altTranches);
+		m.put("distance", this.distanceTranches);
+		return m;
+		}
+	
+	private void saveState(final File stateFile,final Map<String,VariantStats> category2stats) throws IOException
+		{
+		final PrintWriter pw = IOUtils.openFileForPrintWriter(stateFile);
+		pw.println(STATE_MAGIC);
+		pw.println("##binSize\t"+this.binSize);
+		for(final Map.Entry<String,RangeOfIntegers> entry: getTranches().entrySet())
+			{
+			pw.println("##tranches\t"+entry.getKey()+"\t"+entry.getValue());
+			}
+		for(final String line: VCFUtils.convertVCFHeaderToList(this.vcfHeader))
+			{
+			pw.println("##header\t"+line);
+			}
+		for(final VariantStats vcstats: category2stats.values())
+			{
+			vcstats.save(pw);
+			}
+		pw.flush();
+		if(pw.checkError()) throw new IOException("I/O error while writing "+stateFile);
+		pw.close();
+		}
+	
+	private void loadState(final File stateFile,final Map<String,VariantStats> category2stats) throws IOException
+		{
+		LOG.info("loading "+stateFile);
+		try(BufferedReader br = IOUtils.openFileForBufferedReading(stateFile)) {
+			String line = br.readLine();
+			if(line==null || !line.equals(STATE_MAGIC)) throw new JvarkitException.FileFormatError("not a vcfstats state: "+stateFile);
+			final Map<String,RangeOfIntegers> tranches = getTranches();
+			final List<String> headerLines = new ArrayList<>();
+			boolean headerDone = false;
+			while((line=br.readLine())!=null)
 				{
-				Pedigree tmpPed=null;
-				try 
+				final String tokens[] = CharSplitter.TAB.split(line);
+				if(tokens[0].equals("##binSize"))
 					{
-					tmpPed =  Pedigree.newParser().parse(header);
+					if(Integer.parseInt(tokens[1])!=this.binSize) throw new JvarkitException.UserError("bin size in "+stateFile+" is "+tokens[1]+" but it is "+this.binSize+" in this run.");
 					}
-				catch(Exception err) {
-					tmpPed = Pedigree.createEmptyPedigree();
+				else if(tokens[0].equals("##tranches"))
+					{
+					final RangeOfIntegers r = tranches.get(tokens[1]);
+					if(r==null || !r.toString().equals(tokens[2])) throw new JvarkitException.UserError("tranches \""+tokens[1]+"\" in "+stateFile+" are "+tokens[2]+" but they are "+r+" in this run.");
+					}
+				else if(tokens[0].equals("##header"))
+					{
+					headerLines.add(line.substring(tokens[0].length()+1));
+					}
+				else
+					{
+					if(!headerDone)
+						{
+						checkStateHeader(stateFile,headerLines);
+						headerDone = true;
+						}
+					if(tokens.length<3) throw new JvarkitException.TokenErrors("expected at least 3 tokens",tokens);
+					getVariantStats(category2stats,tokens[1]).load(tokens);
 					}
-				this.pedigree = tmpPed;
 				}
+			if(!headerDone) checkStateHeader(stateFile,headerLines);
+			}
+		}
+	
+	/** the first state defines the header, the samples of the other states must be the same */
+	private void checkStateHeader(final File stateFile,final List<String> headerLines) throws IOException
+		{
+		if(headerLines.isEmpty()) throw new JvarkitException.FileFormatError("no VCF header in "+stateFile);
+		final VCFHeader header = VCFUtils.parseHeader(headerLines).header;
+		if(this.vcfHeader==null)
+			{
+			initFromHeader(header);
+			}
+		else if(!this.sampleNamesInOrder.equals(header.getSampleNamesInOrder()))
+			{
+			throw new JvarkitException.UserError("the samples in "+stateFile+" are not the same as in the previous states.");
+			}
+		}
+	
+	/** write the data files and the Makefile */
+	private void writeOutput(final Map<String,VariantStats> category2stats) throws IOException
+		{
+		PrintWriter makefileWriter =null;
+		try {
+			this.archiveFactory = ArchiveFactory.open(this.outputFile);
 			makefileWriter = this.archiveFactory.openWriter(this.prefix+"Makefile");
 			makefileWriter.println(".PHONY: all all_targets ");
 			makefileWriter.println("SCREEN_WIDTH?=2600");
 			makefileWriter.println("SCREEN_HEIGHT?=1000");
 			makefileWriter.println("ALL_TARGETS=");
 			makefileWriter.println("all: all_targets");
-
-
-			
 			
-			if(teeOut!=null) teeOut.writeHeader(header);
-			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
-			while(iter.hasNext())
-				{
-				final VariantContext ctx=progress.watch(iter.next());
-				if(teeOut!=null) teeOut.add(ctx);
-
-				
-				for(final String category: this.variantToCategoryKeys.apply(ctx))
-					{
-					VariantStats vcstat = category2stats.get(category);
-					if(vcstat==null) {
-						vcstat = new VariantStats(category,header);
-						category2stats.put(category, vcstat);
-						}
-					vcstat.visit(ctx);
-					}
-				
-				
-				}
 			for(final String category: category2stats.keySet())
 				{	
 				final VariantStats vcstats = category2stats.get(category);
 				vcstats.finish(makefileWriter);
 				}
-
-			progress.finish();
+			
 			makefileWriter.println("all_targets : ${ALL_TARGETS}");
 			makefileWriter.flush();makefileWriter.close();makefileWriter=null;
-			
-			iter.close();iter=null;
 			this.archiveFactory.close();archiveFactory=null;
-			if(teeOut!=null) teeOut.close(); teeOut=null;
+			}
+		finally
+			{
+			CloserUtil.close(makefileWriter);
+			CloserUtil.close(archiveFactory);
+			archiveFactory=null;
+			}
+		}
+	
+	@Override
+	public int doWork(final List<String> args) {
+		if(this.binSize<=0) {
+			LOG.error("binSize < 0");
+			return -1;
+		}
+		if(this.outputFile==null && this.saveStateFile==null) {
+			LOG.error("undefined output (option -o) and undefined state (option --save-state).");
+			return -1;
+		}
+		if(this.tee && (this.sharded || this.loadStates)) {
+			LOG.error("option --tee cannot be used with --sharded or --load-states.");
+			return -1;
+		}
+		if(this.sharded && this.loadStates) {
+			LOG.error("option --sharded cannot be used with --load-states.");
+			return -1;
+		}
+		if(this.nJobs<1)
+			{
+			this.nJobs = Math.max(1, Runtime.getRuntime().availableProcessors());
+			LOG.info("setting njobs to "+this.nJobs);
+			}
+
+		VariantContextWriter teeOut=null;
+		VcfIterator iter = null;
+		final Map<String,VariantStats> category2stats = new HashMap<>();
+		
+		try {
+			if(this.loadStates)
+				{
+				if(args.isEmpty()) {
+					LOG.error("no saved state was provided.");
+					return -1;
+					}
+				for(final String filename: args)
+					{
+					loadState(new File(filename),category2stats);
+					}
+				}
+			else if(this.sharded)
+				{
+				final File vcfFile = new File(oneAndOnlyOneFile(args));
+				try(VCFFileReader reader = new VCFFileReader(vcfFile, true)) {
+					initFromHeader(reader.getFileHeader());
+					}
+				loadKnownGenes();
+				visitSharded(vcfFile,category2stats);
+				}
+			else
+				{
+				if(this.nJobs>1 && !this.disableGenotypeConcordance) this.executor = Executors.newFixedThreadPool(this.nJobs);
+				if(this.tee) teeOut = super.openVariantContextWriter(null);
+				
+				iter= super.openVcfIterator(oneFileOrNull(args));
+				
+				final VCFHeader header=iter.getHeader();
+				initFromHeader(header);
+				loadKnownGenes();
+				
+				if(teeOut!=null) teeOut.writeHeader(header);
+				final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
+				while(iter.hasNext())
+					{
+					final VariantContext ctx=progress.watch(iter.next());
+					if(teeOut!=null) teeOut.add(ctx);
+					visit(category2stats,ctx);
+					}
+				progress.finish();
+				iter.close();iter=null;
+				if(teeOut!=null) teeOut.close(); teeOut=null;
+				}
+			
+			if(this.saveStateFile!=null)
+				{
+				saveState(this.saveStateFile,category2stats);
+				}
+			if(this.outputFile!=null)
+				{
+				writeOutput(category2stats);
+				}
 			return 0;
 		} catch (Exception e) {
 			LOG.error(e);
@@ -1856,14 +2319,16 @@ public class VcfStats extends Launcher
 		} finally
 			{
 			knownGeneTreeMap=null;
-			CloserUtil.close(archiveFactory);
+			if(this.executor!=null) this.executor.shutdownNow();
+			this.executor=null;
+			CloserUtil.close(knownGeneIndex);
+			knownGeneIndex=null;
 			CloserUtil.close(teeOut);
 			CloserUtil.close(iter);
-			CloserUtil.close(makefileWriter);
 			}
 		
 		}
-	
+
 			
 	
 	
@@ -50,6 +50,8 @@ import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import htsjdk.samtools.CigarElement;
+
 import com.github.lindenb.jvarkit.util.log.Logger;
 
 public class Dpal {
@@ -603,6 +605,9 @@ public class Dpal {
 			out.score = 0;
 			return out;
 		}
+		if (Flag.DPAL_LOCAL == this.flag && 1 != this.force_generic) {
+			return _dpal_striped(X, Y);
+		}
 		if (1 == this.force_generic || this.debug || !this.score_only) {
 			/*
 			 * A true value of in->debug really means
@@ -630,6 +635,63 @@ public class Dpal {
 
 	private final Matrix2 _S = new Matrix2();
 	private final Matrix3 _P = new Matrix3();
+	/** lazily created striped aligner for DPAL_LOCAL */
+	private StripedSmithWaterman _striped = null;
+
+	/**
+	 * DPAL_LOCAL using the striped Smith-Waterman: the score is computed in
+	 * O(1) memory per column using 16-bit cells, the path is computed in a
+	 * band around the best diagonal.
+	 */
+	private Result _dpal_striped(CharSequence X, CharSequence Y) {
+		final Result out = new Result(X, Y);
+		if (this._striped == null) {
+			this._striped = new StripedSmithWaterman();
+		}
+		final ScoringMatrix matrix = getScoringMatrix();
+		/* scores of illegal characters (Integer.MIN_VALUE) must not overflow */
+		this._striped.setScoring((a, b) -> Math.max(Short.MIN_VALUE,
+				matrix.f((char) (a & 0xFF), (char) (b & 0xFF))));
+		this._striped.setGapOpen(-this.gap_opening_penalty);
+		this._striped.setGapExtend(-this.gap_extension_penalty);
+		final StripedSmithWaterman.Alignment a = this._striped.align(X, Y);
+		if (a.isEmpty()) {
+			out.score = 0;
+			out.path_length = 0;
+			return out;
+		}
+		int k = 0;
+		int i = a.getQueryStart();
+		int j = a.getTargetStart();
+		for (final CigarElement ce : a.getCigar().getCigarElements()) {
+			switch (ce.getOperator()) {
+			case M:
+				for (int n = 0; n < ce.getLength(); ++n) {
+					if (!DPAL_FORGET_PATH) {
+						out.path.set(k, 0, i);
+						out.path.set(k, 1, j);
+					}
+					k++;
+					i++;
+					j++;
+				}
+				break;
+			case I:
+				i += ce.getLength();
+				break;
+			case D:
+				j += ce.getLength();
+				break;
+			default:
+				throw new IllegalStateException(ce.toString());
+			}
+		}
+		out.score = a.getScore();
+		out.align_end_1 = a.getQueryEnd() - 1;
+		out.align_end_2 = a.getTargetEnd() - 1;
+		out.path_length = DPAL_FORGET_PATH ? 0 : k;
+		return out;
+	}
 
 	private Result _dpal_generic(CharSequence X, CharSequence Y) {
 		Result out = new Result(X, Y);
@@ -1459,6 +1521,29 @@ public class Dpal {
 
 	}
 
+	/** set the kind of alignment. Default is DPAL_LOCAL */
+	public void setFlag(final Flag flag) {
+		this.flag = flag;
+	}
+
+	public Flag getFlag() {
+		return this.flag;
+	}
+
+	/** the gap penalties are negative values */
+	public void setGapOpeningPenalty(int gap_opening_penalty) {
+		this.gap_opening_penalty = gap_opening_penalty;
+	}
+
+	public void setGapExtensionPenalty(int gap_extension_penalty) {
+		this.gap_extension_penalty = gap_extension_penalty;
+	}
+
+	/** force the use of the generic (quadratic memory) implementation */
+	public void setForceGeneric(boolean b) {
+		this.force_generic = (b ? 1 : 0);
+	}
+
 	public void dispose() {
 		this._S.clear();
 		this._P.clear();
@@ -0,0 +1,571 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.align;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+
+/**
+ * Local alignment (Smith-Waterman-Gotoh, affine gaps) of a query against a target.
+ *
+ * <ul>
+ * <li>the best score and its end are found with a striped query profile (Farrar 2007):
+ * the query is split in {@link #LANES} interleaved segments, the inner loops run over the lanes
+ * of fixed-size <code>short[]</code> arrays, without any call per cell, so they can be unrolled/vectorized by the JIT.</li>
+ * <li>the start of the alignment is found with the same method on the reversed sequences.</li>
+ * <li>the path is computed with a banded dynamic programming restricted to the rectangle (start,end) of the alignment.
+ * The band is widened until the best score is found again.</li>
+ * </ul>
+ *
+ * A gap of length L costs <code>gapOpen + (L-1)*gapExtend</code>.
+ * When the scores don't fit in a short, the alignment is computed with int arrays.
+ *
+ * The arrays are re-used between the calls: an instance is NOT thread-safe, use one instance per thread.
+ */
+public class StripedSmithWaterman
+	{
+	/** number of lanes of the striped profile */
+	static final int LANES = 8;
+	/** max score before we switch to int arrays */
+	private static final int SHORT_LIMIT = Short.MAX_VALUE - 1;
+	/** traceback: source of H */
+	private static final byte FROM_ZERO = 0;
+	private static final byte FROM_DIAG = 1;
+	private static final byte FROM_E = 2;
+	private static final byte FROM_F = 3;
+	/** traceback: E/F were extended (versus opened) */
+	private static final byte E_EXTEND = 4;
+	private static final byte F_EXTEND = 8;
+	private static final int NEG_INF = Integer.MIN_VALUE/4;
+
+	/** scoring function for two bytes */
+	public static interface Scoring
+		{
+		public int score(byte a, byte b);
+		}
+
+	/** default scoring: case insensitive, 'N' has its own score */
+	public static class DefaultScoring implements Scoring
+		{
+		private int matchScore = 1;
+		private int mismatchScore = -4;
+		private int baseIsNScore = -1;
+
+		public void setMatchScore(int matchScore) {
+			this.matchScore = matchScore;
+			}
+		public void setMismatchScore(int mismatchScore) {
+			this.mismatchScore = mismatchScore;
+			}
+		public void setBaseIsNScore(int baseIsNScore) {
+			this.baseIsNScore = baseIsNScore;
+			}
+		@Override
+		public int score(byte a, byte b) {
+			if(a>='a' && a<='z') a-=32;
+			if(b>='a' && b<='z') b-=32;
+			if(a=='N' || b=='N') return this.baseIsNScore;
+			return a==b?this.matchScore:this.mismatchScore;
+			}
+		}
+
+	/** result of an alignment. Coordinates are 0-based, ends are exclusive */
+	public static class Alignment
+		{
+		private final int score;
+		private final int queryStart;
+		private final int queryEnd;
+		private final int targetStart;
+		private final int targetEnd;
+		private final Cigar cigar;
+
+		private Alignment(int score,int queryStart,int queryEnd,int targetStart,int targetEnd,final Cigar cigar) {
+			this.score = score;
+			this.queryStart = queryStart;
+			this.queryEnd = queryEnd;
+			this.targetStart = targetStart;
+			this.targetEnd = targetEnd;
+			this.cigar = cigar;
+			}
+		public int getScore() {
+			return score;
+			}
+		public int getQueryStart() {
+			return queryStart;
+			}
+		public int getQueryEnd() {
+			return queryEnd;
+			}
+		public int getTargetStart() {
+			return targetStart;
+			}
+		public int getTargetEnd() {
+			return targetEnd;
+			}
+		/** the path of the alignment: M: query and target, I: query only, D: target only. Clipped parts of the query are not included. */
+		public Cigar getCigar() {
+			return cigar;
+			}
+		/** @return true if no alignment was found */
+		public boolean isEmpty() {
+			return this.score<=0;
+			}
+		/** number of aligned pairs (M) */
+		public int getAlignedLength() {
+			int n=0;
+			for(final CigarElement ce:this.cigar.getCigarElements()) {
+				if(ce.getOperator()==CigarOperator.M) n+=ce.getLength();
+				}
+			return n;
+			}
+		@Override
+		public String toString() {
+			return "score:"+score+" query:"+queryStart+"-"+queryEnd+" target:"+targetStart+"-"+targetEnd+" "+cigar;
+			}
+		}
+
+	/** result of a striped pass */
+	private static class ScoreEnd
+		{
+		int score=0;
+		/** last query index of the alignment, inclusive */
+		int queryEnd=-1;
+		/** last target index of the alignment, inclusive */
+		int targetEnd=-1;
+		boolean overflow=false;
+		}
+
+	private Scoring scoring = new DefaultScoring();
+	private int gapOpen = 7;
+	private int gapExtend = 1;
+	/** half width of the band used by the traceback */
+	private int bandWidth = 16;
+
+	/* re-used buffers */
+	private short profile[] = new short[0];
+	private final int profileRow[] = new int[256];
+	private int profileRowCount=0;
+	private short hStore[] = new short[0];
+	private short hLoad[] = new short[0];
+	private short eArray[] = new short[0];
+	private final int vF[] = new int[LANES];
+	private final int vH[] = new int[LANES];
+	private int dpH[] = new int[0];
+	private int dpF[] = new int[0];
+	private byte trace[] = new byte[0];
+
+	public void setScoring(final Scoring scoring) {
+		this.scoring = scoring;
+		}
+	public Scoring getScoring() {
+		return scoring;
+		}
+	/** penalty (a positive value) for the first base of a gap */
+	public void setGapOpen(int gapOpen) {
+		if(gapOpen<0) throw new IllegalArgumentException("gap open should be >=0 "+gapOpen);
+		this.gapOpen = gapOpen;
+		}
+	public int getGapOpen() {
+		return gapOpen;
+		}
+	/** penalty (a positive value) for the next bases of a gap */
+	public void setGapExtend(int gapExtend) {
+		if(gapExtend<0) throw new IllegalArgumentException("gap extend should be >=0 "+gapExtend);
+		this.gapExtend = gapExtend;
+		}
+	public int getGapExtend() {
+		return gapExtend;
+		}
+	public void setBandWidth(int bandWidth) {
+		this.bandWidth = Math.max(1,bandWidth);
+		}
+	public int getBandWidth() {
+		return bandWidth;
+		}
+
+	/** convert a CharSequence to a byte array */
+	public static byte[] toBytes(final CharSequence s) {
+		final byte a[]=new byte[s.length()];
+		for(int i=0;i< a.length;i++) a[i]=(byte)s.charAt(i);
+		return a;
+		}
+
+	public Alignment align(final CharSequence query,final CharSequence target) {
+		return align(toBytes(query),0,query.length(),toBytes(target),0,target.length());
+		}
+
+	public Alignment align(final byte query[],final byte target[]) {
+		return align(query,0,query.length,target,0,target.length);
+		}
+
+	/** align query[qStart,qEnd) against target[tStart,tEnd) . The returned coordinates are relative to the arrays. */
+	public Alignment align(
+			final byte query[],final int qStart,final int qEnd,
+			final byte target[],final int tStart,final int tEnd)
+		{
+		final int qLen = qEnd-qStart;
+		final int tLen = tEnd-tStart;
+		if(qLen<=0 || tLen<=0) return emptyAlignment(qStart,tStart);
+
+		/* forward pass: best score and end */
+		final ScoreEnd fwd = new ScoreEnd();
+		stripedPass(query,qStart,qLen,false,target,tStart,tLen,false,fwd);
+		if(!fwd.overflow && fwd.score<=0) return emptyAlignment(qStart,tStart);
+
+		int startQ = 0;
+		int startT = 0;
+		int endQ = qLen-1;
+		int endT = tLen-1;
+		int best = -1;
+		if(!fwd.overflow)
+			{
+			best = fwd.score;
+			endQ = fwd.queryEnd;
+			endT = fwd.targetEnd;
+			/* reverse pass on the prefixes: start of the alignment */
+			final ScoreEnd rev = new ScoreEnd();
+			stripedPass(query,qStart,endQ+1,true,target,tStart,endT+1,true,rev);
+			if(!rev.overflow && rev.score==best)
+				{
+				startQ = endQ - rev.queryEnd;
+				startT = endT - rev.targetEnd;
+				}
+			}
+
+		/* banded traceback in the rectangle */
+		final int n = endQ-startQ+1;
+		final int m = endT-startT+1;
+		/* after an overflow, we don't know the best score: no band */
+		int band = (best<0?Math.max(n,m):this.bandWidth);
+		for(;;)
+			{
+			final boolean full = band >= Math.max(n,m);
+			final Alignment a = bandedTraceback(
+					query,qStart+startQ,n,
+					target,tStart+startT,m,
+					full?-1:band
+					);
+			if(full || a.getScore()>=best) return a;
+			band*=2;
+			}
+		}
+
+	private static Alignment emptyAlignment(int qStart,int tStart) {
+		return new Alignment(0,qStart,qStart,tStart,tStart,new Cigar());
+		}
+
+	/** build (if needed) the profile row for this target symbol */
+	private int getProfileRow(final byte query[],final int qStart,final int qLen,final boolean reverseQuery,final int segLen,final byte symbol) {
+		final int idx = symbol & 0xFF;
+		int row = this.profileRow[idx];
+		if(row>=0) return row;
+		final int rowSize = segLen*LANES;
+		row = this.profileRowCount*rowSize;
+		if(row+rowSize > this.profile.length) {
+			this.profile = Arrays.copyOf(this.profile, Math.max(row+rowSize,this.profile.length*2));
+			}
+		for(int i=0;i< segLen;i++) {
+			for(int lane=0;lane< LANES;lane++) {
+				final int qpos = lane*segLen+i;
+				int v;
+				if(qpos>=qLen) {
+					v = Short.MIN_VALUE/2;
+					}
+				else
+					{
+					final byte q = query[reverseQuery?qStart+qLen-1-qpos:qStart+qpos];
+					v = this.scoring.score(q, symbol);
+					v = Math.max(Short.MIN_VALUE/2, Math.min(Short.MAX_VALUE/2, v));
+					}
+				this.profile[row+i*LANES+lane]=(short)v;
+				}
+			}
+		this.profileRow[idx]=row;
+		this.profileRowCount++;
+		return row;
+		}
+
+	/** Farrar's striped Smith-Waterman: find the best score and where it ends */
+	private void stripedPass(
+			final byte query[],final int qStart,final int qLen,final boolean reverseQuery,
+			final byte target[],final int tStart,final int tLen,final boolean reverseTarget,
+			final ScoreEnd result)
+		{
+		final int segLen = (qLen+LANES-1)/LANES;
+		final int size = segLen*LANES;
+		if(this.hStore.length < size) {
+			this.hStore = new short[size];
+			this.hLoad = new short[size];
+			this.eArray = new short[size];
+			}
+		Arrays.fill(this.hStore,0,size,(short)0);
+		Arrays.fill(this.hLoad,0,size,(short)0);
+		Arrays.fill(this.eArray,0,size,(short)0);
+		Arrays.fill(this.profileRow,-1);
+		this.profileRowCount=0;
+		final int gapO = this.gapOpen;
+		final int gapE = this.gapExtend;
+		final int vF[] = this.vF;
+		final int vH[] = this.vH;
+		int best=0;
+
+		for(int j=0;j< tLen;j++)
+			{
+			final byte symbol = target[reverseTarget?tStart+tLen-1-j:tStart+j];
+			final int row = getProfileRow(query,qStart,qLen,reverseQuery,segLen,symbol);
+			final short profile[] = this.profile;
+			/* swap */
+			final short tmp[] = this.hLoad;
+			this.hLoad = this.hStore;
+			this.hStore = tmp;
+			final short hLoad[] = this.hLoad;
+			final short hStore[] = this.hStore;
+			final short eArray[] = this.eArray;
+
+			/* H of the previous column, shifted by one lane */
+			vH[0]=0;
+			for(int lane=1;lane< LANES;lane++) vH[lane] = hLoad[(segLen-1)*LANES+lane-1];
+			Arrays.fill(vF, 0);
+			int colMax=0;
+
+			for(int i=0;i< segLen;i++)
+				{
+				final int off = i*LANES;
+				for(int lane=0;lane< LANES;lane++)
+					{
+					int h = vH[lane] + profile[row+off+lane];
+					final int e = eArray[off+lane];
+					final int f = vF[lane];
+					if(h<e) h=e;
+					if(h<f) h=f;
+					if(h<0) h=0;
+					if(h>SHORT_LIMIT) {
+						result.overflow=true;
+						return;
+						}
+					hStore[off+lane]=(short)h;
+					if(h>colMax) colMax=h;
+					final int hg = h-gapO;
+					eArray[off+lane]=(short)Math.max(0,Math.max(e-gapE,hg));
+					vF[lane]=Math.max(0,Math.max(f-gapE,hg));
+					vH[lane]=hLoad[off+lane];
+					}
+				}
+
+			/* lazy-F loop: propagate F across the segments */
+			lazyF:
+			for(int k=0;k< LANES;k++)
+				{
+				for(int lane=LANES-1;lane>0;lane--) vF[lane]=vF[lane-1];
+				vF[0]=0;
+				for(int i=0;i< segLen;i++)
+					{
+					final int off = i*LANES;
+					boolean more=false;
+					for(int lane=0;lane< LANES;lane++)
+						{
+						int h = hStore[off+lane];
+						final int f = vF[lane];
+						/* Farrar: stop when no incoming F beats H-gapOpen */
+						if(f>0 && f > h-gapO) more=true;
+						if(f>h) {
+							h=f;
+							hStore[off+lane]=(short)h;
+							if(h>colMax) colMax=h;
+							}
+						final int hg = h-gapO;
+						if(hg>eArray[off+lane]) eArray[off+lane]=(short)hg;
+						vF[lane]=Math.max(0,f-gapE);
+						}
+					if(!more) break lazyF;
+					}
+				}
+
+			if(colMax>best)
+				{
+				best=colMax;
+				result.score=best;
+				result.targetEnd=j;
+				/* first query position having this score */
+				int qEnd=Integer.MAX_VALUE;
+				for(int i=0;i< segLen;i++) {
+					for(int lane=0;lane< LANES;lane++) {
+						if(hStore[i*LANES+lane]==best) {
+							qEnd=Math.min(qEnd, lane*segLen+i);
+							}
+						}
+					}
+				result.queryEnd=qEnd;
+				}
+			}
+		}
+
+	/** local alignment with traceback of query[qStart,qStart+n) versus target[tStart,tStart+m) , restricted to a band around the diagonal if band>=0 */
+	private Alignment bandedTraceback(
+			final byte query[],final int qStart,final int n,
+			final byte target[],final int tStart,final int m,
+			final int band)
+		{
+		final int cells = (n+1)*(m+1);
+		if(this.trace.length < cells) this.trace = new byte[cells];
+		if(this.dpH.length < m+1) {
+			this.dpH = new int[m+1];
+			this.dpF = new int[m+1];
+			}
+		/* H and F of the previous row, updated in place */
+		final int H[] = this.dpH;
+		final int F[] = this.dpF;
+		final byte trace[] = this.trace;
+		final int gapO = this.gapOpen;
+		final int gapE = this.gapExtend;
+		Arrays.fill(H,0,m+1,0);
+		Arrays.fill(F,0,m+1,NEG_INF);
+		Arrays.fill(trace,0,cells,FROM_ZERO);
+		/* band limits for the diagonal d=i-j */
+		final int dMin = Math.min(0,n-m) - band;
+		final int dMax = Math.max(0,n-m) + band;
+		int best=0;
+		int bestI=0;
+		int bestJ=0;
+		for(int i=1;i<=n;i++)
+			{
+			final byte q = query[qStart+i-1];
+			final int jMin = band<0?1:Math.max(1, i-dMax);
+			final int jMax = band<0?m:Math.min(m, i-dMin);
+			/* H[i-1][j-1] */
+			int diag = H[jMin-1];
+			/* cells before the band */
+			for(int j=0;j< jMin;j++) {
+				H[j]=0;
+				F[j]=NEG_INF;
+				}
+			/* E: gap in the query, running along the row */
+			int e = NEG_INF;
+			for(int j=jMin;j<=jMax;j++)
+				{
+				byte tr=0;
+				final int eOpen = H[j-1]-gapO;
+				final int eExt = e-gapE;
+				if(eExt>eOpen) { e=eExt; tr|=E_EXTEND;} else { e=eOpen;}
+				/* F: gap in the target, running along the column */
+				final int fOpen = H[j]-gapO;
+				final int fExt = F[j]-gapE;
+				final int f;
+				if(fExt>fOpen) { f=fExt; tr|=F_EXTEND;} else { f=fOpen;}
+				final int d = diag + this.scoring.score(q, target[tStart+j-1]);
+				int h=0;
+				byte from=FROM_ZERO;
+				if(d>h) { h=d; from=FROM_DIAG;}
+				if(e>h) { h=e; from=FROM_E;}
+				if(f>h) { h=f; from=FROM_F;}
+				diag = H[j];
+				H[j]=h;
+				F[j]=f;
+				trace[i*(m+1)+j]=(byte)(tr|from);
+				if(h>best) {
+					best=h;
+					bestI=i;
+					bestJ=j;
+					}
+				}
+			/* cells after the band */
+			for(int j=jMax+1;j<=m;j++) {
+				H[j]=0;
+				F[j]=NEG_INF;
+				}
+			}
+		if(best<=0) return emptyAlignment(qStart,tStart);
+
+		/* traceback */
+		final List<CigarElement> elements = new ArrayList<>();
+		int i=bestI;
+		int j=bestJ;
+		/* 0: H, 1: in E, 2: in F */
+		int state=0;
+		CigarOperator prevOp=null;
+		int prevLen=0;
+		while(i>0 && j>0)
+			{
+			final byte tr = trace[i*(m+1)+j];
+			CigarOperator op;
+			if(state==0)
+				{
+				final int from = tr & 3;
+				if(from==FROM_ZERO) break;
+				if(from==FROM_DIAG)
+					{
+					op=CigarOperator.M;
+					i--;
+					j--;
+					}
+				else if(from==FROM_E)
+					{
+					state=1;
+					continue;
+					}
+				else
+					{
+					state=2;
+					continue;
+					}
+				}
+			else if(state==1)
+				{
+				op=CigarOperator.D;
+				if((tr & E_EXTEND)==0) state=0;
+				j--;
+				}
+			else
+				{
+				op=CigarOperator.I;
+				if((tr & F_EXTEND)==0) state=0;
+				i--;
+				}
+			if(op==prevOp)
+				{
+				prevLen++;
+				}
+			else
+				{
+				if(prevOp!=null) elements.add(new CigarElement(prevLen, prevOp));
+				prevOp=op;
+				prevLen=1;
+				}
+			}
+		if(prevOp!=null) elements.add(new CigarElement(prevLen, prevOp));
+		final List<CigarElement> reversed = new ArrayList<>(elements.size());
+		for(int k=elements.size()-1;k>=0;k--) reversed.add(elements.get(k));
+		return new Alignment(best,
+				qStart+i,qStart+bestI,
+				tStart+j,tStart+bestJ,
+				new Cigar(reversed)
+				);
+		}
+	}
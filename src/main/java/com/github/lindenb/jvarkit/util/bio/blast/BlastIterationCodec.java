@@ -0,0 +1,241 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import gov.nih.nlm.ncbi.blast.Hit;
+import gov.nih.nlm.ncbi.blast.HitHsps;
+import gov.nih.nlm.ncbi.blast.Hsp;
+import gov.nih.nlm.ncbi.blast.Iteration;
+import gov.nih.nlm.ncbi.blast.IterationHits;
+import gov.nih.nlm.ncbi.blast.IterationStat;
+import gov.nih.nlm.ncbi.blast.Statistics;
+
+/**
+ * Binary codec for the BLAST iterations, their hits and their HSPs. Used by the SortingCollection(s).
+ *
+ * All the fields of the JAXB classes are strings. The text fields are written as (length,bytes),
+ * the numeric fields are written as a tag byte followed by a 32-bit int when the
+ * text is the canonical representation of an int, so the round-trip is lossless.
+ */
+public class BlastIterationCodec extends AbstractDataCodec<Iteration>
+	{
+	private static final byte NUM_NULL = 0;
+	private static final byte NUM_INT = 1;
+	private static final byte NUM_TEXT = 2;
+
+	@Override
+	public Iteration decode(final DataInputStream dis) throws IOException {
+		/* EOFException at the end of the stream is handled by the super class */
+		final String iterNum = readNumber(dis);
+		final Iteration iteration = new Iteration();
+		iteration.setIterationIterNum(iterNum);
+		iteration.setIterationQueryID(readString(dis));
+		iteration.setIterationQueryDef(readString(dis));
+		iteration.setIterationQueryLen(readNumber(dis));
+		iteration.setIterationMessage(readString(dis));
+		if(dis.readBoolean())
+			{
+			final IterationStat stat = new IterationStat();
+			if(dis.readBoolean())
+				{
+				final Statistics statistics = new Statistics();
+				statistics.setStatisticsDbNum(readNumber(dis));
+				statistics.setStatisticsDbLen(readNumber(dis));
+				statistics.setStatisticsHspLen(readNumber(dis));
+				statistics.setStatisticsEffSpace(readString(dis));
+				statistics.setStatisticsKappa(readString(dis));
+				statistics.setStatisticsLambda(readString(dis));
+				statistics.setStatisticsEntropy(readString(dis));
+				stat.setStatistics(statistics);
+				}
+			iteration.setIterationStat(stat);
+			}
+		iteration.setIterationHits(new IterationHits());
+		final int nHits = dis.readInt();
+		final List<Hit> hits = iteration.getIterationHits().getHit();
+		for(int i=0;i< nHits;++i)
+			{
+			final Hit hit = new Hit();
+			hit.setHitNum(readNumber(dis));
+			hit.setHitId(readString(dis));
+			hit.setHitDef(readString(dis));
+			hit.setHitAccession(readString(dis));
+			hit.setHitLen(readNumber(dis));
+			hit.setHitHsps(new HitHsps());
+			final int nHsps = dis.readInt();
+			final List<Hsp> hsps = hit.getHitHsps().getHsp();
+			for(int j=0;j< nHsps;++j)
+				{
+				final Hsp hsp = new Hsp();
+				hsp.setHspNum(readNumber(dis));
+				hsp.setHspBitScore(readString(dis));
+				hsp.setHspScore(readNumber(dis));
+				hsp.setHspEvalue(readString(dis));
+				hsp.setHspQueryFrom(readNumber(dis));
+				hsp.setHspQueryTo(readNumber(dis));
+				hsp.setHspHitFrom(readNumber(dis));
+				hsp.setHspHitTo(readNumber(dis));
+				hsp.setHspPatternFrom(readNumber(dis));
+				hsp.setHspPatternTo(readNumber(dis));
+				hsp.setHspQueryFrame(readNumber(dis));
+				hsp.setHspHitFrame(readNumber(dis));
+				hsp.setHspIdentity(readNumber(dis));
+				hsp.setHspPositive(readNumber(dis));
+				hsp.setHspGaps(readNumber(dis));
+				hsp.setHspAlignLen(readNumber(dis));
+				hsp.setHspDensity(readNumber(dis));
+				hsp.setHspQseq(readString(dis));
+				hsp.setHspHseq(readString(dis));
+				hsp.setHspMidline(readString(dis));
+				hsps.add(hsp);
+				}
+			hits.add(hit);
+			}
+		return iteration;
+		}
+
+	@Override
+	public void encode(final DataOutputStream dos, final Iteration iteration) throws IOException {
+		writeNumber(dos, iteration.getIterationIterNum());
+		writeString(dos, iteration.getIterationQueryID());
+		writeString(dos, iteration.getIterationQueryDef());
+		writeNumber(dos, iteration.getIterationQueryLen());
+		writeString(dos, iteration.getIterationMessage());
+		final IterationStat stat = iteration.getIterationStat();
+		dos.writeBoolean(stat!=null);
+		if(stat!=null)
+			{
+			final Statistics statistics = stat.getStatistics();
+			dos.writeBoolean(statistics!=null);
+			if(statistics!=null)
+				{
+				writeNumber(dos, statistics.getStatisticsDbNum());
+				writeNumber(dos, statistics.getStatisticsDbLen());
+				writeNumber(dos, statistics.getStatisticsHspLen());
+				writeString(dos, statistics.getStatisticsEffSpace());
+				writeString(dos, statistics.getStatisticsKappa());
+				writeString(dos, statistics.getStatisticsLambda());
+				writeString(dos, statistics.getStatisticsEntropy());
+				}
+			}
+		final List<Hit> hits = (iteration.getIterationHits()==null?null:iteration.getIterationHits().getHit());
+		dos.writeInt(hits==null?0:hits.size());
+		if(hits==null) return;
+		for(final Hit hit:hits)
+			{
+			writeNumber(dos, hit.getHitNum());
+			writeString(dos, hit.getHitId());
+			writeString(dos, hit.getHitDef());
+			writeString(dos, hit.getHitAccession());
+			writeNumber(dos, hit.getHitLen());
+			final List<Hsp> hsps = (hit.getHitHsps()==null?null:hit.getHitHsps().getHsp());
+			dos.writeInt(hsps==null?0:hsps.size());
+			if(hsps==null) continue;
+			for(final Hsp hsp:hsps)
+				{
+				writeNumber(dos, hsp.getHspNum());
+				writeString(dos, hsp.getHspBitScore());
+				writeNumber(dos, hsp.getHspScore());
+				writeString(dos, hsp.getHspEvalue());
+				writeNumber(dos, hsp.getHspQueryFrom());
+				writeNumber(dos, hsp.getHspQueryTo());
+				writeNumber(dos, hsp.getHspHitFrom());
+				writeNumber(dos, hsp.getHspHitTo());
+				writeNumber(dos, hsp.getHspPatternFrom());
+				writeNumber(dos, hsp.getHspPatternTo());
+				writeNumber(dos, hsp.getHspQueryFrame());
+				writeNumber(dos, hsp.getHspHitFrame());
+				writeNumber(dos, hsp.getHspIdentity());
+				writeNumber(dos, hsp.getHspPositive());
+				writeNumber(dos, hsp.getHspGaps());
+				writeNumber(dos, hsp.getHspAlignLen());
+				writeNumber(dos, hsp.getHspDensity());
+				writeString(dos, hsp.getHspQseq());
+				writeString(dos, hsp.getHspHseq());
+				writeString(dos, hsp.getHspMidline());
+				}
+			}
+		}
+
+	@Override
+	public BlastIterationCodec clone() {
+		return new BlastIterationCodec();
+		}
+
+	/** @return true if 's' is the canonical representation of an int (no '+', no leading zero...) */
+	static boolean isCanonicalInt(final String s) {
+		final int len = s.length();
+		if(len==0 || len>11) return false;
+		int i=0;
+		if(s.charAt(0)=='-')
+			{
+			if(len==1) return false;
+			i++;
+			}
+		if(s.charAt(i)=='0' && (len>i+1 || i>0)) return false;
+		for(;i< len;++i)
+			{
+			final char c = s.charAt(i);
+			if(c<'0' || c>'9') return false;
+			}
+		final long v = Long.parseLong(s);
+		return v>=Integer.MIN_VALUE && v<=Integer.MAX_VALUE;
+		}
+
+	private static void writeNumber(final DataOutputStream dos,final String s) throws IOException {
+		if(s==null)
+			{
+			dos.writeByte(NUM_NULL);
+			}
+		else if(isCanonicalInt(s))
+			{
+			dos.writeByte(NUM_INT);
+			dos.writeInt(Integer.parseInt(s));
+			}
+		else
+			{
+			dos.writeByte(NUM_TEXT);
+			writeString(dos, s);
+			}
+		}
+
+	private static String readNumber(final DataInputStream dis) throws IOException {
+		final byte tag = dis.readByte();
+		switch(tag)
+			{
+			case NUM_NULL: return null;
+			case NUM_INT: return String.valueOf(dis.readInt());
+			case NUM_TEXT: return readString(dis);
+			default: throw new IOException("bad tag "+tag);
+			}
+		}
+	}
@@ -0,0 +1,276 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import gov.nih.nlm.ncbi.blast.Hit;
+import gov.nih.nlm.ncbi.blast.HitHsps;
+import gov.nih.nlm.ncbi.blast.Hsp;
+import gov.nih.nlm.ncbi.blast.Iteration;
+import gov.nih.nlm.ncbi.blast.IterationHits;
+import gov.nih.nlm.ncbi.blast.IterationStat;
+import gov.nih.nlm.ncbi.blast.Statistics;
+
+/**
+ * Streaming reader for the &lt;Iteration&gt; elements of a BLAST-XML document.
+ *
+ * The objects are filled directly from the StAX events, without JAXB: no intermediate
+ * DOM and no JAXBElement. Unknown elements are skipped. The statistics and the messages of the
+ * iterations can be discarded to keep the objects small.
+ *
+ * A reader has no state but its options, so it can be shared by several XMLEventReaders.
+ */
+public class BlastIterationReader
+	{
+	public static final String ITERATION = "Iteration";
+	private boolean keepStatistics = true;
+	private boolean keepMessage = true;
+
+	/** keep the content of &lt;Iteration_stat&gt; . Default: true */
+	public BlastIterationReader setKeepStatistics(final boolean keepStatistics) {
+		this.keepStatistics = keepStatistics;
+		return this;
+		}
+
+	/** keep the content of &lt;Iteration_message&gt; . Default: true */
+	public BlastIterationReader setKeepMessage(final boolean keepMessage) {
+		this.keepMessage = keepMessage;
+		return this;
+		}
+
+	/** create a XMLInputFactory for BLAST-XML: not namespace aware, coalescing, the DTD is never downloaded */
+	public static XMLInputFactory createXMLInputFactory() {
+		final XMLInputFactory xmlInputFactory=XMLInputFactory.newFactory();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		xmlInputFactory.setXMLResolver((publicID,systemID,baseURI,namespace)->null);
+		return xmlInputFactory;
+		}
+
+	/** @return true if evt is the start of an &lt;Iteration&gt; */
+	public static boolean isIteration(final XMLEvent evt) {
+		return evt!=null &&
+				evt.isStartElement() &&
+				evt.asStartElement().getName().getLocalPart().equals(ITERATION);
+		}
+
+	/** skip the events up to the next &lt;Iteration&gt; and parse it.
+	 * @return the next iteration or null at the end of the document */
+	public Iteration next(final XMLEventReader r) throws XMLStreamException {
+		while(r.hasNext())
+			{
+			if(isIteration(r.peek()))
+				{
+				return parse(r);
+				}
+			r.nextEvent();
+			}
+		return null;
+		}
+
+	/** parse an &lt;Iteration&gt; . The next event in 'r' must be the start of the Iteration */
+	public Iteration parse(final XMLEventReader r) throws XMLStreamException {
+		if(!isIteration(r.nextEvent())) throw new XMLStreamException("expected <"+ITERATION+">");
+		final Iteration iteration = new Iteration();
+		iteration.setIterationHits(new IterationHits());
+		while(r.hasNext())
+			{
+			final XMLEvent evt = r.nextEvent();
+			if(evt.isEndElement())
+				{
+				if(evt.asEndElement().getName().getLocalPart().equals(ITERATION)) return iteration;
+				continue;
+				}
+			if(!evt.isStartElement()) continue;
+			final String name = evt.asStartElement().getName().getLocalPart();
+			switch(name)
+				{
+				case "Iteration_iter-num": iteration.setIterationIterNum(r.getElementText()); break;
+				case "Iteration_query-ID": iteration.setIterationQueryID(r.getElementText()); break;
+				case "Iteration_query-def": iteration.setIterationQueryDef(r.getElementText()); break;
+				case "Iteration_query-len": iteration.setIterationQueryLen(r.getElementText()); break;
+				case "Iteration_hits": break;
+				case "Hit": iteration.getIterationHits().getHit().add(parseHit(r)); break;
+				case "Iteration_stat":
+					{
+					if(this.keepStatistics)
+						{
+						iteration.setIterationStat(parseStat(r));
+						}
+					else
+						{
+						skip(r);
+						}
+					break;
+					}
+				case "Iteration_message":
+					{
+					if(this.keepMessage)
+						{
+						iteration.setIterationMessage(r.getElementText());
+						}
+					else
+						{
+						skip(r);
+						}
+					break;
+					}
+				default: skip(r); break;
+				}
+			}
+		throw new XMLStreamException("unexpected end of document in <"+ITERATION+">");
+		}
+
+	private Hit parseHit(final XMLEventReader r) throws XMLStreamException {
+		final Hit hit = new Hit();
+		hit.setHitHsps(new HitHsps());
+		while(r.hasNext())
+			{
+			final XMLEvent evt = r.nextEvent();
+			if(evt.isEndElement())
+				{
+				if(evt.asEndElement().getName().getLocalPart().equals("Hit")) return hit;
+				continue;
+				}
+			if(!evt.isStartElement()) continue;
+			final String name = evt.asStartElement().getName().getLocalPart();
+			switch(name)
+				{
+				case "Hit_num": hit.setHitNum(r.getElementText()); break;
+				case "Hit_id": hit.setHitId(r.getElementText()); break;
+				case "Hit_def": hit.setHitDef(r.getElementText()); break;
+				case "Hit_accession": hit.setHitAccession(r.getElementText()); break;
+				case "Hit_len": hit.setHitLen(r.getElementText()); break;
+				case "Hit_hsps": break;
+				case "Hsp": hit.getHitHsps().getHsp().add(parseHsp(r)); break;
+				default: skip(r); break;
+				}
+			}
+		throw new XMLStreamException("unexpected end of document in <Hit>");
+		}
+
+	private Hsp parseHsp(final XMLEventReader r) throws XMLStreamException {
+		final Hsp hsp = new Hsp();
+		while(r.hasNext())
+			{
+			final XMLEvent evt = r.nextEvent();
+			if(evt.isEndElement())
+				{
+				if(evt.asEndElement().getName().getLocalPart().equals("Hsp")) return hsp;
+				continue;
+				}
+			if(!evt.isStartElement()) continue;
+			final String name = evt.asStartElement().getName().getLocalPart();
+			switch(name)
+				{
+				case "Hsp_num": hsp.setHspNum(r.getElementText()); break;
+				case "Hsp_bit-score": hsp.setHspBitScore(r.getElementText()); break;
+				case "Hsp_score": hsp.setHspScore(r.getElementText()); break;
+				case "Hsp_evalue": hsp.setHspEvalue(r.getElementText()); break;
+				case "Hsp_query-from": hsp.setHspQueryFrom(r.getElementText()); break;
+				case "Hsp_query-to": hsp.setHspQueryTo(r.getElementText()); break;
+				case "Hsp_hit-from": hsp.setHspHitFrom(r.getElementText()); break;
+				case "Hsp_hit-to": hsp.setHspHitTo(r.getElementText()); break;
+				case "Hsp_pattern-from": hsp.setHspPatternFrom(r.getElementText()); break;
+				case "Hsp_pattern-to": hsp.setHspPatternTo(r.getElementText()); break;
+				case "Hsp_query-frame": hsp.setHspQueryFrame(r.getElementText()); break;
+				case "Hsp_hit-frame": hsp.setHspHitFrame(r.getElementText()); break;
+				case "Hsp_identity": hsp.setHspIdentity(r.getElementText()); break;
+				case "Hsp_positive": hsp.setHspPositive(r.getElementText()); break;
+				case "Hsp_gaps": hsp.setHspGaps(r.getElementText()); break;
+				case "Hsp_align-len": hsp.setHspAlignLen(r.getElementText()); break;
+				case "Hsp_density": hsp.setHspDensity(r.getElementText()); break;
+				case "Hsp_qseq": hsp.setHspQseq(r.getElementText()); break;
+				case "Hsp_hseq": hsp.setHspHseq(r.getElementText()); break;
+				case "Hsp_midline": hsp.setHspMidline(r.getElementText()); break;
+				default: skip(r); break;
+				}
+			}
+		throw new XMLStreamException("unexpected end of document in <Hsp>");
+		}
+
+	private IterationStat parseStat(final XMLEventReader r) throws XMLStreamException {
+		final IterationStat stat = new IterationStat();
+		while(r.hasNext())
+			{
+			final XMLEvent evt = r.nextEvent();
+			if(evt.isEndElement())
+				{
+				if(evt.asEndElement().getName().getLocalPart().equals("Iteration_stat")) return stat;
+				continue;
+				}
+			if(!evt.isStartElement()) continue;
+			final String name = evt.asStartElement().getName().getLocalPart();
+			if(name.equals("Statistics"))
+				{
+				stat.setStatistics(new Statistics());
+				continue;
+				}
+			final Statistics statistics = stat.getStatistics();
+			if(statistics==null)
+				{
+				skip(r);
+				continue;
+				}
+			switch(name)
+				{
+				case "Statistics_db-num": statistics.setStatisticsDbNum(r.getElementText()); break;
+				case "Statistics_db-len": statistics.setStatisticsDbLen(r.getElementText()); break;
+				case "Statistics_hsp-len": statistics.setStatisticsHspLen(r.getElementText()); break;
+				case "Statistics_eff-space": statistics.setStatisticsEffSpace(r.getElementText()); break;
+				case "Statistics_kappa": statistics.setStatisticsKappa(r.getElementText()); break;
+				case "Statistics_lambda": statistics.setStatisticsLambda(r.getElementText()); break;
+				case "Statistics_entropy": statistics.setStatisticsEntropy(r.getElementText()); break;
+				default: skip(r); break;
+				}
+			}
+		throw new XMLStreamException("unexpected end of document in <Iteration_stat>");
+		}
+
+	/** skip the content of the element whose start was just consumed */
+	private static void skip(final XMLEventReader r) throws XMLStreamException {
+		int depth=1;
+		while(r.hasNext())
+			{
+			final XMLEvent evt = r.nextEvent();
+			if(evt.isStartElement())
+				{
+				depth++;
+				}
+			else if(evt.isEndElement())
+				{
+				depth--;
+				if(depth==0) return;
+				}
+			}
+		throw new XMLStreamException("unexpected end of document");
+		}
+	}
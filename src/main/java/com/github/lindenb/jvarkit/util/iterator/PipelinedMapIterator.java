@@ -0,0 +1,172 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2017 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Applies a function to the items of a delegate iterator using several threads.
+ * A reader thread consumes the delegate (e.g. decompression and parsing) and sends batches
+ * of items to a pool of workers applying the function. The results are returned in the original order.
+ * The number of pending batches is bounded, so the memory stays under control.
+ */
+public class PipelinedMapIterator<T,R>
+	extends AbstractIterator<R>
+	implements CloseableIterator<R>
+	{
+	private final Iterator<T> delegate;
+	private final Function<T,R> mapper;
+	private final int batchSize;
+	private final ExecutorService readerService;
+	private final ExecutorService workerService;
+	/** pending batches, in the order of the delegate. A future returning null marks the end of the input */
+	private final BlockingQueue<Future<List<R>>> queue;
+	private final Future<?> readerFuture;
+	private Iterator<R> current = Collections.emptyIterator();
+	private volatile boolean closed = false;
+	private volatile Throwable readerError = null;
+	private boolean done = false;
+
+	public PipelinedMapIterator(
+			final Iterator<T> delegate,
+			final Function<T,R> mapper,
+			final int nThreads,
+			final int batchSize
+			) {
+		if(nThreads<1) throw new IllegalArgumentException("nThreads<1");
+		if(batchSize<1) throw new IllegalArgumentException("batchSize<1");
+		this.delegate = delegate;
+		this.mapper = mapper;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<>(nThreads*2+1);
+		this.workerService = Executors.newFixedThreadPool(nThreads);
+		this.readerService = Executors.newSingleThreadExecutor();
+		this.readerFuture = this.readerService.submit(()->this.readAll());
+		}
+
+	/** called in the reader thread */
+	private void readAll() {
+		try {
+			List<T> batch = new ArrayList<>(this.batchSize);
+			while(!this.closed && this.delegate.hasNext()) {
+				batch.add(this.delegate.next());
+				if(batch.size()>=this.batchSize) {
+					submit(batch);
+					batch = new ArrayList<>(this.batchSize);
+					}
+				}
+			if(!batch.isEmpty() && !this.closed) submit(batch);
+			}
+		catch(final InterruptedException err) {
+			/* closed */
+			}
+		catch(final Throwable err) {
+			this.readerError = err;
+			}
+		finally
+			{
+			try {
+				if(!this.closed) this.queue.put(CompletableFuture.completedFuture(null));
+				}
+			catch(final InterruptedException err) {
+				/* closed */
+				}
+			}
+		}
+
+	private void submit(final List<T> batch) throws InterruptedException {
+		this.queue.put(this.workerService.submit(()->{
+			final List<R> results = new ArrayList<>(batch.size());
+			for(final T item:batch) results.add(this.mapper.apply(item));
+			return results;
+			}));
+		}
+
+	@Override
+	protected R advance() {
+		while(!this.current.hasNext()) {
+			if(this.done || this.closed) return null;
+			final List<R> results;
+			try {
+				results = this.queue.take().get();
+				}
+			catch(final InterruptedException err) {
+				throw new RuntimeException(err);
+				}
+			catch(final ExecutionException err) {
+				close();
+				final Throwable cause = err.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+				throw new RuntimeException(cause);
+				}
+			if(results==null) {
+				this.done = true;
+				if(this.readerError!=null) {
+					close();
+					if(this.readerError instanceof RuntimeException) throw (RuntimeException)this.readerError;
+					throw new RuntimeException(this.readerError);
+					}
+				return null;
+				}
+			this.current = results.iterator();
+			}
+		return this.current.next();
+		}
+
+	/** stop the threads and close the delegate iterator */
+	@Override
+	public void close() {
+		if(this.closed) return;
+		this.closed = true;
+		this.readerFuture.cancel(true);
+		this.readerService.shutdownNow();
+		this.workerService.shutdownNow();
+		try {
+			this.readerService.awaitTermination(1L, TimeUnit.MINUTES);
+			}
+		catch(final InterruptedException err) {
+			/* ignore */
+			}
+		this.queue.clear();
+		this.current = Collections.emptyIterator();
+		CloserUtil.close(this.delegate);
+		}
+	}
@@ -0,0 +1,422 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.github.lindenb.jvarkit.util.iterator.EqualRangeIterator;
+
+import htsjdk.samtools.util.AbstractIterator;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+
+/**
+ * External sort-then-group engine.
+ *
+ * Records are buffered in memory. Each full buffer is sorted by a pool of threads and
+ * saved as a deflate-compressed run using the codec. After {@link #doneAdding()},
+ * the runs are merged (k-way, using a priority queue) and the consecutive records that are equal according to
+ * the 'group' comparator are returned together.
+ *
+ * The 'group' comparator must be compatible with the 'sort' comparator: two records
+ * of the same group must be contiguous once sorted. The sort is stable.
+ *
+ * With N threads, up to (N+1)*maxRecordsInRam records can be held in memory.
+ */
+public class GroupingSortingCollection<T> {
+	/** default maximum number of runs merged at once */
+	public static final int DEFAULT_MAX_OPEN_RUNS = 128;
+
+	private final SortingCollection.Codec<T> codec;
+	private final Comparator<T> sortComparator;
+	private final Comparator<T> groupComparator;
+	private final int maxRecordsInRam;
+	private final List<Path> tmpDirs;
+	private int nThreads = 1;
+	private int maxOpenRuns = DEFAULT_MAX_OPEN_RUNS;
+	private int compressionLevel = Deflater.BEST_SPEED;
+
+	private ExecutorService executor = null;
+	private List<T> buffer;
+	/** runs in creation order */
+	private final List<Future<Path>> runs = new ArrayList<>();
+	/** number of runs known to be completed */
+	private int runsDone = 0;
+	private final List<Path> tmpFiles = new ArrayList<>();
+	private boolean doneAdding = false;
+	private boolean iterated = false;
+	private long count = 0L;
+
+	public GroupingSortingCollection(
+			final SortingCollection.Codec<T> codec,
+			final Comparator<T> sortComparator,
+			final Comparator<T> groupComparator,
+			final int maxRecordsInRam,
+			final Path...tmpDirs
+			)
+		{
+		this.codec = Objects.requireNonNull(codec, "codec is null");
+		this.sortComparator = Objects.requireNonNull(sortComparator, "sort comparator is null");
+		this.groupComparator = Objects.requireNonNull(groupComparator, "group comparator is null");
+		if(maxRecordsInRam<=0) throw new IllegalArgumentException("maxRecordsInRam must be > 0 : "+maxRecordsInRam);
+		this.maxRecordsInRam = maxRecordsInRam;
+		if(tmpDirs==null || tmpDirs.length==0) throw new IllegalArgumentException("no tmp directory");
+		this.tmpDirs = Arrays.asList(tmpDirs);
+		this.buffer = new ArrayList<>(Math.min(maxRecordsInRam, 100_000));
+		}
+
+	/** number of threads sorting and writing the runs. A value lower than 2 means: sort in the caller thread */
+	public GroupingSortingCollection<T> setThreads(final int nThreads) {
+		if(!this.runs.isEmpty()) throw new IllegalStateException("setThreads called after the first run was saved");
+		this.nThreads = Math.max(1, nThreads);
+		return this;
+		}
+
+	public int getThreads() {
+		return this.nThreads;
+		}
+
+	/** maximum number of runs merged at once. Above this number, intermediate runs are created */
+	public GroupingSortingCollection<T> setMaxOpenRuns(final int maxOpenRuns) {
+		if(maxOpenRuns<2) throw new IllegalArgumentException("max open runs must be >= 2");
+		this.maxOpenRuns = maxOpenRuns;
+		return this;
+		}
+
+	/** deflate level for the runs, default is Deflater.BEST_SPEED */
+	public GroupingSortingCollection<T> setCompressionLevel(final int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+		return this;
+		}
+
+	/** number of records added so far */
+	public long size() {
+		return this.count;
+		}
+
+	/** number of runs saved on disk so far */
+	public int getRunCount() {
+		return this.runs.size();
+		}
+
+	public void add(final T object) {
+		if(this.doneAdding) throw new IllegalStateException("Cannot add after calling doneAdding()");
+		this.buffer.add(object);
+		this.count++;
+		if(this.buffer.size()>=this.maxRecordsInRam) {
+			spill();
+			}
+		}
+
+	/** sort and save the current buffer */
+	private void spill() {
+		if(this.buffer.isEmpty()) return;
+		final List<T> L = this.buffer;
+		this.buffer = new ArrayList<>(L.size());
+		if(this.nThreads<=1) {
+			final Path run = sortAndSave(L);
+			this.runs.add(CompletableFuture.completedFuture(run));
+			this.runsDone = this.runs.size();
+			return;
+			}
+		if(this.executor==null) {
+			this.executor = Executors.newFixedThreadPool(this.nThreads);
+			}
+		this.runs.add(this.executor.submit(()->sortAndSave(L)));
+		/* bound the number of buffers in memory */
+		while(this.runs.size() - this.runsDone >= this.nThreads) {
+			waitFor(this.runs.get(this.runsDone));
+			this.runsDone++;
+			}
+		}
+
+	private Path waitFor(final Future<Path> future) {
+		try {
+			return future.get();
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(err);
+			}
+		catch(final ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new RuntimeException(cause);
+			}
+		}
+
+	private synchronized Path createTmpFile() throws IOException {
+		final Path dir = this.tmpDirs.get(this.tmpFiles.size()%this.tmpDirs.size());
+		final Path tmp = Files.createTempFile(dir, "grouping.", ".tmp");
+		tmp.toFile().deleteOnExit();
+		this.tmpFiles.add(tmp);
+		return tmp;
+		}
+
+	private Path sortAndSave(final List<T> L) {
+		L.sort(this.sortComparator);
+		return save(L.iterator());
+		}
+
+	/** save a sorted iterator as a compressed run */
+	private Path save(final Iterator<T> iter) {
+		OutputStream os = null;
+		try {
+			final Path tmp = createTmpFile();
+			final Deflater deflater = new Deflater(this.compressionLevel);
+			os = new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(tmp), deflater, 65536), 65536);
+			final SortingCollection.Codec<T> c = this.codec.clone();
+			c.setOutputStream(os);
+			while(iter.hasNext()) {
+				c.encode(iter.next());
+				}
+			os.flush();
+			os.close();
+			os = null;
+			deflater.end();
+			return tmp;
+			}
+		catch(final IOException err) {
+			throw new RuntimeIOException(err);
+			}
+		finally {
+			CloserUtil.close(os);
+			}
+		}
+
+	/** read a run */
+	private class RunIterator extends AbstractIterator<T> implements CloseableIterator<T>
+		{
+		private final Path path;
+		private final Inflater inflater = new Inflater();
+		private InputStream in;
+		private final SortingCollection.Codec<T> c = codec.clone();
+		RunIterator(final Path path) {
+			this.path = path;
+			try {
+				this.in = new BufferedInputStream(new InflaterInputStream(Files.newInputStream(path), this.inflater, 65536), 65536);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			this.c.setInputStream(this.in);
+			}
+		@Override
+		protected T advance() {
+			if(this.in==null) return null;
+			final T o = this.c.decode();
+			if(o==null) close();
+			return o;
+			}
+		@Override
+		public void close() {
+			if(this.in==null) return;
+			CloserUtil.close(this.in);
+			this.in = null;
+			this.inflater.end();
+			try {
+				Files.deleteIfExists(this.path);
+				}
+			catch(final IOException err) {
+				/* ignore, deleteOnExit */
+				}
+			}
+		}
+
+	/** k-way merge of sorted sources. Ties are resolved on the index of the source, so the merge is stable */
+	private class RunMerger extends AbstractIterator<T> implements CloseableIterator<T>
+		{
+		private class Source
+			{
+			final int index;
+			final Iterator<T> delegate;
+			T head = null;
+			Source(final int index,final Iterator<T> delegate) {
+				this.index = index;
+				this.delegate = delegate;
+				}
+			}
+		private final List<Source> sources;
+		private final PriorityQueue<Source> queue;
+		RunMerger(final List<? extends Iterator<T>> delegates) {
+			this.sources = new ArrayList<>(delegates.size());
+			this.queue = new PriorityQueue<>(Math.max(1, delegates.size()),(A,B)->{
+				final int i = sortComparator.compare(A.head, B.head);
+				if(i!=0) return i;
+				return Integer.compare(A.index, B.index);
+				});
+			for(final Iterator<T> delegate:delegates) {
+				final Source src = new Source(this.sources.size(), delegate);
+				this.sources.add(src);
+				fill(src);
+				}
+			}
+		/** read the next record of the source and put it in the queue, or close the source */
+		private void fill(final Source src) {
+			if(src.delegate.hasNext()) {
+				src.head = src.delegate.next();
+				this.queue.add(src);
+				}
+			else
+				{
+				src.head = null;
+				CloserUtil.close(src.delegate);
+				}
+			}
+		@Override
+		protected T advance() {
+			final Source src = this.queue.poll();
+			if(src==null) return null;
+			final T o = src.head;
+			fill(src);
+			return o;
+			}
+		@Override
+		public void close() {
+			this.queue.clear();
+			for(final Source src:this.sources) CloserUtil.close(src.delegate);
+			}
+		}
+
+	/** no more record will be added */
+	public void doneAdding() {
+		if(this.doneAdding) return;
+		this.doneAdding = true;
+		if(this.runs.isEmpty()) {
+			/* everything fits in memory */
+			this.buffer.sort(this.sortComparator);
+			return;
+			}
+		spill();
+		}
+
+	/** sorted records. Can be called only once: the runs are deleted while they are read */
+	public CloseableIterator<T> iterator() {
+		if(!this.doneAdding) throw new IllegalStateException("doneAdding() was not called");
+		if(this.iterated) throw new IllegalStateException("iterator() was already called");
+		this.iterated = true;
+		if(this.runs.isEmpty()) {
+			final List<T> L = this.buffer;
+			this.buffer = new ArrayList<>();
+			return new RunMerger(Collections.singletonList(L.iterator()));
+			}
+		List<Path> paths = new ArrayList<>(this.runs.size());
+		for(final Future<Path> f:this.runs) paths.add(waitFor(f));
+		this.runs.clear();
+		this.runsDone = 0;
+		/* too many runs: merge consecutive runs, this keeps the sort stable */
+		while(paths.size() > this.maxOpenRuns) {
+			final List<Path> merged = new ArrayList<>();
+			for(int i=0;i< paths.size();i+=this.maxOpenRuns) {
+				final List<Path> chunk = paths.subList(i, Math.min(paths.size(), i+this.maxOpenRuns));
+				if(chunk.size()==1) {
+					merged.add(chunk.get(0));
+					continue;
+					}
+				final CloseableIterator<T> iter = merge(chunk);
+				try {
+					merged.add(save(iter));
+					}
+				finally {
+					iter.close();
+					}
+				}
+			paths = merged;
+			}
+		return merge(paths);
+		}
+
+	private CloseableIterator<T> merge(final List<Path> paths) {
+		final List<CloseableIterator<T>> L = new ArrayList<>(paths.size());
+		for(final Path p:paths) L.add(new RunIterator(p));
+		return new RunMerger(L);
+		}
+
+	/** iterate over the groups of records. Can be called only once */
+	public CloseableIterator<List<T>> groups() {
+		return new EqualRangeIterator<>(this.iterator(), this.groupComparator);
+		}
+
+	/** call 'consumer' for each group of records. Can be called only once */
+	public void forEachGroup(final Consumer<List<T>> consumer) {
+		final CloseableIterator<List<T>> iter = groups();
+		try {
+			while(iter.hasNext()) {
+				consumer.accept(iter.next());
+				}
+			}
+		finally {
+			iter.close();
+			}
+		}
+
+	/** release the memory, the threads and the temporary files */
+	public void cleanup() {
+		if(this.executor!=null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+			}
+		this.buffer = new ArrayList<>();
+		this.runs.clear();
+		synchronized(this) {
+			for(final Path p:this.tmpFiles) {
+				try {
+					Files.deleteIfExists(p);
+					}
+				catch(final IOException err) {
+					/* ignore, deleteOnExit */
+					}
+				}
+			this.tmpFiles.clear();
+			}
+		}
+	}
@@ -0,0 +1,211 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.samtools;
+
+import java.util.Arrays;
+
+/**
+ * A compact set of read names. The names are not stored: each name is replaced by a 64-bit fingerprint
+ * and a 32-bit check value (96 bits per name), stored in sorted primitive arrays. A count is associated to each name.
+ * The probability of a false positive is about size/2^96 for each query.
+ *
+ * Lookups ({@link #indexOf(CharSequence)}) can be called from several threads. The counts are not thread-safe.
+ */
+public class ReadNameFingerprintSet
+	{
+	private final long fingerprints[];
+	private final int checks[];
+	/** count for each name, -1 if the name was removed */
+	private final int counts[];
+	private int countAlive;
+
+	/** 64 bit fingerprint of a read name: FNV-1a followed by the murmur3 finalizer */
+	public static long fingerprint(final CharSequence s) {
+		long h = 0xcbf29ce484222325L;
+		for(int i=0;i< s.length();i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+			}
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+		}
+
+	/** 32 bit check value, independent of {@link #fingerprint(CharSequence)} */
+	static int check(final CharSequence s) {
+		int h = 0x9747b28c;
+		for(int i=0;i< s.length();i++) {
+			h = 31*h + s.charAt(i);
+			h = Integer.rotateLeft(h, 13)*5 + 0xe6546b64;
+			}
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		h *= 0xc2b2ae35;
+		h ^= (h >>> 16);
+		return h;
+		}
+
+	/** collects the names, then {@link #make()} the set */
+	public static class Builder
+		{
+		private long fingerprints[]=new long[1000];
+		private int checks[]=new int[1000];
+		private int size=0;
+
+		public Builder add(final CharSequence name) {
+			if(this.size==this.fingerprints.length) {
+				final int n = (int)Math.min(Integer.MAX_VALUE-8,this.size*2L);
+				if(n==this.size) throw new IllegalStateException("too many names");
+				this.fingerprints = Arrays.copyOf(this.fingerprints, n);
+				this.checks = Arrays.copyOf(this.checks, n);
+				}
+			this.fingerprints[this.size] = fingerprint(name);
+			this.checks[this.size] = check(name);
+			this.size++;
+			return this;
+			}
+
+		public ReadNameFingerprintSet make() {
+			sort(this.fingerprints,this.checks,0,this.size-1);
+			/* remove duplicates */
+			int n=0;
+			for(int i=0;i< this.size;++i) {
+				if(n>0 && this.fingerprints[n-1]==this.fingerprints[i] && this.checks[n-1]==this.checks[i]) continue;
+				this.fingerprints[n] = this.fingerprints[i];
+				this.checks[n] = this.checks[i];
+				n++;
+				}
+			final ReadNameFingerprintSet set = new ReadNameFingerprintSet(
+					Arrays.copyOf(this.fingerprints, n),
+					Arrays.copyOf(this.checks, n)
+					);
+			this.fingerprints = null;
+			this.checks = null;
+			this.size = 0;
+			return set;
+			}
+
+		private static int compare(final long fps[],final int chk[],int i,int j) {
+			final int c = Long.compare(fps[i], fps[j]);
+			if(c!=0) return c;
+			return Integer.compare(chk[i], chk[j]);
+			}
+
+		private static void swap(final long fps[],final int chk[],int i,int j) {
+			final long fp = fps[i]; fps[i]=fps[j]; fps[j]=fp;
+			final int c = chk[i]; chk[i]=chk[j]; chk[j]=c;
+			}
+
+		/** quicksort on both arrays. 3-way partition: the duplicated names are equal to the pivot and are not sorted again */
+		private static void sort(final long fps[],final int chk[],int lo,int hi) {
+			while(lo < hi) {
+				if(hi-lo < 16) {
+					for(int i=lo+1;i<=hi;++i) {
+						for(int j=i;j>lo && compare(fps,chk,j-1,j)>0;--j) swap(fps,chk,j-1,j);
+						}
+					return;
+					}
+				swap(fps,chk,lo+(hi-lo)/2,lo);
+				/* [lo,lt[ < pivot, [lt,i[ == pivot, ]gt,hi] > pivot */
+				int lt=lo;
+				int gt=hi;
+				int i=lo+1;
+				while(i<=gt) {
+					final int c = compare(fps,chk,i,lt);
+					if(c<0) swap(fps,chk,i++,lt++);
+					else if(c>0) swap(fps,chk,i,gt--);
+					else i++;
+					}
+				/* recurse on the smaller part */
+				if(lt-lo < hi-gt) {
+					sort(fps,chk,lo,lt-1);
+					lo=gt+1;
+					}
+				else
+					{
+					sort(fps,chk,gt+1,hi);
+					hi=lt-1;
+					}
+				}
+			}
+		}
+
+	private ReadNameFingerprintSet(final long fingerprints[],final int checks[]) {
+		this.fingerprints = fingerprints;
+		this.checks = checks;
+		this.counts = new int[fingerprints.length];
+		this.countAlive = fingerprints.length;
+		}
+
+	/** number of distinct names */
+	public int size() {
+		return this.fingerprints.length;
+		}
+
+	/** @return true if all the names were removed */
+	public boolean isEmpty() {
+		return this.countAlive==0;
+		}
+
+	/** @return the index of this name or -1 if not found. Removed names are still found */
+	public int indexOf(final CharSequence name) {
+		final long fp = fingerprint(name);
+		int i = Arrays.binarySearch(this.fingerprints, fp);
+		if(i<0) return -1;
+		final int chk = check(name);
+		while(i>0 && this.fingerprints[i-1]==fp) i--;
+		while(i< this.fingerprints.length && this.fingerprints[i]==fp) {
+			if(this.checks[i]==chk) return i;
+			i++;
+			}
+		return -1;
+		}
+
+	public boolean contains(final CharSequence name) {
+		final int i = indexOf(name);
+		return i>=0 && !isRemoved(i);
+		}
+
+	public boolean isRemoved(final int idx) {
+		return this.counts[idx]<0;
+		}
+
+	/** increment and return the count for the name at index 'idx' */
+	public int incrementCount(final int idx) {
+		if(isRemoved(idx)) throw new IllegalStateException("name was removed");
+		return ++this.counts[idx];
+		}
+
+	/** remove the name at index 'idx' */
+	public void remove(final int idx) {
+		if(isRemoved(idx)) return;
+		this.counts[idx]=-1;
+		this.countAlive--;
+		}
+	}
@@ -615,6 +615,14 @@ public class KnownGene implements Iterable<Integer>,Feature
 				}
 			}
 		
+		/** set the exons bounds, arrays are not copied */
+		public void setExonBounds(final int exonStarts[],final int exonEnds[])
+			{
+			if(exonStarts.length!=exonEnds.length) throw new IllegalArgumentException("exonStarts.length!=exonEnds.length");
+			this.exonStarts = exonStarts;
+			this.exonEnds = exonEnds;
+			}
+
 		public int getExonStart(int index)
 			{
 			return this.exonStarts[index];
@@ -0,0 +1,494 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2018 creation
+
+*/
+package com.github.lindenb.jvarkit.util.ucsc;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Locatable;
+import htsjdk.samtools.util.StringUtil;
+
+/**
+ * A compact, memory-mapped, binary index of a UCSC knownGene file.
+ *
+ * The transcripts are sorted on (contig,txStart), each contig is stored as
+ * an implicit augmented interval tree (see Heng Li's cgranges), the exons
+ * are stored as a packed int array and the names are stored in a string table.
+ * Queries don't need to load all the transcripts on the heap: only the
+ * overlapping transcripts are decoded as {@link KnownGene}.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * MAGIC
+ * int: number of contigs
+ *   for each contig: int name-index, int first-record, int record-count, int max-level
+ * int: number of records
+ *   for each record: RECORD_INTS ints
+ * int: number of exon ints
+ *   exon ints: start0,end0,start1,end1...
+ * int: number of strings
+ *   for each string: int offset in the string blob
+ * int: length of the string blob
+ *   utf-8 string blob
+ * </pre>
+ */
+public class KnownGeneIndex implements Closeable {
+	/** default suffix of an index */
+	public static final String SUFFIX = ".kgi";
+	public static final String OPT_INDEX_DESC = "[20181210] It can also be a binary knownGene index (suffix '"+SUFFIX+"') created with kg2index.";
+	static final byte MAGIC[]="kgindex.0.1".getBytes();
+
+	/* record layout */
+	private static final int REC_TXSTART = 0;
+	private static final int REC_TXEND = 1;
+	private static final int REC_CDSSTART = 2;
+	private static final int REC_CDSEND = 3;
+	private static final int REC_NAME = 4;
+	private static final int REC_STRAND = 5;
+	private static final int REC_EXON_OFFSET = 6;
+	private static final int REC_EXON_COUNT = 7;
+	private static final int REC_MAX_END = 8;
+	private static final int RECORD_INTS = 9;
+
+	private final File indexFile;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final IntBuffer records;
+	private final IntBuffer exons;
+	private final IntBuffer stringOffsets;
+	private final ByteBuffer stringBlob;
+	private final Map<String,ContigEntry> contig2entry = new LinkedHashMap<>();
+
+	private static class ContigEntry
+		{
+		/* index of the first record */
+		int first;
+		/* number of records */
+		int count;
+		/* max level of the implicit tree */
+		int maxLevel;
+		}
+
+
+	private KnownGeneIndex(final File indexFile) throws IOException {
+		this.indexFile = indexFile;
+		this.raf = new RandomAccessFile(indexFile, "r");
+		this.channel = this.raf.getChannel();
+		final long fileSize = this.channel.size();
+		if(fileSize >= Integer.MAX_VALUE) {
+			throw new IOException("Index is too large (>2Gb): "+indexFile);
+			}
+		final MappedByteBuffer mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize);
+		mapped.order(ByteOrder.BIG_ENDIAN);
+
+		final byte magic[]=new byte[MAGIC.length];
+		if(fileSize < MAGIC.length) throw new JvarkitException.FileFormatError("not a knownGene index "+indexFile);
+		mapped.get(magic);
+		if(!Arrays.equals(magic, MAGIC)) throw new JvarkitException.FileFormatError("bad magic in knownGene index "+indexFile);
+
+		final int nContigs = mapped.getInt();
+		final int contigTable[] = new int[nContigs*4];
+		for(int i=0;i< contigTable.length;++i) contigTable[i] = mapped.getInt();
+
+		final int nRecords = mapped.getInt();
+		this.records = slice(mapped, nRecords*RECORD_INTS);
+
+		final int nExonInts = mapped.getInt();
+		this.exons = slice(mapped, nExonInts);
+
+		final int nStrings = mapped.getInt();
+		this.stringOffsets = slice(mapped, nStrings);
+
+		final int blobLength = mapped.getInt();
+		final ByteBuffer dup = mapped.duplicate();
+		dup.limit(dup.position()+blobLength);
+		this.stringBlob = dup.slice();
+
+		for(int i=0;i< nContigs;++i) {
+			final ContigEntry entry = new ContigEntry();
+			final String contig = getString(contigTable[i*4+0]);
+			entry.first = contigTable[i*4+1];
+			entry.count = contigTable[i*4+2];
+			entry.maxLevel = contigTable[i*4+3];
+			this.contig2entry.put(contig, entry);
+			}
+		}
+
+	/** slice 'nInts' integers from the current position and move the position forward */
+	private static IntBuffer slice(final ByteBuffer mapped,final int nInts) {
+		final ByteBuffer dup = mapped.duplicate();
+		dup.limit(dup.position()+nInts*4);
+		final IntBuffer ib = dup.slice().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+		mapped.position(mapped.position()+nInts*4);
+		return ib;
+		}
+
+	private String getString(final int idx) {
+		final int beg = this.stringOffsets.get(idx);
+		final int end = (idx+1 < this.stringOffsets.limit() ? this.stringOffsets.get(idx+1) : this.stringBlob.limit());
+		final byte array[]=new byte[end-beg];
+		for(int i=0;i< array.length;++i) array[i]= this.stringBlob.get(beg+i);
+		return new String(array, StandardCharsets.UTF_8);
+		}
+
+	private int recInt(final int recIndex,final int field) {
+		return this.records.get(recIndex*RECORD_INTS+field);
+		}
+
+	/** return the index file */
+	public File getFile() {
+		return this.indexFile;
+		}
+
+	/** return the contigs in this index */
+	public Set<String> getContigs() {
+		return Collections.unmodifiableSet(this.contig2entry.keySet());
+		}
+
+	/** return the number of transcripts */
+	public int size() {
+		return this.records.limit()/RECORD_INTS;
+		}
+
+	/** decode the record at the given index */
+	private KnownGene decode(final String contig,final int recIndex) {
+		final KnownGene kg = new KnownGene();
+		kg.setChrom(contig);
+		kg.setName(getString(recInt(recIndex,REC_NAME)));
+		kg.setStrand((char)recInt(recIndex,REC_STRAND));
+		kg.setTxStart(recInt(recIndex,REC_TXSTART));
+		kg.setTxEnd(recInt(recIndex,REC_TXEND));
+		kg.setCdsStart(recInt(recIndex,REC_CDSSTART));
+		kg.setCdsEnd(recInt(recIndex,REC_CDSEND));
+		final int exonOffset = recInt(recIndex,REC_EXON_OFFSET);
+		final int exonCount = recInt(recIndex,REC_EXON_COUNT);
+		final int starts[]=new int[exonCount];
+		final int ends[]=new int[exonCount];
+		for(int i=0;i< exonCount;++i) {
+			starts[i] = this.exons.get(exonOffset + i*2 + 0);
+			ends[i] = this.exons.get(exonOffset + i*2 + 1);
+			}
+		kg.setExonBounds(starts, ends);
+		return kg;
+		}
+
+	/** get the genes overlapping the 1-based interval */
+	public List<KnownGene> getOverlapping(final Locatable loc) {
+		return getOverlapping(loc.getContig(),loc.getStart(),loc.getEnd());
+		}
+
+	/** get the genes overlapping the 1-based interval start-end */
+	public List<KnownGene> getOverlapping(final String contig,final int start1,final int end1) {
+		final ContigEntry entry = this.contig2entry.get(contig);
+		if(entry==null || entry.count==0) return Collections.emptyList();
+		/* convert to 0-based half open */
+		final int st = start1-1;
+		final int en = end1;
+		final List<KnownGene> L = new ArrayList<>();
+		final int n = entry.count;
+		final int base = entry.first;
+
+		// stack of (x,level,visited)
+		final long stack[]=new long[64*3];
+		int t=0;
+		stack[t++] = (1L << entry.maxLevel) - 1L;
+		stack[t++] = entry.maxLevel;
+		stack[t++] = 0;
+		while(t>0) {
+			final long w = stack[--t];
+			final int k = (int)stack[--t];
+			final long x = stack[--t];
+			if(k <= 3) {
+				/* we are in a small subtree: linear scan */
+				final long i0 = (x >> k) << k;
+				long i1 = i0 + (1L << (k+1)) - 1L;
+				if(i1 > n) i1 = n;
+				for(long i=i0; i< i1 && recInt(base+(int)i,REC_TXSTART) < en ;++i) {
+					if(st < recInt(base+(int)i,REC_TXEND)) {
+						L.add(decode(contig,base+(int)i));
+						}
+					}
+				}
+			else if(w==0)
+				{
+				/* if left child not processed */
+				final long y = x - (1L << (k-1));
+				stack[t++]=x;
+				stack[t++]=k;
+				stack[t++]=1;
+				if(y >= n || recInt(base+(int)y,REC_MAX_END) > st) {
+					stack[t++]=y;
+					stack[t++]=k-1;
+					stack[t++]=0;
+					}
+				}
+			else if(x < n && recInt(base+(int)x,REC_TXSTART) < en)
+				{
+				if(st < recInt(base+(int)x,REC_TXEND)) {
+					L.add(decode(contig,base+(int)x));
+					}
+				stack[t++]= x + (1L << (k-1));
+				stack[t++]= k-1;
+				stack[t++]= 0;
+				}
+			}
+		return L;
+		}
+
+	@Override
+	public void close() {
+		CloserUtil.close(this.channel);
+		CloserUtil.close(this.raf);
+		this.channel = null;
+		this.raf = null;
+		}
+
+	@Override
+	public String toString() {
+		return "KnownGeneIndex("+this.indexFile+")";
+		}
+
+	/** return true if the file looks like a knownGene index: it ends with {@link #SUFFIX} and contains {@link #MAGIC} */
+	public static boolean isIndex(final String uri) {
+		if(StringUtil.isBlank(uri) || !uri.endsWith(SUFFIX) || IOUtils.isRemoteURI(uri)) return false;
+		final File f = new File(uri);
+		if(!f.exists() || !f.isFile() || !f.canRead()) return false;
+		try(final InputStream in = new FileInputStream(f)) {
+			final byte magic[]=new byte[MAGIC.length];
+			if(in.read(magic)!= magic.length) return false;
+			return Arrays.equals(magic, MAGIC);
+			}
+		catch(final IOException err) {
+			return false;
+			}
+		}
+
+	/** open an existing index */
+	public static KnownGeneIndex open(final File indexFile) throws IOException {
+		return new KnownGeneIndex(indexFile);
+		}
+
+	/** build the implicit augmented tree for records[from,from+n), return the max level */
+	private static int buildImplicitTree(final int txStarts[],final int txEnds[],final int maxEnds[], final int n) {
+		if(n==0) return -1;
+		int last_i = 0;
+		int last = 0;
+		for(int i=0;i< n;i+=2) {
+			last = maxEnds[i] = txEnds[i];
+			last_i = i;
+			}
+		int k;
+		for(k=1; (1L << k) <= n; ++k) {
+			final long x = 1L << (k-1);
+			final long i0 = (x << 1) - 1;
+			final long step = x << 2;
+			for(long i=i0; i< n; i+=step) {
+				final int el = maxEnds[(int)(i-x)];
+				final int er = (i+x < n ? maxEnds[(int)(i+x)] : last);
+				int e = txEnds[(int)i];
+				e = Math.max(e, el);
+				e = Math.max(e, er);
+				maxEnds[(int)i] = e;
+				}
+			last_i = (((last_i >> k) & 1) != 0 ? (int)(last_i - x) : (int)(last_i + x));
+			if(last_i < n && maxEnds[last_i] > last) last = maxEnds[last_i];
+			}
+		return k-1;
+		}
+
+	/** build a binary index from a knownGene uri
+	 * @param kgUri the knownGene file/uri
+	 * @param filterOrNull accept the transcripts if not null
+	 * @param indexFile the output file
+	 */
+	public static void build(final String kgUri,final Predicate<KnownGene> filterOrNull,final File indexFile) throws IOException {
+		final Map<String,List<KnownGene>> contig2genes = new LinkedHashMap<>();
+		BufferedReader in=null;
+		try {
+			in = IOUtils.openURIForBufferedReading(kgUri);
+			String line;
+			final Pattern tab = Pattern.compile("[\t]");
+			while ((line = in.readLine()) != null) {
+				if (StringUtil.isBlank(line) || line.startsWith("#"))
+					continue;
+				final KnownGene g = new KnownGene(tab.split(line));
+				if(filterOrNull!=null && !filterOrNull.test(g)) continue;
+				List<KnownGene> L = contig2genes.get(g.getContig());
+				if(L==null) {
+					L = new ArrayList<>();
+					contig2genes.put(g.getContig(), L);
+					}
+				L.add(g);
+				}
+			in.close();
+			in=null;
+			}
+		finally
+			{
+			CloserUtil.close(in);
+			}
+
+		final Map<String,Integer> string2index = new HashMap<>();
+		final List<String> strings = new ArrayList<>();
+		final java.util.function.Function<String,Integer> internString = S->{
+			Integer idx = string2index.get(S);
+			if(idx==null) {
+				idx = strings.size();
+				strings.add(S);
+				string2index.put(S, idx);
+				}
+			return idx;
+			};
+
+		int nRecords = 0;
+		int nExonInts = 0;
+		for(final String contig: contig2genes.keySet()) {
+			final List<KnownGene> L = contig2genes.get(contig);
+			L.sort(Comparator.comparingInt(KnownGene::getTxStart).thenComparingInt(KnownGene::getTxEnd));
+			internString.apply(contig);
+			nRecords += L.size();
+			for(final KnownGene kg:L) {
+				internString.apply(kg.getName());
+				nExonInts += kg.getExonCount()*2;
+				}
+			}
+
+		DataOutputStream daos = null;
+		try {
+			daos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+			daos.write(MAGIC);
+
+			/* contig table */
+			daos.writeInt(contig2genes.size());
+			final List<int[]> contigMaxEnds = new ArrayList<>(contig2genes.size());
+			int first=0;
+			for(final String contig: contig2genes.keySet()) {
+				final List<KnownGene> L = contig2genes.get(contig);
+				final int n = L.size();
+				final int txStarts[]=new int[n];
+				final int txEnds[]=new int[n];
+				final int maxEnds[]=new int[n];
+				for(int i=0;i< n;++i) {
+					txStarts[i] = L.get(i).getTxStart();
+					txEnds[i] = L.get(i).getTxEnd();
+					}
+				final int maxLevel = buildImplicitTree(txStarts, txEnds, maxEnds, n);
+				contigMaxEnds.add(maxEnds);
+				daos.writeInt(string2index.get(contig));
+				daos.writeInt(first);
+				daos.writeInt(n);
+				daos.writeInt(maxLevel);
+				first+=n;
+				}
+
+			/* records */
+			daos.writeInt(nRecords);
+			int exonOffset=0;
+			int contigIdx=0;
+			for(final String contig: contig2genes.keySet()) {
+				final List<KnownGene> L = contig2genes.get(contig);
+				final int maxEnds[] = contigMaxEnds.get(contigIdx++);
+				for(int i=0;i< L.size();++i) {
+					final KnownGene kg = L.get(i);
+					daos.writeInt(kg.getTxStart());
+					daos.writeInt(kg.getTxEnd());
+					daos.writeInt(kg.getCdsStart());
+					daos.writeInt(kg.getCdsEnd());
+					daos.writeInt(string2index.get(kg.getName()));
+					daos.writeInt(kg.isPositiveStrand()?'+':(kg.isNegativeStrand()?'-':'.'));
+					daos.writeInt(exonOffset);
+					daos.writeInt(kg.getExonCount());
+					daos.writeInt(maxEnds[i]);
+					exonOffset+=kg.getExonCount()*2;
+					}
+				}
+
+			/* exons */
+			daos.writeInt(nExonInts);
+			for(final List<KnownGene> L: contig2genes.values()) {
+				for(final KnownGene kg:L) {
+					for(int i=0;i< kg.getExonCount();++i) {
+						daos.writeInt(kg.getExonStart(i));
+						daos.writeInt(kg.getExonEnd(i));
+						}
+					}
+				}
+
+			/* strings */
+			final List<byte[]> encoded = new ArrayList<>(strings.size());
+			daos.writeInt(strings.size());
+			int offset=0;
+			for(final String s:strings) {
+				final byte array[]=s.getBytes(StandardCharsets.UTF_8);
+				encoded.add(array);
+				daos.writeInt(offset);
+				offset+=array.length;
+				}
+			daos.writeInt(offset);
+			for(final byte array[]:encoded) daos.write(array);
+
+			daos.flush();
+			daos.close();
+			daos=null;
+			}
+		finally
+			{
+			CloserUtil.close(daos);
+			}
+		}
+	}
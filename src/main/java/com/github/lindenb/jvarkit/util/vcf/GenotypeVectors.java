@@ -0,0 +1,400 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2018 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.github.lindenb.jvarkit.util.Pedigree;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Index-based access to the genotypes of a VCF for the tools using a pedigree.
+ *
+ * The indexes of the samples (cases, controls, males, females) are computed once
+ * from the VCF header. For each variant, {@link #decode(VariantContext)} returns
+ * the alleles of each sample as arrays of allele indexes. If htsjdk didn't decode
+ * the genotypes of the variant yet, the arrays are filled straight from the genotype
+ * text and no {@link Genotype} is created.
+ */
+public class GenotypeVectors {
+	/** count or allele index for a sample that is not called */
+	public static final int NO_CALL = -1;
+	/** allele index for an allele that was not found in the variant */
+	private static final int UNKNOWN_ALLELE = -2;
+
+	private final List<String> sampleNames;
+	private final Pedigree.Person sampleIndexToPerson[];
+	private final List<Pedigree.Person> personsNotInHeader = new ArrayList<>();
+	private final int personIndexes[];
+	private final int caseIndexes[];
+	private final int controlIndexes[];
+	private final int maleIndexes[];
+	private final int femaleIndexes[];
+
+	/** use the persons of a pedigree that are present in the VCF header */
+	public GenotypeVectors(final VCFHeader header,final Pedigree pedigree) {
+		this(header,pedigree==null?Collections.<Pedigree.Person>emptySet():pedigree.getPersons());
+		}
+
+	/** use a collection of persons, typically extracted with Pedigree.CaseControlExtractor */
+	public GenotypeVectors(final VCFHeader header,final Collection<Pedigree.Person> persons) {
+		this.sampleNames = header.getSampleNamesInOrder()==null?
+				Collections.emptyList():
+				Collections.unmodifiableList(new ArrayList<>(header.getSampleNamesInOrder()))
+				;
+		final Map<String,Integer> sample2index = new HashMap<>(this.sampleNames.size());
+		for(int i=0;i< this.sampleNames.size();++i) {
+			sample2index.putIfAbsent(this.sampleNames.get(i), i);
+			}
+		this.sampleIndexToPerson = new Pedigree.Person[this.sampleNames.size()];
+		for(final Pedigree.Person p: persons) {
+			final Integer idx = sample2index.get(p.getId());
+			if(idx==null) {
+				this.personsNotInHeader.add(p);
+				continue;
+				}
+			if(this.sampleIndexToPerson[idx]==null) this.sampleIndexToPerson[idx] = p;
+			}
+		this.personIndexes = indexes(P->true);
+		this.caseIndexes = indexes(P->P.isAffected());
+		this.controlIndexes = indexes(P->P.isUnaffected());
+		this.maleIndexes = indexes(P->P.isMale());
+		this.femaleIndexes = indexes(P->P.isFemale());
+		}
+
+	private int[] indexes(final Predicate<Pedigree.Person> predicate) {
+		int n=0;
+		final int array[] = new int[this.sampleIndexToPerson.length];
+		for(int i=0;i< this.sampleIndexToPerson.length;++i) {
+			final Pedigree.Person p = this.sampleIndexToPerson[i];
+			if(p==null || !predicate.test(p)) continue;
+			array[n++]=i;
+			}
+		return Arrays.copyOf(array, n);
+		}
+
+	/** number of samples in the VCF header */
+	public int getSampleCount() {
+		return this.sampleNames.size();
+		}
+
+	public String getSampleName(final int sampleIndex) {
+		return this.sampleNames.get(sampleIndex);
+		}
+
+	/** get the person associated to this sample or null */
+	public Pedigree.Person getPerson(final int sampleIndex) {
+		return this.sampleIndexToPerson[sampleIndex];
+		}
+
+	/** persons that were not found in the VCF header */
+	public List<Pedigree.Person> getPersonsNotInHeader() {
+		return Collections.unmodifiableList(this.personsNotInHeader);
+		}
+
+	/** indexes of the samples associated to a person, in the order of the VCF header. Do not modify. */
+	public int[] getPersonIndexes() {
+		return this.personIndexes;
+		}
+	/** indexes of the affected samples, in the order of the VCF header. Do not modify. */
+	public int[] getCaseIndexes() {
+		return this.caseIndexes;
+		}
+	/** indexes of the unaffected samples, in the order of the VCF header. Do not modify. */
+	public int[] getControlIndexes() {
+		return this.controlIndexes;
+		}
+	/** indexes of the male samples, in the order of the VCF header. Do not modify. */
+	public int[] getMaleIndexes() {
+		return this.maleIndexes;
+		}
+	/** indexes of the female samples, in the order of the VCF header. Do not modify. */
+	public int[] getFemaleIndexes() {
+		return this.femaleIndexes;
+		}
+
+	public boolean isMale(final int sampleIndex) {
+		final Pedigree.Person p = getPerson(sampleIndex);
+		return p!=null && p.isMale();
+		}
+
+	/** get the genotype of the i-th sample of the header, without a lookup by name if the genotypes are in the header order. May return null */
+	public Genotype getGenotype(final VariantContext ctx,final int sampleIndex) {
+		final String sampleName = this.sampleNames.get(sampleIndex);
+		if(sampleIndex < ctx.getNSamples()) {
+			final Genotype g = ctx.getGenotype(sampleIndex);
+			if(g!=null && sampleName.equals(g.getSampleName())) return g;
+			}
+		return ctx.getGenotype(sampleName);
+		}
+
+	/** decode the genotypes of a variant */
+	public Variant decode(final VariantContext ctx) {
+		final Variant v = new Variant(ctx);
+		if(!v.decodeText()) v.decodeGenotypes();
+		return v;
+		}
+
+	/** the genotypes of one variant, as vectors indexed by the sample index */
+	public class Variant
+		{
+		private final VariantContext ctx;
+		private final int ploidy[];
+		private final int offset[];
+		private final boolean filtered[];
+		private int alleles[];
+		private int allelesSize = 0;
+		private boolean decodedFromText = false;
+
+		private Variant(final VariantContext ctx) {
+			this.ctx = ctx;
+			final int n = getSampleCount();
+			this.ploidy = new int[n];
+			this.offset = new int[n];
+			this.filtered = new boolean[n];
+			this.alleles = new int[n*2];
+			}
+
+		public VariantContext getContext() {
+			return this.ctx;
+			}
+
+		/** the GenotypeVectors that decoded this variant */
+		public GenotypeVectors getGenotypeVectors() {
+			return GenotypeVectors.this;
+			}
+
+		/** true if the vectors were filled from the genotype text rather than from htsjdk Genotypes */
+		public boolean isDecodedFromText() {
+			return this.decodedFromText;
+			}
+
+		private void clear() {
+			Arrays.fill(this.ploidy, 0);
+			Arrays.fill(this.filtered, false);
+			this.allelesSize = 0;
+			}
+
+		private void addAllele(final int sampleIndex,final int alleleIndex) {
+			if(this.allelesSize==this.alleles.length) {
+				this.alleles = Arrays.copyOf(this.alleles, Math.max(2,this.allelesSize*2));
+				}
+			if(this.ploidy[sampleIndex]==0) this.offset[sampleIndex] = this.allelesSize;
+			this.alleles[this.allelesSize++] = alleleIndex;
+			this.ploidy[sampleIndex]++;
+			}
+
+		/** fill the vectors from the htsjdk genotypes */
+		private void decodeGenotypes() {
+			clear();
+			this.decodedFromText = false;
+			for(int i=0;i< this.ploidy.length;++i) {
+				final Genotype g = getGenotype(this.ctx,i);
+				if(g==null) continue;
+				this.filtered[i] = g.isFiltered();
+				for(final Allele a: g.getAlleles()) {
+					if(a.isNoCall()) {
+						addAllele(i, NO_CALL);
+						}
+					else
+						{
+						final int idx = this.ctx.getAlleleIndex(a);
+						addAllele(i, idx<0?UNKNOWN_ALLELE:idx);
+						}
+					}
+				}
+			}
+
+		/** try to fill the vectors from the unparsed genotypes of a VCF line: "FORMAT\tsample1\tsample2..."
+		 * @return false if the genotypes were already decoded or if the text cannot be handled here
+		 */
+		private boolean decodeText() {
+			final GenotypesContext gc = this.ctx.getGenotypes();
+			if(!(gc instanceof LazyGenotypesContext)) return false;
+			final Object unparsed = LazyGenotypesContext.class.cast(gc).getUnparsedGenotypeData();
+			if(!(unparsed instanceof String)) return false;
+			final String text = (String)unparsed;
+			final int len = text.length();
+			int pos = text.indexOf('\t');
+			if(pos==-1) return false;
+			/* find GT and FT in FORMAT */
+			int gtField = -1;
+			int ftField = -1;
+			int field = 0;
+			int start = 0;
+			while(start<=pos) {
+				int end = text.indexOf(':', start);
+				if(end==-1 || end>pos) end = pos;
+				if(text.regionMatches(start, VCFConstants.GENOTYPE_KEY, 0, end-start) && end-start==VCFConstants.GENOTYPE_KEY.length()) {
+					gtField = field;
+					}
+				else if(text.regionMatches(start, VCFConstants.GENOTYPE_FILTER_KEY, 0, end-start) && end-start==VCFConstants.GENOTYPE_FILTER_KEY.length()) {
+					ftField = field;
+					}
+				field++;
+				start = end+1;
+				}
+			final int lastField = Math.max(gtField, ftField);
+			final int nAlleles = this.ctx.getNAlleles();
+			clear();
+			pos++;
+			for(int i=0;i< this.ploidy.length;++i) {
+				if(pos>len) return false;
+				int end = text.indexOf('\t', pos);
+				if(end==-1) end = len;
+				field = 0;
+				start = pos;
+				while(start<=end && field<=lastField) {
+					int colon = start;
+					while(colon< end && text.charAt(colon)!=':') colon++;
+					if(field==gtField) {
+						if(!parseGT(i, text, start, colon, nAlleles)) return false;
+						}
+					else if(field==ftField) {
+						this.filtered[i] = !(
+							colon==start ||
+							text.regionMatches(start, VCFConstants.UNFILTERED, 0, colon-start) && colon-start==VCFConstants.UNFILTERED.length() ||
+							text.regionMatches(start, VCFConstants.PASSES_FILTERS_v4, 0, colon-start) && colon-start==VCFConstants.PASSES_FILTERS_v4.length()
+							);
+						}
+					field++;
+					start = colon+1;
+					}
+				pos = end+1;
+				}
+			/* more columns than samples */
+			if(pos<=len) return false;
+			this.decodedFromText = true;
+			return true;
+			}
+
+		private boolean parseGT(final int sampleIndex,final String text,int start,final int end,final int nAlleles) {
+			if(start==end) return false;
+			while(start<=end) {
+				int sep = start;
+				while(sep< end && text.charAt(sep)!='/' && text.charAt(sep)!='|') sep++;
+				if(sep==start) return false;
+				if(sep-start==1 && text.charAt(start)=='.') {
+					addAllele(sampleIndex, NO_CALL);
+					}
+				else
+					{
+					int idx = 0;
+					for(int k=start;k< sep;++k) {
+						final char c = text.charAt(k);
+						if(c<'0' || c>'9' || idx>nAlleles) return false;
+						idx = idx*10 + (c-'0');
+						}
+					/* let htsjdk report the error */
+					if(idx>=nAlleles) return false;
+					addAllele(sampleIndex, idx);
+					}
+				start = sep+1;
+				}
+			return true;
+			}
+
+		/** number of alleles for this sample, including the no-call alleles */
+		public int getPloidy(final int sampleIndex) {
+			return this.ploidy[sampleIndex];
+			}
+
+		/** get the index of the k-th allele of this sample in ctx.getAlleles() or NO_CALL */
+		public int getAlleleIndex(final int sampleIndex,final int k) {
+			if(k<0 || k>=this.ploidy[sampleIndex]) throw new IndexOutOfBoundsException("0<="+k+"<"+this.ploidy[sampleIndex]);
+			return this.alleles[this.offset[sampleIndex]+k];
+			}
+
+		/** same as Genotype.isCalled: at least one allele is called */
+		public boolean isCalled(final int sampleIndex) {
+			final int n = this.ploidy[sampleIndex];
+			final int off = this.offset[sampleIndex];
+			for(int k=0;k< n;++k) {
+				if(this.alleles[off+k]!=NO_CALL) return true;
+				}
+			return false;
+			}
+
+		/** same as Genotype.isHomRef: all the alleles are the reference */
+		public boolean isHomRef(final int sampleIndex) {
+			final int n = this.ploidy[sampleIndex];
+			if(n==0) return false;
+			final int off = this.offset[sampleIndex];
+			for(int k=0;k< n;++k) {
+				if(this.alleles[off+k]!=0) return false;
+				}
+			return true;
+			}
+
+		/** same as Genotype.isFiltered */
+		public boolean isFiltered(final int sampleIndex) {
+			return this.filtered[sampleIndex];
+			}
+
+		/** number of copies of the allele at 'alleleIndex' in ctx.getAlleles() or NO_CALL if the sample is not called */
+		public int countAllele(final int sampleIndex,final int alleleIndex) {
+			final int n = this.ploidy[sampleIndex];
+			final int off = this.offset[sampleIndex];
+			boolean called = false;
+			int count = 0;
+			for(int k=0;k< n;++k) {
+				final int a = this.alleles[off+k];
+				if(a==NO_CALL) continue;
+				called = true;
+				if(a==alleleIndex) count++;
+				}
+			return called?count:NO_CALL;
+			}
+
+		/** number of copies of the allele for each sample of the header, NO_CALL if the sample is not called */
+		public int[] getAlleleCounts(final int alleleIndex) {
+			final int counts[] = new int[this.ploidy.length];
+			for(int i=0;i< counts.length;++i) {
+				counts[i] = countAllele(i, alleleIndex);
+				}
+			return counts;
+			}
+
+		/** number of copies of the allele for each sample of the header, NO_CALL if the sample is not called */
+		public int[] getAlleleCounts(final Allele allele) {
+			return getAlleleCounts(this.ctx.getAlleleIndex(allele));
+			}
+		}
+	}
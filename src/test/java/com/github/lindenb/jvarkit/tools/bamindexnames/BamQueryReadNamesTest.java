@@ -0,0 +1,132 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class BamQueryReadNamesTest extends TestUtils {
+	
+	@DataProvider(name="src1")
+	public Object[][] createData() {
+		return new Object[][] {
+			{SRC_TEST_RESOURCE+"/toy.bam"},
+			{SRC_TEST_RESOURCE+"/S1.bam"},
+			{SRC_TEST_RESOURCE+"/S2.bam"}
+		};
+	}
+	
+	private List<SAMRecord> readRecords(final File bam) throws IOException {
+		try(SamReader sr=SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(bam)) {
+			return sr.iterator().stream().collect(Collectors.toList());
+			}
+		}
+	
+	private List<String> toStrings(final List<SAMRecord> L) {
+		return L.stream().map(R->R.getSAMString()).collect(Collectors.toList());
+		}
+	
+	/** same rule as BamQueryReadNames: 'name', 'name/1' or 'name/2' */
+	private boolean accept(final String query,final SAMRecord rec) {
+		if(query.endsWith("/1")) {
+			return rec.getReadName().equals(query.substring(0, query.length()-2)) &&
+				rec.getReadPairedFlag() && rec.getFirstOfPairFlag();
+			}
+		if(query.endsWith("/2")) {
+			return rec.getReadName().equals(query.substring(0, query.length()-2)) &&
+				rec.getReadPairedFlag() && rec.getSecondOfPairFlag();
+			}
+		return rec.getReadName().equals(query);
+		}
+	
+	@Test(dataProvider="src1")
+	public void testV2(final String bamPath) throws IOException {
+		/* the index is written next to the BAM */
+		final File bam = createTmpFile(".bam");
+		Files.copy(new File(bamPath).toPath(), bam.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		final File indexFile = deleteOnExit(new File(bam.getParentFile(), bam.getName()+BaseBamIndexReadNames.NAME_IDX2_EXTENSION));
+		
+		Assert.assertEquals(new BamIndexReadNames().instanceMain(newCmd().add(
+				"--v2",
+				bam
+				).make()),0);
+		Assert.assertTrue(ReadNameFingerprintIndex.hasMagic(indexFile));
+		
+		final List<SAMRecord> records = readRecords(bam);
+		Assert.assertFalse(records.isEmpty());
+		/* one name out of three, with and without a side, and some names that are not in the BAM */
+		final Set<String> names = new LinkedHashSet<>();
+		names.add("__NOT_A_READ_NAME__");
+		for(int i=0;i< records.size();i+=3) {
+			final String name = records.get(i).getReadName();
+			names.add(name);
+			names.add(name+"/"+(1+i%2));
+			}
+		names.add("__NOT_A_READ_NAME__/1");
+		final List<String> queries = new ArrayList<>(names);
+		final File queryFile = createTmpFile(".txt");
+		final PrintWriter pw = new PrintWriter(queryFile);
+		for(final String q:queries) pw.println(q);
+		pw.flush();
+		pw.close();
+		
+		final List<String> notFound = queries.stream().
+				filter(Q->records.stream().noneMatch(R->accept(Q,R))).
+				collect(Collectors.toList());
+		Assert.assertTrue(notFound.contains("__NOT_A_READ_NAME__"));
+		
+		/* one query after the other */
+		final File out1 = createTmpFile(".bam");
+		final File notFound1 = createTmpFile(".txt");
+		Assert.assertEquals(new BamQueryReadNames().instanceMain(newCmd().add(
+				"-o",out1,
+				"-N",notFound1,
+				bam,
+				queryFile
+				).make()),0);
+		assertIsValidBam(out1);
+		final List<SAMRecord> expect1 = new ArrayList<>();
+		for(final String q:queries) {
+			records.stream().filter(R->accept(q,R)).forEach(R->expect1.add(R));
+			}
+		Assert.assertEquals(toStrings(readRecords(out1)), toStrings(expect1));
+		Assert.assertEquals(Files.readAllLines(notFound1.toPath()), notFound);
+		
+		/* batch: the records are written in the order of the BAM */
+		final File out2 = createTmpFile(".bam");
+		final File notFound2 = createTmpFile(".txt");
+		Assert.assertEquals(new BamQueryReadNames().instanceMain(newCmd().add(
+				"-o",out2,
+				"-N",notFound2,
+				"--batch",
+				bam,
+				queryFile
+				).make()),0);
+		assertIsValidBam(out2);
+		final List<SAMRecord> expect2 = new ArrayList<>();
+		for(final SAMRecord rec:records) {
+			for(final String q:queries) {
+				if(accept(q,rec)) expect2.add(rec);
+				}
+			}
+		Assert.assertEquals(toStrings(readRecords(out2)), toStrings(expect2));
+		Assert.assertEquals(Files.readAllLines(notFound2.toPath()), notFound);
+		}
+	}
@@ -0,0 +1,82 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class ReadNameFingerprintIndexTest extends TestUtils {
+	
+	@DataProvider(name="src1")
+	public Object[][] createData() {
+		return new Object[][] {
+			{0,4},{1,4},{7,4},{8,4},{9,4},{100,3},{1000,1024},{1000,7}
+		};
+	}
+	
+	@Test(dataProvider="src1")
+	public void testRoundTrip(final int nNames,final int blockSize) throws IOException {
+		/* some names are used by several records */
+		final List<long[]> entries = new ArrayList<>();
+		for(int i=0;i< nNames;++i) {
+			final int nRecords = 1 + i%3;
+			for(int j=0;j< nRecords;++j) {
+				entries.add(new long[] {ReadNameFingerprintIndex.fingerprint("read"+i), i*10L+j});
+				}
+			}
+		entries.sort((A,B)->{
+			final int k = Long.compare(A[0], B[0]);
+			if(k!=0) return k;
+			return Long.compare(A[1], B[1]);
+			});
+		final File indexFile = createTmpFile(".names.idx2");
+		final DataOutputStream daos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		ReadNameFingerprintIndex.write(daos, entries.size(), blockSize, entries);
+		daos.close();
+		Assert.assertTrue(ReadNameFingerprintIndex.hasMagic(indexFile));
+		
+		try(final ReadNameFingerprintIndex index = new ReadNameFingerprintIndex(indexFile)) {
+			Assert.assertEquals(index.size(), entries.size());
+			for(int i=0;i< entries.size();++i) {
+				Assert.assertEquals(index.getFingerprint(i), entries.get(i)[0]);
+				Assert.assertEquals(index.getVirtualOffset(i), entries.get(i)[1]);
+				}
+			/* lowerBound: present fingerprints, neighbours and extremes */
+			final List<Long> queries = new ArrayList<>(Arrays.asList(Long.MIN_VALUE,Long.MAX_VALUE,0L));
+			for(final long[] entry:entries) {
+				queries.add(entry[0]);
+				queries.add(entry[0]-1L);
+				queries.add(entry[0]+1L);
+				}
+			for(final long fp:queries) {
+				long expect=0L;
+				while(expect< entries.size() && entries.get((int)expect)[0] < fp) expect++;
+				Assert.assertEquals(index.lowerBound(fp), expect, "fingerprint "+fp);
+				}
+			/* names in the index */
+			for(int i=0;i< nNames;++i) {
+				final int n = i;
+				final long expect[] = entries.stream().
+						filter(E->E[0]==ReadNameFingerprintIndex.fingerprint("read"+n)).
+						mapToLong(E->E[1]).
+						toArray();
+				Assert.assertEquals(expect.length, 1 + i%3);
+				Assert.assertEquals(index.getVirtualOffsets("read"+i), expect);
+				}
+			/* names not in the index */
+			for(int i=nNames;i< nNames+10;++i) {
+				Assert.assertEquals(index.getVirtualOffsets("read"+i).length, 0);
+				}
+			}
+		}
+	}
@@ -1,10 +1,12 @@
 package com.github.lindenb.jvarkit.tools.biostar;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -16,6 +18,14 @@ import htsjdk.variant.vcf.VCFFileReader;
 
 public class Biostar130456Test extends TestUtils{
 
+/** the variant lines of a VCF, the header contains the command line, so it is ignored */
+private List<String> variantLines(final File f) throws IOException {
+	final BufferedReader br = IOUtils.openFileForBufferedReading(f);
+	final List<String> L = br.lines().filter(S->!S.startsWith("#")).collect(Collectors.toList());
+	br.close();
+	return L;
+	}
+
 @Test(dataProvider="all-vcf-files")
 public void test01(final String vcfpath) throws IOException {
 	final VCFFileReader r= new VCFFileReader(new File(vcfpath),false);
@@ -44,5 +54,41 @@ public void test01(final String vcfpath) throws IOException {
 		Assert.assertTrue(vcfIn2.delete());
 		}
 	}
+
+@Test(dataProvider="all-vcf-files")
+public void testParallel(final String vcfpath) throws IOException {
+	final VCFFileReader r= new VCFFileReader(new File(vcfpath),false);
+	final Set<String> samples = new HashSet<>(r.getFileHeader().getSampleNamesInOrder());
+	r.close();	
+	if(samples.isEmpty()) return;
 	
+	final String vcfOut1 = IOUtils.getDefaultTmpDir().getPath() + 
+			File.separatorChar+
+			"tmp1.__SAMPLE__.vcf.gz";
+	final String vcfOut2 = IOUtils.getDefaultTmpDir().getPath() + 
+			File.separatorChar+
+			"tmp2.__SAMPLE__.vcf.gz";
+	Assert.assertEquals(new Biostar130456().instanceMain(new String[] {
+		"-o",createTmpFile(".txt").getPath(),
+		"-p",vcfOut1,
+		vcfpath
+		}),0);
+	Assert.assertEquals(new Biostar130456().instanceMain(new String[] {
+		"-o",createTmpFile(".txt").getPath(),
+		"-p",vcfOut2,
+		"-j","3",
+		"--batch-size","2",
+		"--max-open-files","2",
+		vcfpath
+		}),0);
+	for(final String s:samples) {
+		final File f1 = new File(vcfOut1.replaceAll("__SAMPLE__", s));
+		final File f2 = new File(vcfOut2.replaceAll("__SAMPLE__", s));
+		assertIsVcf(f2);
+		Assert.assertEquals(variantLines(f2), variantLines(f1), "sample "+s);
+		Assert.assertTrue(f1.delete());
+		Assert.assertTrue(f2.delete());
+		}
+	}
+
 }
@@ -2,6 +2,10 @@ package com.github.lindenb.jvarkit.tools.biostar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -9,6 +13,11 @@ import org.testng.annotations.Test;
 import com.github.lindenb.jvarkit.tools.misc.SortSamRefName;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
 public class Biostar154220Test extends TestUtils {
 	@Test(dataProvider="all-sam-or-bam-files")
 	public void test1(final String samFile) throws IOException {
@@ -32,4 +41,70 @@ public class Biostar154220Test extends TestUtils {
 		
 		super.assertIsValidBam(out2);
 	}
+	
+	private List<String> readNames(final File bam) throws IOException {
+		try(SamReader sr=SamReaderFactory.makeDefault().open(bam)) {
+			return sr.iterator().stream().
+				map(R->R.getReadName()+":"+R.getFlags()+":"+R.getContig()+":"+R.getAlignmentStart()).
+				collect(Collectors.toList());
+			}
+	}
+	
+	/** the second mate of a kept pair is always written, it is not subject to the cap */
+	private boolean isCappedRead(final SAMRecord rec) {
+		if(rec.getReadUnmappedFlag()) return false;
+		if(!rec.getReadPairedFlag() || rec.getMateUnmappedFlag() || rec.isSecondaryOrSupplementary()) return true;
+		if(!rec.getMateReferenceIndex().equals(rec.getReferenceIndex())) return true;
+		return rec.getMateAlignmentStart() > rec.getAlignmentStart() ||
+			(rec.getMateAlignmentStart() == rec.getAlignmentStart() && rec.getFirstOfPairFlag());
+		}
+	
+	/** max depth of the capped reads */
+	private int maxDepth(final File bam) throws IOException {
+		final Map<String,Integer> depth = new HashMap<>();
+		int max = 0;
+		try(SamReader sr=SamReaderFactory.makeDefault().open(bam)) {
+			for(final SAMRecord rec:sr) {
+				if(!isCappedRead(rec)) continue;
+				for(final AlignmentBlock block:rec.getAlignmentBlocks()) {
+					for(int x=0;x< block.getLength();++x) {
+						final String key = rec.getContig()+":"+(block.getReferenceStart()+x);
+						final int d = depth.getOrDefault(key, 0) + 1;
+						depth.put(key, d);
+						max = Math.max(max, d);
+						}
+					}
+				}
+			}
+		return max;
+		}
+	
+	@Test(dataProvider="all-one-bam-and-ref")
+	public void testSorted(final String samFile,final String ref) throws IOException {
+		final File out1 = createTmpFile(".bam");
+		Assert.assertEquals(
+				new  Biostar154220().instanceMain(newCmd().add(
+						"-o",out1,
+						"-n",5,
+						samFile
+				).make()),0);
+		super.assertIsValidBam(out1);
+		
+		final File out2 = createTmpFile(".bam");
+		Assert.assertEquals(
+				new  Biostar154220().instanceMain(newCmd().add(
+						"-o",out2,
+						"-n",5,
+						"-j",3,
+						samFile
+				).make()),0);
+		super.assertIsValidBam(out2);
+		Assert.assertEquals(readNames(out1), readNames(out2));
+		Assert.assertTrue(readNames(out1).size() <= readNames(new File(samFile)).size());
+		/* the cap is applied */
+		Assert.assertTrue(maxDepth(out1) <= 5, "depth "+maxDepth(out1));
+		if(maxDepth(new File(samFile)) > 5) {
+			Assert.assertTrue(readNames(out1).size() < readNames(new File(samFile)).size());
+			}
+	}
 }
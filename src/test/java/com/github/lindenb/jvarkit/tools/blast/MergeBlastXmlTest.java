@@ -0,0 +1,59 @@
+package com.github.lindenb.jvarkit.tools.blast;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.bio.blast.BlastIterationReader;
+
+import gov.nih.nlm.ncbi.blast.Iteration;
+
+public class MergeBlastXmlTest extends TestUtils {
+	
+	/** count the hits for each query */
+	private Map<String,Integer> countHits(final File f) throws IOException,XMLStreamException {
+		final Map<String,Integer> hits = new HashMap<>();
+		final BlastIterationReader reader = new BlastIterationReader();
+		try(FileReader fr = new FileReader(f)) {
+			final XMLEventReader r = BlastIterationReader.createXMLInputFactory().createXMLEventReader(fr);
+			Iteration iteration;
+			while((iteration=reader.next(r))!=null) {
+				final String key = iteration.getIterationQueryDef();
+				Assert.assertFalse(hits.containsKey(key),"duplicate "+key);
+				hits.put(key, iteration.getIterationHits().getHit().size());
+				}
+			r.close();
+			}
+		return hits;
+	}
+	
+	@Test
+	public void testMergeSelf() throws IOException,XMLStreamException {
+		final File blastInput = new File(SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml");
+		final File out = super.createTmpFile(".xml");
+		Assert.assertEquals(0,new MergeBlastXml().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"--maxRecordsInRam","2",
+			"--tmpDir",out.getParentFile().getPath(),
+			blastInput.getPath(),
+			blastInput.getPath(),
+			blastInput.getPath()
+			}));
+		assertIsXml(out);
+		final Map<String,Integer> expect = countHits(blastInput);
+		final Map<String,Integer> merged = countHits(out);
+		Assert.assertEquals(merged.keySet(), expect.keySet());
+		for(final String key:expect.keySet()) {
+			Assert.assertEquals(merged.get(key).intValue(), expect.get(key)*3);
+			}
+	}
+}
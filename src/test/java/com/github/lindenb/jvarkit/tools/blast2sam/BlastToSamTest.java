@@ -0,0 +1,58 @@
+package com.github.lindenb.jvarkit.tools.blast2sam;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class BlastToSamTest extends TestUtils {
+	
+	@DataProvider(name="src1")
+	public Object[][] createData() {
+		return new Object[][] {
+			{0},{400}
+		};
+	}
+	
+	private List<String> readRecords(final File sam) throws IOException {
+		try(SamReader sr=SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(sam)) {
+			return sr.iterator().stream().map(R->R.getSAMString()).collect(Collectors.toList());
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testJobs(final int expectSize) throws IOException {
+		final String blast = SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml";
+		final String ref = SRC_TEST_RESOURCE+"/rotavirus_rf.fa";
+		
+		final File out1 = createTmpFile(".sam");
+		Assert.assertEquals(new BlastToSam().instanceMain(newCmd().add(
+				"-o",out1,
+				"-r",ref,
+				"-p",expectSize,
+				blast
+				).make()),0);
+		final List<String> L1 = readRecords(out1);
+		Assert.assertFalse(L1.isEmpty());
+		
+		final File out2 = createTmpFile(".sam");
+		Assert.assertEquals(new BlastToSam().instanceMain(newCmd().add(
+				"-o",out2,
+				"-r",ref,
+				"-p",expectSize,
+				"-j",3,
+				blast
+				).make()),0);
+		Assert.assertEquals(readRecords(out2), L1);
+		}
+	}
@@ -0,0 +1,50 @@
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeaderLine;
+
+public class VcfBurdenFisherVTest extends TestUtils{
+	
+	/** a multi-allelic variant where both ALT alleles have the same count */
+	@Test
+	public void testMultiAllelicTie() 
+		throws IOException
+		{
+		final File input = super.createTmpFile(".vcf");
+		final PrintWriter pw = new PrintWriter(input);
+		pw.println("##fileformat=VCFv4.2");
+		pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+		pw.println("##contig=<ID=chr1,length=1000>");
+		pw.println("##Sample=<Family=F1,ID=S1,Father=0,Mother=0,Sex=1,Status=1>");
+		pw.println("##Sample=<Family=F1,ID=S2,Father=0,Mother=0,Sex=2,Status=1>");
+		pw.println("##Sample=<Family=F1,ID=S3,Father=0,Mother=0,Sex=1,Status=0>");
+		pw.println("##Sample=<Family=F1,ID=S4,Father=0,Mother=0,Sex=2,Status=0>");
+		pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4");
+		pw.println("chr1\t10\t.\tA\tC,G\t.\t.\t.\tGT\t0/1\t0/0\t0/2\t0/0");
+		pw.flush();
+		pw.close();
+		
+		final File output = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VcfBurdenFisherV().instanceMain(
+        		newCmd().add(
+        		"-o",output,
+        		input).make()
+        	),0);
+        assertIsVcf(output);
+        try(VCFFileReader r = new VCFFileReader(output,false)) {
+        	final VCFHeaderLine line = r.getFileHeader().getOtherHeaderLine(VcfBurdenFisherV.VCF_HEADER_FISHER_VALUE+".count");
+        	Assert.assertNotNull(line);
+        	/* on a tie, the last ALT 'G' is used: the control S3 carries it */
+        	Assert.assertEquals(line.getValue(), "CASE_SV0=2|CASE_SV1=0|CTRL_SV0=1|CTRL_SV1=1");
+        	}
+		}
+}
@@ -0,0 +1,58 @@
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class VcfBurdenSplitterTest extends TestUtils{
+	@Test
+	public void testJobs() 
+		throws IOException
+		{
+		/* the splitter wants one ALT per variant */
+		final VCFFileReader r0 = new VCFFileReader(new File(SRC_TEST_RESOURCE+"/ExAC.r1.sites.vep.vcf.gz"),false);
+		final CloseableIterator<VariantContext> iter = r0.iterator();
+		final File inputVcf = super.createTmpFile(".vcf");
+		final VariantContextWriter w= VCFUtils.createVariantContextWriter(inputVcf);
+		w.writeHeader(r0.getFileHeader());
+		iter.stream().
+			filter(V->V.getAlleles().size()==2).
+			forEach(V->w.add(V));
+		iter.close();
+		w.close();
+		r0.close();
+		
+		final File output1 = super.createTmpFile(".zip");
+		Assert.assertEquals(new VcfBurdenSplitter().instanceMain(
+				newCmd().add(
+				"-o",output1,
+				"-if","-vepSymbol","-vepFeature",
+				inputVcf).make()
+			),0);
+		final List<String> L1 = Files.readAllLines(output1.toPath());
+		Assert.assertTrue(L1.stream().anyMatch(S->S.startsWith("##"+VcfBurdenSplitter.VCF_HEADER_SPLITKEY+"=")));
+		
+		final File output2 = super.createTmpFile(".zip");
+		Assert.assertEquals(new VcfBurdenSplitter().instanceMain(
+				newCmd().add(
+				"-o",output2,
+				"-if","-vepSymbol","-vepFeature",
+				"-j",3,
+				"--maxRecordsInRam",10,
+				inputVcf).make()
+			),0);
+		Assert.assertEquals(Files.readAllLines(output2.toPath()), L1);
+		}
+}
@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.groupbygene;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -32,4 +33,24 @@ public void test01(final String vcf) throws IOException {
 	Assert.assertTrue(wc(out)>1L);
 	assertTsvTableIsConsitent(out, null);
 	}
+
+@Test(dataProvider="src1")
+public void testJobs(final String vcf) throws IOException {
+	final File out1 = super.createTmpFile(".txt");
+	Assert.assertEquals(
+			new GroupByGene().instanceMain(newCmd().
+			add("-o").add(out1).
+			add(vcf).
+			make()
+			),0);
+	final File out2 = super.createTmpFile(".txt");
+	Assert.assertEquals(
+			new GroupByGene().instanceMain(newCmd().
+			add("-o").add(out2).
+			add("-j",3,"--maxRecordsInRam",10).
+			add(vcf).
+			make()
+			),0);
+	Assert.assertEquals(Files.readAllLines(out1.toPath()),Files.readAllLines(out2.toPath()));
+	}
 }
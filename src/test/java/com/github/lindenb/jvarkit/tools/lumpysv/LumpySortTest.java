@@ -0,0 +1,86 @@
+package com.github.lindenb.jvarkit.tools.lumpysv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class LumpySortTest extends TestUtils {
+
+	/** create 3 lumpy VCFs with one sample each: a deletion shared by all the samples and a private deletion in the first one */
+	private List<File> createLumpyVcfs() throws IOException {
+		final List<File> L = new ArrayList<>();
+		for(int i=0;i< 3;i++) {
+			final File f = createTmpFile(".vcf");
+			final PrintWriter pw = new PrintWriter(f);
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##ALT=<ID=DEL,Description=\"Deletion\">");
+			pw.println("##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"Type of structural variant\">");
+			pw.println("##INFO=<ID=SVLEN,Number=.,Type=Integer,Description=\"Difference in length between REF and ALT alleles\">");
+			pw.println("##INFO=<ID=END,Number=1,Type=Integer,Description=\"End position of the variant\">");
+			pw.println("##INFO=<ID=CIPOS,Number=2,Type=Integer,Description=\"Confidence interval around POS\">");
+			pw.println("##INFO=<ID=CIEND,Number=2,Type=Integer,Description=\"Confidence interval around END\">");
+			pw.println("##INFO=<ID=SU,Number=.,Type=Integer,Description=\"Number of pieces of evidence supporting the variant\">");
+			pw.println("##INFO=<ID=PE,Number=.,Type=Integer,Description=\"Number of paired-end reads supporting the variant\">");
+			pw.println("##INFO=<ID=SR,Number=.,Type=Integer,Description=\"Number of split reads supporting the variant\">");
+			pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+			pw.println("##FORMAT=<ID=SU,Number=1,Type=Integer,Description=\"Number of pieces of evidence supporting the variant\">");
+			pw.println("##FORMAT=<ID=PE,Number=1,Type=Integer,Description=\"Number of paired-end reads supporting the variant\">");
+			pw.println("##FORMAT=<ID=SR,Number=1,Type=Integer,Description=\"Number of split reads supporting the variant\">");
+			pw.println("##contig=<ID=chr1,length=100000>");
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS"+i);
+			pw.println("chr1\t"+(1000+i*5)+"\t1\tN\t<DEL>\t.\t.\tSVTYPE=DEL;SVLEN=-1000;END="+(2000+i*5)+";CIPOS=-10,10;CIEND=-10,10;SU=5;PE=3;SR=2\tGT:SU:PE:SR\t0/1:5:3:2");
+			if(i==0) {
+				pw.println("chr1\t50000\t2\tN\t<DEL>\t.\t.\tSVTYPE=DEL;SVLEN=-1000;END=51000;CIPOS=-10,10;CIEND=-10,10;SU=4;PE=4;SR=0\tGT:SU:PE:SR\t0/1:4:4:0");
+				}
+			pw.flush();
+			pw.close();
+			L.add(f);
+			}
+		return L;
+		}
+
+	private List<VariantContext> run(final List<File> vcfs,final Object...options) throws IOException {
+		final File out = createTmpFile(".vcf");
+		Assert.assertEquals(new LumpySort().instanceMain(newCmd().
+				add(options).
+				add("-o",out).
+				add(vcfs.toArray()).
+				make()),0);
+		assertIsVcf(out);
+		return variantStream(out).collect(Collectors.toList());
+		}
+
+	@Test
+	public void testMerge() throws IOException {
+		final List<File> vcfs = createLumpyVcfs();
+		final List<VariantContext> L = run(vcfs);
+		Assert.assertEquals(L.size(), 2);
+		Assert.assertEquals(L.get(0).getAttributeAsInt("NSAMPLES",-1), 3);
+		Assert.assertEquals(L.get(1).getAttributeAsInt("NSAMPLES",-1), 1);
+		Assert.assertEquals(L.get(1).getStart(), 50000);
+		}
+
+	@Test
+	public void testDoNotMerge() throws IOException {
+		final List<VariantContext> L = run(createLumpyVcfs(),"-dm");
+		Assert.assertEquals(L.size(), 4);
+		}
+
+	@Test
+	public void testSpillToDisk() throws IOException {
+		final List<File> vcfs = createLumpyVcfs();
+		final List<String> L1 = run(vcfs).stream().map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+		final List<String> L2 = run(vcfs,"--maxRecordsInRam",1).stream().map(V->V.toStringDecodeGenotypes()).collect(Collectors.toList());
+		Assert.assertEquals(L1, L2);
+		}
+	}
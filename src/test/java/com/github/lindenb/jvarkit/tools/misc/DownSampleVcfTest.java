@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -21,4 +23,25 @@ public class DownSampleVcfTest extends TestUtils {
         	}),0);
         Assert.assertTrue(variantStream(output).count()<=10L);
     	}
+	@Test(dataProvider="all-vcf-files")
+    public void testReservoir(final String vcfin) throws IOException {
+    	final File output = super.createTmpFile(".vcf");
+    	
+        Assert.assertEquals(new DownSampleVcf().instanceMain(new String[]{
+        		"-o",output.getPath(),
+        		"-n","5",
+        		"-N","0",
+        		vcfin
+        	}),0);
+        final long n = variantStream(new File(vcfin)).count();
+        Assert.assertEquals(variantStream(output).count(),Math.min(5L,n));
+        // retained variants are printed in the input order
+        final List<String> input = variantStream(new File(vcfin)).map(V->V.getContig()+":"+V.getStart()+":"+V.getReference()).collect(Collectors.toList());
+        int prev = -1;
+        for(final String s: variantStream(output).map(V->V.getContig()+":"+V.getStart()+":"+V.getReference()).collect(Collectors.toList())) {
+        	final int idx = input.subList(prev+1, input.size()).indexOf(s);
+        	Assert.assertTrue(idx>=0);
+        	prev += idx+1;
+        	}
+    	}
 }
@@ -0,0 +1,84 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+
+public class FastqGrepTest extends TestUtils {
+	
+	@DataProvider(name="src01")
+	public Object[][] getData() {
+		return new Object[][] {
+			{SRC_TEST_RESOURCE+"/S1.R1.fq.gz"},
+			{SRC_TEST_RESOURCE+"/S2.R2.fq.gz"},
+			{SRC_TEST_RESOURCE+"/SAMPLE1_GATGAATC_L002_R1_001.fastq.gz"}
+		};
+	}
+	
+	private List<String> readLines(final File f) throws IOException {
+		final BufferedReader br = IOUtils.openFileForBufferedReading(f);
+		final List<String> L = br.lines().collect(Collectors.toList());
+		br.close();
+		return L;
+		}
+	
+	@Test(dataProvider="src01")
+	public void testJobs(final String fq) throws IOException {
+		final List<String> lines = readLines(new File(fq));
+		/* every third read name, and a name that is not in the file */
+		final File names = createTmpFile(".txt");
+		final PrintWriter pw = new PrintWriter(names);
+		pw.println("@__NOT_A_READ_NAME__");
+		for(int i=0;i< lines.size();i+=12) pw.println(lines.get(i));
+		pw.flush();
+		pw.close();
+		/* a bgzipped copy, inflated in a background thread with --jobs */
+		final File bgz = createTmpFile(".fq.gz");
+		final BlockCompressedOutputStream bcos = new BlockCompressedOutputStream(bgz);
+		final InputStream fqin = IOUtils.openFileForReading(new File(fq));
+		IOUtils.copyTo(fqin, bcos);
+		fqin.close();
+		bcos.close();
+		
+		for(final String invert:new String[] {"","-V"}) {
+			final File out1 = createTmpFile(".fq");
+			Assert.assertEquals(new FastqGrep().instanceMain(newCmd().add(
+					"-o",out1,
+					"-f",names).
+					addIf(!invert.isEmpty(),invert).
+					add(fq).
+					make()),0);
+			assertIsFastq(out1);
+			
+			final List<String> L1 = readLines(out1);
+			Assert.assertFalse(L1.isEmpty());
+			
+			for(final File input:new File[] {new File(fq),bgz}) {
+				final File out2 = createTmpFile(".fq");
+				Assert.assertEquals(new FastqGrep().instanceMain(newCmd().add(
+						"-o",out2,
+						"-f",names,
+						"-j",3,
+						"--batch-size",5).
+						addIf(!invert.isEmpty(),invert).
+						add(input).
+						make()),0);
+				assertIsFastq(out2);
+				Assert.assertEquals(readLines(out2), L1);
+				}
+			}
+		}
+	}
@@ -3,8 +3,10 @@ package com.github.lindenb.jvarkit.tools.misc;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
 
 import org.testng.Assert;
+import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
@@ -28,4 +30,38 @@ public void test01() throws IOException {
 	Assert.assertTrue(wc(output)>1L);
 	super.assertTsvTableIsConsitent(output, null);
 	}
+
+@Test
+public void testParallelAndSummary() throws IOException {
+	final File input = createTmpFile(".tsv");
+	PrintWriter pw=new PrintWriter(input);
+	super._collectFiles(new File(SRC_TEST_RESOURCE),
+			(D,F)->F.endsWith(".vcf.gz") || F.endsWith(".vcf")
+			).forEach(F->pw.println(F.getPath()));
+	pw.flush();
+	pw.close();
+	final File expect = createTmpFile(".tsv");
+	Assert.assertEquals(new FindAVariation().instanceMain(new String[]{
+    		"-o",expect.getPath(),
+    		"-p","ref2:14",
+    		"-p","RF01:100",
+    		input.getPath()
+    		}),0);
+	final File summary = createTmpFile(".tsv");
+	Assert.assertTrue(summary.delete());
+	/* first run creates the summary, second run uses it */
+	for(int i=0;i< 2;i++) {
+		final File output = createTmpFile(".tsv");
+		Assert.assertEquals(new FindAVariation().instanceMain(new String[]{
+	    		"-o",output.getPath(),
+	    		"-p","ref2:14",
+	    		"-p","RF01:100",
+	    		"-j","3",
+	    		"--summary",summary.getPath(),
+	    		input.getPath()
+	    		}),0);
+		Assert.assertTrue(summary.exists());
+		Assert.assertEquals(Files.readAllLines(output.toPath()),Files.readAllLines(expect.toPath()));
+		}
+	}
 }
@@ -0,0 +1,40 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class GcPercentAndDepthTest extends TestUtils {
+	@Test
+	public void testShards() 
+		throws IOException
+		{
+		final File out1 = super.createTmpFile(".tsv");
+		Assert.assertEquals(0,new GcPercentAndDepth().instanceMain(new String[] {
+			"-o",out1.getPath(),
+			"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-w","20",
+			"-s","10",
+			SRC_TEST_RESOURCE+"/S1.bam",
+			SRC_TEST_RESOURCE+"/S2.bam"
+			}));
+		Assert.assertTrue(wc(out1)>1L);
+		final File out2 = super.createTmpFile(".tsv");
+		Assert.assertEquals(0,new GcPercentAndDepth().instanceMain(new String[] {
+			"-o",out2.getPath(),
+			"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-w","20",
+			"-s","10",
+			"-j","3",
+			"--shard-size","100",
+			SRC_TEST_RESOURCE+"/S1.bam",
+			SRC_TEST_RESOURCE+"/S2.bam"
+			}));
+		Assert.assertEquals(Files.readAllLines(out1.toPath()), Files.readAllLines(out2.toPath()));
+		}
+}
@@ -0,0 +1,53 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
+
+import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.IntervalTreeMap;
+
+public class KnownGenesToIndexTest extends TestUtils{
+
+@DataProvider(name = "src1")
+public Object[][] createData1() {
+	return new Object[][]{
+		{SRC_TEST_RESOURCE+"/rotavirus_rf.knowngenes.tsv.gz"},
+		{SRC_TEST_RESOURCE+"/test_vcf01.knownGenes.txt.gz"}
+		};
+	}
+@Test(dataProvider="src1")
+public void test(final String kgfile) throws IOException {
+	final File out =super.createTmpFile(KnownGeneIndex.SUFFIX);
+	Assert.assertEquals(new KnownGenesToIndex().instanceMain(new String[] {
+			"-o",out.getPath(),
+			kgfile
+			}),0);
+	Assert.assertTrue(KnownGeneIndex.isIndex(out.getPath()));
+	final IntervalTreeMap<List<KnownGene>> treeMap = KnownGene.loadUriAsIntervalTreeMap(kgfile, null);
+	try(final KnownGeneIndex index = KnownGeneIndex.open(out)) {
+		Assert.assertEquals(index.size(), treeMap.values().stream().mapToInt(L->L.size()).sum());
+		for(final Interval interval:treeMap.keySet()) {
+			final List<String> expect = treeMap.getOverlapping(interval).stream().
+					flatMap(L->L.stream()).
+					map(KG->KG.getName()+":"+KG.getTxStart()+"-"+KG.getTxEnd()+":"+KG.getExonCount()).
+					sorted().
+					collect(Collectors.toList());
+			final List<String> found = index.getOverlapping(interval).stream().
+					map(KG->KG.getName()+":"+KG.getTxStart()+"-"+KG.getTxEnd()+":"+KG.getExonCount()).
+					sorted().
+					collect(Collectors.toList());
+			Assert.assertEquals(found, expect);
+			}
+		}
+	}
+}
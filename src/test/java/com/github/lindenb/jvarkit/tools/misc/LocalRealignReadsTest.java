@@ -0,0 +1,105 @@
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.reference.FastaSequenceIndexCreator;
+
+public class LocalRealignReadsTest extends TestUtils {
+
+	private List<String> readRecords(final File f) throws IOException {
+		return Files.readAllLines(f.toPath()).stream().
+				filter(L->!L.startsWith("@")).
+				collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="all-one-bam-and-ref")
+	public void test01(final String inBam,final String inFasta) throws IOException {
+		final File in = addClippingToBam(new File(inBam));
+		final File out1 = createTmpFile(".sam");
+		Assert.assertEquals(new LocalRealignReads().instanceMain(newCmd().add(
+				"-R",inFasta,
+				"-o",out1,
+				in
+				).make()),0);
+		final File out2 = createTmpFile(".sam");
+		Assert.assertEquals(new LocalRealignReads().instanceMain(newCmd().add(
+				"-R",inFasta,
+				"-j",3,
+				"--batch-size",7,
+				"-o",out2,
+				in
+				).make()),0);
+		final List<String> L1 = readRecords(out1);
+		Assert.assertFalse(L1.isEmpty());
+		Assert.assertEquals(L1, readRecords(out2));
+		}
+	
+	/** reads whose clipped sequence is a known part of the reference */
+	@Test
+	public void testKnownClips() throws IOException {
+		final Random rand = new Random(0L);
+		final StringBuilder sb = new StringBuilder();
+		while(sb.length()<1000) sb.append("ACGT".charAt(rand.nextInt(4)));
+		final String ref = sb.toString();
+		
+		final File fasta = createTmpFile(".fa");
+		PrintWriter pw = new PrintWriter(fasta);
+		pw.println(">chr1");
+		for(int i=0;i< ref.length();i+=60) pw.println(ref.substring(i, Math.min(ref.length(),i+60)));
+		pw.flush();
+		pw.close();
+		FastaSequenceIndexCreator.buildFromFasta(fasta.toPath());
+		deleteOnExit(new File(fasta.getPath()+".fai"));
+		final File dict = new File(fasta.getParentFile(),fasta.getName().replaceAll("\\.fa$",".dict"));
+		deleteOnExit(dict);
+		pw = new PrintWriter(dict);
+		pw.println("@HD\tVN:1.5");
+		pw.println("@SQ\tSN:chr1\tLN:"+ref.length());
+		pw.flush();
+		pw.close();
+		
+		final File in = createTmpFile(".sam");
+		pw = new PrintWriter(in);
+		pw.println("@HD\tVN:1.5\tSO:coordinate");
+		pw.println("@SQ\tSN:chr1\tLN:"+ref.length());
+		/* 30M at 201-230, the 3' clip is chr1:271-290 on the plus strand */
+		pw.println("r1\t0\tchr1\t201\t60\t30M20S\t*\t0\t0\t"+ref.substring(200,230)+ref.substring(270,290)+"\t*");
+		/* 30M at 601-630, the 5' clip is chr1:651-670 on the minus strand */
+		pw.println("r2\t0\tchr1\t601\t60\t20S30M\t*\t0\t0\t"+AcidNucleics.reverseComplement(ref.substring(650,670))+ref.substring(600,630)+"\t*");
+		pw.flush();
+		pw.close();
+		
+		for(int nJobs=1;nJobs<=2;++nJobs) {
+			final File out = createTmpFile(".sam");
+			Assert.assertEquals(new LocalRealignReads().instanceMain(newCmd().add(
+					"-R",fasta,
+					"-j",nJobs,
+					"-o",out,
+					in
+					).make()),0);
+			final Map<String,String> name2xr;
+			try(SamReader sr = SamReaderFactory.makeDefault().open(out)) {
+				name2xr = sr.iterator().stream().collect(Collectors.toMap(SAMRecord::getReadName,R->R.getStringAttribute("XR")));
+				}
+			Assert.assertEquals(name2xr.size(), 2);
+			Assert.assertEquals(name2xr.get("r1"), "chr1,271,+,20M,20;");
+			Assert.assertEquals(name2xr.get("r2"), "chr1,651,-,20M,20;");
+			}
+		}
+	}
@@ -24,4 +24,21 @@ public class VCFShuffleTest  extends TestUtils {
 			super.variantStream(out).count()
 			);
 		}
+	@Test(dataProvider="all-vcf-files")
+	public void testOffsets(final String inputFile) 
+		throws IOException
+		{
+		if(!(inputFile.endsWith(".vcf") || inputFile.endsWith(".vcf.gz"))) return;
+		final File out = super.createTmpFile(".vcf");
+		Assert.assertEquals(0,new VCFShuffle().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"--offsets",
+			inputFile
+			}));
+		assertIsVcf(out);
+		Assert.assertEquals(
+			super.variantStream(new File(inputFile)).count(),
+			super.variantStream(out).count()
+			);
+		}
 	}
@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -21,4 +23,27 @@ public class VcfCaddTest extends TestUtils {
 			}));
 		assertIsVcf(out);
 		}
+	
+	@Test
+	public void testSorted() 
+		throws IOException
+		{
+		final String inputFile = SRC_TEST_RESOURCE+"/gnomad.exomes.r2.0.1.sites.vcf.gz";
+		final File out1 = super.createTmpFile(".vcf");
+		Assert.assertEquals(0,new VcfCadd().instanceMain(new String[] {
+			"-o",out1.getPath(),
+			"-u","http://krishna.gs.washington.edu/download/CADD/v1.3/1000G_phase3.tsv.gz",
+			inputFile
+			}));
+		final File out2 = super.createTmpFile(".vcf");
+		Assert.assertEquals(0,new VcfCadd().instanceMain(new String[] {
+			"-o",out2.getPath(),
+			"-u","http://krishna.gs.washington.edu/download/CADD/v1.3/1000G_phase3.tsv.gz",
+			"--sorted",
+			inputFile
+			}));
+		final List<String> L1 = variantStream(out1).map(V->V.getContig()+":"+V.getStart()+":"+V.getAttributeAsString("CADD_SCORE", ".")).collect(Collectors.toList());
+		final List<String> L2 = variantStream(out2).map(V->V.getContig()+":"+V.getStart()+":"+V.getAttributeAsString("CADD_SCORE", ".")).collect(Collectors.toList());
+		Assert.assertEquals(L1, L2);
+		}
 }
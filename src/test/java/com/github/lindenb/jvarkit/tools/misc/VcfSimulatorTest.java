@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -9,6 +11,10 @@ import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
 public class VcfSimulatorTest extends TestUtils{
 	
 	@DataProvider(name = "src1")
@@ -28,4 +34,39 @@ public void testRef(final String ref) throws IOException{
 		}));
 	assertIsVcf(out);
 	}
+
+@Test(dataProvider="src1")	
+public void testSuite(final String ref) throws IOException{
+	final File out = super.createTmpFile(".vcf");
+	final File bed = super.createTmpFile(".bed");
+	final File bam = super.createTmpFile(".bam");
+	Assert.assertEquals(0,new VcfSimulator().instanceMain(new String[] {
+		"-R",ref,
+		"-o",out.getPath(),
+		"-S","1",
+		"-n","3",
+		"-nv","20",
+		"--density","0.05",
+		"--depth","10",
+		"--read-length","20",
+		"--gene-size","50",
+		"--annotations","2",
+		"--bed",bed.getPath(),
+		"--bam",bam.getPath()
+		}));
+	assertIsVcf(out);
+	Assert.assertTrue(variantStream(out).allMatch(V->V.hasAttribute("ANN") && V.getGenotypes().stream().allMatch(G->G.hasDP() && G.hasAD())));
+	assertIsBed(bed);
+	assertIsValidBam(bam);
+	/* every variant is covered by the reads, including the last ones when -nv stops in the middle of a contig */
+	final List<SAMRecord> reads;
+	try(SamReader sr = SamReaderFactory.makeDefault().open(bam)) {
+		reads = sr.iterator().stream().collect(Collectors.toList());
+		}
+	Assert.assertTrue(variantStream(out).count()<=20L);
+	Assert.assertTrue(variantStream(out).allMatch(V->reads.stream().anyMatch(R->
+		R.getContig().equals(V.getContig()) &&
+		R.getStart()<=V.getStart() &&
+		V.getStart()<=R.getEnd())));
+	}
 }
@@ -2,6 +2,8 @@ package com.github.lindenb.jvarkit.tools.misc;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -32,5 +34,27 @@ public void test01(final String inputFile,int num)
 	Assert.assertTrue(variantStream(out).count() <=num);
 	}
 
+@Test(dataProvider="src1")
+public void testBackward(final String inputFile,int num) 
+	throws IOException
+	{
+	final File out1 = super.createTmpFile(".vcf");
+	Assert.assertEquals(0,new VcfTail().instanceMain(new String[] {
+		"-n",String.valueOf(num),
+		"-o",out1.getPath(),
+		inputFile
+		}));
+	final File out2 = super.createTmpFile(".vcf");
+	Assert.assertEquals(0,new VcfTail().instanceMain(new String[] {
+		"-n",String.valueOf(num),
+		"--stream",
+		"-o",out2.getPath(),
+		inputFile
+		}));
+	final List<String> L1 = variantStream(out1).map(V->V.getContig()+":"+V.getStart()+":"+V.getReference()).collect(Collectors.toList());
+	final List<String> L2 = variantStream(out2).map(V->V.getContig()+":"+V.getStart()+":"+V.getReference()).collect(Collectors.toList());
+	Assert.assertEquals(L1, L2);
+	}
+
 	
 }
@@ -2,6 +2,7 @@ package com.github.lindenb.jvarkit.tools.sam2tsv;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -32,4 +33,45 @@ public class Sam2TsvTest extends TestUtils {
 			}),0);
 		assertTsvTableIsConsitent(out,null);
 		}
+	
+	@Test(dataProvider="src1")
+	public void testParallel(final String inBam,String inFasta) 
+		throws IOException
+		{
+		final File in = addClippingToBam(new File(inBam));
+		final File out1 = createTmpFile(".txt");
+		Assert.assertEquals(new Sam2Tsv().instanceMain(new String[] {
+			"-R",inFasta,
+			"-A",
+			"-o",out1.getPath(),
+			in.getPath()
+			}),0);
+		final File out2 = createTmpFile(".txt");
+		Assert.assertEquals(new Sam2Tsv().instanceMain(new String[] {
+			"-R",inFasta,
+			"-A",
+			"-j","3",
+			"--batch-size","7",
+			"-o",out2.getPath(),
+			in.getPath()
+			}),0);
+		Assert.assertEquals(Files.readAllLines(out1.toPath()), Files.readAllLines(out2.toPath()));
+		}
+	
+	@Test
+	public void testByteBuilder() {
+		final Sam2Tsv.ByteBuilder b = new Sam2Tsv.ByteBuilder(1);
+		for(final int v: new int[] {0,1,-1,9,10,-10,123456789,-123456789,Integer.MAX_VALUE,Integer.MIN_VALUE}) {
+			b.clear();
+			b.appendInt(v).append('|').
+				appendRightAligned(v,8).append('|').
+				appendLeftAligned(v,8).append('|').
+				appendRightAligned("x"+v,10);
+			Assert.assertEquals(
+				new String(b.toByteArray()),
+				String.format("%d|%8d|%-8d|%10s",v,v,v,"x"+v)
+				);
+			Assert.assertEquals(Sam2Tsv.ByteBuilder.intWidth(v), String.valueOf(v).length());
+			}
+		}
 }
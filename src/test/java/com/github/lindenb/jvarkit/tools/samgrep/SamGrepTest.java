@@ -0,0 +1,70 @@
+package com.github.lindenb.jvarkit.tools.samgrep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+public class SamGrepTest extends TestUtils {
+	
+	private List<SAMRecord> readRecords(final File bam) throws IOException {
+		try(SamReader sr=SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(bam)) {
+			return sr.iterator().stream().collect(Collectors.toList());
+			}
+		}
+	
+	private List<String> toStrings(final List<SAMRecord> L) {
+		return L.stream().map(R->R.getSAMString()).collect(Collectors.toList());
+		}
+	
+	@Test(dataProvider="all-sam-or-bam-files")
+	public void testJobs(final String samFile) throws IOException {
+		final List<SAMRecord> input = readRecords(new File(samFile));
+		if(input.isEmpty()) return;
+		/* every other read name, and a name that is not in the file */
+		final File names = createTmpFile(".txt");
+		final PrintWriter pw = new PrintWriter(names);
+		pw.println("__NOT_A_READ_NAME__");
+		for(int i=0;i< input.size();i+=2) pw.println(input.get(i).getReadName());
+		pw.flush();
+		pw.close();
+		
+		for(final String invert:new String[] {"","-V"}) {
+			final File out1 = createTmpFile(".bam");
+			Assert.assertEquals(
+					new SamGrep().instanceMain(newCmd().add(
+							"-o",out1,
+							"-f",names).
+						addIf(!invert.isEmpty(),invert).
+						add(samFile).
+						make()),0);
+			assertIsValidBam(out1);
+			
+			final File out2 = createTmpFile(".bam");
+			Assert.assertEquals(
+					new SamGrep().instanceMain(newCmd().add(
+							"-o",out2,
+							"-f",names,
+							"-j",3,
+							"--batch-size",7).
+						addIf(!invert.isEmpty(),invert).
+						add(samFile).
+						make()),0);
+			assertIsValidBam(out2);
+			final List<String> L1 = toStrings(readRecords(out1));
+			Assert.assertFalse(L1.isEmpty() && invert.isEmpty());
+			Assert.assertEquals(toStrings(readRecords(out2)), L1);
+			}
+		}
+	}
@@ -0,0 +1,45 @@
+package com.github.lindenb.jvarkit.tools.structvar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+public class SamScanSplitReadsTest extends TestUtils{
+	
+	private long countSupportingReads(final File f) throws IOException {
+		return Files.lines(f.toPath()).
+				mapToLong(L->Long.parseLong(L.split("[\t]")[6])).
+				sum();
+		}
+	
+	private List<String> readLines(final File f) throws IOException {
+		return Files.readAllLines(f.toPath());
+		}
+	
+	@Test
+	public void testParallel() 
+		throws IOException
+		{
+		final String inBam = SRC_TEST_RESOURCE+"/FAB23716.nanopore.bam";
+		final File out1 = super.createTmpFile(".txt");
+		Assert.assertEquals(new SamScanSplitReads().instanceMain(new String[] {
+			"-o",out1.getPath(),
+			inBam
+			}),0);
+		final File out2 = super.createTmpFile(".txt");
+		Assert.assertEquals(new SamScanSplitReads().instanceMain(new String[] {
+			"-o",out2.getPath(),
+			"-j","3",
+			inBam
+			}),0);
+		assertTsvTableIsConsitent(out1, null);
+		Assert.assertTrue(countSupportingReads(out1)>0L);
+		Assert.assertEquals(readLines(out2),readLines(out1));
+		}
+}
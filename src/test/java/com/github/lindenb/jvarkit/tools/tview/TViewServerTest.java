@@ -3,7 +3,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -58,6 +61,49 @@ public class TViewServerTest  extends TestUtils {
 		
 		assertIsXml(htmlOut);
 		}
+	
+	@Test
+	public void testPoolAndCache() throws IOException {
+		final int port = 9091;
+		final List<String> regions = Arrays.asList("RF01:100-200","RF01:100-200","RF01:100-200","RF02:1-50","RF03:10-60");
+		final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+		new java.util.Timer().schedule( 
+		        new java.util.TimerTask() {
+		            @Override
+		            public void run() {
+		            	for(final String rgn:regions) {
+		            		InputStream in= null;
+			            	try {
+			            		final File htmlOut = createTmpFile(".html");
+			            		final String uri = "http://localhost:"+port+"/?rgn="+URLEncoder.encode(rgn, "UTF-8");
+			            		in=IOUtils.openURIForReading(uri);
+			            		IOUtils.copyTo(in, htmlOut);
+			            	} catch(IOException err) {
+			            		errors.add(rgn+" : "+err.getMessage());
+			            	}
+			            	finally {
+			            		CloserUtil.close(in);
+			            	}
+		            	}
+		            }
+		        },1000);
+		
+		final TViewServer server = new TViewServer();
+		Assert.assertEquals(server.instanceMain(newCmd().add(
+				"-P",port,
+				"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+				"--shutdown-after","10",
+				"--pool-size","2",
+				SRC_TEST_RESOURCE+"/S1.bam"
+				).make()),0);
+		Assert.assertTrue(errors.isEmpty(),String.valueOf(errors));
+		Assert.assertEquals(server.countRequests.get(),regions.size());
+		/* same region requested three times: rendered once, then served from the cache */
+		Assert.assertEquals(server.countRendered.get(),3L);
+		Assert.assertEquals(server.countCacheHits.get(),2L);
+		/* sequential requests: the reader is borrowed again from the pool */
+		Assert.assertEquals(server.countOpenedReaders.get(),1L);
+		}
 
 
 }
@@ -0,0 +1,60 @@
+package com.github.lindenb.jvarkit.tools.vcfannot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.misc.KnownGenesToIndex;
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneIndex;
+
+public class VCFPredictionsTest extends TestUtils {
+	
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new ParamCombiner().
+			initList(new Object[] {
+				SRC_TEST_RESOURCE+"/rotavirus_rf.vcf.gz",
+				SRC_TEST_RESOURCE+"/rotavirus_rf.freebayes.vcf.gz",
+				SRC_TEST_RESOURCE+"/rotavirus_rf.unifiedgenotyper.vcf.gz"
+				}).
+			product("Native","Vep","SnpEff").
+			build();
+		}
+	
+	private List<String> annotate(final String vcf,final String syntax,final String kg,int jobs) throws IOException {
+		final File out = super.createTmpFile(".vcf");
+		Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+			"-o",out.getPath(),
+			"-R",SRC_TEST_RESOURCE+"/rotavirus_rf.fa",
+			"-k",kg,
+			"--syntax",syntax,
+			"-j",String.valueOf(jobs),
+			"--batch-size","3",
+			vcf
+			}),0);
+		assertIsVcf(out);
+		return variantStream(out).
+			map(V->V.getContig()+":"+V.getStart()+":"+V.getAttributeAsStringList(syntax.equals("Vep")?"CSQ":syntax.equals("SnpEff")?"ANN":VCFPredictions.TAG,"").stream().sorted().collect(Collectors.joining(","))).
+			collect(Collectors.toList());
+		}
+	
+	@Test(dataProvider="src1")
+	public void test01(final String vcf,final String syntax) throws IOException {
+		final String kg = SRC_TEST_RESOURCE+"/rotavirus_rf.knowngenes.tsv.gz";
+		final List<String> expect = annotate(vcf,syntax,kg,1);
+		Assert.assertEquals(annotate(vcf,syntax,kg,3),expect);
+		
+		final File kgIndex = super.createTmpFile(KnownGeneIndex.SUFFIX);
+		Assert.assertEquals(new KnownGenesToIndex().instanceMain(new String[] {
+			"-o",kgIndex.getPath(),
+			kg
+			}),0);
+		Assert.assertEquals(annotate(vcf,syntax,kgIndex.getPath(),2),expect);
+		}
+}
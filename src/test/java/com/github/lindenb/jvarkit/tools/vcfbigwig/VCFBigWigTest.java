@@ -3,6 +3,8 @@ package com.github.lindenb.jvarkit.tools.vcfbigwig;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -45,4 +47,31 @@ public void testXml() throws IOException {
 	Assert.assertTrue(variantStream(out).anyMatch(P->P.hasAttribute("XXX")));
 	}
 
+@Test
+public void testSorted() throws IOException {
+	for(final String aggregate: new String[] {"avg","median","first","all"}) {
+		final File out1 = super.createTmpFile(".vcf");
+		Assert.assertEquals(0,new VCFBigWig().instanceMain(new String[] {
+				"-B",SRC_TEST_RESOURCE+"/Uniqueness35bp.bigWig",
+				"-T","XXX",
+				"-a",aggregate,
+				"-o",out1.getPath(),
+				SRC_TEST_RESOURCE+"/test_vcf01.vcf"
+				}));
+		final File out2 = super.createTmpFile(".vcf");
+		Assert.assertEquals(0,new VCFBigWig().instanceMain(new String[] {
+				"-B",SRC_TEST_RESOURCE+"/Uniqueness35bp.bigWig",
+				"-T","XXX",
+				"-a",aggregate,
+				"--sorted",
+				"--block-size","1000",
+				"-o",out2.getPath(),
+				SRC_TEST_RESOURCE+"/test_vcf01.vcf"
+				}));
+		assertIsVcf(out2);
+		final List<String> L1 = variantStream(out1).map(V->String.valueOf(V.getAttribute("XXX"))).collect(Collectors.toList());
+		final List<String> L2 = variantStream(out2).map(V->String.valueOf(V.getAttribute("XXX"))).collect(Collectors.toList());
+		Assert.assertEquals(L2, L1);
+		}
+	}
 }
@@ -1,11 +1,17 @@
 package com.github.lindenb.jvarkit.tools.vcfcomposite;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.github.lindenb.jvarkit.io.IOUtils;
 import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 public class VCFCompositeTest extends TestUtils{
@@ -24,4 +30,132 @@ public class VCFCompositeTest extends TestUtils{
         	),0);
         super.assertIsVcf(output);
 		}
+	
+	@Test
+	public void testStreaming() 
+		throws IOException
+		{
+		final String inputFile = SRC_TEST_RESOURCE+"/rotavirus_rf.ann.vcf.gz";
+		final File ped = super.createTmpFile(".ped");
+		final PrintWriter pw = new PrintWriter(ped);
+		pw.println("F1\tS1\t0\t0\t1\t2");
+		pw.println("F1\tS2\t0\t0\t2\t2");
+		pw.println("F1\tS3\t0\t0\t1\t1");
+		pw.println("F1\tS4\t0\t0\t2\t1");
+		pw.println("F1\tS5\t0\t0\t1\t1");
+		pw.flush();
+		pw.close();
+		final File output1 = super.createTmpFile(".vcf");
+        Assert.assertEquals(new VCFComposite().instanceMain(
+        		newCmd().add(
+        		"-o",output1.getPath(),
+        		"--pedigree",ped).
+        		add(inputFile).make()
+        	),0);
+        super.assertIsVcf(output1);
+		final File output2 = super.createTmpFile(".vcf");
+        Assert.assertEquals(new VCFComposite().instanceMain(
+        		newCmd().add(
+        		"-o",output2.getPath(),
+        		"--streaming",
+        		"--pedigree",ped).
+        		add(inputFile).make()
+        	),0);
+        super.assertIsVcf(output2);
+        final List<String> L1 = variantStream(output1).
+        		map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+V.getFilters()+":"+new TreeSet<>(V.getAttributeAsStringList("COMPOSITE", ""))).
+        		collect(Collectors.toList());
+        final List<String> L2 = variantStream(output2).
+        		map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+V.getFilters()+":"+new TreeSet<>(V.getAttributeAsStringList("COMPOSITE", ""))).
+        		collect(Collectors.toList());
+        Assert.assertEquals(L1.size(), 45);
+        /* streaming mode writes the variants in the input order */
+        Assert.assertEquals(L2, L1);
+        Assert.assertEquals(
+        		variantStream(output2).map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).collect(Collectors.toList()),
+        		variantStream(new File(inputFile)).map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).collect(Collectors.toList())
+        		);
+		}
+	
+	/** copy rotavirus_rf.ann.vcf.gz without the dictionary, the contigs RF01..RF11 are renamed chr1..chr11 */
+	private File createVcfWithoutDict(final boolean sorted) throws IOException {
+		final File vcf = super.createTmpFile(".vcf");
+		final PrintWriter pw = new PrintWriter(vcf);
+		final BufferedReader br = IOUtils.openFileForBufferedReading(new File(SRC_TEST_RESOURCE,"rotavirus_rf.ann.vcf.gz"));
+		String lastLine = null;
+		String line;
+		while((line=br.readLine())!=null) {
+			if(line.startsWith("##contig=")) continue;
+			if(!line.startsWith("#")) {
+				final int tab = line.indexOf('\t');
+				line = "chr"+Integer.parseInt(line.substring(2, tab))+line.substring(tab);
+				/* unsorted: the first variant on chr2 is moved at the end */
+				if(!sorted && lastLine==null && line.startsWith("chr2\t")) {
+					lastLine = line;
+					continue;
+					}
+				}
+			pw.println(line);
+			}
+		if(lastLine!=null) pw.println(lastLine);
+		br.close();
+		pw.flush();
+		pw.close();
+		return vcf;
+		}
+	
+	@Test
+	public void testStreamingWithoutDict() 
+		throws IOException
+		{
+		final File ped = super.createTmpFile(".ped");
+		final PrintWriter pw = new PrintWriter(ped);
+		pw.println("F1\tS1\t0\t0\t1\t2");
+		pw.println("F1\tS2\t0\t0\t2\t2");
+		pw.println("F1\tS3\t0\t0\t1\t1");
+		pw.println("F1\tS4\t0\t0\t2\t1");
+		pw.println("F1\tS5\t0\t0\t1\t1");
+		pw.flush();
+		pw.close();
+		final File input = createVcfWithoutDict(true);
+		final File output1 = super.createTmpFile(".vcf");
+        Assert.assertEquals(new VCFComposite().instanceMain(
+        		newCmd().add(
+        		"-o",output1.getPath(),
+        		"--pedigree",ped).
+        		add(input).make()
+        	),0);
+		final File output2 = super.createTmpFile(".vcf");
+        Assert.assertEquals(new VCFComposite().instanceMain(
+        		newCmd().add(
+        		"-o",output2.getPath(),
+        		"--streaming",
+        		"--pedigree",ped).
+        		add(input).make()
+        	),0);
+        super.assertIsVcf(output2);
+        /* chr1,chr2,..,chr10 is not the lexicographic order used by the default mode */
+        final List<String> L1 = variantStream(output1).
+        		map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+V.getFilters()+":"+new TreeSet<>(V.getAttributeAsStringList("COMPOSITE", ""))).
+        		sorted().
+        		collect(Collectors.toList());
+        final List<String> L2 = variantStream(output2).
+        		map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+V.getFilters()+":"+new TreeSet<>(V.getAttributeAsStringList("COMPOSITE", ""))).
+        		sorted().
+        		collect(Collectors.toList());
+        Assert.assertEquals(L1.size(), 45);
+        Assert.assertEquals(L2, L1);
+        Assert.assertEquals(
+        		variantStream(output2).map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).collect(Collectors.toList()),
+        		variantStream(input).map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).collect(Collectors.toList())
+        		);
+        /* a contig seen twice is still rejected */
+        Assert.assertNotEquals(new VCFComposite().instanceMain(
+        		newCmd().add(
+        		"-o",super.createTmpFile(".vcf").getPath(),
+        		"--streaming",
+        		"--pedigree",ped).
+        		add(createVcfWithoutDict(false)).make()
+        	),0);
+		}
 }
@@ -0,0 +1,128 @@
+package com.github.lindenb.jvarkit.tools.vcfconcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineType;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+public class VcfConcatTest extends TestUtils {
+	
+	private List<String> toStrings(final File vcf) {
+		return variantStream(vcf).
+			map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()).
+			collect(Collectors.toList());
+		}
+	
+	@Test
+	public void testRaw() throws IOException {
+		final File input = new File(SRC_TEST_RESOURCE,"rotavirus_rf.freebayes.vcf.gz");
+		/* one bgzipped VCF per contig */
+		final Map<String,VariantContextWriter> contig2writer = new HashMap<>();
+		final List<File> shards = new ArrayList<>();
+		final VCFFileReader r = new VCFFileReader(input,false);
+		final VCFHeader header = r.getFileHeader();
+		final CloseableIterator<VariantContext> iter = r.iterator();
+		while(iter.hasNext()) {
+			final VariantContext ctx = iter.next();
+			VariantContextWriter w = contig2writer.get(ctx.getContig());
+			if(w==null) {
+				final File shard = createTmpFile("."+ctx.getContig()+".vcf.gz");
+				shards.add(shard);
+				w = new VariantContextWriterBuilder().
+					setOutputFile(shard).
+					unsetOption(Options.INDEX_ON_THE_FLY).
+					build();
+				w.writeHeader(header);
+				contig2writer.put(ctx.getContig(),w);
+				}
+			w.add(ctx);
+			}
+		iter.close();
+		r.close();
+		contig2writer.values().forEach(W->CloserUtil.close(W));
+		Collections.shuffle(shards,this.random);
+		
+		final File output = createTmpFile(".vcf.gz");
+		final List<String> args = new ArrayList<>();
+		args.add("--raw");
+		args.add("--index");
+		args.add("-o");
+		args.add(output.getPath());
+		shards.forEach(F->args.add(F.getPath()));
+		Assert.assertEquals(new VcfConcat().instanceMain(args.toArray(new String[args.size()])),0);
+		assertIsVcf(output);
+		Assert.assertTrue(new File(output.getPath()+".tbi").exists());
+		deleteOnExit(new File(output.getPath()+".tbi"));
+		Assert.assertEquals(toStrings(output),toStrings(input));
+		}
+	
+	@Test
+	public void testRawDifferentHeaders() throws IOException {
+		final File input = new File(SRC_TEST_RESOURCE,"rotavirus_rf.freebayes.vcf.gz");
+		final VCFFileReader r = new VCFFileReader(input,false);
+		final VCFHeader header = r.getFileHeader();
+		final List<VariantContext> variants = r.iterator().stream().collect(Collectors.toList());
+		r.close();
+		Assert.assertFalse(variants.isEmpty());
+		final String firstContig = variants.get(0).getContig();
+		/* same header + a new INFO line for the second shard */
+		final VCFHeader header2 = new VCFHeader(header);
+		header2.addMetaDataLine(new VCFInfoHeaderLine("XXX", 1, VCFHeaderLineType.Integer, "undefined in the first shard"));
+		final File shard1 = createTmpFile(".1.vcf.gz");
+		final File shard2 = createTmpFile(".2.vcf.gz");
+		for(int side=0;side<2;++side) {
+			final VariantContextWriter w = new VariantContextWriterBuilder().
+				setOutputFile(side==0?shard1:shard2).
+				unsetOption(Options.INDEX_ON_THE_FLY).
+				build();
+			w.writeHeader(side==0?header:header2);
+			for(final VariantContext ctx:variants) {
+				if(ctx.getContig().equals(firstContig)==(side==0)) w.add(ctx);
+				}
+			w.close();
+			}
+		final File output = createTmpFile(".vcf.gz");
+		Assert.assertNotEquals(new VcfConcat().instanceMain(new String[] {
+			"--raw",
+			"-o",output.getPath(),
+			shard1.getPath(),
+			shard2.getPath()
+			}),0);
+		}
+	
+	@Test
+	public void testRawOverlapping() throws IOException {
+		final File input = new File(SRC_TEST_RESOURCE,"rotavirus_rf.freebayes.vcf.gz");
+		final File copy = createTmpFile(".vcf.gz");
+		Files.copy(input.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		final File output = createTmpFile(".vcf.gz");
+		Assert.assertNotEquals(new VcfConcat().instanceMain(new String[] {
+			"--raw",
+			"-o",output.getPath(),
+			input.getPath(),
+			copy.getPath()
+			}),0);
+		}
+	}
@@ -0,0 +1,105 @@
+package com.github.lindenb.jvarkit.tools.vcfstats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+
+public class GenotypeConcordanceMatrixTest {
+	private List<VariantContext> randomVariants(final Random rand,final int nSamples,final int nVariants) {
+		final Allele ref = Allele.create("A", true);
+		final Allele alts[] = {Allele.create("C", false),Allele.create("G", false)};
+		final List<VariantContext> L = new ArrayList<>(nVariants);
+		for(int v=0;v< nVariants;++v) {
+			final boolean multiAllelic = rand.nextInt(5)==0;
+			final boolean withHaploid = rand.nextInt(10)==0;
+			final List<Allele> alleles = multiAllelic?Arrays.asList(ref,alts[0],alts[1]):Arrays.asList(ref,alts[0]);
+			final List<Genotype> genotypes = new ArrayList<>(nSamples);
+			for(int i=0;i< nSamples;++i) {
+				final List<Allele> gt;
+				final int type = rand.nextInt(5);
+				if(type==0) {
+					gt = Arrays.asList(Allele.NO_CALL,Allele.NO_CALL);
+					}
+				else if(type==1 && withHaploid) {
+					gt = Arrays.asList(alleles.get(rand.nextInt(alleles.size())));
+					}
+				else
+					{
+					gt = Arrays.asList(alleles.get(rand.nextInt(alleles.size())),alleles.get(rand.nextInt(alleles.size())));
+					}
+				genotypes.add(new GenotypeBuilder("S"+i, gt).make());
+				}
+			L.add(new VariantContextBuilder("test","1",v+1,v+1,alleles).genotypes(genotypes).make());
+			}
+		return L;
+		}
+	
+	private void check(final ExecutorService executor,final int nThreads) {
+		final Random rand = new Random(0L);
+		final int nSamples = 13;
+		final List<VariantContext> variants = randomVariants(rand,nSamples,500);
+		final GenotypeConcordanceMatrix matrix = new GenotypeConcordanceMatrix(nSamples, executor, nThreads);
+		variants.forEach(V->matrix.visit(V));
+		matrix.finish();
+		for(int x=0;x< nSamples;++x) {
+			for(int y=0;y< nSamples;++y) {
+				long n=0L;
+				for(final VariantContext ctx:variants) {
+					final Genotype g1 = ctx.getGenotype(x);
+					final Genotype g2 = ctx.getGenotype(y);
+					if(g1.isCalled() && g2.isCalled() && g1.sameGenotype(g2)) n++;
+					}
+				Assert.assertEquals(matrix.get(x, y), n);
+				}
+			}
+		}
+	
+	@Test
+	public void testSerial() {
+		check(null,1);
+		}
+	
+	@Test
+	public void testParallel() {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			check(executor,3);
+			}
+		finally {
+			executor.shutdownNow();
+			}
+		}
+	
+	@Test
+	public void testMerge() {
+		final Random rand = new Random(0L);
+		final int nSamples = 7;
+		final List<VariantContext> variants = randomVariants(rand,nSamples,300);
+		final GenotypeConcordanceMatrix whole = new GenotypeConcordanceMatrix(nSamples, null, 1);
+		variants.forEach(V->whole.visit(V));
+		whole.finish();
+		final GenotypeConcordanceMatrix part1 = new GenotypeConcordanceMatrix(nSamples, null, 1);
+		final GenotypeConcordanceMatrix part2 = new GenotypeConcordanceMatrix(nSamples, null, 1);
+		variants.subList(0, 100).forEach(V->part1.visit(V));
+		variants.subList(100, variants.size()).forEach(V->part2.visit(V));
+		part1.merge(part2);
+		part1.finish();
+		for(int x=0;x< nSamples;++x) {
+			for(int y=0;y< nSamples;++y) {
+				Assert.assertEquals(part1.get(x, y), whole.get(x, y));
+				}
+			}
+		}
+	}
@@ -1,7 +1,16 @@
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -10,6 +19,22 @@ import com.github.lindenb.jvarkit.tools.tests.TestUtils;
 
 
 public class VcfStatsTest extends TestUtils {
+	/** read a zip: entry name to the sorted lines of the entry */
+	private Map<String,List<String>> readZip(final File zip) throws IOException {
+		final Map<String,List<String>> entries = new HashMap<>();
+		try(ZipFile zipFile = new ZipFile(zip)) {
+			for(final ZipEntry entry : Collections.list(zipFile.entries())) {
+				final List<String> lines = new ArrayList<>();
+				try(BufferedReader br=new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry)))) {
+					br.lines().forEach(L->lines.add(L));
+					}
+				Collections.sort(lines);
+				entries.put(entry.getName(), lines);
+				}
+			}
+		return entries;
+		}
+	
 	@Test(dataProvider="all-vcf-files")
 	public void test01(final String inputFile) 
 		throws IOException
@@ -23,4 +48,100 @@ public class VcfStatsTest extends TestUtils {
         		add(inputFile).make()
         	));
 		}
+	@Test(dataProvider="all-vcf-files")
+	public void testParallel(final String inputFile) 
+		throws IOException
+		{
+		final File output = super.createTmpFile(".zip");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output.getPath(),
+        		"-j",3).
+        		add(inputFile).make()
+        	));
+		}
+	@Test(dataProvider="all-indexed-vcf-files")
+	public void testSharded(final String inputFile) 
+		throws IOException
+		{
+		final File ped = super.createRandomPedigreeFromFile(inputFile);
+		final File output1 = super.createTmpFile(".zip");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output1.getPath()).
+        		addIf(ped!=null, "--pedigree",ped).
+        		add(inputFile).make()
+        	));
+        final File output2 = super.createTmpFile(".zip");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output2.getPath(),
+        		"--sharded","-j",3).
+        		addIf(ped!=null, "--pedigree",ped).
+        		add(inputFile).make()
+        	));
+        Assert.assertEquals(readZip(output1), readZip(output2));
+		}
+	@Test(dataProvider="all-vcf-files")
+	public void testStates(final String inputFile) 
+		throws IOException
+		{
+		final File ped = super.createRandomPedigreeFromFile(inputFile);
+		final File output1 = super.createTmpFile(".zip");
+		final File state = super.createTmpFile(".state.gz");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output1.getPath(),
+        		"--save-state",state).
+        		addIf(ped!=null, "--pedigree",ped).
+        		add(inputFile).make()
+        	));
+        final File output2 = super.createTmpFile(".zip");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output2.getPath(),
+        		"--load-states").
+        		addIf(ped!=null, "--pedigree",ped).
+        		add(state).make()
+        	));
+        Assert.assertEquals(readZip(output1), readZip(output2));
+        // a state merged with itself
+        final File output3 = super.createTmpFile(".zip");
+        Assert.assertEquals(0,new VcfStats().instanceMain(
+        		newCmd().add(
+        		"-o",output3.getPath(),
+        		"--load-states").
+        		addIf(ped!=null, "--pedigree",ped).
+        		add(state).add(state).make()
+        	));
+        final Map<String,List<String>> zip1 = readZip(output1);
+        final Map<String,List<String>> zip3 = readZip(output3);
+        for(final String entry: zip1.keySet()) {
+        	if(entry.endsWith(".variant2type.tsv")) {
+        		/* the counts are doubled */
+        		final Map<String,Long> counts1 = readCounts(zip1.get(entry));
+        		final Map<String,Long> counts3 = readCounts(zip3.get(entry));
+        		Assert.assertEquals(counts3.keySet(), counts1.keySet());
+        		for(final String k: counts1.keySet()) {
+        			Assert.assertEquals(counts3.get(k).longValue(), 2L*counts1.get(k), entry+" "+k);
+        			}
+        		}
+        	else if(entry.endsWith(".maf.tsv")) {
+        		/* the points are plotted twice */
+        		Assert.assertEquals(zip3.get(entry).size(), 2*zip1.get(entry).size(), entry);
+        		}
+        	}
+		}
+	
+	/** read the 'name count' lines of a table, skip the header */
+	private Map<String,Long> readCounts(final List<String> lines) {
+		Assert.assertNotNull(lines);
+		final Map<String,Long> counts = new HashMap<>();
+		for(final String line: lines) {
+			final String tokens[] = line.split("[\t]");
+			if(tokens[0].equals("Type")) continue;
+			counts.put(tokens[0], Long.parseLong(tokens[1]));
+			}
+		return counts;
+		}
 	}
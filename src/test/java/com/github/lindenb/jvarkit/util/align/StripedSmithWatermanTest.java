@@ -0,0 +1,124 @@
+package com.github.lindenb.jvarkit.util.align;
+
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.CigarElement;
+
+public class StripedSmithWatermanTest {
+	private static final String ACGT="ACGTN";
+
+	/** naive Gotoh local alignment, returns the best score */
+	private static int naive(final byte q[],final byte t[],final StripedSmithWaterman.Scoring scoring,int gapO,int gapE) {
+		final int NEG = Integer.MIN_VALUE/4;
+		final int n=q.length,m=t.length;
+		final int H[][]=new int[n+1][m+1];
+		final int E[][]=new int[n+1][m+1];
+		final int F[][]=new int[n+1][m+1];
+		int best=0;
+		for(int i=0;i<=n;i++) for(int j=0;j<=m;j++) {E[i][j]=NEG;F[i][j]=NEG;}
+		for(int i=1;i<=n;i++) {
+			for(int j=1;j<=m;j++) {
+				E[i][j]=Math.max(E[i][j-1]-gapE,H[i][j-1]-gapO);
+				F[i][j]=Math.max(F[i-1][j]-gapE,H[i-1][j]-gapO);
+				H[i][j]=Math.max(0,Math.max(H[i-1][j-1]+scoring.score(q[i-1],t[j-1]),Math.max(E[i][j],F[i][j])));
+				best=Math.max(best,H[i][j]);
+				}
+			}
+		return best;
+		}
+
+	/** re-compute the score of an alignment from its cigar */
+	private static int rescore(final byte q[],final byte t[],final StripedSmithWaterman.Alignment a,final StripedSmithWaterman.Scoring scoring,int gapO,int gapE) {
+		int i=a.getQueryStart();
+		int j=a.getTargetStart();
+		int score=0;
+		for(final CigarElement ce:a.getCigar().getCigarElements()) {
+			switch(ce.getOperator()) {
+				case M: for(int k=0;k< ce.getLength();k++) score+=scoring.score(q[i++], t[j++]);break;
+				case I: score-=gapO+(ce.getLength()-1)*gapE; i+=ce.getLength();break;
+				case D: score-=gapO+(ce.getLength()-1)*gapE; j+=ce.getLength();break;
+				default: Assert.fail(ce.toString());break;
+				}
+			}
+		Assert.assertEquals(i, a.getQueryEnd());
+		Assert.assertEquals(j, a.getTargetEnd());
+		return score;
+		}
+
+	private static byte[] random(final Random r,int len) {
+		final byte a[]=new byte[len];
+		for(int i=0;i< len;i++) a[i]=(byte)ACGT.charAt(r.nextInt(r.nextInt(10)==0?5:4));
+		return a;
+		}
+
+	/** derive a sequence from 't' with mutations and indels */
+	private static byte[] mutate(final Random r,final byte t[],int len) {
+		final StringBuilder sb=new StringBuilder();
+		for(int i=r.nextInt(t.length);i< t.length && sb.length()< len;i++) {
+			final int x = r.nextInt(20);
+			if(x==0) continue;
+			if(x==1) sb.append(ACGT.charAt(r.nextInt(4)));
+			sb.append((char)t[i]);
+			if(x==2) sb.append("AC");
+			}
+		while(sb.length()< len) sb.append(ACGT.charAt(r.nextInt(4)));
+		return StripedSmithWaterman.toBytes(sb.substring(0,len));
+		}
+
+	@Test
+	public void testRandom() {
+		final Random r = new Random(0L);
+		final StripedSmithWaterman sw = new StripedSmithWaterman();
+		for(int iter=0;iter< 5000;iter++) {
+			final byte t[] = random(r,1+r.nextInt(120));
+			final int qlen = 1+r.nextInt(60);
+			final byte q[] = (r.nextBoolean()?mutate(r,t,qlen):random(r,qlen));
+			final int gapO = r.nextInt(8);
+			final int gapE = Math.min(gapO,r.nextInt(3));
+			sw.setGapOpen(gapO);
+			sw.setGapExtend(gapE);
+			sw.setBandWidth(iter%3==0?1+r.nextInt(4):16);
+			final StripedSmithWaterman.Alignment a = sw.align(q, t);
+			final int expect = naive(q,t,sw.getScoring(),gapO,gapE);
+			Assert.assertEquals(a.getScore(), expect, a.toString());
+			if(!a.isEmpty()) Assert.assertEquals(rescore(q,t,a,sw.getScoring(),gapO,gapE), expect);
+			}
+		}
+
+	@Test
+	public void testOverflow() {
+		final Random r = new Random(0L);
+		final StripedSmithWaterman.DefaultScoring scoring = new StripedSmithWaterman.DefaultScoring();
+		scoring.setMatchScore(1000);
+		final StripedSmithWaterman sw = new StripedSmithWaterman();
+		sw.setScoring(scoring);
+		final String s = new String(random(r,100)).replace('N', 'A');
+		final StripedSmithWaterman.Alignment a = sw.align(s,"TTT"+s+"GG");
+		Assert.assertEquals(a.getScore(), 100*1000);
+		Assert.assertEquals(a.getTargetStart(), 3);
+		Assert.assertEquals(a.getCigar().toString(), "100M");
+		}
+
+	@Test
+	public void testEmpty() {
+		final StripedSmithWaterman sw = new StripedSmithWaterman();
+		Assert.assertTrue(sw.align("AAAA","CCCC").isEmpty());
+		Assert.assertTrue(sw.align("","CCCC").isEmpty());
+		}
+
+	@Test
+	public void testDpal() {
+		final Random r = new Random(0L);
+		for(int iter=0;iter< 500;iter++) {
+			final String x = new String(random(r,1+r.nextInt(40)));
+			final String y = new String(r.nextBoolean()?mutate(r,StripedSmithWaterman.toBytes(x),1+r.nextInt(40)):random(r,1+r.nextInt(40)));
+			final Dpal striped = new Dpal();
+			final Dpal generic = new Dpal();
+			generic.setForceGeneric(true);
+			Assert.assertEquals(striped.dpal(x, y).getScore(), generic.dpal(x, y).getScore(), x+" "+y);
+			}
+		}
+	}
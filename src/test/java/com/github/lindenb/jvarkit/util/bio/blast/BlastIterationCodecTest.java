@@ -0,0 +1,99 @@
+package com.github.lindenb.jvarkit.util.bio.blast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+
+import gov.nih.nlm.ncbi.blast.Iteration;
+
+public class BlastIterationCodecTest extends TestUtils {
+	private final String BLAST_XML = SRC_TEST_RESOURCE+"/rotavirus_rf.blastn.01.xml";
+	
+	private String toXml(final Marshaller m,final Iteration iteration) throws Exception {
+		final StringWriter sw = new StringWriter();
+		m.marshal(iteration, sw);
+		return sw.toString();
+	}
+	
+	private List<Iteration> readAll() throws Exception {
+		final List<Iteration> L = new ArrayList<>();
+		final BlastIterationReader reader = new BlastIterationReader();
+		try(FileReader fr = new FileReader(BLAST_XML)) {
+			final XMLEventReader r = BlastIterationReader.createXMLInputFactory().createXMLEventReader(fr);
+			Iteration iteration;
+			while((iteration=reader.next(r))!=null) L.add(iteration);
+			r.close();
+			}
+		return L;
+	}
+	
+	@Test
+	public void testReader() throws Exception {
+		final JAXBContext jc = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast");
+		final Unmarshaller unmarshaller = jc.createUnmarshaller();
+		final Marshaller marshaller = jc.createMarshaller();
+		final List<Iteration> streamed = readAll();
+		Assert.assertFalse(streamed.isEmpty());
+		
+		final XMLInputFactory xif = BlastIterationReader.createXMLInputFactory();
+		int n=0;
+		try(FileReader fr = new FileReader(BLAST_XML)) {
+			final XMLEventReader r = xif.createXMLEventReader(fr);
+			while(r.hasNext()) {
+				if(!BlastIterationReader.isIteration(r.peek())) {
+					r.nextEvent();
+					continue;
+					}
+				final Iteration expect = unmarshaller.unmarshal(r, Iteration.class).getValue();
+				Assert.assertTrue(n < streamed.size());
+				Assert.assertEquals(toXml(marshaller,streamed.get(n)),toXml(marshaller,expect));
+				n++;
+				}
+			r.close();
+			}
+		Assert.assertEquals(n, streamed.size());
+	}
+	
+	@Test
+	public void testCodec() throws Exception {
+		final Marshaller marshaller = JAXBContext.newInstance("gov.nih.nlm.ncbi.blast").createMarshaller();
+		final List<Iteration> L = readAll();
+		final BlastIterationCodec codec = new BlastIterationCodec();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		codec.setOutputStream(baos);
+		for(final Iteration iteration:L) codec.encode(iteration);
+		
+		final BlastIterationCodec codec2 = codec.clone();
+		codec2.setInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		for(final Iteration iteration:L) {
+			final Iteration decoded = codec2.decode();
+			Assert.assertNotNull(decoded);
+			Assert.assertEquals(toXml(marshaller,decoded),toXml(marshaller,iteration));
+			}
+		Assert.assertNull(codec2.decode());
+	}
+	
+	@Test
+	public void testCanonicalInt() {
+		for(final String s:new String[]{"0","1","-1","2032","2147483647","-2147483648"}) {
+			Assert.assertTrue(BlastIterationCodec.isCanonicalInt(s),s);
+			}
+		for(final String s:new String[]{"","-","-0","01","+1","1.0","1e-5","2147483648","-2147483649"," 1"}) {
+			Assert.assertFalse(BlastIterationCodec.isCanonicalInt(s),s);
+			}
+	}
+}
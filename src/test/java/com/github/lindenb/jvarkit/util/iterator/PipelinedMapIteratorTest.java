@@ -0,0 +1,44 @@
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PipelinedMapIteratorTest {
+@Test
+public void testOrder() {
+	final List<Integer> array = new ArrayList<>();
+	for(int i=0;i< 10_000;i++) array.add(i);
+	final PipelinedMapIterator<Integer,String> iter = new PipelinedMapIterator<>(array.iterator(),(I)->"x"+I,3,17);
+	int n=0;
+	while(iter.hasNext()) {
+		Assert.assertEquals(iter.next(), "x"+n);
+		n++;
+		}
+	Assert.assertEquals(n, array.size());
+	iter.close();
+	}
+@Test
+public void testCloseEarly() {
+	final List<Integer> array = new ArrayList<>();
+	for(int i=0;i< 10_000;i++) array.add(i);
+	final PipelinedMapIterator<Integer,Integer> iter = new PipelinedMapIterator<>(array.iterator(),(I)->I*2,2,5);
+	for(int i=0;i< 100;i++) {
+		Assert.assertEquals(iter.next().intValue(), i*2);
+		}
+	iter.close();
+	Assert.assertFalse(iter.hasNext());
+	}
+@Test(expectedExceptions=IllegalStateException.class)
+public void testError() {
+	final List<Integer> array = new ArrayList<>();
+	for(int i=0;i< 1_000;i++) array.add(i);
+	final PipelinedMapIterator<Integer,Integer> iter = new PipelinedMapIterator<>(array.iterator(),(I)->{
+		if(I==500) throw new IllegalStateException("boum");
+		return I;
+		},2,10);
+	while(iter.hasNext()) iter.next();
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.lindenb.jvarkit.util.picard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class GroupingSortingCollectionTest {
+	private static class Record {
+		final String key;
+		final int value;
+		final int order;
+		Record(final String key,final int value,final int order) {
+			this.key = key;
+			this.value = value;
+			this.order = order;
+			}
+		@Override
+		public String toString() {
+			return key+":"+value+":"+order;
+			}
+		}
+
+	private static class RecordCodec extends AbstractDataCodec<Record> {
+		@Override
+		public Record decode(final DataInputStream dis) throws IOException {
+			final String key;
+			try {
+				key = dis.readUTF();
+				}
+			catch(final IOException err) {
+				return null;
+				}
+			return new Record(key, dis.readInt(), dis.readInt());
+			}
+		@Override
+		public void encode(final DataOutputStream dos, final Record o) throws IOException {
+			dos.writeUTF(o.key);
+			dos.writeInt(o.value);
+			dos.writeInt(o.order);
+			}
+		@Override
+		public RecordCodec clone() {
+			return new RecordCodec();
+			}
+		}
+
+	@DataProvider(name="params")
+	public Object[][] createParams() {
+		return new Object[][] {
+			{100000,1,128},
+			{7,1,128},
+			{7,3,128},
+			{13,4,2},
+			{50,2,3}
+			};
+		}
+
+	@Test(dataProvider="params")
+	public void testGroups(final int maxRecordsInRam,final int nThreads,final int maxOpenRuns) throws IOException {
+		final Comparator<Record> groupCmp = (A,B)->A.key.compareTo(B.key);
+		final Comparator<Record> sortCmp = groupCmp.thenComparing((A,B)->Integer.compare(A.value, B.value));
+		final Path tmpDir = Files.createTempDirectory("tmp");
+		final Random rand = new Random(maxRecordsInRam);
+		final List<Record> expect = new ArrayList<>();
+		final GroupingSortingCollection<Record> c = new GroupingSortingCollection<>(
+				new RecordCodec(), sortCmp, groupCmp, maxRecordsInRam, tmpDir).
+				setThreads(nThreads).
+				setMaxOpenRuns(maxOpenRuns);
+		for(int i=0;i< 1000;++i) {
+			final Record rec = new Record("k"+rand.nextInt(30), rand.nextInt(10), i);
+			expect.add(rec);
+			c.add(rec);
+			}
+		c.doneAdding();
+		Assert.assertEquals(c.size(), 1000L);
+		/* the sort must be stable */
+		expect.sort(sortCmp);
+		final List<String> got = new ArrayList<>();
+		c.forEachGroup(G->{
+			Assert.assertFalse(G.isEmpty());
+			for(final Record rec:G) {
+				Assert.assertEquals(rec.key, G.get(0).key);
+				got.add(rec.toString());
+				}
+			});
+		c.cleanup();
+		Assert.assertEquals(got.size(), expect.size());
+		for(int i=0;i< got.size();i++) {
+			Assert.assertEquals(got.get(i), expect.get(i).toString());
+			}
+		try(Stream<Path> st= Files.list(tmpDir)) {
+			Assert.assertEquals(st.count(), 0L);
+			}
+		Files.delete(tmpDir);
+		}
+	}
@@ -0,0 +1,49 @@
+package com.github.lindenb.jvarkit.util.samtools;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReadNameFingerprintSetTest
+	{
+	@Test
+	public void testContains() {
+		final ReadNameFingerprintSet.Builder builder = new ReadNameFingerprintSet.Builder();
+		for(int i=0;i< 10_000;i+=2) builder.add("read"+i);
+		builder.add("read0");
+		final ReadNameFingerprintSet set = builder.make();
+		Assert.assertEquals(set.size(), 5_000);
+		for(int i=0;i< 10_000;i++) {
+			Assert.assertEquals(set.contains("read"+i), i%2==0);
+			}
+		}
+	@Test(timeOut=10_000)
+	public void testManyDuplicates() {
+		final ReadNameFingerprintSet.Builder builder = new ReadNameFingerprintSet.Builder();
+		for(int i=0;i< 1_000_000;i++) builder.add("read"+(i%3));
+		final ReadNameFingerprintSet set = builder.make();
+		Assert.assertEquals(set.size(), 3);
+		for(int i=0;i< 4;i++) {
+			Assert.assertEquals(set.contains("read"+i), i<3);
+			}
+		}
+	@Test
+	public void testCountAndRemove() {
+		final ReadNameFingerprintSet set = new ReadNameFingerprintSet.Builder().
+				add("r001").
+				add("r002").
+				make();
+		final int i1 = set.indexOf("r001");
+		final int i2 = set.indexOf("r002");
+		Assert.assertTrue(i1>=0);
+		Assert.assertTrue(i2>=0);
+		Assert.assertEquals(set.indexOf("r003"),-1);
+		Assert.assertEquals(set.incrementCount(i1),1);
+		Assert.assertEquals(set.incrementCount(i1),2);
+		set.remove(i1);
+		Assert.assertFalse(set.contains("r001"));
+		Assert.assertTrue(set.isRemoved(i1));
+		Assert.assertFalse(set.isEmpty());
+		set.remove(i2);
+		Assert.assertTrue(set.isEmpty());
+		}
+	}
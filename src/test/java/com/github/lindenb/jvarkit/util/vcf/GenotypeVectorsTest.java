@@ -0,0 +1,119 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestUtils;
+import com.github.lindenb.jvarkit.util.Pedigree;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+
+public class GenotypeVectorsTest extends TestUtils {
+
+	/** compare the vectors with the htsjdk genotypes */
+	private void assertSame(final GenotypeVectors gv,final GenotypeVectors.Variant row,final VariantContext ctx) {
+		for(int i=0;i< gv.getSampleCount();++i) {
+			final Genotype g = gv.getGenotype(ctx, i);
+			Assert.assertNotNull(g);
+			Assert.assertEquals(g.getSampleName(), gv.getSampleName(i));
+			Assert.assertEquals(row.getPloidy(i), g.getPloidy(), g.toString());
+			Assert.assertEquals(row.isCalled(i), g.isCalled(), g.toString());
+			Assert.assertEquals(row.isHomRef(i), g.isHomRef(), g.toString());
+			Assert.assertEquals(row.isFiltered(i), g.isFiltered(), g.toString());
+			for(int a=0;a< ctx.getNAlleles();++a) {
+				Assert.assertEquals(
+					row.countAllele(i, a),
+					g.isCalled()?g.countAllele(ctx.getAlleles().get(a)):GenotypeVectors.NO_CALL,
+					g.toString()
+					);
+				}
+			}
+		}
+
+	@Test(dataProvider="all-vcf-files")
+	public void testAllVcfs(final String inputFile) throws IOException {
+		final VCFFileReader r = new VCFFileReader(new File(inputFile),false);
+		final VCFHeader header = r.getFileHeader();
+		final GenotypeVectors gv = new GenotypeVectors(header, Collections.emptySet());
+		Assert.assertEquals(gv.getPersonIndexes().length, 0);
+		final CloseableIterator<VariantContext> iter = r.iterator();
+		while(iter.hasNext()) {
+			final VariantContext ctx = iter.next();
+			/* may be decoded from the text */
+			final GenotypeVectors.Variant row1 = gv.decode(ctx);
+			assertSame(gv,row1,ctx);
+			/* decoded from the htsjdk genotypes */
+			final VariantContext ctx2 = new VariantContextBuilder(ctx).
+					genotypes(GenotypesContext.copy(ctx.getGenotypes())).
+					make();
+			final GenotypeVectors.Variant row2 = gv.decode(ctx2);
+			Assert.assertFalse(row2.isDecodedFromText());
+			assertSame(gv,row2,ctx2);
+			}
+		iter.close();
+		r.close();
+		}
+
+	@Test
+	public void testText() throws IOException {
+		final File vcf = createTmpFile(".vcf");
+		final PrintWriter pw = new PrintWriter(vcf);
+		pw.println("##fileformat=VCFv4.2");
+		pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+		pw.println("##FORMAT=<ID=FT,Number=1,Type=String,Description=\"Genotype filter\">");
+		pw.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">");
+		pw.println("##contig=<ID=chr1,length=1000>");
+		pw.println("##Sample=<Family=F1,ID=S1,Father=0,Mother=0,Sex=1,Status=1>");
+		pw.println("##Sample=<Family=F1,ID=S3,Father=0,Mother=0,Sex=2,Status=0>");
+		pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\tS4\tS5");
+		pw.println("chr1\t10\t.\tA\tC,G\t.\t.\t.\tGT:FT:DP\t0/.\t./.:.:1\t1|2:PASS\t0/0:PASS:3\t2:LowQual");
+		pw.flush();
+		pw.close();
+		final VCFFileReader r = new VCFFileReader(vcf,false);
+		final VCFHeader header = r.getFileHeader();
+		final GenotypeVectors gv = new GenotypeVectors(header,
+				new Pedigree.CaseControlExtractor().extract(header));
+		Assert.assertEquals(gv.getCaseIndexes(), new int[] {0});
+		Assert.assertEquals(gv.getControlIndexes(), new int[] {2});
+		Assert.assertEquals(gv.getMaleIndexes(), new int[] {0});
+		Assert.assertEquals(gv.getFemaleIndexes(), new int[] {2});
+		Assert.assertTrue(gv.isMale(0));
+		Assert.assertFalse(gv.isMale(1));
+		final CloseableIterator<VariantContext> iter = r.iterator();
+		final VariantContext ctx = iter.next();
+		final GenotypeVectors.Variant row = gv.decode(ctx);
+		Assert.assertTrue(row.isDecodedFromText());
+		/* 0/. */
+		Assert.assertTrue(row.isCalled(0));
+		Assert.assertFalse(row.isHomRef(0));
+		Assert.assertEquals(row.countAllele(0, 0), 1);
+		Assert.assertEquals(row.getAlleleIndex(0, 1), GenotypeVectors.NO_CALL);
+		/* ./. */
+		Assert.assertFalse(row.isCalled(1));
+		Assert.assertEquals(row.getPloidy(1), 2);
+		Assert.assertEquals(row.countAllele(1, 1), GenotypeVectors.NO_CALL);
+		/* 1|2 */
+		Assert.assertEquals(row.getAlleleCounts(1), new int[] {0,GenotypeVectors.NO_CALL,1,0,0});
+		Assert.assertEquals(row.getAlleleCounts(ctx.getAlleles().get(2)), new int[] {0,GenotypeVectors.NO_CALL,1,0,1});
+		/* 0/0 */
+		Assert.assertTrue(row.isHomRef(3));
+		Assert.assertFalse(row.isFiltered(3));
+		/* haploid and filtered */
+		Assert.assertEquals(row.getPloidy(4), 1);
+		Assert.assertTrue(row.isFiltered(4));
+		assertSame(gv,row,ctx);
+		iter.close();
+		r.close();
+		}
+	}